@@ -0,0 +1,33 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.header.allocator.HostAllocatorSpec;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.allocator.HostScorerExtensionPoint;
+import org.zstack.header.host.HostVO;
+
+/**
+ * prefers hosts having a larger part of cpu free; the total cpu of a host already
+ * counts in the cpu over-provisioning ratio of the host
+ */
+public class AvailableCpuHostScorer implements HostScorerExtensionPoint {
+    public static final String NAME = "availableCpu";
+
+    @Autowired
+    private HostCapacityLedger ledger;
+
+    @Override
+    public String getHostScorerName() {
+        return NAME;
+    }
+
+    @Override
+    public double scoreHost(HostVO host, HostAllocatorSpec spec) {
+        HostCapacityVO cap = host.getCapacity();
+        if (cap.getTotalCpu() <= 0) {
+            return 0;
+        }
+
+        return (double) ledger.getAvailableCpu(cap) / cap.getTotalCpu();
+    }
+}
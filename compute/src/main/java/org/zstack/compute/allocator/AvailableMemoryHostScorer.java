@@ -0,0 +1,38 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.header.allocator.HostAllocatorSpec;
+import org.zstack.header.allocator.HostCapacityOverProvisioningManager;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.allocator.HostScorerExtensionPoint;
+import org.zstack.header.host.HostVO;
+
+/**
+ * prefers hosts having a larger part of memory free after the memory over-provisioning ratio
+ * is applied; a negative weight makes it prefer the fullest hosts that still fit, which packs
+ * vms and keeps large blocks of memory free on other hosts
+ */
+public class AvailableMemoryHostScorer implements HostScorerExtensionPoint {
+    public static final String NAME = "availableMemory";
+
+    @Autowired
+    private HostCapacityLedger ledger;
+    @Autowired
+    private HostCapacityOverProvisioningManager ratioMgr;
+
+    @Override
+    public String getHostScorerName() {
+        return NAME;
+    }
+
+    @Override
+    public double scoreHost(HostVO host, HostAllocatorSpec spec) {
+        HostCapacityVO cap = host.getCapacity();
+        if (cap.getTotalMemory() <= 0) {
+            return 0;
+        }
+
+        long available = ratioMgr.calculateHostAvailableMemoryByRatio(host.getUuid(), ledger.getAvailableMemory(cap));
+        return (double) available / cap.getTotalMemory();
+    }
+}
@@ -11,6 +11,7 @@ import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.host.HostInventory;
 import org.zstack.header.host.HostVO;
+import org.zstack.header.vm.VmInstanceConstant.VmOperation;
 import org.zstack.header.vm.VmInstanceInventory;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
@@ -34,8 +35,12 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
 
     private List<HostVO> result = null;
     private boolean isDryRun;
+    private boolean isBatch;
     private ReturnValueCompletion<HostInventory> completion;
     private ReturnValueCompletion<List<HostInventory>> dryRunCompletion;
+    private ReturnValueCompletion<List<HostInventory>> batchCompletion;
+    // hosts reserved for vms of the batch so far, kept when allocation moves to the next page
+    private List<HostInventory> batchResult = new ArrayList<HostInventory>();
 
     private AbstractHostAllocatorFlow lastFlow;
     private HostAllocationPaginationInfo paginationInfo;
@@ -48,6 +53,10 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
     private PluginRegistry pluginRgty;
     @Autowired
     private HostCapacityOverProvisioningManager ratioMgr;
+    @Autowired
+    private HostCapacityLedger ledger;
+    @Autowired
+    private HostVmCounter vmCounter;
 
     public HostAllocatorSpec getAllocationSpec() {
         return allocationSpec;
@@ -74,31 +83,91 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
     }
 
     void reserveCapacity(final String hostUuid, final long cpu, final long memory) {
-        HostCapacityUpdater updater = new HostCapacityUpdater(hostUuid);
-        updater.run(new HostCapacityUpdaterRunnable() {
-            @Override
-            public HostCapacityVO call(HostCapacityVO cap) {
-                long availCpu = cap.getAvailableCpu() - cpu;
-                if (availCpu < 0) {
-                    throw new UnableToReserveHostCapacityException(String.format("no enough CPU[%s] on the host[uuid:%s]", cpu, hostUuid));
-                }
+        ledger.reserve(hostUuid, cpu, ratioMgr.calculateMemoryByRatio(hostUuid, memory));
+    }
 
-                cap.setAvailableCpu(availCpu);
+    private void countVm(String hostUuid) {
+        countVm(allocationSpec.getVmInstance().getUuid(), hostUuid);
+    }
 
-                long availMemory = cap.getAvailableMemory() - ratioMgr.calculateMemoryByRatio(hostUuid, memory);
-                if (availMemory < 0) {
-                    throw new UnableToReserveHostCapacityException(String.format("no enough memory[%s] on the host[uuid:%s]", memory, hostUuid));
-                }
+    private void countVm(String vmUuid, String hostUuid) {
+        // the vm is put on the host before it changes state, count it now so vms allocated
+        // right after don't see the host as empty
+        String op = allocationSpec.getVmOperation();
+        if (VmOperation.NewCreate.toString().equals(op) || VmOperation.Start.toString().equals(op)) {
+            vmCounter.setVmHost(vmUuid, hostUuid);
+        }
+    }
 
-                cap.setAvailableMemory(availMemory);
+    protected void marshalResult() {
+        Collections.shuffle(result);
+    }
 
-                return cap;
+    private void returnError(ErrorCode err) {
+        if (isDryRun) {
+            dryRunCompletion.fail(err);
+        } else if (isBatch) {
+            if (batchResult.isEmpty()) {
+                batchCompletion.fail(err);
+            } else {
+                // no more pages, return the vms placed on the previous pages
+                batchCompletion.success(batchResult);
             }
-        });
+        } else {
+            completion.fail(err);
+        }
     }
 
-    protected void marshalResult() {
-        Collections.shuffle(result);
+    private void placeBatch() {
+        // spread the vms over the candidates in the order the flows left them
+        List<HostVO> hosts = new ArrayList<HostVO>(result);
+        List<HostInventory> ret = batchResult;
+        int placedBefore = ret.size();
+        Map<String, Integer> limits = (Map<String, Integer>) allocationSpec.getExtraData().get(HostAllocatorConstant.BATCH_HOST_VM_LIMITS);
+        Map<String, Integer> placed = new HashMap<String, Integer>();
+        int cursor = 0;
+        while (ret.size() < allocationSpec.getBatchSize() && !hosts.isEmpty()) {
+            cursor = cursor % hosts.size();
+            HostVO h = hosts.get(cursor);
+            Integer limit = limits == null ? null : limits.get(h.getUuid());
+            int num = placed.containsKey(h.getUuid()) ? placed.get(h.getUuid()) : 0;
+            if (limit != null && num >= limit) {
+                logger.debug(String.format("[Host Allocation]: host[uuid:%s] can take no more than %s vms of the batch, remove it from candidates", h.getUuid(), limit));
+                hosts.remove(cursor);
+                continue;
+            }
+
+            try {
+                reserveCapacity(h.getUuid(), allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity());
+                // the i-th host returned is for the i-th vm of the batch
+                countVm(allocationSpec.getBatchVmInstances().get(ret.size()).getUuid(), h.getUuid());
+                ret.add(HostInventory.valueOf(h));
+                placed.put(h.getUuid(), num + 1);
+                cursor ++;
+            } catch (UnableToReserveHostCapacityException e) {
+                logger.debug(String.format("[Host Allocation]: %s on host[uuid:%s], remove it from candidates", e.getMessage(), h.getUuid()));
+                hosts.remove(cursor);
+            }
+        }
+
+        logger.debug(String.format("[Host Allocation]: successfully reserved cpu[%s], memory[%s bytes] for %s of %s vms on %s hosts",
+                allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity(), ret.size() - placedBefore, allocationSpec.getBatchSize(), result.size()));
+
+        if (ret.size() == allocationSpec.getBatchSize()) {
+            batchCompletion.success(ret);
+        } else if (paginationInfo != null) {
+            // keep the reservations made so far, and place the rest of vms on the next pages
+            logger.debug(String.format("[Host Allocation]: %s of %s vms are not placed on candidate hosts; because of pagination is enabled, allocation will start over",
+                    allocationSpec.getBatchSize() - ret.size(), allocationSpec.getBatchSize()));
+            if (ret.size() == placedBefore) {
+                seriesErrorWhenPagination.add(String.format("{unable to reserve cpu[%s], memory[%s bytes] on all candidate hosts}", allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity()));
+            }
+            startOver();
+        } else if (!ret.isEmpty()) {
+            batchCompletion.success(ret);
+        } else {
+            batchCompletion.fail(errf.instantiateErrorCode(HostAllocatorError.NO_AVAILABLE_HOST, "reservation on cpu/memory failed on all candidates host"));
+        }
     }
 
     private void done() {
@@ -110,7 +179,7 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
                     dryRunCompletion.fail(errorCode);
                 }
             } else {
-                completion.fail(errorCode);
+                returnError(errorCode);
             }
             return;
         }
@@ -118,11 +187,7 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
 
         // in case a wrong flow returns an empty result set
         if (result.isEmpty()) {
-            if (isDryRun) {
-                dryRunCompletion.fail(errf.instantiateErrorCode(HostAllocatorError.NO_AVAILABLE_HOST, "host allocation flow doesn't indicate any details"));
-            } else {
-                completion.fail(errf.instantiateErrorCode(HostAllocatorError.NO_AVAILABLE_HOST, "host allocation flow doesn't indicate any details"));
-            }
+            returnError(errf.instantiateErrorCode(HostAllocatorError.NO_AVAILABLE_HOST, "host allocation flow doesn't indicate any details"));
             return;
         }
 
@@ -133,12 +198,23 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
 
         marshalResult();
 
+        if (isBatch) {
+            try {
+                placeBatch();
+            } catch (Throwable t) {
+                logger.debug(t.getClass().getName(), t);
+                batchCompletion.fail(errf.throwableToInternalError(t));
+            }
+            return;
+        }
+
         try {
             for (HostVO h : result) {
                 try {
                     reserveCapacity(h.getUuid(), allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity());
                     logger.debug(String.format("[Host Allocation]: successfully reserved cpu[%s], memory[%s bytes] on host[uuid:%s] for vm[uuid:%s]",
                             allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity(), h.getUuid(), allocationSpec.getVmInstance().getUuid()));
+                    countVm(h.getUuid());
                     completion.success(HostInventory.valueOf(h));
                     return;
                 } catch (UnableToReserveHostCapacityException e) {
@@ -185,7 +261,7 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
             }
         } catch (Throwable t) {
             logger.warn("unhandled throwable", t);
-            completion.fail(errf.throwableToInternalError(t));
+            returnError(errf.throwableToInternalError(t));
         }
     }
 
@@ -215,6 +291,13 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
         start();
     }
 
+    private void allocateBatch(ReturnValueCompletion<List<HostInventory>> completion) {
+        isDryRun = false;
+        isBatch = true;
+        this.batchCompletion = completion;
+        start();
+    }
+
     @Override
     public void next(List<HostVO> candidates) {
         DebugUtils.Assert(candidates != null, "cannot pass null to next() method");
@@ -279,4 +362,10 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
         this.allocationSpec = spec;
         dryRun(completion);
     }
+
+    @Override
+    public void allocateBatch(HostAllocatorSpec spec, ReturnValueCompletion<List<HostInventory>> completion) {
+        this.allocationSpec = spec;
+        allocateBatch(completion);
+    }
 }
@@ -20,4 +20,12 @@ public class HostAllocatorGlobalConfig {
     public static GlobalConfig USE_PAGINATION = new GlobalConfig(CATEGORY, "usePagination");
     @GlobalConfigValidation
     public static GlobalConfig PAGINATION_LIMIT = new GlobalConfig(CATEGORY, "paginationLimit");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig CAPACITY_LEDGER_FLUSH_INTERVAL = new GlobalConfig(CATEGORY, "capacityLedger.flushInterval");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig CAPACITY_LEDGER_RECONCILE_INTERVAL = new GlobalConfig(CATEGORY, "capacityLedger.reconcileInterval");
+    @GlobalConfigValidation
+    public static GlobalConfig SCORING_WEIGHTS = new GlobalConfig(CATEGORY, "scoring.weights");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig SCORING_VM_COUNT_SYNC_INTERVAL = new GlobalConfig(CATEGORY, "scoring.vmCountSyncInterval");
 }
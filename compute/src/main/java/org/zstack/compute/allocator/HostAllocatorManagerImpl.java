@@ -24,6 +24,7 @@ import org.zstack.header.message.Message;
 import org.zstack.header.vm.VmAbnormalLifeCycleExtensionPoint;
 import org.zstack.header.vm.VmAbnormalLifeCycleStruct;
 import org.zstack.header.vm.VmAbnormalLifeCycleStruct.VmAbnormalLifeCycleOperation;
+import org.zstack.header.vm.VmInstanceInventory;
 import org.zstack.header.vm.VmInstanceState;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.Utils;
@@ -56,6 +57,8 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
     private HostCpuOverProvisioningManager cpuRatioMgr;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private HostCapacityLedger ledger;
 
 	@Override
     @MessageSafe
@@ -68,7 +71,9 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
 	}
 
 	private void handleLocalMessage(Message msg) {
-		if (msg instanceof AllocateHostMsg) {
+		if (msg instanceof AllocateHostsMsg) {
+			handle((AllocateHostsMsg) msg);
+		} else if (msg instanceof AllocateHostMsg) {
 			handle((AllocateHostMsg) msg);
 		} else if (msg instanceof ReportHostCapacityMessage) {
 			handle((ReportHostCapacityMessage) msg);
@@ -170,6 +175,8 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
                 }
             });
         }
+
+        ledger.reload(hostUuids);
     }
 
     private void handle(ReturnHostCapacityMsg msg) {
@@ -227,10 +234,11 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
             }
             dbf.update(vo);
         }
+
+        ledger.reload(list(msg.getHostUuid()));
     }
 
-	private void handle(final AllocateHostMsg msg) {
-        HostAllocatorSpec spec = HostAllocatorSpec.fromAllocationMsg(msg);
+    private HostAllocatorStrategy getHostAllocatorStrategy(HostAllocatorSpec spec, AllocateHostMsg msg) {
         String allocatorStrategyType = null;
         for (HostAllocatorStrategyExtensionPoint ext : pluginRgty.getExtensionList(HostAllocatorStrategyExtensionPoint.class)) {
             allocatorStrategyType = ext.getHostAllocatorStrategyName(spec);
@@ -247,6 +255,36 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         HostAllocatorStrategyFactory factory = getHostAllocatorStrategyFactory(HostAllocatorStrategyType.valueOf(allocatorStrategyType));
         HostAllocatorStrategy strategy = factory.getHostAllocatorStrategy();
         factory.marshalSpec(spec, msg);
+        return strategy;
+    }
+
+    private void handle(final AllocateHostsMsg msg) {
+        final List<VmInstanceInventory> vms = msg.getVmInstances();
+        HostAllocatorSpec spec = HostAllocatorSpec.fromAllocationMsg(msg);
+        spec.setBatchVmInstances(vms);
+        HostAllocatorStrategy strategy = getHostAllocatorStrategy(spec, msg);
+
+        final AllocateHostsReply reply = new AllocateHostsReply();
+        strategy.allocateBatch(spec, new ReturnValueCompletion<List<HostInventory>>(msg) {
+            @Override
+            public void success(List<HostInventory> hosts) {
+                for (int i = 0; i < hosts.size(); i++) {
+                    reply.getHosts().put(vms.get(i).getUuid(), hosts.get(i));
+                }
+                bus.reply(msg, reply);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                reply.setError(errorCode);
+                bus.reply(msg, reply);
+            }
+        });
+    }
+
+	private void handle(final AllocateHostMsg msg) {
+        HostAllocatorSpec spec = HostAllocatorSpec.fromAllocationMsg(msg);
+        HostAllocatorStrategy strategy = getHostAllocatorStrategy(spec, msg);
 
         if (msg.isDryRun()) {
             final AllocateHostDryRunReply reply = new AllocateHostDryRunReply();
@@ -400,31 +438,7 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
 	
 	@Override
     public void returnCapacity(final String hostUuid, final long cpu, final long memory) {
-        new HostCapacityUpdater(hostUuid).run(new HostCapacityUpdaterRunnable() {
-            @Override
-            public HostCapacityVO call(HostCapacityVO cap) {
-                long availCpu = cap.getAvailableCpu() + cpu;
-                availCpu = availCpu > cap.getTotalCpu() ? cap.getTotalCpu() : availCpu;
-                /*
-                if (availCpu > cap.getTotalCpu()) {
-                    throw new CloudRuntimeException(String.format("invalid cpu capcity of the host[uuid:%s], available cpu[%s]" +
-                            " is larger than the total cpu[%s]", hostUuid, availCpu, cap.getTotalCpu()));
-                }
-                */
-
-                cap.setAvailableCpu(availCpu);
-
-                long availMemory = cap.getAvailableMemory() + ratioMgr.calculateMemoryByRatio(hostUuid, memory);
-                if (availMemory > cap.getTotalMemory()) {
-                    throw new CloudRuntimeException(String.format("invalid memory capacity of host[uuid:%s], available memory[%s] is greater than total memory[%s]",
-                            hostUuid, availMemory, cap.getTotalMemory()));
-                }
-
-                cap.setAvailableMemory(availMemory);
-
-                return cap;
-            }
-        });
+        ledger.release(hostUuid, cpu, ratioMgr.calculateMemoryByRatio(hostUuid, memory));
     }
 
     @Override
@@ -28,12 +28,15 @@ public class HostCapacityAllocatorFlow extends AbstractHostAllocatorFlow {
     private HostCapacityOverProvisioningManager ratioMgr;
     @Autowired
     private HostCpuOverProvisioningManager cpuRatioMgr;
+    @Autowired
+    private HostCapacityLedger ledger;
 
 	private List<HostVO> allocate(List<HostVO> vos, long cpu, long memory) {
         List<HostVO> ret = new ArrayList<HostVO>();
         for (HostVO hvo : vos) {
-            if (hvo.getCapacity().getAvailableCpu() >= cpu
-                    && ratioMgr.calculateHostAvailableMemoryByRatio(hvo.getUuid(), hvo.getCapacity().getAvailableMemory()) >= memory) {
+            // the ledger is more up to date than the host snapshot for hosts managed by us
+            if (ledger.getAvailableCpu(hvo.getCapacity()) >= cpu
+                    && ratioMgr.calculateHostAvailableMemoryByRatio(hvo.getUuid(), ledger.getAvailableMemory(hvo.getCapacity())) >= memory) {
                 ret.add(hvo);
             }
         }
@@ -0,0 +1,491 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.allocator.UnableToReserveHostCapacityException;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Query;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps cpu/memory availability of hosts managed by this management node in memory.
+ *
+ * A reservation on such a host is admitted by compare-and-set on the in-memory counters, the change
+ * is kept as a pending delta and applied to HostCapacityVO by a single relative update, either right
+ * away(capacityLedger.flushInterval = 0) or in batch by a periodic flush. The counters are reconciled
+ * with the database every capacityLedger.reconcileInterval seconds and whenever the capacity of a host
+ * is recalculated or reported. Hosts managed by other management nodes are reserved by a conditional
+ * update in the database.
+ *
+ * A periodic flush that finds the database has less capacity than admitted can't undo the reservations,
+ * as their vms are already placed; it writes the delta anyway and the host is overcommitted until the
+ * vms go away.
+ */
+public class HostCapacityLedger implements Component {
+    private static final CLogger logger = Utils.getLogger(HostCapacityLedger.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+    @Autowired
+    private ThreadFacade thdf;
+
+    private class Entry {
+        final String uuid;
+        volatile long totalCpu;
+        volatile long totalMemory;
+        // capacity in the database the last time we wrote or read it
+        final AtomicLong dbAvailableCpu = new AtomicLong();
+        final AtomicLong dbAvailableMemory = new AtomicLong();
+        // reserved(positive) or returned(negative) but not yet written to the database;
+        // only decreased by flush() which holds the entry's monitor
+        final AtomicLong pendingCpu = new AtomicLong();
+        final AtomicLong pendingMemory = new AtomicLong();
+        // increased by every flush, guarded by the entry's monitor
+        long version;
+        // written since the last reconcile, whether by the periodic flush or write through
+        volatile boolean flushed;
+
+        Entry(String uuid) {
+            this.uuid = uuid;
+        }
+
+        long availableCpu() {
+            return dbAvailableCpu.get() - pendingCpu.get();
+        }
+
+        long availableMemory() {
+            return dbAvailableMemory.get() - pendingMemory.get();
+        }
+
+        boolean isDirty() {
+            return pendingCpu.get() != 0 || pendingMemory.get() != 0;
+        }
+
+        void load(long totalCpu, long availableCpu, long totalMemory, long availableMemory) {
+            this.totalCpu = totalCpu;
+            this.totalMemory = totalMemory;
+            dbAvailableCpu.set(availableCpu);
+            dbAvailableMemory.set(availableMemory);
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private Future<Void> task;
+    private long lastFlush;
+    private long lastReconcile;
+
+    private boolean isOwnedByUs(String hostUuid) {
+        try {
+            return !destMaker.getManagementNodesInHashRing().isEmpty() && destMaker.isManagedByUs(hostUuid);
+        } catch (CloudRuntimeException e) {
+            return false;
+        }
+    }
+
+    private Entry getEntry(String hostUuid) {
+        if (!isOwnedByUs(hostUuid)) {
+            return null;
+        }
+
+        Entry e = entries.get(hostUuid);
+        if (e != null) {
+            return e;
+        }
+
+        HostCapacityVO cap = dbf.findByUuid(hostUuid, HostCapacityVO.class);
+        if (cap == null) {
+            return null;
+        }
+
+        e = new Entry(hostUuid);
+        e.load(cap.getTotalCpu(), cap.getAvailableCpu(), cap.getTotalMemory(), cap.getAvailableMemory());
+        Entry old = entries.putIfAbsent(hostUuid, e);
+        return old == null ? e : old;
+    }
+
+    private boolean isWriteThrough() {
+        return HostAllocatorGlobalConfig.CAPACITY_LEDGER_FLUSH_INTERVAL.value(Long.class) <= 0;
+    }
+
+    public void reserve(String hostUuid, long cpu, long memory) {
+        Entry e = getEntry(hostUuid);
+        if (e == null) {
+            reserveInDatabase(hostUuid, cpu, memory);
+            return;
+        }
+
+        for (;;) {
+            long p = e.pendingCpu.get();
+            if (e.dbAvailableCpu.get() - p - cpu < 0) {
+                throw new UnableToReserveHostCapacityException(String.format("no enough CPU[%s] on the host[uuid:%s]", cpu, hostUuid));
+            }
+
+            if (e.pendingCpu.compareAndSet(p, p + cpu)) {
+                break;
+            }
+        }
+
+        for (;;) {
+            long p = e.pendingMemory.get();
+            if (e.dbAvailableMemory.get() - p - memory < 0) {
+                e.pendingCpu.addAndGet(-cpu);
+                throw new UnableToReserveHostCapacityException(String.format("no enough memory[%s] on the host[uuid:%s]", memory, hostUuid));
+            }
+
+            if (e.pendingMemory.compareAndSet(p, p + memory)) {
+                break;
+            }
+        }
+
+        if (isWriteThrough()) {
+            try {
+                flush(e);
+            } catch (RuntimeException re) {
+                e.pendingCpu.addAndGet(-cpu);
+                e.pendingMemory.addAndGet(-memory);
+                throw re;
+            }
+        }
+    }
+
+    public void release(final String hostUuid, final long cpu, final long memory) {
+        Entry e = getEntry(hostUuid);
+        if (e == null) {
+            releaseInDatabase(hostUuid, cpu, memory);
+            return;
+        }
+
+        for (;;) {
+            long p = e.pendingMemory.get();
+            long avail = e.dbAvailableMemory.get() - p + memory;
+            if (avail > e.totalMemory) {
+                throw new CloudRuntimeException(String.format("invalid memory capacity of host[uuid:%s], available memory[%s] is greater than total memory[%s]",
+                        hostUuid, avail, e.totalMemory));
+            }
+
+            if (e.pendingMemory.compareAndSet(p, p - memory)) {
+                break;
+            }
+        }
+
+        for (;;) {
+            long p = e.pendingCpu.get();
+            long np = p - cpu;
+            // available cpu never goes beyond the total
+            np = Math.max(np, e.dbAvailableCpu.get() - e.totalCpu);
+            if (e.pendingCpu.compareAndSet(p, np)) {
+                break;
+            }
+        }
+
+        if (isWriteThrough()) {
+            flush(e);
+        }
+    }
+
+    /**
+     * @return available cpu of the host known by this ledger, or the value in the given capacity
+     * if the host is not managed by this management node
+     */
+    public long getAvailableCpu(HostCapacityVO cap) {
+        Entry e = entries.get(cap.getUuid());
+        return e == null ? cap.getAvailableCpu() : e.availableCpu();
+    }
+
+    /**
+     * @return available memory of the host known by this ledger, or the value in the given capacity
+     * if the host is not managed by this management node
+     */
+    public long getAvailableMemory(HostCapacityVO cap) {
+        Entry e = entries.get(cap.getUuid());
+        return e == null ? cap.getAvailableMemory() : e.availableMemory();
+    }
+
+    @Transactional
+    private int updateAvailableCapacity(String hostUuid, long cpu, long memory, boolean force) {
+        // other management nodes may have taken capacity of the host before taking over it, never go below zero
+        // unless forced
+        String sql = "update HostCapacityVO cap set cap.availableCpu = cap.availableCpu - :cpu, cap.availableMemory = cap.availableMemory - :memory" +
+                " where cap.uuid = :uuid";
+        if (!force) {
+            sql += " and cap.availableCpu >= :cpu and cap.availableMemory >= :memory";
+        }
+        Query q = dbf.getEntityManager().createQuery(sql);
+        q.setParameter("cpu", cpu);
+        q.setParameter("memory", memory);
+        q.setParameter("uuid", hostUuid);
+        return q.executeUpdate();
+    }
+
+    private void flush(Entry e) {
+        flush(e, false);
+    }
+
+    /**
+     * @param force write the pending delta even if the database doesn't have enough capacity
+     */
+    private void flush(Entry e, boolean force) {
+        synchronized (e) {
+            long cpu = e.pendingCpu.get();
+            long memory = e.pendingMemory.get();
+            if (cpu == 0 && memory == 0) {
+                return;
+            }
+
+            if (updateAvailableCapacity(e.uuid, cpu, memory, force) == 0) {
+                HostCapacityVO cap = dbf.findByUuid(e.uuid, HostCapacityVO.class);
+                if (cap == null) {
+                    logger.warn(String.format("[Host Capacity] unable to update capacity for the host[uuid:%s]. It may have been deleted, cannot find it in database",
+                            e.uuid));
+                    entries.remove(e.uuid, e);
+                    return;
+                }
+
+                // the database has less than we thought, take its values so the pending delta is admitted against them
+                e.load(cap.getTotalCpu(), cap.getAvailableCpu(), cap.getTotalMemory(), cap.getAvailableMemory());
+                e.version ++;
+                if (cap.getAvailableCpu() < cpu) {
+                    throw new UnableToReserveHostCapacityException(String.format("no enough CPU[%s] on the host[uuid:%s]", cpu, e.uuid));
+                } else {
+                    throw new UnableToReserveHostCapacityException(String.format("no enough memory[%s] on the host[uuid:%s]", memory, e.uuid));
+                }
+            }
+
+            // lower the known capacity before clearing the pending delta, so readers never see more than there is
+            e.dbAvailableCpu.addAndGet(-cpu);
+            e.dbAvailableMemory.addAndGet(-memory);
+            e.pendingCpu.addAndGet(-cpu);
+            e.pendingMemory.addAndGet(-memory);
+            e.version ++;
+            e.flushed = true;
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("[Host Capacity] flushed capacity of the host[uuid:%s], available cpu: %s, available memory: %s",
+                    e.uuid, e.dbAvailableCpu.get(), e.dbAvailableMemory.get()));
+        }
+    }
+
+    @Transactional
+    private void reserveInDatabase(String hostUuid, long cpu, long memory) {
+        String sql = "update HostCapacityVO cap set cap.availableCpu = cap.availableCpu - :cpu, cap.availableMemory = cap.availableMemory - :memory" +
+                " where cap.uuid = :uuid and cap.availableCpu >= :cpu and cap.availableMemory >= :memory";
+        Query q = dbf.getEntityManager().createQuery(sql);
+        q.setParameter("cpu", cpu);
+        q.setParameter("memory", memory);
+        q.setParameter("uuid", hostUuid);
+        if (q.executeUpdate() == 1) {
+            return;
+        }
+
+        HostCapacityVO cap = dbf.getEntityManager().find(HostCapacityVO.class, hostUuid);
+        if (cap == null) {
+            logger.warn(String.format("[Host Capacity] unable to update capacity for the host[uuid:%s]. It may have been deleted, cannot find it in database",
+                    hostUuid));
+        } else if (cap.getAvailableCpu() < cpu) {
+            throw new UnableToReserveHostCapacityException(String.format("no enough CPU[%s] on the host[uuid:%s]", cpu, hostUuid));
+        } else {
+            throw new UnableToReserveHostCapacityException(String.format("no enough memory[%s] on the host[uuid:%s]", memory, hostUuid));
+        }
+    }
+
+    private void releaseInDatabase(final String hostUuid, final long cpu, final long memory) {
+        new HostCapacityUpdater(hostUuid).run(new HostCapacityUpdaterRunnable() {
+            @Override
+            public HostCapacityVO call(HostCapacityVO cap) {
+                long availCpu = cap.getAvailableCpu() + cpu;
+                availCpu = availCpu > cap.getTotalCpu() ? cap.getTotalCpu() : availCpu;
+                cap.setAvailableCpu(availCpu);
+
+                long availMemory = cap.getAvailableMemory() + memory;
+                if (availMemory > cap.getTotalMemory()) {
+                    throw new CloudRuntimeException(String.format("invalid memory capacity of host[uuid:%s], available memory[%s] is greater than total memory[%s]",
+                            hostUuid, availMemory, cap.getTotalMemory()));
+                }
+
+                cap.setAvailableMemory(availMemory);
+                return cap;
+            }
+        });
+    }
+
+    @Transactional(readOnly = true)
+    private List<Tuple> findCapacities(Collection<String> hostUuids) {
+        String sql = "select cap.uuid, cap.totalCpu, cap.availableCpu, cap.totalMemory, cap.availableMemory from HostCapacityVO cap where cap.uuid in (:uuids)";
+        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        q.setParameter("uuids", hostUuids);
+        return q.getResultList();
+    }
+
+    private void reconcile(Collection<Entry> es) {
+        if (es.isEmpty()) {
+            return;
+        }
+
+        Map<String, Long> versions = new HashMap<String, Long>();
+        for (Entry e : es) {
+            synchronized (e) {
+                versions.put(e.uuid, e.version);
+                e.flushed = false;
+            }
+        }
+
+        List<Tuple> ts = findCapacities(versions.keySet());
+        Set<String> found = new HashSet<String>();
+        for (Tuple t : ts) {
+            String uuid = t.get(0, String.class);
+            found.add(uuid);
+            Entry e = entries.get(uuid);
+            if (e == null) {
+                continue;
+            }
+
+            synchronized (e) {
+                // flushed after we read the database, the values we read are stale; the next round will catch up
+                if (!versions.containsKey(uuid) || versions.get(uuid) != e.version) {
+                    continue;
+                }
+
+                e.load(t.get(1, Long.class), t.get(2, Long.class), t.get(3, Long.class), t.get(4, Long.class));
+            }
+        }
+
+        for (Entry e : es) {
+            if (!found.contains(e.uuid)) {
+                entries.remove(e.uuid, e);
+            }
+        }
+    }
+
+    /**
+     * re-read capacity of hosts from the database after it's changed not through this ledger
+     */
+    public void reload(Collection<String> hostUuids) {
+        List<Entry> es = new ArrayList<Entry>();
+        for (String huuid : hostUuids) {
+            Entry e = entries.get(huuid);
+            if (e != null) {
+                es.add(e);
+            }
+        }
+
+        reconcile(es);
+    }
+
+    private void flushAll(boolean force) {
+        long now = System.currentTimeMillis();
+        boolean flushTime = force || now - lastFlush >= TimeUnit.SECONDS.toMillis(HostAllocatorGlobalConfig.CAPACITY_LEDGER_FLUSH_INTERVAL.value(Long.class));
+        boolean reconcileTime = now - lastReconcile >= TimeUnit.SECONDS.toMillis(HostAllocatorGlobalConfig.CAPACITY_LEDGER_RECONCILE_INTERVAL.value(Long.class));
+
+        if (flushTime) {
+            lastFlush = now;
+            for (Entry e : entries.values()) {
+                if (!e.isDirty()) {
+                    continue;
+                }
+
+                try {
+                    flush(e);
+                } catch (UnableToReserveHostCapacityException ue) {
+                    // the reservations are acknowledged and their vms placed, retrying never helps
+                    logger.error(String.format("[Host Capacity] %s when flushing capacity of the host[uuid:%s], the host is overcommitted;" +
+                            " write the reserved capacity anyway", ue.getMessage(), e.uuid));
+                    try {
+                        flush(e, true);
+                    } catch (Throwable t) {
+                        logger.warn(String.format("unable to flush capacity of the host[uuid:%s], will retry later", e.uuid), t);
+                    }
+                } catch (Throwable t) {
+                    logger.warn(String.format("unable to flush capacity of the host[uuid:%s], will retry later", e.uuid), t);
+                }
+            }
+        }
+
+        // including hosts written through by reservations when capacityLedger.flushInterval = 0
+        List<Entry> flushed = new ArrayList<Entry>();
+        for (Entry e : entries.values()) {
+            if (e.flushed) {
+                flushed.add(e);
+            }
+        }
+
+        for (Entry e : entries.values()) {
+            // the host has been taken over by another management node
+            if (!isOwnedByUs(e.uuid)) {
+                synchronized (e) {
+                    if (!e.isDirty()) {
+                        entries.remove(e.uuid, e);
+                    }
+                }
+            }
+        }
+
+        if (reconcileTime) {
+            lastReconcile = now;
+            reconcile(new ArrayList<Entry>(entries.values()));
+        } else {
+            // pick up changes other management nodes made on hosts we just wrote
+            reconcile(flushed);
+        }
+    }
+
+    @Override
+    public boolean start() {
+        lastReconcile = System.currentTimeMillis();
+        task = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return 1;
+            }
+
+            @Override
+            public String getName() {
+                return "host-capacity-ledger";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    flushAll(false);
+                } catch (Throwable t) {
+                    logger.warn("unhandled exception when flushing host capacity", t);
+                }
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (task != null) {
+            task.cancel(true);
+        }
+
+        flushAll(true);
+        return true;
+    }
+}
@@ -0,0 +1,174 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.componentloader.PluginRegistry;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigException;
+import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
+import org.zstack.core.config.GlobalConfigValidatorExtensionPoint;
+import org.zstack.header.Component;
+import org.zstack.header.allocator.HostAllocatorSpec;
+import org.zstack.header.allocator.HostScorerExtensionPoint;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.host.HostVO;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+
+/**
+ * Ranks candidate hosts by the weighted sum of scores given by HostScorerExtensionPoint.
+ *
+ * Weights are configured by hostAllocator.scoring.weights as a comma separated list of
+ * scorer-name:weight, e.g. "vmCount:1,availableMemory:-0.5"; scorers not in the list are not called.
+ * Scores of each scorer are min-max normalized over the candidates, so weights are comparable
+ * whatever the unit of a scorer is.
+ */
+public class HostScoringManager implements Component {
+    private static final CLogger logger = Utils.getLogger(HostScoringManager.class);
+
+    @Autowired
+    private PluginRegistry pluginRgty;
+
+    private Map<String, HostScorerExtensionPoint> scorers = new HashMap<String, HostScorerExtensionPoint>();
+    private volatile Map<HostScorerExtensionPoint, Double> weights = new LinkedHashMap<HostScorerExtensionPoint, Double>();
+
+    private Map<String, Double> parseWeights(String value) {
+        Map<String, Double> ret = new LinkedHashMap<String, Double>();
+        for (String s : value.split(",")) {
+            s = s.trim();
+            if (s.isEmpty()) {
+                continue;
+            }
+
+            String[] pair = s.split(":");
+            if (pair.length != 2) {
+                throw new GlobalConfigException(String.format("%s must be a comma separated list of scorer-name:weight, but got %s",
+                        HostAllocatorGlobalConfig.SCORING_WEIGHTS.getCanonicalName(), value));
+            }
+
+            String name = pair[0].trim();
+            if (!scorers.containsKey(name)) {
+                throw new GlobalConfigException(String.format("no host scorer[%s] found, available scorers are %s",
+                        name, scorers.keySet()));
+            }
+
+            try {
+                ret.put(name, Double.valueOf(pair[1].trim()));
+            } catch (NumberFormatException e) {
+                throw new GlobalConfigException(String.format("weight of host scorer[%s] must be a number, but got %s", name, pair[1]));
+            }
+        }
+
+        return ret;
+    }
+
+    private void loadWeights(String value) {
+        Map<HostScorerExtensionPoint, Double> ws = new LinkedHashMap<HostScorerExtensionPoint, Double>();
+        for (Map.Entry<String, Double> e : parseWeights(value).entrySet()) {
+            if (e.getValue() != 0) {
+                ws.put(scorers.get(e.getKey()), e.getValue());
+            }
+        }
+        weights = ws;
+    }
+
+    /**
+     * @return the candidates from the most preferred to the least preferred; candidates having the
+     * same score are in random order
+     */
+    public List<HostVO> rank(List<HostVO> candidates, HostAllocatorSpec spec) {
+        List<HostVO> hosts = new ArrayList<HostVO>(candidates);
+        Collections.shuffle(hosts);
+
+        Map<HostScorerExtensionPoint, Double> ws = weights;
+        if (ws.isEmpty() || hosts.size() == 1) {
+            return hosts;
+        }
+
+        final Map<HostVO, Double> total = new HashMap<HostVO, Double>(hosts.size());
+        double[] scores = new double[hosts.size()];
+        for (Map.Entry<HostScorerExtensionPoint, Double> e : ws.entrySet()) {
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            for (int i = 0; i < hosts.size(); i++) {
+                scores[i] = e.getKey().scoreHost(hosts.get(i), spec);
+                min = Math.min(min, scores[i]);
+                max = Math.max(max, scores[i]);
+            }
+
+            if (max == min) {
+                // the scorer doesn't tell the candidates apart
+                continue;
+            }
+
+            for (int i = 0; i < hosts.size(); i++) {
+                HostVO h = hosts.get(i);
+                Double t = total.get(h);
+                double s = e.getValue() * (scores[i] - min) / (max - min);
+                total.put(h, t == null ? s : t + s);
+            }
+        }
+
+        if (total.isEmpty()) {
+            return hosts;
+        }
+
+        // stable sort, keep the shuffled order for candidates scored the same
+        Collections.sort(hosts, new Comparator<HostVO>() {
+            @Override
+            public int compare(HostVO o1, HostVO o2) {
+                return Double.compare(total.get(o2), total.get(o1));
+            }
+        });
+
+        if (logger.isTraceEnabled()) {
+            StringBuilder sb = new StringBuilder("[Host Allocation]: host scores:");
+            for (HostVO h : hosts) {
+                sb.append(String.format("\nhost[uuid:%s, name:%s]: %s", h.getUuid(), h.getName(), total.get(h)));
+            }
+            logger.trace(sb.toString());
+        }
+
+        return hosts;
+    }
+
+    @Override
+    public boolean start() {
+        for (HostScorerExtensionPoint ext : pluginRgty.getExtensionList(HostScorerExtensionPoint.class)) {
+            HostScorerExtensionPoint old = scorers.get(ext.getHostScorerName());
+            if (old != null) {
+                throw new CloudRuntimeException(String.format("duplicate HostScorerExtensionPoint[%s, %s] for name[%s]",
+                        old.getClass().getName(), ext.getClass().getName(), ext.getHostScorerName()));
+            }
+            scorers.put(ext.getHostScorerName(), ext);
+        }
+
+        HostAllocatorGlobalConfig.SCORING_WEIGHTS.installValidateExtension(new GlobalConfigValidatorExtensionPoint() {
+            @Override
+            public void validateGlobalConfig(String category, String name, String oldValue, String newValue) throws GlobalConfigException {
+                parseWeights(newValue);
+            }
+        });
+        HostAllocatorGlobalConfig.SCORING_WEIGHTS.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                loadWeights(newConfig.value());
+            }
+        });
+
+        try {
+            loadWeights(HostAllocatorGlobalConfig.SCORING_WEIGHTS.value());
+        } catch (GlobalConfigException e) {
+            logger.warn(String.format("invalid %s, fall back to the default value[%s]; %s", HostAllocatorGlobalConfig.SCORING_WEIGHTS.getCanonicalName(),
+                    HostAllocatorGlobalConfig.SCORING_WEIGHTS.getDefaultValue(), e.getMessage()));
+            loadWeights(HostAllocatorGlobalConfig.SCORING_WEIGHTS.getDefaultValue());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
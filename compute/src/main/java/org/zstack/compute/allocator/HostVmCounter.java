@@ -0,0 +1,178 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.vm.VmCanonicalEvents;
+import org.zstack.header.vm.VmCanonicalEvents.VmStateChangedData;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the number of vms on each host in memory, so host scorers don't need to aggregate VmInstanceVO.
+ *
+ * The counters are loaded from the database on start, moved by vm state change events and placements
+ * made by host allocators, and re-loaded every hostAllocator.scoring.vmCountSyncInterval seconds to
+ * correct changes that don't come with an event(e.g. a vm removed from the database directly).
+ */
+public class HostVmCounter implements Component {
+    private static final CLogger logger = Utils.getLogger(HostVmCounter.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private ThreadFacade thdf;
+
+    // vm uuid -> host uuid, guarded by this
+    private Map<String, String> vmHosts = new HashMap<String, String>();
+    private final ConcurrentMap<String, AtomicInteger> hostVms = new ConcurrentHashMap<String, AtomicInteger>();
+    private Future<Void> syncTask;
+
+    public int getVmCount(String hostUuid) {
+        AtomicInteger cnt = hostVms.get(hostUuid);
+        return cnt == null ? 0 : cnt.get();
+    }
+
+    private AtomicInteger getCounter(String hostUuid) {
+        AtomicInteger cnt = hostVms.get(hostUuid);
+        if (cnt == null) {
+            cnt = new AtomicInteger();
+            AtomicInteger old = hostVms.putIfAbsent(hostUuid, cnt);
+            cnt = old == null ? cnt : old;
+        }
+        return cnt;
+    }
+
+    /**
+     * @param hostUuid the host the vm is on now, null if the vm is on no host
+     */
+    public synchronized void setVmHost(String vmUuid, String hostUuid) {
+        String old = hostUuid == null ? vmHosts.remove(vmUuid) : vmHosts.put(vmUuid, hostUuid);
+        if (hostUuid != null && hostUuid.equals(old)) {
+            return;
+        }
+
+        if (old != null) {
+            getCounter(old).decrementAndGet();
+        }
+        if (hostUuid != null) {
+            getCounter(hostUuid).incrementAndGet();
+        }
+    }
+
+    @Transactional(readOnly = true)
+    private List<Tuple> findVmHosts() {
+        String sql = "select vm.uuid, vm.hostUuid from VmInstanceVO vm where vm.hostUuid is not null";
+        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        return q.getResultList();
+    }
+
+    private void sync() {
+        List<Tuple> ts = findVmHosts();
+        Map<String, String> vms = new HashMap<String, String>(ts.size());
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Tuple t : ts) {
+            String hostUuid = t.get(1, String.class);
+            vms.put(t.get(0, String.class), hostUuid);
+            Integer cnt = counts.get(hostUuid);
+            counts.put(hostUuid, cnt == null ? 1 : cnt + 1);
+        }
+
+        synchronized (this) {
+            vmHosts = vms;
+            for (Map.Entry<String, AtomicInteger> e : hostVms.entrySet()) {
+                if (!counts.containsKey(e.getKey())) {
+                    e.getValue().set(0);
+                }
+            }
+            for (Map.Entry<String, Integer> e : counts.entrySet()) {
+                getCounter(e.getKey()).set(e.getValue());
+            }
+        }
+    }
+
+    private void startSyncTask() {
+        if (syncTask != null) {
+            syncTask.cancel(true);
+        }
+
+        syncTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return HostAllocatorGlobalConfig.SCORING_VM_COUNT_SYNC_INTERVAL.value(Long.class);
+            }
+
+            @Override
+            public String getName() {
+                return "host-vm-counter-sync";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    sync();
+                } catch (Throwable t) {
+                    logger.warn("unhandled exception when syncing vm number of hosts", t);
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean start() {
+        evtf.on(VmCanonicalEvents.VM_FULL_STATE_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                VmStateChangedData d = (VmStateChangedData) data;
+                String hostUuid = d.getInventory() == null || VmInstanceState.Expunging.toString().equals(d.getNewState())
+                        ? null : d.getInventory().getHostUuid();
+                setVmHost(d.getVmUuid(), hostUuid);
+            }
+        });
+
+        HostAllocatorGlobalConfig.SCORING_VM_COUNT_SYNC_INTERVAL.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                startSyncTask();
+            }
+        });
+
+        sync();
+        startSyncTask();
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (syncTask != null) {
+            syncTask.cancel(true);
+        }
+        return true;
+    }
+}
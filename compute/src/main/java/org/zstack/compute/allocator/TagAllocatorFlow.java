@@ -5,8 +5,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
-import org.zstack.core.db.SimpleQuery;
-import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.allocator.*;
@@ -15,17 +13,20 @@ import org.zstack.header.configuration.DiskOfferingVO;
 import org.zstack.header.configuration.InstanceOfferingVO;
 import org.zstack.header.host.HostVO;
 import org.zstack.header.tag.SystemTagInventory;
-import org.zstack.header.tag.SystemTagVO;
-import org.zstack.header.tag.SystemTagVO_;
+import org.zstack.header.tag.TagInventory;
 import org.zstack.header.vm.VmInstance;
 import org.zstack.header.vm.VmInstanceVO;
+import org.zstack.tag.TagManager;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import static org.zstack.utils.CollectionDSL.list;
+
 /**
  */
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
@@ -36,6 +37,8 @@ public class TagAllocatorFlow extends AbstractHostAllocatorFlow {
     private DatabaseFacade dbf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private TagManager tagMgr;
 
     private List<InstanceOfferingTagAllocatorExtensionPoint> instanceOfferingExtensions;
     private List<DiskOfferingTagAllocatorExtensionPoint> diskOfferingExtensions;
@@ -45,17 +48,25 @@ public class TagAllocatorFlow extends AbstractHostAllocatorFlow {
         diskOfferingExtensions = pluginRgty.getExtensionList(DiskOfferingTagAllocatorExtensionPoint.class);
     }
 
+    private List<TagInventory> getSystemTags(List<String> resourceUuids, Class resourceType) {
+        List<TagInventory> ret = new ArrayList<TagInventory>();
+        for (List<SystemTagInventory> tags : tagMgr.getSystemTags(resourceUuids).values()) {
+            for (SystemTagInventory tag : tags) {
+                if (tag.getResourceType().equals(resourceType.getSimpleName())) {
+                    ret.add(tag);
+                }
+            }
+        }
+        return ret;
+    }
+
     @Override
     public void allocate() {
         throwExceptionIfIAmTheFirstFlow();
 
         if (!instanceOfferingExtensions.isEmpty()) {
-            SimpleQuery<SystemTagVO> q  = dbf.createQuery(SystemTagVO.class);
-            q.add(SystemTagVO_.resourceType, Op.EQ, VmInstanceVO.class.getSimpleName());
-            q.add(SystemTagVO_.resourceUuid, Op.EQ, spec.getVmInstance().getUuid());
-            List<SystemTagVO> tvos = q.list();
-            if (!tvos.isEmpty()) {
-                List tinvs = SystemTagInventory.valueOf(tvos);
+            List<TagInventory> tinvs = getSystemTags(list(spec.getVmInstance().getUuid()), VmInstanceVO.class);
+            if (!tinvs.isEmpty()) {
                 List<HostVO> tmp = candidates;
                 for (InstanceOfferingTagAllocatorExtensionPoint extp : instanceOfferingExtensions) {
                     List<HostVO> ret = extp.allocateHost(tinvs, tmp, spec);
@@ -86,12 +97,8 @@ public class TagAllocatorFlow extends AbstractHostAllocatorFlow {
                 }
             });
 
-            SimpleQuery<SystemTagVO> q  = dbf.createQuery(SystemTagVO.class);
-            q.add(SystemTagVO_.resourceType, Op.EQ, DiskOfferingVO.class.getSimpleName());
-            q.add(SystemTagVO_.resourceUuid, Op.IN, diskOfferingUuids);
-            List<SystemTagVO> tvos = q.list();
-            if (!tvos.isEmpty()) {
-                List tinvs = SystemTagInventory.valueOf(tvos);
+            List<TagInventory> tinvs = getSystemTags(diskOfferingUuids, DiskOfferingVO.class);
+            if (!tinvs.isEmpty()) {
                 List<HostVO> tmp = candidates;
                 for (DiskOfferingTagAllocatorExtensionPoint extp : diskOfferingExtensions) {
                     List<HostVO> ret = extp.allocateHost(tinvs, tmp, spec);
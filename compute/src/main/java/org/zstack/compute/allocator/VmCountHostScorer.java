@@ -0,0 +1,26 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.header.allocator.HostAllocatorSpec;
+import org.zstack.header.allocator.HostScorerExtensionPoint;
+import org.zstack.header.host.HostVO;
+
+/**
+ * prefers hosts running fewer vms
+ */
+public class VmCountHostScorer implements HostScorerExtensionPoint {
+    public static final String NAME = "vmCount";
+
+    @Autowired
+    private HostVmCounter vmCounter;
+
+    @Override
+    public String getHostScorerName() {
+        return NAME;
+    }
+
+    @Override
+    public double scoreHost(HostVO host, HostAllocatorSpec spec) {
+        return -vmCounter.getVmCount(host.getUuid());
+    }
+}
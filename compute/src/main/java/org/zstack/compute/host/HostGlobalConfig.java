@@ -20,6 +20,10 @@ public class HostGlobalConfig {
     public static GlobalConfig HOST_TRACK_PARALLELISM_DEGREE = new GlobalConfig(CATEGORY, "ping.parallelismDegree");
     @GlobalConfigValidation(numberGreaterThan = 0)
     public static GlobalConfig PING_HOST_INTERVAL = new GlobalConfig(CATEGORY, "ping.interval");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig PING_FAILURE_PROBE_INTERVAL = new GlobalConfig(CATEGORY, "ping.failureProbeInterval");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig PING_HEALTHY_BACKOFF_MAX_FACTOR = new GlobalConfig(CATEGORY, "ping.healthyBackoffMaxFactor");
     @GlobalConfigValidation
     public static GlobalConfig IGNORE_ERROR_ON_MAINTENANCE_MODE = new GlobalConfig(CATEGORY, "maintenanceMode.ignoreError");
     @GlobalConfigValidation(numberGreaterThan = 0, numberLessThan = Integer.MAX_VALUE)
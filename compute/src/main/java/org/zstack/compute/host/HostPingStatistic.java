@@ -0,0 +1,43 @@
+package org.zstack.compute.host;
+
+import java.beans.ConstructorProperties;
+import java.util.Map;
+
+/**
+ */
+public class HostPingStatistic {
+    private long pingNum;
+    private long failureNum;
+    private long lastLatency;
+    private long currentInterval;
+    private Map<String, Long> latencyHistogram;
+
+    @ConstructorProperties({"pingNum", "failureNum", "lastLatency", "currentInterval", "latencyHistogram"})
+    public HostPingStatistic(long pingNum, long failureNum, long lastLatency, long currentInterval, Map<String, Long> latencyHistogram) {
+        this.pingNum = pingNum;
+        this.failureNum = failureNum;
+        this.lastLatency = lastLatency;
+        this.currentInterval = currentInterval;
+        this.latencyHistogram = latencyHistogram;
+    }
+
+    public long getPingNum() {
+        return pingNum;
+    }
+
+    public long getFailureNum() {
+        return failureNum;
+    }
+
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    public long getCurrentInterval() {
+        return currentInterval;
+    }
+
+    public Map<String, Long> getLatencyHistogram() {
+        return latencyHistogram;
+    }
+}
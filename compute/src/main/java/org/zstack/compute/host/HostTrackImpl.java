@@ -10,6 +10,7 @@ import org.zstack.core.config.GlobalConfig;
 import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
@@ -21,18 +22,25 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
  */
-public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener, Component {
+public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener, Component, HostTrackerMXBean {
     private final static CLogger logger = Utils.getLogger(HostTrackImpl.class);
 
+    // upper bounds of ping latency histogram buckets, in milliseconds
+    private static final long[] PING_LATENCY_BUCKETS = {10, 50, 100, 500, 1000, 5000};
+    // a healthy host's ping interval grows by one ping.interval every this many successful pings
+    private static final int PING_BACKOFF_STEP = 10;
+
     private final List<String> hostUuids = Collections.synchronizedList(new ArrayList<String>());
     private Set<String> hostInTracking = Collections.synchronizedSet(new HashSet<String>());
     private Future<Void> trackerThread = null;
     private final List<String> inReconnectingHost = Collections.synchronizedList(new ArrayList<String>());
+    private final Map<String, HostPingState> pingStates = new ConcurrentHashMap<String, HostPingState>();
 
     @Autowired
     private DatabaseFacade dbf;
@@ -42,16 +50,77 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     private CloudBus bus;
     @Autowired
     private ThreadFacade thdf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    private class HostPingState {
+        long nextPingTime;
+        long pingStartTime;
+        long currentInterval;
+        int consecutiveSuccesses;
+        long pingNum;
+        long failureNum;
+        long lastLatency;
+        long[] latencyHistogram = new long[PING_LATENCY_BUCKETS.length + 1];
+
+        synchronized void schedule(long pingInterval, long now, String hostUuid) {
+            currentInterval = pingInterval;
+            // spread hosts uniformly over the interval so they are not pinged at the same instant
+            nextPingTime = now + (hostUuid.hashCode() & Integer.MAX_VALUE) % pingInterval;
+        }
+
+        synchronized void done(boolean success, long now) {
+            long latency = now - pingStartTime;
+            int i = 0;
+            while (i < PING_LATENCY_BUCKETS.length && latency > PING_LATENCY_BUCKETS[i]) {
+                i ++;
+            }
+            latencyHistogram[i] ++;
+            lastLatency = latency;
+            pingNum ++;
+
+            long pingInterval = getPingInterval();
+            if (success) {
+                consecutiveSuccesses ++;
+                int factor = Math.min(HostGlobalConfig.PING_HEALTHY_BACKOFF_MAX_FACTOR.value(Integer.class), 1 + consecutiveSuccesses / PING_BACKOFF_STEP);
+                currentInterval = pingInterval * factor;
+                // keep the host's phase in the interval
+                nextPingTime += currentInterval;
+                if (nextPingTime <= now) {
+                    nextPingTime = now + currentInterval;
+                }
+            } else {
+                failureNum ++;
+                consecutiveSuccesses = 0;
+                currentInterval = Math.min(pingInterval, TimeUnit.SECONDS.toMillis(HostGlobalConfig.PING_FAILURE_PROBE_INTERVAL.value(Long.class)));
+                nextPingTime = now + currentInterval;
+            }
+        }
+
+        synchronized HostPingStatistic toStatistic() {
+            Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+            for (int i = 0; i < PING_LATENCY_BUCKETS.length; i++) {
+                histogram.put(String.format("<=%sms", PING_LATENCY_BUCKETS[i]), latencyHistogram[i]);
+            }
+            histogram.put(String.format(">%sms", PING_LATENCY_BUCKETS[PING_LATENCY_BUCKETS.length - 1]), latencyHistogram[PING_LATENCY_BUCKETS.length]);
+            return new HostPingStatistic(pingNum, failureNum, lastLatency, currentInterval, histogram);
+        }
+    }
+
+    private long getPingInterval() {
+        return TimeUnit.SECONDS.toMillis(HostGlobalConfig.PING_HOST_INTERVAL.value(Long.class));
+    }
 
     private class Tracker implements PeriodicTask {
         @Override
         public TimeUnit getTimeUnit() {
-            return TimeUnit.SECONDS;
+            return TimeUnit.MILLISECONDS;
         }
 
         @Override
         public long getInterval() {
-            return HostGlobalConfig.PING_HOST_INTERVAL.value(Long.class);
+            // the tracker wakes up several times per ping interval and only pings hosts that are due
+            return Math.max(100, Math.min(1000, getPingInterval() / 10));
         }
 
         @Override
@@ -59,6 +128,17 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             return "hostTrack-for-managementNode-" + Platform.getManagementServerId();
         }
 
+        private void recordPing(String hostUuid, MessageReply reply) {
+            HostPingState state = pingStates.get(hostUuid);
+            if (state == null) {
+                // the host is no longer tracked
+                return;
+            }
+
+            boolean success = reply.isSuccess() && ((PingHostReply) reply).isConnected();
+            state.done(success, System.currentTimeMillis());
+        }
+
         private void handleReply(final String hostUuid, MessageReply reply) {
             if (!reply.isSuccess()) {
                 logger.warn(String.format("[Host Tracker]: unable track host[uuid:%s], %s", hostUuid, reply.getError()));
@@ -103,6 +183,8 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         @Override
         public void run() {
             try {
+                long now = System.currentTimeMillis();
+                long pingInterval = getPingInterval();
                 List<PingHostMsg> msgs;
                 synchronized (hostUuids) {
                     msgs = new ArrayList<PingHostMsg>();
@@ -111,6 +193,20 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
                             continue;
                         }
 
+                        HostPingState state = pingStates.get(huuid);
+                        if (state == null) {
+                            state = new HostPingState();
+                            state.schedule(pingInterval, now, huuid);
+                            pingStates.put(huuid, state);
+                        }
+
+                        synchronized (state) {
+                            if (state.nextPingTime > now) {
+                                continue;
+                            }
+                            state.pingStartTime = now;
+                        }
+
                         PingHostMsg msg = new PingHostMsg();
                         msg.setHostUuid(huuid);
                         bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, huuid);
@@ -127,6 +223,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
                     @Override
                     public void run(NeedReplyMessage msg, MessageReply reply) {
                         PingHostMsg pmsg = (PingHostMsg)msg;
+                        recordPing(pmsg.getHostUuid(), reply);
                         handleReply(pmsg.getHostUuid(), reply);
                         hostInTracking.remove(pmsg.getHostUuid());
                     }
@@ -150,6 +247,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     public void untrackHost(String hostUuid) {
         synchronized (hostUuids) {
             hostUuids.remove(hostUuid);
+            pingStates.remove(hostUuid);
             logger.debug(String.format("stop tracking host[uuid:%s]", hostUuid));
         }
     }
@@ -171,6 +269,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         synchronized (hostUuids) {
             for (String huuid : huuids) {
                 hostUuids.remove(huuid);
+                pingStates.remove(huuid);
                 logger.debug(String.format("stop tracking host[uuid:%s]", huuid));
             }
         }
@@ -197,6 +296,8 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
                 offset += 10000;
             }
+
+            pingStates.keySet().retainAll(hostUuids);
         }
     }
 
@@ -225,6 +326,12 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             trackerThread.cancel(true);
         }
 
+        long now = System.currentTimeMillis();
+        long pingInterval = getPingInterval();
+        for (Map.Entry<String, HostPingState> e : pingStates.entrySet()) {
+            e.getValue().schedule(pingInterval, now, e.getKey());
+        }
+
         trackerThread = thdf.submitPeriodicTask(new Tracker());
     }
 
@@ -244,6 +351,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     @Override
     public boolean start() {
         setupTracker();
+        jmxf.registerBean("HostTracker", this);
         return true;
     }
 
@@ -252,4 +360,13 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         trackerThread.cancel(true);
         return true;
     }
+
+    @Override
+    public Map<String, HostPingStatistic> getHostPingStatistics() {
+        Map<String, HostPingStatistic> ret = new HashMap<String, HostPingStatistic>();
+        for (Map.Entry<String, HostPingState> e : pingStates.entrySet()) {
+            ret.put(e.getKey(), e.getValue().toStatistic());
+        }
+        return ret;
+    }
 }
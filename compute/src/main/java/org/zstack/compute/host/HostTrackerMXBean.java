@@ -0,0 +1,9 @@
+package org.zstack.compute.host;
+
+import java.util.Map;
+
+/**
+ */
+public interface HostTrackerMXBean {
+    Map<String, HostPingStatistic> getHostPingStatistics();
+}
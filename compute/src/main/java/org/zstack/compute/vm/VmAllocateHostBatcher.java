@@ -0,0 +1,183 @@
+package org.zstack.compute.vm;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.allocator.*;
+import org.zstack.header.configuration.DiskOfferingInventory;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.tag.TagManager;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups host allocation requests of new vms that have identical allocation requirements and arrive within
+ * allocateHost.batchWindow milliseconds, and allocates hosts for each group by one AllocateHostsMsg, so the
+ * allocator flows compute the candidates once per group instead of once per vm.
+ */
+public class VmAllocateHostBatcher {
+    private static final CLogger logger = Utils.getLogger(VmAllocateHostBatcher.class);
+
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private ErrorFacade errf;
+    @Autowired
+    private TagManager tagMgr;
+
+    private class Request {
+        DesignatedAllocateHostMsg msg;
+        ReturnValueCompletion<HostInventory> completion;
+    }
+
+    private final Map<String, List<Request>> batches = new HashMap<String, List<Request>>();
+
+    public boolean isEnabled() {
+        return VmGlobalConfig.ALLOCATE_HOST_BATCH_WINDOW.value(Long.class) > 0;
+    }
+
+    private String getKey(DesignatedAllocateHostMsg msg) {
+        List<String> diskOfferingUuids = new ArrayList<String>();
+        for (DiskOfferingInventory d : msg.getDiskOfferings()) {
+            diskOfferingUuids.add(d.getUuid());
+        }
+
+        VmInstanceInventory vm = msg.getVmInstance();
+        // allocator flows read system tags of the first vm of a batch only, vms with different tags
+        // can't share a batch
+        List<String> sysTags = new ArrayList<String>(tagMgr.findSystemTags(vm.getUuid()));
+        Collections.sort(sysTags);
+
+        return String.format("%s-%s-%s-%s-%s-%s-%s-%s-%s-%s-%s-%s-%s-%s-%s-%s", msg.getAllocatorStrategy(), msg.getVmOperation(),
+                msg.getZoneUuid(), msg.getClusterUuid(), msg.getHostUuid(), msg.getCpuCapacity(), msg.getMemoryCapacity(),
+                msg.getDiskSize(), msg.getImage() == null ? null : msg.getImage().getUuid(), msg.getL3NetworkUuids(),
+                diskOfferingUuids, msg.getAvoidHostUuids(), msg.isAllowNoL3Networks(), vm.getHypervisorType(), vm.getInstanceOfferingUuid(),
+                sysTags);
+    }
+
+    public void allocate(DesignatedAllocateHostMsg msg, ReturnValueCompletion<HostInventory> completion) {
+        final String key = getKey(msg);
+        Request req = new Request();
+        req.msg = msg;
+        req.completion = completion;
+
+        boolean schedule;
+        synchronized (batches) {
+            List<Request> reqs = batches.get(key);
+            schedule = reqs == null;
+            if (schedule) {
+                reqs = new ArrayList<Request>();
+                batches.put(key, reqs);
+            }
+            reqs.add(req);
+        }
+
+        if (schedule) {
+            thdf.submitTimeoutTask(new Runnable() {
+                @Override
+                public void run() {
+                    flush(key);
+                }
+            }, TimeUnit.MILLISECONDS, VmGlobalConfig.ALLOCATE_HOST_BATCH_WINDOW.value(Long.class));
+        }
+    }
+
+    private void flush(String key) {
+        List<Request> reqs;
+        synchronized (batches) {
+            reqs = batches.remove(key);
+        }
+
+        if (reqs == null) {
+            return;
+        }
+
+        int max = VmGlobalConfig.ALLOCATE_HOST_MAX_BATCH_SIZE.value(Integer.class);
+        for (int i = 0; i < reqs.size(); i += max) {
+            List<Request> group = reqs.subList(i, Math.min(i + max, reqs.size()));
+            try {
+                if (group.size() == 1) {
+                    allocateOne(group.get(0));
+                } else {
+                    allocateBatch(new ArrayList<Request>(group));
+                }
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception when allocating hosts for %s vms", group.size()), t);
+                for (Request r : group) {
+                    r.completion.fail(errf.throwableToInternalError(t));
+                }
+            }
+        }
+    }
+
+    private void allocateOne(final Request req) {
+        bus.send(req.msg, new CloudBusCallBack(req.completion) {
+            @Override
+            public void run(MessageReply reply) {
+                if (reply.isSuccess()) {
+                    req.completion.success(((AllocateHostReply) reply).getHost());
+                } else {
+                    req.completion.fail(reply.getError());
+                }
+            }
+        });
+    }
+
+    private void allocateBatch(final List<Request> group) {
+        DesignatedAllocateHostMsg first = group.get(0).msg;
+        AllocateHostsMsg msg = new AllocateHostsMsg();
+        msg.setZoneUuid(first.getZoneUuid());
+        msg.setClusterUuid(first.getClusterUuid());
+        msg.setHostUuid(first.getHostUuid());
+        msg.setCpuCapacity(first.getCpuCapacity());
+        msg.setMemoryCapacity(first.getMemoryCapacity());
+        msg.setDiskSize(first.getDiskSize());
+        msg.setAllocatorStrategy(first.getAllocatorStrategy());
+        msg.setAvoidHostUuids(first.getAvoidHostUuids());
+        msg.setL3NetworkUuids(first.getL3NetworkUuids());
+        msg.setImage(first.getImage());
+        msg.setVmOperation(first.getVmOperation());
+        msg.setDiskOfferings(first.getDiskOfferings());
+        msg.setAllowNoL3Networks(first.isAllowNoL3Networks());
+        msg.setVmInstance(first.getVmInstance());
+        for (Request r : group) {
+            msg.getVmInstances().add(r.msg.getVmInstance());
+        }
+        msg.setServiceId(first.getServiceId());
+        msg.setTimeout(first.getTimeout());
+
+        logger.debug(String.format("[Host Allocation]: allocate hosts for %s vms in one batch", group.size()));
+        bus.send(msg, new CloudBusCallBack() {
+            @Override
+            public void run(MessageReply reply) {
+                if (!reply.isSuccess()) {
+                    for (Request r : group) {
+                        r.completion.fail(reply.getError());
+                    }
+                    return;
+                }
+
+                AllocateHostsReply areply = reply.castReply();
+                for (Request r : group) {
+                    HostInventory host = areply.getHosts().get(r.msg.getVmInstance().getUuid());
+                    if (host != null) {
+                        r.completion.success(host);
+                    } else {
+                        r.completion.fail(errf.instantiateErrorCode(HostAllocatorError.NO_AVAILABLE_HOST,
+                                String.format("reservation on cpu/memory failed on all candidates host for vm[uuid:%s]", r.msg.getVmInstance().getUuid())));
+                    }
+                }
+            }
+        });
+    }
+}
@@ -11,15 +11,18 @@ import org.zstack.core.logging.Log;
 import org.zstack.header.allocator.*;
 import org.zstack.header.configuration.DiskOfferingInventory;
 import org.zstack.header.configuration.DiskOfferingVO;
+import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.core.workflow.Flow;
 import org.zstack.header.core.workflow.FlowRollback;
 import org.zstack.header.core.workflow.FlowTrigger;
+import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.host.HostInventory;
 import org.zstack.header.image.ImageConstant.ImageMediaType;
 import org.zstack.header.image.ImageInventory;
 import org.zstack.header.message.MessageReply;
 import org.zstack.header.network.l3.L3NetworkInventory;
 import org.zstack.header.vm.VmInstanceConstant;
+import org.zstack.header.vm.VmInstanceConstant.VmOperation;
 import org.zstack.header.vm.VmInstanceSpec;
 import org.zstack.header.vm.VmInstanceVO;
 import org.zstack.utils.CollectionUtils;
@@ -37,6 +40,8 @@ public class VmAllocateHostFlow implements Flow {
     protected CloudBus bus;
     @Autowired
     protected ErrorFacade errf;
+    @Autowired
+    protected VmAllocateHostBatcher batcher;
 
     private long getTotalDataDiskSize(VmInstanceSpec spec) {
         long size = 0;
@@ -46,7 +51,7 @@ public class VmAllocateHostFlow implements Flow {
         return size;
     }
 
-    private AllocateHostMsg prepareMsg(Map<String, Object> ctx) {
+    private DesignatedAllocateHostMsg prepareMsg(Map<String, Object> ctx) {
         VmInstanceSpec spec = (VmInstanceSpec) ctx.get(VmInstanceConstant.Params.VmInstanceSpec.toString());
 
         DesignatedAllocateHostMsg msg = new DesignatedAllocateHostMsg();
@@ -99,26 +104,43 @@ public class VmAllocateHostFlow implements Flow {
     @Override
     public void run(final FlowTrigger chain, Map data) {
         final VmInstanceSpec spec = (VmInstanceSpec) data.get(VmInstanceConstant.Params.VmInstanceSpec.toString());
-        AllocateHostMsg msg = this.prepareMsg(data);
+        DesignatedAllocateHostMsg msg = this.prepareMsg(data);
 
         new Log(spec.getVmInventory().getUuid()).log(VmLabels.VM_START_ALLOCATE_HOST);
 
+        final ReturnValueCompletion<HostInventory> completion = new ReturnValueCompletion<HostInventory>(chain) {
+            @Override
+            public void success(HostInventory host) {
+                spec.setDestHost(host);
+
+                // update the vm's host uuid so even if the management node died later and the vm's state
+                // is stuck in Starting, we know which host it's created on and can check its state on the host
+                VmInstanceVO vmvo = dbf.findByUuid(spec.getVmInventory().getUuid(), VmInstanceVO.class);
+                vmvo.setHostUuid(spec.getDestHost().getUuid());
+                dbf.update(vmvo);
+
+                chain.next();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                chain.fail(errorCode);
+            }
+        };
+
+        if (spec.getCurrentVmOperation() == VmOperation.NewCreate && batcher.isEnabled()) {
+            batcher.allocate(msg, completion);
+            return;
+        }
+
         bus.send(msg, new CloudBusCallBack(chain) {
             @Override
             public void run(MessageReply reply) {
                 if (reply.isSuccess()) {
                     AllocateHostReply areply = (AllocateHostReply) reply;
-                    spec.setDestHost(areply.getHost());
-
-                    // update the vm's host uuid so even if the management node died later and the vm's state
-                    // is stuck in Starting, we know which host it's created on and can check its state on the host
-                    VmInstanceVO vmvo = dbf.findByUuid(spec.getVmInventory().getUuid(), VmInstanceVO.class);
-                    vmvo.setHostUuid(spec.getDestHost().getUuid());
-                    dbf.update(vmvo);
-
-                    chain.next();
+                    completion.success(areply.getHost());
                 } else {
-                    chain.fail(reply.getError());
+                    completion.fail(reply.getError());
                 }
             }
         });
@@ -19,4 +19,8 @@ public class VmGlobalConfig {
     public static GlobalConfig VM_EXPUNGE_PERIOD = new GlobalConfig(CATEGORY, "expungePeriod");
     @GlobalConfigValidation(numberGreaterThan = 0)
     public static GlobalConfig VM_EXPUNGE_INTERVAL = new GlobalConfig(CATEGORY, "expungeInterval");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig ALLOCATE_HOST_BATCH_WINDOW = new GlobalConfig(CATEGORY, "allocateHost.batchWindow");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig ALLOCATE_HOST_MAX_BATCH_SIZE = new GlobalConfig(CATEGORY, "allocateHost.maxBatchSize");
 }
@@ -19,9 +19,13 @@ import org.zstack.utils.logging.CLogger;
 
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.zstack.utils.CollectionDSL.list;
 
@@ -39,19 +43,45 @@ public abstract class VmTracer {
     @Autowired
     private EventFacade evtf;
 
+    /**
+     * vm states last reported by a host, the base incremental syncs are applied to
+     */
+    private static class HostVmStates {
+        long generation;
+        long lastFullSyncTime;
+        Map<String, VmInstanceState> states;
+    }
+
+    private Map<String, HostVmStates> hostVmStates = new ConcurrentHashMap<String, HostVmStates>();
+
     private class Tracer {
         String hostUuid;
         Map<String, VmInstanceState> hostSideStates;
         Map<String, VmInstanceState> mgmtSideStates;
+        // vms to trace; null means all vms on the host
+        Collection<String> vmUuids;
 
         @Transactional(readOnly = true)
         private void buildManagementServerSideVmStates() {
             mgmtSideStates = new HashMap<String, VmInstanceState>();
+            if (vmUuids != null && vmUuids.isEmpty()) {
+                return;
+            }
 
-            String sql = "select vm.uuid, vm.state from VmInstanceVO vm where vm.hostUuid = :huuid or (vm.hostUuid is null and vm.lastHostUuid = :huuid)" +
-                    " and vm.state not in (:vmstates)";
+            String sql;
+            if (vmUuids == null) {
+                sql = "select vm.uuid, vm.state from VmInstanceVO vm where vm.hostUuid = :huuid or (vm.hostUuid is null and vm.lastHostUuid = :huuid)" +
+                        " and vm.state not in (:vmstates)";
+            } else {
+                sql = "select vm.uuid, vm.state from VmInstanceVO vm where vm.uuid in (:uuids)" +
+                        " and (vm.hostUuid = :huuid or (vm.hostUuid is null and vm.lastHostUuid = :huuid))" +
+                        " and vm.state not in (:vmstates)";
+            }
             TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
             q.setParameter("huuid", hostUuid);
+            if (vmUuids != null) {
+                q.setParameter("uuids", vmUuids);
+            }
             q.setParameter("vmstates", list(VmInstanceState.Destroyed, VmInstanceState.Destroying));
             List<Tuple> ts = q.getResultList();
 
@@ -132,13 +162,109 @@ public abstract class VmTracer {
         }
     }
 
-    protected void reportVmState(final String hostUuid, final Map<String, VmInstanceState> vmStates) {
+    private void validateVmStates(Map<String, VmInstanceState> vmStates) {
         for (VmInstanceState state : vmStates.values()) {
             if (state != VmInstanceState.Running && state != VmInstanceState.Stopped) {
                 throw new CloudRuntimeException(String.format("host can only report vm state as Running or Stopped, got %s", state));
             }
         }
+    }
+
+    /**
+     * @return the generation of the vm states last synced from the host, or null if
+     * the host has to report all its vm states, e.g. never synced or fullSyncInterval elapsed
+     */
+    protected Long getSyncedVmStateGeneration(String hostUuid, long fullSyncInterval) {
+        HostVmStates s = hostVmStates.get(hostUuid);
+        if (s == null) {
+            return null;
+        }
+
+        synchronized (s) {
+            if (System.currentTimeMillis() - s.lastFullSyncTime >= fullSyncInterval) {
+                return null;
+            }
+
+            return s.generation;
+        }
+    }
+
+    protected void forgetVmStates(String hostUuid) {
+        hostVmStates.remove(hostUuid);
+    }
+
+    /**
+     * report all vm states on the host; a non-null generation makes the states
+     * the base of following incremental reports by reportVmStateChanges()
+     */
+    protected void reportFullVmState(final String hostUuid, final Map<String, VmInstanceState> vmStates, Long generation) {
+        validateVmStates(vmStates);
+
+        if (generation == null) {
+            hostVmStates.remove(hostUuid);
+        } else {
+            HostVmStates s = new HostVmStates();
+            s.generation = generation;
+            s.lastFullSyncTime = System.currentTimeMillis();
+            s.states = new HashMap<String, VmInstanceState>(vmStates);
+            hostVmStates.put(hostUuid, s);
+        }
+
+        trace(hostUuid, vmStates, null);
+    }
+
+    /**
+     * report vm states changed on the host since the last synced generation,
+     * only vms whose states really differ from the last report get traced
+     */
+    protected void reportVmStateChanges(final String hostUuid, final Map<String, VmInstanceState> changedStates,
+                                        final Collection<String> removedVms, long generation) {
+        validateVmStates(changedStates);
+
+        HostVmStates s = hostVmStates.get(hostUuid);
+        if (s == null) {
+            logger.debug(String.format("no synced vm states of the host[uuid:%s], drop the incremental report of generation %s;" +
+                    " the next sync will be a full sync", hostUuid, generation));
+            return;
+        }
+
+        Map<String, VmInstanceState> toTrace = new HashMap<String, VmInstanceState>();
+        Set<String> vmUuids = new HashSet<String>();
+        synchronized (s) {
+            if (generation <= s.generation) {
+                logger.debug(String.format("drop stale vm states of the host[uuid:%s], generation %s <= %s",
+                        hostUuid, generation, s.generation));
+                return;
+            }
+
+            for (Map.Entry<String, VmInstanceState> e : changedStates.entrySet()) {
+                if (e.getValue() != s.states.put(e.getKey(), e.getValue())) {
+                    toTrace.put(e.getKey(), e.getValue());
+                    vmUuids.add(e.getKey());
+                }
+            }
+
+            for (String vmUuid : removedVms) {
+                if (s.states.remove(vmUuid) != null) {
+                    vmUuids.add(vmUuid);
+                }
+            }
+
+            s.generation = generation;
+        }
+
+        if (vmUuids.isEmpty()) {
+            return;
+        }
+
+        trace(hostUuid, toTrace, vmUuids);
+    }
+
+    protected void reportVmState(final String hostUuid, final Map<String, VmInstanceState> vmStates) {
+        reportFullVmState(hostUuid, vmStates, null);
+    }
 
+    private void trace(final String hostUuid, final Map<String, VmInstanceState> vmStates, final Collection<String> vmUuids) {
         if (!CoreGlobalProperty.VM_TRACER_ON) {
             logger.debug(String.format("vm tracer is off, skip reporting vm state on host[uuid:%s]", hostUuid));
             return;
@@ -165,6 +291,7 @@ public abstract class VmTracer {
                 Tracer t = new Tracer();
                 t.hostUuid = hostUuid;
                 t.hostSideStates = vmStates;
+                t.vmUuids = vmUuids;
                 t.trace();
                 return null;
             }
@@ -1 +1,9 @@
-# This is just placeholder to increment the DB version to 1.4
+CREATE TABLE  `zstack`.`SequenceBlockVO` (
+    `sequenceName` varchar(255) NOT NULL UNIQUE,
+    `nextValue` bigint unsigned NOT NULL,
+    PRIMARY KEY  (`sequenceName`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+# sequence numbers are now reserved in blocks, continue from the ids the sequence tables have handed out
+INSERT INTO `zstack`.`SequenceBlockVO` (`sequenceName`, `nextValue`) SELECT 'VmInstanceSequenceNumberVO', IFNULL(MAX(`id`), 0) + 1 FROM `zstack`.`VmInstanceSequenceNumberVO`;
+INSERT INTO `zstack`.`SequenceBlockVO` (`sequenceName`, `nextValue`) SELECT 'SecurityGroupSequenceNumberVO', IFNULL(MAX(`id`), 0) + 1 FROM `zstack`.`SecurityGroupSequenceNumberVO`;
@@ -0,0 +1,286 @@
+package org.zstack.core.cloudbus;
+
+import com.google.gson.*;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.Message;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * a compact binary form of the JSON tree Gson produces for a message.
+ *
+ * Integral numbers are zigzag varints, lengths are varints, and object keys
+ * (field names and the class names wrapping messages and inventories) are
+ * written once per message and referenced by index afterwards, so a reply
+ * carrying thousands of inventories spells each field name only once.
+ * Decoding walks the byte array directly, without a String copy of the body.
+ *
+ * API messages and events always travel as JSON because they are consumed
+ * outside the management nodes
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    public static final String NAME = "binary";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte MAGIC = 'Z';
+    private static final byte VERSION = 1;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_TRUE = 1;
+    private static final byte TAG_FALSE = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_NUMBER = 5;
+    private static final byte TAG_STRING = 6;
+    private static final byte TAG_ARRAY = 7;
+    private static final byte TAG_OBJECT = 8;
+
+    private final Gson gson;
+
+    public BinaryMessageCodec(Gson gson) {
+        this.gson = gson;
+    }
+
+    private static class Writer {
+        byte[] buf = new byte[1024];
+        int pos;
+        Map<String, Integer> keys = new HashMap<String, Integer>();
+
+        void ensure(int len) {
+            if (pos + len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + len));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeVarint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void writeString(String s) {
+            byte[] b = s.getBytes(UTF8);
+            writeVarint(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, pos, b.length);
+            pos += b.length;
+        }
+
+        void writeKey(String key) {
+            Integer index = keys.get(key);
+            if (index != null) {
+                writeVarint(index + 1);
+                return;
+            }
+
+            // 0 introduces a key not seen before, its index is the order of appearance
+            writeVarint(0);
+            writeString(key);
+            keys.put(key, keys.size());
+        }
+
+        void write(JsonElement e) {
+            if (e == null || e.isJsonNull()) {
+                writeByte(TAG_NULL);
+            } else if (e.isJsonObject()) {
+                Set<Map.Entry<String, JsonElement>> entries = e.getAsJsonObject().entrySet();
+                writeByte(TAG_OBJECT);
+                writeVarint(entries.size());
+                for (Map.Entry<String, JsonElement> entry : entries) {
+                    writeKey(entry.getKey());
+                    write(entry.getValue());
+                }
+            } else if (e.isJsonArray()) {
+                JsonArray array = e.getAsJsonArray();
+                writeByte(TAG_ARRAY);
+                writeVarint(array.size());
+                for (JsonElement item : array) {
+                    write(item);
+                }
+            } else {
+                writePrimitive(e.getAsJsonPrimitive());
+            }
+        }
+
+        void writePrimitive(JsonPrimitive p) {
+            if (p.isBoolean()) {
+                writeByte(p.getAsBoolean() ? TAG_TRUE : TAG_FALSE);
+            } else if (p.isString()) {
+                writeByte(TAG_STRING);
+                writeString(p.getAsString());
+            } else {
+                Number n = p.getAsNumber();
+                if (n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte) {
+                    long v = n.longValue();
+                    writeByte(TAG_LONG);
+                    writeVarint((v << 1) ^ (v >> 63));
+                } else if (n instanceof Double || n instanceof Float) {
+                    long v = Double.doubleToLongBits(n.doubleValue());
+                    writeByte(TAG_DOUBLE);
+                    ensure(8);
+                    for (int i = 0; i < 8; i++) {
+                        buf[pos++] = (byte) (v >>> (i * 8));
+                    }
+                } else {
+                    writeByte(TAG_NUMBER);
+                    writeString(n.toString());
+                }
+            }
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static class Reader {
+        final byte[] buf;
+        int pos;
+        List<String> keys = new ArrayList<String>();
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        byte readByte() {
+            if (pos >= buf.length) {
+                throw new JsonParseException("unexpected end of binary message");
+            }
+            return buf[pos++];
+        }
+
+        long readVarint() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (shift > 63) {
+                    throw new JsonParseException("malformed varint in binary message");
+                }
+                b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return v;
+        }
+
+        String readString() {
+            int len = (int) readVarint();
+            if (len < 0 || pos + len > buf.length) {
+                throw new JsonParseException("malformed string in binary message");
+            }
+            String s = new String(buf, pos, len, UTF8);
+            pos += len;
+            return s;
+        }
+
+        String readKey() {
+            int index = (int) readVarint();
+            if (index == 0) {
+                String key = readString();
+                keys.add(key);
+                return key;
+            }
+
+            if (index > keys.size()) {
+                throw new JsonParseException(String.format("unknown key index[%s] in binary message", index));
+            }
+            return keys.get(index - 1);
+        }
+
+        JsonElement read() {
+            byte tag = readByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return JsonNull.INSTANCE;
+                case TAG_TRUE:
+                    return new JsonPrimitive(true);
+                case TAG_FALSE:
+                    return new JsonPrimitive(false);
+                case TAG_LONG: {
+                    long v = readVarint();
+                    return new JsonPrimitive((v >>> 1) ^ -(v & 1));
+                }
+                case TAG_DOUBLE: {
+                    long v = 0;
+                    for (int i = 0; i < 8; i++) {
+                        v |= (long) (readByte() & 0xFF) << (i * 8);
+                    }
+                    return new JsonPrimitive(Double.longBitsToDouble(v));
+                }
+                case TAG_NUMBER:
+                    return new JsonPrimitive(new BigDecimal(readString()));
+                case TAG_STRING:
+                    return new JsonPrimitive(readString());
+                case TAG_ARRAY: {
+                    int size = (int) readVarint();
+                    JsonArray array = new JsonArray();
+                    for (int i = 0; i < size; i++) {
+                        array.add(read());
+                    }
+                    return array;
+                }
+                case TAG_OBJECT: {
+                    int size = (int) readVarint();
+                    JsonObject obj = new JsonObject();
+                    for (int i = 0; i < size; i++) {
+                        String key = readKey();
+                        obj.add(key, read());
+                    }
+                    return obj;
+                }
+                default:
+                    throw new JsonParseException(String.format("unknown tag[%s] in binary message", tag));
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Message msg) {
+        Writer w = new Writer();
+        w.writeByte(MAGIC);
+        w.writeByte(VERSION);
+        w.write(gson.toJsonTree(msg, Message.class));
+        return w.toBytes();
+    }
+
+    private JsonElement toTree(byte[] data) {
+        if (data.length < 2 || data[0] != MAGIC) {
+            throw new JsonParseException("not a binary message");
+        }
+        if (data[1] != VERSION) {
+            throw new CloudRuntimeException(String.format("unsupported binary message version[%s], this node supports version %s", data[1], VERSION));
+        }
+
+        Reader r = new Reader(data);
+        r.pos = 2;
+        return r.read();
+    }
+
+    @Override
+    public Message decode(byte[] data) {
+        return gson.fromJson(toTree(data), Message.class);
+    }
+
+    @Override
+    public Map decodeRaw(byte[] data) {
+        Map raw = gson.fromJson(toTree(data), LinkedHashMap.class);
+        return (Map) raw.values().iterator().next();
+    }
+}
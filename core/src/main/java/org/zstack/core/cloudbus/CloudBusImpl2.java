@@ -103,6 +103,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
     private final String DEAD_LETTER = "dead-message";
 
     private final String AMQP_PROPERTY_HEADER__COMPRESSED = "compressed";
+    private final String AMQP_PROPERTY_HEADER__CODEC = "codec";
 
     private String SERVICE_ID = makeLocalServiceId("cloudbus");
 
@@ -328,10 +329,10 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
     private NoRouteEndPoint noRouteEndPoint = new NoRouteEndPoint();
 
-    private Consumer consumer = new AbstractConsumer() {
+    private class ReplyConsumer extends AbstractConsumer {
         @AsyncThread
         @MessageSafe
-        private void handle(Message msg) {
+        void handle(Message msg) {
             if (logger.isTraceEnabled() && wire.logMessage(msg))  {
                 logger.trace(String.format("[msg received]: %s", wire.dumpMessage(msg)));
             }
@@ -361,7 +362,9 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 logger.warn("unhandled throwable", t);
             }
         }
-    };
+    }
+
+    private ReplyConsumer consumer = new ReplyConsumer();
 
 
     private class Wire implements GsonTypeCoder<Message> {
@@ -390,6 +393,40 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 }
         }).create();
 
+        private final Map<String, MessageCodec> codecs = new HashMap<String, MessageCodec>();
+        private final MessageCodec jsonCodec = new JsonMessageCodec(gson);
+        private final MessageCodec codec;
+
+        {
+            codecs.put(jsonCodec.getName(), jsonCodec);
+            MessageCodec binary = new BinaryMessageCodec(gson);
+            codecs.put(binary.getName(), binary);
+
+            codec = codecs.get(CloudBusGlobalProperty.WIRE_CODEC);
+            if (codec == null) {
+                throw new CloudRuntimeException(String.format("unknown CloudBus.wireCodec[%s], valid codecs are %s",
+                        CloudBusGlobalProperty.WIRE_CODEC, codecs.keySet()));
+            }
+        }
+
+        private MessageCodec getCodec(AMQP.BasicProperties basicProperties) {
+            if (basicProperties.getHeaders() == null) {
+                return jsonCodec;
+            }
+
+            Object name = basicProperties.getHeaders().get(AMQP_PROPERTY_HEADER__CODEC);
+            if (name == null) {
+                // messages from nodes not knowing codecs are always JSON
+                return jsonCodec;
+            }
+
+            MessageCodec c = codecs.get(name.toString());
+            if (c == null) {
+                throw new CloudRuntimeException(String.format("unknown message codec[%s]", name));
+            }
+            return c;
+        }
+
         private class RecoverableSend {
             Channel chan;
             byte[] data;
@@ -425,12 +462,28 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
 
             private byte[] compressMessageIfNeeded(Message msg) throws IOException {
-                if (!CloudBusGlobalProperty.COMPRESS_NON_API_MESSAGE || msg instanceof APIEvent || msg instanceof APIMessage) {
-                    return gson.toJson(msg, Message.class).getBytes();
+                // a message re-sent or re-routed still carries the headers of its last encoding,
+                // set or clear both of them every time so they always describe this body
+                Map<String, Object> headers = msg.getAMQPHeaders();
+                if (msg instanceof APIEvent || msg instanceof APIMessage) {
+                    headers.remove(AMQP_PROPERTY_HEADER__CODEC);
+                    headers.remove(AMQP_PROPERTY_HEADER__COMPRESSED);
+                    return jsonCodec.encode(msg);
+                }
+
+                if (codec != jsonCodec) {
+                    headers.put(AMQP_PROPERTY_HEADER__CODEC, codec.getName());
+                } else {
+                    headers.remove(AMQP_PROPERTY_HEADER__CODEC);
+                }
+
+                if (!CloudBusGlobalProperty.COMPRESS_NON_API_MESSAGE) {
+                    headers.remove(AMQP_PROPERTY_HEADER__COMPRESSED);
+                    return codec.encode(msg);
                 }
 
-                msg.getAMQPHeaders().put(AMQP_PROPERTY_HEADER__COMPRESSED, "true");
-                return Compresser.deflate(gson.toJson(msg, Message.class).getBytes());
+                headers.put(AMQP_PROPERTY_HEADER__COMPRESSED, "true");
+                return Compresser.deflate(codec.encode(msg));
             }
 
             private boolean recoverSend() throws IOException {
@@ -532,11 +585,48 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             msg.putHeaderEntry("schema", MessageJsonSchemaBuilder.buildSchema(msg));
         }
 
+        private boolean deliverLocally(Message msg, boolean makeQueueName) {
+            if (msg instanceof MessageReply && !makeQueueName) {
+                // replies are sent to the outbound queue of the requesting node,
+                // hand them to our own envelopes if the requester is this node
+                if (!outboundQueue.getBindingKey().equals(msg.getServiceId())) {
+                    return false;
+                }
+
+                if (logger.isTraceEnabled() && logMessage(msg)) {
+                    logger.trace(String.format("[msg local reply]: %s", dumpMessage(msg)));
+                }
+
+                consumer.handle(msg);
+                return true;
+            }
+
+            if (!makeQueueName) {
+                return false;
+            }
+
+            EndPoint e = endpoints.get(msg.getServiceId());
+            if (e == null || !e.isActive()) {
+                return false;
+            }
+
+            if (logger.isTraceEnabled() && logMessage(msg)) {
+                logger.trace(String.format("[msg local send]: %s", dumpMessage(msg)));
+            }
+
+            e.deliver(msg);
+            return true;
+        }
+
         public void send(final Message msg, boolean makeQueueName) {
             /*
             StopWatch watch = new StopWatch();
             watch.start();
             */
+            if (CloudBusGlobalProperty.LOCAL_DELIVERY && deliverLocally(msg, makeQueueName)) {
+                return;
+            }
+
             String serviceId = msg.getServiceId();
             if (makeQueueName) {
                 serviceId = makeMessageQueueName(serviceId);
@@ -613,14 +703,15 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             return exp;
         }
 
-        private void restoreFromSchema(Message msg, byte[] binary) throws ClassNotFoundException {
+        private void restoreFromSchema(Message msg, byte[] binary, MessageCodec c) throws ClassNotFoundException {
             Map<String, List<String>> schema = msg.getHeaderEntry("schema");
             if (schema == null) {
                 return;
             }
 
-            Map raw = JSONObjectUtil.toObject(new String(binary), LinkedHashMap.class);
-            raw = (Map) raw.values().iterator().next();
+            // the schema only lists objects whose runtime class differs from the declared one,
+            // so most messages never need the raw body; parse it at most once and only on demand
+            Map raw = null;
             for (Map.Entry<String, List<String>> e : schema.entrySet()) {
                 String rawClassName = e.getKey();
                 List<String> paths = e.getValue();
@@ -632,6 +723,10 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                         continue;
                     }
 
+                    if (raw == null) {
+                        raw = c.decodeRaw(binary);
+                    }
+
                     exp = getMVELExpression(msg, path, "raw:get");
                     Object rawData = MVEL.executeExpression(exp, raw);
                     Class rawClass = Class.forName(rawClassName);
@@ -690,11 +785,12 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                     data = binary;
                 }
 
-                Message msg = gson.fromJson(new String(data), Message.class);
+                MessageCodec c = getCodec(basicProperties);
+                Message msg = c.decode(data);
                 msg.setAMQPProperties(basicProperties);
 
                 try {
-                    restoreFromSchema(msg, data);
+                    restoreFromSchema(msg, data, c);
                 } catch (ClassNotFoundException e) {
                     throw new CloudRuntimeException(e);
                 }
@@ -867,6 +963,10 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         void inactive();
 
         void dismiss();
+
+        boolean isActive();
+
+        void deliver(Message msg);
     }
 
 
@@ -1939,7 +2039,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         final int syncLevel = serv.getSyncLevel();
 
         EndPoint e = new EndPoint() {
-            Channel echan;
+            volatile Channel echan;
             Consumer handler;
             String baseName;
             List<String> aliasNames = new ArrayList<String>();
@@ -1962,64 +2062,74 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                                 logger.trace(String.format("[msg received]: %s", wire.dumpMessage(msg)));
                             }
 
-                            SyncTask<Void> task = new SyncTask<Void>() {
-                                @Override
-                                public String getSyncSignature() {
-                                    return serv.getId();
-                                }
+                            deliver(msg);
+                        } catch (Throwable t) {
+                            logger.warn("unhandled throwable", t);
+                        }
+                    }
+                };
+            }
 
-                                @Override
-                                public int getSyncLevel() {
-                                    return syncLevel;
-                                }
+            @Override
+            public void deliver(final Message msg) {
+                SyncTask<Void> task = new SyncTask<Void>() {
+                    @Override
+                    public String getSyncSignature() {
+                        return serv.getId();
+                    }
 
-                                @Override
-                                public String getName() {
-                                    return String.format("CloudBus EndPoint[%s]", serv.getId());
-                                }
+                    @Override
+                    public int getSyncLevel() {
+                        return syncLevel;
+                    }
 
-                                @Override
-                                public Void call() throws Exception {
-                                    try {
-                                        List<BeforeDeliveryMessageInterceptor> is = beforeDeliveryMessageInterceptors.get(msg.getClass());
-                                        if (is != null) {
-                                            for (BeforeDeliveryMessageInterceptor i : is) {
-                                                i.intercept(msg);
-
-                                                if (logger.isTraceEnabled()) {
-                                                    logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
-                                                }
-                                            }
-                                        }
-
-                                        for (BeforeDeliveryMessageInterceptor i : beforeDeliveryMessageInterceptorsForAll) {
-                                            i.intercept(msg);
-
-                                            if (logger.isTraceEnabled()) {
-                                                logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
-                                            }
-                                        }
-
-                                        serv.handleMessage(msg);
-                                    } catch (Throwable t) {
-                                        logExceptionWithMessageDump(msg, t);
-                                        replyErrorByMessageType(msg, errf.stringToInternalError(t.getMessage()));
-                                    }
+                    @Override
+                    public String getName() {
+                        return String.format("CloudBus EndPoint[%s]", serv.getId());
+                    }
+
+                    @Override
+                    public Void call() throws Exception {
+                        try {
+                            List<BeforeDeliveryMessageInterceptor> is = beforeDeliveryMessageInterceptors.get(msg.getClass());
+                            if (is != null) {
+                                for (BeforeDeliveryMessageInterceptor i : is) {
+                                    i.intercept(msg);
 
-                                    return null;
+                                    if (logger.isTraceEnabled()) {
+                                        logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
+                                    }
                                 }
-                            };
+                            }
 
-                            if (syncLevel == 0) {
-                                thdf.submit(task);
-                            } else {
-                                thdf.syncSubmit(task);
+                            for (BeforeDeliveryMessageInterceptor i : beforeDeliveryMessageInterceptorsForAll) {
+                                i.intercept(msg);
+
+                                if (logger.isTraceEnabled()) {
+                                    logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
+                                }
                             }
+
+                            serv.handleMessage(msg);
                         } catch (Throwable t) {
-                            logger.warn("unhandled throwable", t);
+                            logExceptionWithMessageDump(msg, t);
+                            replyErrorByMessageType(msg, errf.stringToInternalError(t.getMessage()));
                         }
+
+                        return null;
                     }
                 };
+
+                if (syncLevel == 0) {
+                    thdf.submit(task);
+                } else {
+                    thdf.syncSubmit(task);
+                }
+            }
+
+            @Override
+            public boolean isActive() {
+                return echan != null;
             }
 
             @Override
@@ -0,0 +1,44 @@
+package org.zstack.core.cloudbus;
+
+import com.google.gson.Gson;
+import org.zstack.header.message.Message;
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ */
+public class JsonMessageCodec implements MessageCodec {
+    public static final String NAME = "json";
+
+    private final Gson gson;
+
+    public JsonMessageCodec(Gson gson) {
+        this.gson = gson;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Message msg) {
+        return gson.toJson(msg, Message.class).getBytes();
+    }
+
+    @Override
+    public Message decode(byte[] data) {
+        // read straight from the bytes instead of making a String copy of the whole body
+        return gson.fromJson(new InputStreamReader(new ByteArrayInputStream(data)), Message.class);
+    }
+
+    @Override
+    public Map decodeRaw(byte[] data) {
+        Map raw = JSONObjectUtil.toObject(new String(data), LinkedHashMap.class);
+        return (Map) raw.values().iterator().next();
+    }
+}
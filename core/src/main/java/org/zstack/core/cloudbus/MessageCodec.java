@@ -0,0 +1,24 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.message.Message;
+
+import java.util.Map;
+
+/**
+ * encodes messages to and decodes messages from the bytes carried by AMQP.
+ * The codec used for a message is named in its AMQP headers so receivers can
+ * always decode, whichever codec the sender is configured with
+ */
+public interface MessageCodec {
+    String getName();
+
+    byte[] encode(Message msg);
+
+    Message decode(byte[] data);
+
+    /**
+     * decode the body of the message as a plain map, used to restore fields
+     * recorded in the message JSON schema
+     */
+    Map decodeRaw(byte[] data);
+}
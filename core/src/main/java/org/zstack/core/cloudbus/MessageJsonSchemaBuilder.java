@@ -18,58 +18,68 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  */
 public class MessageJsonSchemaBuilder {
-    private static Map<Field, Field> skipMap = new ConcurrentHashMap<Field, Field>();
+    private enum FieldKind {
+        OBJECT,
+        LIST,
+        MAP
+    }
+
+    /**
+     * a field that may hold an object needing schema, resolved once per class
+     */
+    private static class FieldPlan {
+        Field field;
+        FieldKind kind;
+        // the class JSON decoding will produce for the field value, or list/map item;
+        // null if it cannot be told from the declaration
+        Class declaredType;
+    }
+
+    private static Map<Class, List<FieldPlan>> plans = new ConcurrentHashMap<Class, List<FieldPlan>>();
 
     private static boolean isSkip(Field f) {
-        if (skipMap.containsKey(f)) {
+        if (TypeUtils.isPrimitiveOrWrapper(f.getType())) {
             return true;
         }
 
-        if (TypeUtils.isPrimitiveOrWrapper(f.getType())) {
-            skipMap.put(f, f);
+        if (f.getType().isEnum() || Date.class.isAssignableFrom(f.getType())) {
             return true;
         }
 
         if (f.isAnnotationPresent(NoJsonSchema.class)) {
-            skipMap.put(f, f);
             return true;
         }
 
-        if (Modifier.isStatic(f.getModifiers())) {
-            skipMap.put(f, f);
+        // gson serializes neither of them
+        if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers())) {
             return true;
         }
 
         if (f.isAnnotationPresent(GsonTransient.class)) {
-            skipMap.put(f, f);
             return true;
         }
 
         return false;
     }
 
-    private static Object getValue(Field f, Object obj) throws IllegalAccessException {
-        f.setAccessible(true);
-        return f.get(obj);
-    }
-
-    private static boolean isNullValue(Field f, Object obj) throws IllegalAccessException {
-        return getValue(f, obj) == null;
-    }
-
-    private static void buildSchema(Object obj, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
-        List<Field> fs = FieldUtils.getAllFields(obj.getClass());
-        for (Field f : fs) {
+    private static List<FieldPlan> buildPlan(Class clazz) {
+        List<FieldPlan> plan = new ArrayList<FieldPlan>();
+        for (Field f : FieldUtils.getAllFields(clazz)) {
             if (isSkip(f)) {
                 continue;
             }
 
+            FieldPlan fp = new FieldPlan();
+            fp.field = f;
             if (Map.class.isAssignableFrom(f.getType())) {
-                schemaMap(f, obj, schema, trace, paths);
-                continue;
-            }
+                Class genericType = FieldUtils.getGenericType(f);
+                if (genericType != null && TypeUtils.isPrimitiveOrWrapper(genericType)) {
+                    continue;
+                }
 
-            if (Collection.class.isAssignableFrom(f.getType())) {
+                fp.kind = FieldKind.MAP;
+                fp.declaredType = genericType;
+            } else if (Collection.class.isAssignableFrom(f.getType())) {
                 Class genericType = FieldUtils.getGenericType(f);
                 if (genericType != null && TypeUtils.isPrimitiveOrWrapper(genericType)) {
                     continue;
@@ -80,30 +90,67 @@ public class MessageJsonSchemaBuilder {
                             f.getDeclaringClass().getName(), f.getName(), f.getType().getName()));
                 }
 
-                schemaList(f, obj, schema, trace, paths);
-                continue;
+                fp.kind = FieldKind.LIST;
+                fp.declaredType = genericType;
+            } else {
+                fp.kind = FieldKind.OBJECT;
+                fp.declaredType = f.getType();
             }
 
-            schemaObject(f, obj, schema, trace, paths);
+            f.setAccessible(true);
+            plan.add(fp);
+        }
+
+        return plan;
+    }
+
+    private static List<FieldPlan> getPlan(Class clazz) {
+        List<FieldPlan> plan = plans.get(clazz);
+        if (plan == null) {
+            plan = buildPlan(clazz);
+            plans.put(clazz, plan);
         }
+
+        return plan;
     }
 
-    private static void schemaList(Field f, Object obj, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
-        if (isNullValue(f, obj)) {
+    private static void buildSchema(Object obj, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
+        if (TypeUtils.isPrimitiveOrWrapper(obj.getClass())) {
             return;
         }
 
-        Object value = getValue(f, obj);
-        if (paths.contains(value)) {
-            paths.push(value);
-            throw new CloudRuntimeException(String.format("recursive object graph: %s", StringUtils.join(paths, " --> ")));
+        for (FieldPlan fp : getPlan(obj.getClass())) {
+            Object value = fp.field.get(obj);
+            if (value == null) {
+                continue;
+            }
+
+            if (paths.contains(value)) {
+                paths.push(value);
+                throw new CloudRuntimeException(String.format("recursive object graph: %s", StringUtils.join(paths, " --> ")));
+            }
+
+            if (fp.kind == FieldKind.MAP) {
+                schemaMap(fp, value, schema, trace, paths);
+            } else if (fp.kind == FieldKind.LIST) {
+                schemaList(fp, value, schema, trace, paths);
+            } else {
+                schemaObject(fp, value, schema, trace, paths);
+            }
         }
+    }
 
+    private static void schemaList(FieldPlan fp, Object value, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
         paths.push(value);
         List col = (List) value;
+        int index = 0;
         for (Object item : col) {
-            String itemName = String.format("%s[%s]", f.getName(), col.indexOf(item));
-            if (isObjectNeedSchema(item)) {
+            String itemName = String.format("%s[%s]", fp.field.getName(), index++);
+            if (item == null) {
+                continue;
+            }
+
+            if (isObjectNeedSchema(item, fp.declaredType)) {
                 addToSchema(item.getClass(), itemName, schema, trace);
             }
 
@@ -129,24 +176,13 @@ public class MessageJsonSchemaBuilder {
         }
     }
 
-    private static void schemaObject(Field f, Object obj, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
-        if (isNullValue(f, obj)) {
-            return;
-        }
-
-        Object value = getValue(f, obj);
-        if (paths.contains(value)) {
-            paths.push(value);
-            throw new CloudRuntimeException(String.format("recursive object graph: %s", StringUtils.join(paths, " --> ")));
-        }
-
-
-        if (isObjectNeedSchema(value)) {
-            addToSchema(value.getClass(), f.getName(), schema, trace);
+    private static void schemaObject(FieldPlan fp, Object value, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
+        if (isObjectNeedSchema(value, fp.declaredType)) {
+            addToSchema(value.getClass(), fp.field.getName(), schema, trace);
         }
 
         paths.push(value);
-        trace.push(f.getName());
+        trace.push(fp.field.getName());
         buildSchema(value, schema, trace, paths);
         trace.pop();
         paths.pop();
@@ -166,35 +202,29 @@ public class MessageJsonSchemaBuilder {
         }
     }
 
-    private static boolean isObjectNeedSchema(Object obj) {
-        return obj.getClass().isAnnotationPresent(Inventory.class) || obj.getClass().isAnnotationPresent(NeedJsonSchema.class);
-    }
-
-    private static void schemaMap(Field f, Object obj, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
-        Class genericType = FieldUtils.getGenericType(f);
-        if (genericType != null && TypeUtils.isPrimitiveOrWrapper(genericType)) {
-            return;
+    private static boolean isObjectNeedSchema(Object obj, Class declaredType) {
+        if (obj.getClass() == declaredType) {
+            // JSON decoding restores the declared type, nothing to record
+            return false;
         }
 
-        if (isNullValue(f, obj)) {
-            return;
-        }
-
-        Object value = getValue(f, obj);
-        if (paths.contains(value)) {
-            paths.push(value);
-            throw new CloudRuntimeException(String.format("recursive object graph: %s", StringUtils.join(paths, " --> ")));
-        }
+        return obj.getClass().isAnnotationPresent(Inventory.class) || obj.getClass().isAnnotationPresent(NeedJsonSchema.class);
+    }
 
-        paths.push(obj);
+    private static void schemaMap(FieldPlan fp, Object value, Map<String, List<String>> schema, Stack<String> trace, Stack<Object> paths) throws IllegalAccessException {
+        paths.push(value);
         Map map = (Map) value;
         Iterator<Entry> it = map.entrySet().iterator();
         while (it.hasNext()) {
             Entry e = it.next();
-            String key = e.getKey().toString();
             Object item = e.getValue();
-            String itemName = String.format("%s[\"%s\"]", f.getName(), key);
-            if (isObjectNeedSchema(item)) {
+            if (item == null) {
+                continue;
+            }
+
+            String key = e.getKey().toString();
+            String itemName = String.format("%s[\"%s\"]", fp.field.getName(), key);
+            if (isObjectNeedSchema(item, fp.declaredType)) {
                 addToSchema(item.getClass(), itemName, schema, trace);
             }
 
@@ -38,12 +38,29 @@ public class GlobalConfig {
     private String validatorRegularExpression;
     private String defaultValue;
     private volatile String value;
+    private volatile TypedValue typedValue;
     private boolean linked;
     private transient List<GlobalConfigUpdateExtensionPoint> updateExtensions = new ArrayList<GlobalConfigUpdateExtensionPoint>();
     private transient List<GlobalConfigValidatorExtensionPoint> validators = new ArrayList<GlobalConfigValidatorExtensionPoint>();
     private transient List<GlobalConfigUpdateExtensionPoint> localUpdateExtensions = new ArrayList<GlobalConfigUpdateExtensionPoint>();
     private GlobalConfigDef configDef;
 
+    /**
+     * the value parsed to the type callers read it as; it's immutable and replaced as a whole,
+     * so a reader sees either the old or the new value, never a mix of them
+     */
+    private static class TypedValue {
+        final String raw;
+        final Class type;
+        final Object value;
+
+        TypedValue(String raw, Class type, Object value) {
+            this.raw = raw;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
     @Autowired
     private DatabaseFacade dbf;
     @Autowired
@@ -144,10 +161,34 @@ public class GlobalConfig {
 
     void setValue(String value) {
         this.value = value;
+        refreshTypedValue(value);
     }
 
     public <T> T value(Class<T> clz) {
-        return TypeUtils.stringToValue(value, clz);
+        String raw = value;
+        TypedValue tv = typedValue;
+        if (tv != null && tv.raw == raw && tv.type == clz) {
+            return (T) tv.value;
+        }
+
+        T ret = TypeUtils.stringToValue(raw, clz);
+        typedValue = new TypedValue(raw, clz, ret);
+        return ret;
+    }
+
+    private void refreshTypedValue(String raw) {
+        // parse the new value once here rather than in the first reader after the update
+        TypedValue tv = typedValue;
+        if (tv == null) {
+            return;
+        }
+
+        try {
+            typedValue = new TypedValue(raw, tv.type, TypeUtils.stringToValue(raw, tv.type));
+        } catch (RuntimeException e) {
+            // the new value doesn't fit the type, let the reader parse it and fail there
+            typedValue = null;
+        }
     }
 
     public static GlobalConfig valueOf(GlobalConfigVO vo) {
@@ -241,6 +282,7 @@ public class GlobalConfig {
         final GlobalConfig origin = valueOf(vo);
 
         value = newValue;
+        refreshTypedValue(newValue);
 
         if (localUpdate) {
             vo.setValue(newValue);
@@ -29,6 +29,9 @@ import javax.sql.DataSource;
 import java.lang.reflect.Field;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.zstack.utils.CollectionDSL.list;
 
@@ -54,6 +57,7 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
     private List<HardDeleteEntityExtensionPoint> hardDeleteForAllExtensions = new ArrayList<HardDeleteEntityExtensionPoint>();
     private Map<Class, EntityInfo> entityInfoMap = new HashMap<Class, EntityInfo>();
     private String dbVersion;
+    private ConcurrentMap<Class, Sequence> sequences = new ConcurrentHashMap<Class, Sequence>();
 
     private class EntityInfo {
         Field voPrimaryKeyField;
@@ -635,19 +639,81 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
         doUpdateCollection(entities);
     }
 
+    private class SequenceBlock {
+        final AtomicLong next;
+        final long end;
+
+        SequenceBlock(long start, long end) {
+            next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    private class Sequence {
+        volatile SequenceBlock block;
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    private long reserveSequenceBlock(Class<?> seqTable, int size) {
+        String name = seqTable.getSimpleName();
+        SequenceBlockVO vo = getEntityManager().find(SequenceBlockVO.class, name, LockModeType.PESSIMISTIC_WRITE);
+        if (vo == null) {
+            // the sequence has never been reserved in blocks, continue from the ids the table has handed out.
+            // If another management node creates the row at the same time, one of the two fails on the primary key
+            // and retries on the row created by the other
+            String sql = String.format("select max(s.id) from %s s", name);
+            TypedQuery<Long> q = getEntityManager().createQuery(sql, Long.class);
+            Long max = q.getSingleResult();
+            vo = new SequenceBlockVO();
+            vo.setSequenceName(name);
+            vo.setNextValue(max == null ? 1 : max + 1);
+            getEntityManager().persist(vo);
+        }
+
+        long start = vo.getNextValue();
+        vo.setNextValue(start + size);
+        getEntityManager().flush();
+        return start;
+    }
+
     @Override
     public long generateSequenceNumber(Class<?> seqTable) {
         try {
-            Field id = seqTable.getDeclaredField("id");
-            if (id == null) {
-                throw new CloudRuntimeException(String.format("sequence VO[%s] must have 'id' field", seqTable.getName()));
-            }
-            Object vo = seqTable.newInstance();
-            vo = persistAndRefresh(vo);
-            id.setAccessible(true);
-            return (Long) id.get(vo);
-        } catch (Exception e) {
-            throw new CloudRuntimeException(e);
+            seqTable.getDeclaredField("id");
+        } catch (NoSuchFieldException e) {
+            throw new CloudRuntimeException(String.format("sequence VO[%s] must have 'id' field", seqTable.getName()));
+        }
+
+        Sequence seq = sequences.get(seqTable);
+        if (seq == null) {
+            seq = new Sequence();
+            Sequence old = sequences.putIfAbsent(seqTable, seq);
+            seq = old == null ? seq : old;
+        }
+
+        while (true) {
+            SequenceBlock block = seq.block;
+            if (block != null) {
+                long id = block.next.getAndIncrement();
+                if (id < block.end) {
+                    return id;
+                }
+            }
+
+            synchronized (seq) {
+                if (seq.block == block) {
+                    int size = DatabaseGlobalProperty.sequenceBlockSize;
+                    long start;
+                    try {
+                        start = reserveSequenceBlock(seqTable, size);
+                    } catch (PersistenceException e) {
+                        logger.debug(String.format("failed to reserve a block of sequence[%s], %s; retry", seqTable.getSimpleName(), e.getMessage()));
+                        start = reserveSequenceBlock(seqTable, size);
+                    }
+
+                    seq.block = new SequenceBlock(start, start + size);
+                }
+            }
         }
     }
 
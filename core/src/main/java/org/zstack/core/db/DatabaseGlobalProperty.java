@@ -9,6 +9,12 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class DatabaseGlobalProperty {
     @GlobalProperty(name="DatabaseFacade.deadlockRetryTimes", defaultValue = "10")
     public static int retryTimes;
+    @GlobalProperty(name="DatabaseFacade.sequenceBlockSize", defaultValue = "100")
+    public static int sequenceBlockSize;
+    @GlobalProperty(name="DistributedLock.leaseTime", defaultValue = "10")
+    public static int distributedLockLeaseTime;
+    @GlobalProperty(name="DistributedLock.maxLeases", defaultValue = "20")
+    public static int maxDistributedLockLeases;
     @GlobalProperty(name="DB.url")
     public static String DbUrl;
     @GlobalProperty(name="DB.user")
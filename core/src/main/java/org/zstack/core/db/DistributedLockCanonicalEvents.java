@@ -0,0 +1,22 @@
+package org.zstack.core.db;
+
+import org.zstack.header.message.NeedJsonSchema;
+
+/**
+ */
+public class DistributedLockCanonicalEvents {
+    public static final String RELEASE_REQUEST_PATH = "/distributedLock/releaseRequest";
+
+    @NeedJsonSchema
+    public static class ReleaseRequestData {
+        private String lockName;
+
+        public String getLockName() {
+            return lockName;
+        }
+
+        public void setLockName(String lockName) {
+            this.lockName = lockName;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.zstack.core.db;
+
+/**
+ * Cluster wide named locks.
+ *
+ * A lock is held by this management node as a MySQL named lock on a dedicated connection;
+ * threads of this node queue for it in memory, so a node needs at most one connection per lock
+ * no matter how many threads are waiting. After the last unlock, the node keeps the MySQL lock
+ * as a lease if the lock name is mapped to it in the management node hash ring, later acquisitions
+ * on the node are served from memory without touching the database. A node that needs a lock leased
+ * by another node asks the holder to give it up.
+ *
+ * Locks are not reentrant, locking a lock already held waits even in the thread holding it; a lock
+ * may be unlocked by a thread other than the one locked it.
+ */
+public interface DistributedLockFacade {
+    /**
+     * @throws org.zstack.header.exception.CloudRuntimeException if the lock cannot be acquired in timeout seconds
+     */
+    void lock(String name, long timeout);
+
+    boolean tryLock(String name, long timeout);
+
+    void unlock(String name);
+
+    DistributedLockStatistic getStatistic();
+
+    /**
+     * @return null if the lock is not known by this management node
+     */
+    DistributedLockStatistic getStatistic(String name);
+}
@@ -0,0 +1,430 @@
+package org.zstack.core.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.db.DistributedLockCanonicalEvents.ReleaseRequestData;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ */
+public class DistributedLockFacadeImpl implements DistributedLockFacade, Component {
+    private static final CLogger logger = Utils.getLogger(DistributedLockFacadeImpl.class);
+
+    // MySQL rejects names of named locks longer than 64 characters
+    private static final int MAX_DB_LOCK_NAME_LENGTH = 64;
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private ThreadFacade thdf;
+
+    private final ConcurrentMap<String, LockEntry> locks = new ConcurrentHashMap<String, LockEntry>();
+    private final DistributedLockStatistic statistic = new DistributedLockStatistic();
+    // connections holding MySQL locks, and those of them kept while nobody holds the lock.
+    // Every lease takes a connection from the pool shared with DatabaseFacade, so a lease is
+    // only kept after unlock while below DistributedLock.maxLeases, well below the pool size
+    private final AtomicInteger leases = new AtomicInteger(0);
+    private final AtomicInteger idleLeases = new AtomicInteger(0);
+    private Future<Void> reaper;
+
+    private enum LockResult {
+        Acquired,
+        Timeout,
+        Retired
+    }
+
+    private class LockEntry {
+        final String name;
+        final DistributedLockStatistic statistic = new DistributedLockStatistic();
+        // all fields below are guarded by the entry itself, except conn
+        // which is only touched by the holder of the entry
+        // locks are not reentrant and may be unlocked by any thread, so there is no owner
+        boolean held;
+        int waiters;
+        long lastUnlocked = System.currentTimeMillis();
+        boolean releaseRequested;
+        boolean retired;
+        // conn is kept while nobody holds the lock
+        boolean idleLease;
+        Connection conn;
+
+        LockEntry(String name) {
+            this.name = name;
+        }
+    }
+
+    private LockEntry getEntry(String name) {
+        LockEntry e = locks.get(name);
+        if (e == null) {
+            e = new LockEntry(name);
+            LockEntry old = locks.putIfAbsent(name, e);
+            e = old == null ? e : old;
+        }
+        return e;
+    }
+
+    private LockResult lockInMemory(LockEntry e, long deadline) {
+        synchronized (e) {
+            if (e.retired) {
+                return LockResult.Retired;
+            }
+
+            e.waiters ++;
+            try {
+                while (e.held) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        return LockResult.Timeout;
+                    }
+
+                    e.wait(left);
+                }
+            } catch (InterruptedException ie) {
+                throw new CloudRuntimeException(String.format("interrupted when waiting for lock[%s]", e.name), ie);
+            } finally {
+                e.waiters --;
+            }
+
+            e.held = true;
+            if (e.idleLease) {
+                e.idleLease = false;
+                idleLeases.decrementAndGet();
+            }
+            return LockResult.Acquired;
+        }
+    }
+
+    private void unlockInMemory(LockEntry e) {
+        synchronized (e) {
+            e.held = false;
+            e.lastUnlocked = System.currentTimeMillis();
+            e.notifyAll();
+        }
+    }
+
+    private String toDbLockName(String name) {
+        if (name.length() <= MAX_DB_LOCK_NAME_LENGTH) {
+            return name;
+        }
+
+        return UUID.nameUUIDFromBytes(name.getBytes()).toString().replace("-", "");
+    }
+
+    private boolean getDbLock(Connection conn, String name, long timeout) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement("select get_lock(?, ?)");
+        try {
+            pstmt.setString(1, toDbLockName(name));
+            pstmt.setLong(2, timeout);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs == null || !rs.first()) {
+                throw new CloudRuntimeException(String.format("unable to get DB lock[%s], internal database error happened", name));
+            }
+            return rs.getInt(1) == 1;
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    private void requestRelease(String name) {
+        ReleaseRequestData data = new ReleaseRequestData();
+        data.setLockName(name);
+        try {
+            evtf.fire(DistributedLockCanonicalEvents.RELEASE_REQUEST_PATH, data);
+        } catch (Throwable t) {
+            logger.warn(String.format("unable to ask other management nodes to release lock[%s]", name), t);
+        }
+    }
+
+    private Connection lockInDatabase(String name, long deadline) {
+        Connection conn = null;
+        boolean success = false;
+        try {
+            conn = dbf.getDataSource().getConnection();
+            conn.setAutoCommit(true);
+            if (getDbLock(conn, name, 0)) {
+                success = true;
+                return conn;
+            }
+
+            // held by another management node, which may just be keeping it as a lease
+            requestRelease(name);
+            long left = Math.max(0, TimeUnit.MILLISECONDS.toSeconds(deadline - System.currentTimeMillis() + 999));
+            success = getDbLock(conn, name, left);
+            return success ? conn : null;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException(String.format("unable to get DB lock[%s]", name), e);
+        } finally {
+            if (!success && conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.warn(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    // must be called by the holder of the entry
+    private void releaseInDatabase(LockEntry e) {
+        Connection conn = e.conn;
+        e.conn = null;
+        e.releaseRequested = false;
+        leases.decrementAndGet();
+        if (e.idleLease) {
+            e.idleLease = false;
+            idleLeases.decrementAndGet();
+        }
+
+        try {
+            PreparedStatement pstmt = conn.prepareStatement("select release_lock(?)");
+            try {
+                pstmt.setString(1, toDbLockName(e.name));
+                pstmt.executeQuery();
+            } finally {
+                pstmt.close();
+            }
+        } catch (SQLException ex) {
+            // the lock is released with the connection anyway
+            logger.warn(String.format("unable to release DB lock[%s]", e.name), ex);
+        } finally {
+            try {
+                conn.close();
+            } catch (SQLException ex) {
+                logger.warn(ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private boolean isOwnedByUs(String name) {
+        try {
+            return !destMaker.getManagementNodesInHashRing().isEmpty() && destMaker.isManagedByUs(name);
+        } catch (CloudRuntimeException e) {
+            return false;
+        }
+    }
+
+    private boolean keepLease(LockEntry e) {
+        if (e.releaseRequested) {
+            return false;
+        }
+
+        if (e.waiters > 0) {
+            // hand over to local waiters without a round trip to the database, unless the node
+            // already holds too many connections for locks
+            return leases.get() <= DatabaseGlobalProperty.maxDistributedLockLeases;
+        }
+
+        return idleLeases.get() < DatabaseGlobalProperty.maxDistributedLockLeases && isOwnedByUs(e.name);
+    }
+
+    @Override
+    public void lock(String name, long timeout) {
+        if (!tryLock(name, timeout)) {
+            throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
+        }
+    }
+
+    @Override
+    public boolean tryLock(String name, long timeout) {
+        long start = System.currentTimeMillis();
+        long deadline = start + TimeUnit.SECONDS.toMillis(timeout);
+
+        LockEntry e;
+        LockResult ret;
+        do {
+            e = getEntry(name);
+            ret = lockInMemory(e, deadline);
+        } while (ret == LockResult.Retired);
+
+        if (ret == LockResult.Timeout) {
+            e.statistic.recordTimeout();
+            statistic.recordTimeout();
+            return false;
+        }
+
+        boolean fromDb = false;
+        if (e.conn == null) {
+            Connection conn;
+            try {
+                conn = lockInDatabase(name, deadline);
+            } catch (RuntimeException re) {
+                unlockInMemory(e);
+                throw re;
+            }
+
+            if (conn == null) {
+                unlockInMemory(e);
+                e.statistic.recordTimeout();
+                statistic.recordTimeout();
+                return false;
+            }
+
+            e.conn = conn;
+            leases.incrementAndGet();
+            fromDb = true;
+        }
+
+        long waitTime = System.currentTimeMillis() - start;
+        e.statistic.record(waitTime, fromDb);
+        statistic.record(waitTime, fromDb);
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("[Lock]: thread[%s] got lock[%s] after %sms, from database: %s",
+                    Thread.currentThread().getName(), name, waitTime, fromDb));
+        }
+
+        return true;
+    }
+
+    @Override
+    public void unlock(String name) {
+        LockEntry e = locks.get(name);
+        if (e == null) {
+            throw new CloudRuntimeException(String.format("lock[%s] is not held by this management node", name));
+        }
+
+        synchronized (e) {
+            if (!e.held) {
+                throw new CloudRuntimeException(String.format("lock[%s] is not held by this management node", name));
+            }
+
+            if (e.conn != null) {
+                if (!keepLease(e)) {
+                    releaseInDatabase(e);
+                } else if (e.waiters == 0) {
+                    e.idleLease = true;
+                    idleLeases.incrementAndGet();
+                }
+            }
+
+            e.held = false;
+            e.lastUnlocked = System.currentTimeMillis();
+            e.notifyAll();
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("[Lock]: thread[%s] released lock[%s]", Thread.currentThread().getName(), name));
+        }
+    }
+
+    private void reap(LockEntry e, boolean force) {
+        synchronized (e) {
+            if (e.held || e.waiters > 0) {
+                return;
+            }
+
+            boolean idle = System.currentTimeMillis() - e.lastUnlocked > TimeUnit.SECONDS.toMillis(DatabaseGlobalProperty.distributedLockLeaseTime);
+            if (e.conn != null) {
+                if (force || idle || e.releaseRequested || !isOwnedByUs(e.name)) {
+                    releaseInDatabase(e);
+                    e.lastUnlocked = System.currentTimeMillis();
+                }
+            } else if (force || idle) {
+                e.retired = true;
+                locks.remove(e.name, e);
+            }
+        }
+    }
+
+    private void reapAll(boolean force) {
+        for (LockEntry e : locks.values()) {
+            try {
+                reap(e, force);
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception when releasing lease of lock[%s]", e.name), t);
+            }
+        }
+    }
+
+    @Override
+    public DistributedLockStatistic getStatistic() {
+        return statistic.copy();
+    }
+
+    @Override
+    public DistributedLockStatistic getStatistic(String name) {
+        LockEntry e = locks.get(name);
+        return e == null ? null : e.statistic.copy();
+    }
+
+    @Override
+    public boolean start() {
+        evtf.on(DistributedLockCanonicalEvents.RELEASE_REQUEST_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                if (evtf.isFromThisManagementNode(tokens)) {
+                    return;
+                }
+
+                ReleaseRequestData d = (ReleaseRequestData) data;
+                LockEntry e = locks.get(d.getLockName());
+                if (e == null) {
+                    return;
+                }
+
+                synchronized (e) {
+                    e.releaseRequested = true;
+                }
+                // release now if the lock is idle, otherwise the holder releases it on unlock
+                reap(e, false);
+            }
+        });
+
+        reaper = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return 1;
+            }
+
+            @Override
+            public String getName() {
+                return "distributed-lock-lease-reaper";
+            }
+
+            @Override
+            public void run() {
+                reapAll(false);
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (reaper != null) {
+            reaper.cancel(true);
+        }
+
+        reapAll(true);
+        return true;
+    }
+}
@@ -0,0 +1,74 @@
+package org.zstack.core.db;
+
+/**
+ */
+public class DistributedLockStatistic {
+    private long acquiredTimes;
+    private long databaseAcquiredTimes;
+    private long timeoutTimes;
+    private long totalWaitTime;
+    private long maxWaitTime;
+
+    public long getAcquiredTimes() {
+        return acquiredTimes;
+    }
+
+    public void setAcquiredTimes(long acquiredTimes) {
+        this.acquiredTimes = acquiredTimes;
+    }
+
+    public long getDatabaseAcquiredTimes() {
+        return databaseAcquiredTimes;
+    }
+
+    public void setDatabaseAcquiredTimes(long databaseAcquiredTimes) {
+        this.databaseAcquiredTimes = databaseAcquiredTimes;
+    }
+
+    public long getTimeoutTimes() {
+        return timeoutTimes;
+    }
+
+    public void setTimeoutTimes(long timeoutTimes) {
+        this.timeoutTimes = timeoutTimes;
+    }
+
+    public long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    public void setTotalWaitTime(long totalWaitTime) {
+        this.totalWaitTime = totalWaitTime;
+    }
+
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    public void setMaxWaitTime(long maxWaitTime) {
+        this.maxWaitTime = maxWaitTime;
+    }
+
+    synchronized void record(long waitTime, boolean fromDatabase) {
+        acquiredTimes ++;
+        if (fromDatabase) {
+            databaseAcquiredTimes ++;
+        }
+        totalWaitTime += waitTime;
+        maxWaitTime = Math.max(maxWaitTime, waitTime);
+    }
+
+    synchronized void recordTimeout() {
+        timeoutTimes ++;
+    }
+
+    synchronized DistributedLockStatistic copy() {
+        DistributedLockStatistic s = new DistributedLockStatistic();
+        s.acquiredTimes = acquiredTimes;
+        s.databaseAcquiredTimes = databaseAcquiredTimes;
+        s.timeoutTimes = timeoutTimes;
+        s.totalWaitTime = totalWaitTime;
+        s.maxWaitTime = maxWaitTime;
+        return s;
+    }
+}
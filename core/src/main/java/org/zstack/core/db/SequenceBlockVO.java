@@ -0,0 +1,37 @@
+package org.zstack.core.db;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * the next value not yet reserved by any management node for a sequence table,
+ * see DatabaseFacade.generateSequenceNumber()
+ */
+@Entity
+@Table
+public class SequenceBlockVO {
+    @Id
+    @Column
+    private String sequenceName;
+
+    @Column
+    private long nextValue;
+
+    public String getSequenceName() {
+        return sequenceName;
+    }
+
+    public void setSequenceName(String sequenceName) {
+        this.sequenceName = sequenceName;
+    }
+
+    public long getNextValue() {
+        return nextValue;
+    }
+
+    public void setNextValue(long nextValue) {
+        this.nextValue = nextValue;
+    }
+}
@@ -21,7 +21,6 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.managementnode.ManagementNodeChangeListener;
 import org.zstack.header.message.Event;
 import org.zstack.utils.Bucket;
-import org.zstack.utils.DebugUtils;
 import org.zstack.utils.JsonWrapper;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
@@ -37,7 +36,7 @@ import java.util.*;
  */
 public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListener, Component, ManagementNodeChangeListener {
     private static final CLogger logger = Utils.getLogger(JobQueueFacadeImpl2.class);
-    private static final String LOCK_NAME = "JobQueueFacade.lock";
+    private static final String LOCK_NAME_PREFIX = "JobQueueFacade.lock";
     private static final String ORPHAN_JOB_LOCK_NAME = "JobQueueFacade.orphanJobLock";
     private static final int LOCK_TIMEOUT = 60;
 
@@ -91,6 +90,11 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
         return true;
     }
 
+    private String getQueueLockName(String queueName) {
+        // jobs of different queues never touch the same rows, so each queue only needs to be serialized with itself
+        return String.format("%s-%s", LOCK_NAME_PREFIX, queueName);
+    }
+
     private void restartQueue(JobQueueVO qvo, String mgmtId) {
         SimpleQuery<JobQueueEntryVO> q = dbf.createQuery(JobQueueEntryVO.class);
         q.select(JobQueueEntryVO_.id, JobQueueEntryVO_.name);
@@ -127,7 +131,7 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
 
             logger.debug(String.format("[Job Restart]: job[id:%s, name:%s] in queue[id:%s] is restarting as its previous worker node[id:%s] became unavailable",
                     e.getId(), e.getName(), qvo.getId(), mgmtId));
-            execute(qvo.getName(), qvo.getOwner(), e, new NopeReturnValueCompletion(), null);
+            execute(qvo.getName(), qvo.getOwner(), e, null, new NopeReturnValueCompletion(), null);
             return;
         }
     }
@@ -175,13 +179,234 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
 
         void fail(ErrorCode err);
     }
-    
+
+    /**
+     * a job issued by this management node to a queue this management node is working on;
+     * it's written to the database when queued, but handed to the queue runner in memory
+     * so the runner neither de-serializes it nor reports its result by a JobEvent
+     */
+    private class LocalJob {
+        JobQueueEntryVO entry;
+        Job job;
+        JobWrapper wrapper;
+    }
+
+    /**
+     * in-memory run state of a queue this management node is working on, guarded by itself
+     */
+    private class QueueRunner {
+        JobQueueVO queue;
+        // entry id -> pending local job
+        Map<Long, LocalJob> localJobs = new HashMap<Long, LocalJob>();
+        // set when no job is pending and the runner is about to release the queue;
+        // new jobs go through the queue lock meanwhile
+        boolean draining;
+    }
+
+    // queue name -> runner, guarded by itself
+    private final Map<String, QueueRunner> runners = new HashMap<String, QueueRunner>();
+
     public void execute(String queueName, String owner, Job job) {
         execute(queueName, owner, job, new NopeCompletion());
     }
 
+    private void jobFail(JobQueueEntryVO jvo, ErrorCode err) {
+        jvo.setDoneDate(new Timestamp(new Date().getTime()));
+        jvo.setState(JobState.Error);
+        dbf.update(jvo);
+
+        JobEvent evt = new JobEvent();
+        evt.setJobId(jvo.getId());
+        evt.setErrorCode(err);
+        bus.publish(evt);
+    }
+
+    private void jobDone(JobQueueEntryVO jvo, Object ret) {
+        jvo.setDoneDate(new Timestamp(new Date().getTime()));
+        jvo.setState(JobState.Completed);
+        dbf.update(jvo);
+
+        JobEvent evt = new JobEvent();
+        evt.setJobId(jvo.getId());
+        if (ret != null) {
+            evt.setReturnValue(JsonWrapper.wrap(ret));
+        }
+        bus.publish(evt);
+    }
+
+    private JobQueueEntryVO findJob(JobQueueVO qvo) {
+        SimpleQuery<JobQueueEntryVO> q = dbf.createQuery(JobQueueEntryVO.class);
+        q.add(JobQueueEntryVO_.state, SimpleQuery.Op.EQ, JobState.Pending);
+        q.add(JobQueueEntryVO_.jobQueueId, SimpleQuery.Op.EQ, qvo.getId());
+        q.setLimit(1);
+        q.orderBy(JobQueueEntryVO_.id, SimpleQuery.Od.ASC);
+        return q.find();
+    }
+
+    private Bucket takeJob(final QueueRunner runner) {
+        JobQueueVO qvo = runner.queue;
+        GLock lock = new GLock(getQueueLockName(qvo.getName()), LOCK_TIMEOUT);
+        lock.lock();
+        try {
+            JobQueueEntryVO jobe = findJob(qvo);
+            if (jobe == null) {
+                // nothing to do, release queue
+                dbf.remove(qvo);
+                synchronized (runners) {
+                    runners.remove(qvo.getName());
+                }
+                logger.debug(String.format("[JobQueue released, no pending task, delete the queue] last owner: %s, queue name: %s, queue id: %s",
+                        qvo.getOwner(), qvo.getName(), qvo.getId()));
+                return null;
+            }
+
+            try {
+                JobContextObject ctx = SerializableHelper.readObject(jobe.getContext());
+                Job theJob = ctx.load();
+                jobe.setState(JobState.Processing);
+                jobe = dbf.updateAndRefresh(jobe);
+                return Bucket.newBucket(jobe, theJob);
+            } catch (Exception e1) {
+                String err = String.format("[Job de-serialize failed, the job will be marked as Error] queue name: %s, job id: %s, %s", qvo.getName(),
+                        jobe.getId(), e1.getMessage());
+                logger.warn(err, e1);
+                jobFail(jobe, errf.stringToInternalError(err));
+                // the next job may be a local one, let the runner pick it
+                return Bucket.newBucket(jobe, null);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-    private <T> void execute(final String queueName, final String owner, final JobQueueEntryVO entry, final ReturnValueCompletion<T> completion, final Class<? extends T> returnType) {
+    private void finishLocalJob(JobQueueEntryVO jvo, JobState state) {
+        jvo.setDoneDate(new Timestamp(new Date().getTime()));
+        jvo.setState(state);
+        dbf.update(jvo);
+    }
+
+    private void runLocalJob(final QueueRunner runner, final LocalJob lj) {
+        final JobQueueEntryVO e = lj.entry;
+        logger.debug(String.format("[Job Start] start executing job[id:%s, name:%s]", e.getId(), e.getName()));
+        lj.job.run(new ReturnValueCompletion<Object>() {
+            @Override
+            public void success(Object returnValue) {
+                try {
+                    finishLocalJob(e, JobState.Completed);
+                    logger.debug(String.format("[Job Success] job[id:%s, name:%s] succeed", e.getId(), e.getName()));
+                    lj.wrapper.success(returnValue);
+                } catch (Throwable t) {
+                    logger.warn(String.format("unhandled exception happened when calling %s", lj.job.getClass().getName()), t);
+                } finally {
+                    runNext(runner);
+                }
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                try {
+                    finishLocalJob(e, JobState.Error);
+                    logger.debug(String.format("[Job Failure] job[id:%s, name:%s] failed", e.getId(), e.getName()));
+                    lj.wrapper.fail(errorCode);
+                } catch (Throwable t) {
+                    logger.warn(String.format("unhandled exception happened when calling %s", lj.job.getClass().getName()), t);
+                } finally {
+                    runNext(runner);
+                }
+            }
+        });
+    }
+
+    private void runQueuedJob(final QueueRunner runner, Bucket ret) {
+        final JobQueueEntryVO e = ret.get(0);
+        final Job job = ret.get(1);
+
+        logger.debug(String.format("[Job Start] start executing job[id:%s, name:%s]", e.getId(), e.getName()));
+        job.run(new ReturnValueCompletion<Object>() {
+            @Override
+            public void success(Object returnValue) {
+                try {
+                    jobDone(e, returnValue);
+                    logger.debug(String.format("[Job Success] job[id:%s, name:%s] succeed", e.getId(), e.getName()));
+                } catch (Throwable t){
+                    logger.warn(String.format("unhandled exception happened when calling %s", job.getClass().getName()), t);
+                    jobFail(e, errf.stringToInternalError(t.getMessage()));
+                } finally {
+                    runNext(runner);
+                }
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                try {
+                    jobFail(e, errorCode);
+                    logger.debug(String.format("[Job Failure] job[id:%s, name:%s] failed", e.getId(), e.getName()));
+                } catch (Throwable t){
+                    logger.warn(String.format("unhandled exception happened when calling %s", job.getClass().getName()), t);
+                    jobFail(e, errf.stringToInternalError(t.getMessage()));
+                } finally {
+                    runNext(runner);
+                }
+            }
+        });
+    }
+
+    @AsyncThread
+    private void runNext(final QueueRunner runner) {
+        if (stopped) {
+            logger.warn(String.format("[Job Facade Stopped]: stop processing job"));
+            return;
+        }
+
+        LocalJob local = null;
+        synchronized (runner) {
+            // jobs run in the order they were queued, whichever management node issued them,
+            // so jobs queued by other management nodes are not starved by local ones
+            JobQueueEntryVO head = findJob(runner.queue);
+            if (head != null) {
+                local = runner.localJobs.remove(head.getId());
+            }
+            runner.draining = head == null;
+        }
+
+        if (local != null) {
+            local.entry.setState(JobState.Processing);
+            local.entry = dbf.updateAndRefresh(local.entry);
+            runLocalJob(runner, local);
+            return;
+        }
+
+        // a job queued by another management node or through the queue lock, or none at all
+        // in which case the queue is released
+        Bucket ret = takeJob(runner);
+        if (ret == null) {
+            return;
+        }
+
+        synchronized (runner) {
+            runner.draining = false;
+        }
+
+        if (ret.get(1) == null) {
+            runNext(runner);
+            return;
+        }
+
+        runQueuedJob(runner, ret);
+    }
+
+    private void startRunner(JobQueueVO qvo) {
+        QueueRunner runner = new QueueRunner();
+        runner.queue = qvo;
+        synchronized (runners) {
+            runners.put(qvo.getName(), runner);
+        }
+
+        runNext(runner);
+    }
+
+    private <T> void execute(final String queueName, final String owner, final JobQueueEntryVO entry, final Job job,
+                             final ReturnValueCompletion<T> completion, final Class<? extends T> returnType) {
         new JobWrapper() {
             private Long myJobId;
 
@@ -229,115 +454,42 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
                 return ret;
             }
 
-            private void jobFail(JobQueueEntryVO jvo, ErrorCode err) {
-                jvo.setDoneDate(new Timestamp(new Date().getTime()));
-                jvo.setState(JobState.Error);
-                dbf.update(jvo);
-
-                JobEvent evt = new JobEvent();
-                evt.setJobId(jvo.getId());
-                evt.setErrorCode(err);
-                bus.publish(evt);
-            }
-
-            private void jobDone(JobQueueEntryVO jvo, Object ret) {
-                jvo.setDoneDate(new Timestamp(new Date().getTime()));
-                jvo.setState(JobState.Completed);
-                dbf.update(jvo);
-
-                JobEvent evt = new JobEvent();
-                evt.setJobId(jvo.getId());
-                if (ret != null) {
-                    evt.setReturnValue(JsonWrapper.wrap(ret));
+            private boolean queueInMemory() {
+                if (job == null) {
+                    return false;
                 }
-                bus.publish(evt);
-            }
 
-            private JobQueueEntryVO findJob(JobQueueVO qvo) {
-                SimpleQuery<JobQueueEntryVO> q = dbf.createQuery(JobQueueEntryVO.class);
-                q.add(JobQueueEntryVO_.state, SimpleQuery.Op.EQ, JobState.Pending);
-                q.add(JobQueueEntryVO_.jobQueueId, SimpleQuery.Op.EQ, qvo.getId());
-                q.setLimit(1);
-                q.orderBy(JobQueueEntryVO_.id, SimpleQuery.Od.ASC);
-                return q.find();
-            }
-
-            private Bucket takeJob(final JobQueueVO qvo) {
-                GLock lock = new GLock(LOCK_NAME, LOCK_TIMEOUT);
-                lock.lock();
-                try {
-                    JobQueueEntryVO jobe = findJob(qvo);
-                    if (jobe == null) {
-                        // nothing to do, release queue
-                        dbf.remove(qvo);
-                        logger.debug(String.format("[JobQueue released, no pending task, delete the queue] last owner: %s, queue name: %s, queue id: %s",
-                                qvo.getOwner(), qvo.getName(), qvo.getId()));
-                        return null;
-                    }
-
-                    while (true) {
-                        try {
-                            JobContextObject ctx = SerializableHelper.readObject(jobe.getContext());
-                            Job theJob = ctx.load();
-                            jobe.setState(JobState.Processing);
-                            jobe = dbf.updateAndRefresh(jobe);
-                            return Bucket.newBucket(jobe, theJob);
-                        } catch (Exception e1) {
-                            String err = String.format("[Job de-serialize failed, the job will be marked as Error] queue name: %s, job id: %s, %s", qvo.getName(),
-                                    jobe.getId(), e1.getMessage());
-                            logger.warn(err, e1);
-                            jobFail(jobe, errf.stringToInternalError(err));
-                            jobe = findJob(qvo);
-                        }
-                    }
-                } finally {
-                    lock.unlock();
+                QueueRunner runner;
+                synchronized (runners) {
+                    runner = runners.get(queueName);
                 }
-            }
-
-            @AsyncThread
-            private void process(final JobQueueVO qvo) {
-                if (stopped) {
-                    logger.warn(String.format("[Job Facade Stopped]: stop processing job"));
-                    return;
+                if (runner == null) {
+                    return false;
                 }
 
-                Bucket ret = takeJob(qvo);
-                if (ret == null) {
-                    return;
-                }
-
-                final JobQueueEntryVO e = ret.get(0);
-                final Job job = ret.get(1);
-
-                logger.debug(String.format("[Job Start] start executing job[id:%s, name:%s]", e.getId(), e.getName()));
-                job.run(new ReturnValueCompletion<Object>() {
-                    @Override
-                    public void success(Object returnValue) {
-                        try {
-                            jobDone(e, returnValue);
-                            logger.debug(String.format("[Job Success] job[id:%s, name:%s] succeed", e.getId(), e.getName()));
-                        } catch (Throwable t){
-                            logger.warn(String.format("unhandled exception happened when calling %s", job.getClass().getName()), t);
-                            jobFail(e, errf.stringToInternalError(t.getMessage()));
-                        } finally {
-                            process(qvo);
-                        }
+                JobQueueEntryVO ne;
+                synchronized (runner) {
+                    if (runner.draining) {
+                        return false;
                     }
 
-                    @Override
-                    public void fail(ErrorCode errorCode) {
-                        try {
-                            jobFail(e, errorCode);
-                            logger.debug(String.format("[Job Failure] job[id:%s, name:%s] failed", e.getId(), e.getName()));
-                        } catch (Throwable t){
-                            logger.warn(String.format("unhandled exception happened when calling %s", job.getClass().getName()), t);
-                            jobFail(e, errf.stringToInternalError(t.getMessage()));
-                        } finally {
-                            process(qvo);
-                        }
-                    }
-                });
+                    // the runner owns the queue, so the entry is written without the queue lock; it's written
+                    // before the runner looks for the next job, as jobs run in the order of entry ids
+                    entry.setJobQueueId(runner.queue.getId());
+                    entry.setIssuerManagementNodeId(Platform.getManagementServerId());
+                    entry.setState(JobState.Pending);
+                    ne = dbf.persistAndRefresh(entry);
+
+                    LocalJob lj = new LocalJob();
+                    lj.entry = ne;
+                    lj.job = job;
+                    lj.wrapper = this;
+                    runner.localJobs.put(ne.getId(), lj);
+                }
+
+                logger.debug(String.format("[Job added] job queue name: %s, job class name: %s, job id: %s, queued in memory",
+                        queueName, ne.getName(), ne.getId()));
+                return true;
             }
 
             @Override
@@ -348,8 +500,12 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
                     return;
                 }
 
+                if (queueInMemory()) {
+                    return;
+                }
+
                 try {
-                    GLock lock = new GLock(LOCK_NAME, LOCK_TIMEOUT);
+                    GLock lock = new GLock(getQueueLockName(queueName), LOCK_TIMEOUT);
                     JobQueueVO qvo = null;
                     lock.lock();
                     try {
@@ -359,7 +515,7 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
                     }
 
                     if (qvo != null) {
-                        process(qvo);
+                        startRunner(qvo);
                     }
                 } catch (IOException e1) {
                     throw new CloudRuntimeException(String.format("unable to serialize job: %s", entry.getName()), e1);
@@ -368,15 +524,18 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
 
             @Override
             public void success(Object ret) {
-                DebugUtils.Assert(myJobId!=null, "how can myJobId be null???");
-                wrappers.remove(myJobId);
+                // myJobId is null for jobs queued in memory, they are not tracked in wrappers
+                if (myJobId != null) {
+                    wrappers.remove(myJobId);
+                }
                 completion.success((T)ret);
             }
 
             @Override
             public void fail(ErrorCode err) {
-                DebugUtils.Assert(myJobId!=null, "how can myJobId be null???");
-                wrappers.remove(myJobId);
+                if (myJobId != null) {
+                    wrappers.remove(myJobId);
+                }
                 completion.fail(err);
             }
         }.run();
@@ -391,7 +550,7 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
             e.setContext(bits);
             e.setRestartable(job.getClass().isAnnotationPresent(RestartableJob.class));
             e.setName(job.getClass().getName());
-            execute(queueName, owner, e, completion, returnType);
+            execute(queueName, owner, e, job, completion, returnType);
         } catch (IOException e1) {
             throw new CloudRuntimeException(e1);
         }
@@ -10,12 +10,14 @@ import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.logging.CLoggerImpl;
 
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE, dependencyCheck = true)
 class DispatchQueueImpl implements DispatchQueue {
@@ -24,10 +26,41 @@ class DispatchQueueImpl implements DispatchQueue {
 	@Autowired
 	ThreadFacade _threadFacade;
 
-	private final HashMap<String, SyncTaskQueueWrapper> syncTasks = new HashMap<String, SyncTaskQueueWrapper>();
-	private final HashMap<String, ChainTaskQueueWrapper> chainTasks = new HashMap<String, ChainTaskQueueWrapper>();
+	private final Map<String, SyncTaskQueueWrapper> syncTasks = new ConcurrentHashMap<String, SyncTaskQueueWrapper>();
+	private final Map<String, ChainTaskQueueWrapper> chainTasks = new ConcurrentHashMap<String, ChainTaskQueueWrapper>();
 	private static final CLogger _logger = CLoggerImpl.getLogger(DispatchQueueImpl.class);
 
+    // a queue wrapper is created, run and removed under the stripe its signature hashes to,
+    // so unrelated signatures no longer serialize on one monitor
+    private final ReentrantLock[] stripes;
+    private final int stripeMask;
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final LongAdder lockContentions = new LongAdder();
+
+    DispatchQueueImpl() {
+        int num = 1;
+        while (num < ThreadGlobalProperty.DISPATCH_QUEUE_LOCK_STRIPES) {
+            num <<= 1;
+        }
+
+        stripes = new ReentrantLock[num];
+        for (int i = 0; i < num; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        stripeMask = num - 1;
+    }
+
+    private ReentrantLock lock(String syncSignature) {
+        int h = syncSignature.hashCode();
+        ReentrantLock l = stripes[(h ^ (h >>> 16)) & stripeMask];
+        lockAcquisitions.increment();
+        if (!l.tryLock()) {
+            lockContentions.increment();
+            l.lock();
+        }
+        return l;
+    }
+
 
 	public void init() {
 	}
@@ -114,7 +147,8 @@ class DispatchQueueImpl implements DispatchQueue {
                             stask.run();
                         }
 
-                        synchronized (syncTasks) {
+                        ReentrantLock l = lock(syncSignature);
+                        try {
                             if (queue.isEmpty()) {
                                 if (counter.decrementAndGet() == 0) {
                                     syncTasks.remove(syncSignature);
@@ -122,6 +156,8 @@ class DispatchQueueImpl implements DispatchQueue {
 
                                 break;
                             }
+                        } finally {
+                            l.unlock();
                         }
                     }
 
@@ -140,7 +176,8 @@ class DispatchQueueImpl implements DispatchQueue {
 		assert syncTask.getSyncSignature() != null : "How can you submit a sync task without sync signature ???";
 
         SyncTaskFuture f;
-        synchronized (syncTasks) {
+        ReentrantLock l = lock(syncTask.getSyncSignature());
+        try {
             SyncTaskQueueWrapper wrapper = syncTasks.get(syncTask.getSyncSignature());
             if (wrapper == null) {
                 wrapper = new SyncTaskQueueWrapper();
@@ -149,6 +186,8 @@ class DispatchQueueImpl implements DispatchQueue {
             f = new SyncTaskFuture(syncTask);
             wrapper.addTask(f);
             wrapper.startThreadIfNeeded();
+        } finally {
+            l.unlock();
         }
 
 		return f;
@@ -226,7 +265,7 @@ class DispatchQueueImpl implements DispatchQueue {
     }
 
     private class ChainTaskQueueWrapper {
-        LinkedList queue = new LinkedList();
+        ConcurrentLinkedQueue queue = new ConcurrentLinkedQueue();
         AtomicInteger counter = new AtomicInteger(0);
         int maxThreadNum = -1;
         String syncSignature;
@@ -257,7 +296,8 @@ class DispatchQueueImpl implements DispatchQueue {
                 @AsyncThread
                 private void runQueue() {
                     ChainFuture cf;
-                    synchronized (chainTasks) {
+                    ReentrantLock l = lock(syncSignature);
+                    try {
                         cf = (ChainFuture) queue.poll();
                         if (cf == null) {
                             if (counter.decrementAndGet() == 0) {
@@ -266,6 +306,8 @@ class DispatchQueueImpl implements DispatchQueue {
 
                             return;
                         }
+                    } finally {
+                        l.unlock();
                     }
 
                     cf.run(new SyncTaskChain() {
@@ -290,8 +332,9 @@ class DispatchQueueImpl implements DispatchQueue {
         assert task.getSyncSignature() != null : "How can you submit a chain task without sync signature ???";
         DebugUtils.Assert(task.getSyncLevel() >= 1, String.format("getSyncLevel() must return more than 1"));
 
-        synchronized (chainTasks) {
-            final String signature = task.getSyncSignature();
+        final String signature = task.getSyncSignature();
+        ReentrantLock l = lock(signature);
+        try {
             ChainTaskQueueWrapper wrapper = chainTasks.get(signature);
             if (wrapper == null) {
                 wrapper = new ChainTaskQueueWrapper();
@@ -302,6 +345,8 @@ class DispatchQueueImpl implements DispatchQueue {
             wrapper.addTask(cf);
             wrapper.startThreadIfNeeded();
             return cf;
+        } finally {
+            l.unlock();
         }
     }
 	
@@ -343,4 +388,15 @@ class DispatchQueueImpl implements DispatchQueue {
         }
         return ret;
     }
+
+    @Override
+    public DispatchQueueStatistic getDispatchQueueStatistic() {
+        return new DispatchQueueStatistic(
+                stripes.length,
+                lockAcquisitions.sum(),
+                lockContentions.sum(),
+                syncTasks.size(),
+                chainTasks.size()
+        );
+    }
 }
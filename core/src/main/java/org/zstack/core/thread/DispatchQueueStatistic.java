@@ -0,0 +1,42 @@
+package org.zstack.core.thread;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class DispatchQueueStatistic {
+    private int lockStripeNum;
+    private long lockAcquisitionNum;
+    private long lockContentionNum;
+    private int syncQueueNum;
+    private int chainQueueNum;
+
+    @ConstructorProperties({"lockStripeNum", "lockAcquisitionNum", "lockContentionNum", "syncQueueNum", "chainQueueNum"})
+    public DispatchQueueStatistic(int lockStripeNum, long lockAcquisitionNum, long lockContentionNum, int syncQueueNum, int chainQueueNum) {
+        this.lockStripeNum = lockStripeNum;
+        this.lockAcquisitionNum = lockAcquisitionNum;
+        this.lockContentionNum = lockContentionNum;
+        this.syncQueueNum = syncQueueNum;
+        this.chainQueueNum = chainQueueNum;
+    }
+
+    public int getLockStripeNum() {
+        return lockStripeNum;
+    }
+
+    public long getLockAcquisitionNum() {
+        return lockAcquisitionNum;
+    }
+
+    public long getLockContentionNum() {
+        return lockContentionNum;
+    }
+
+    public int getSyncQueueNum() {
+        return syncQueueNum;
+    }
+
+    public int getChainQueueNum() {
+        return chainQueueNum;
+    }
+}
@@ -0,0 +1,249 @@
+package org.zstack.core.thread;
+
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a hashed timing wheel for timeouts that are mostly cancelled before they fire.
+ *
+ * Scheduling and cancelling are O(1): a new timeout is queued and put into its
+ * bucket by the worker on the next tick; a cancelled timeout is only marked and
+ * unlinked from its bucket by the worker, so nothing is ever purged. Timeouts fire
+ * at tick granularity, never earlier than their deadline.
+ *
+ * Tasks are run on the worker thread, they must hand real work to a thread pool
+ */
+class HashedWheelTimer {
+    private static final CLogger logger = Utils.getLogger(HashedWheelTimer.class);
+
+    private static final int ST_INIT = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    private final long tickDuration;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean stopped;
+
+    private final AtomicLong pendingNum = new AtomicLong(0);
+    private final AtomicLong expiredNum = new AtomicLong(0);
+    private final AtomicLong cancelledNum = new AtomicLong(0);
+
+    class Timeout implements ThreadFacadeImpl.TimeoutTaskReceipt {
+        final Runnable task;
+        final long deadline;
+        long remainingRounds;
+        final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+        Timeout next;
+        Timeout prev;
+        Bucket bucket;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+
+            pendingNum.decrementAndGet();
+            cancelledNum.incrementAndGet();
+            cancelledTimeouts.offer(this);
+            return true;
+        }
+
+        void expire() {
+            if (!state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+
+            pendingNum.decrementAndGet();
+            expiredNum.incrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception happened when running timeout task %s", task.getClass().getName()), t);
+            }
+        }
+    }
+
+    private static class Bucket {
+        Timeout head;
+        Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        Timeout remove(Timeout t) {
+            Timeout next = t.next;
+            if (t.prev != null) {
+                t.prev.next = next;
+            }
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            }
+
+            if (t == head) {
+                head = next;
+            }
+            if (t == tail) {
+                tail = t.prev;
+            }
+
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+            return next;
+        }
+
+        void expire(long deadline) {
+            Timeout t = head;
+            while (t != null) {
+                if (t.remainingRounds <= 0) {
+                    Timeout next = remove(t);
+                    if (t.deadline <= deadline) {
+                        t.expire();
+                    }
+                    t = next;
+                } else if (t.state.get() == ST_CANCELLED) {
+                    t = remove(t);
+                } else {
+                    t.remainingRounds --;
+                    t = t.next;
+                }
+            }
+        }
+    }
+
+    HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+        this.tickDuration = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+
+        startTime = System.nanoTime();
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    ThreadFacadeImpl.TimeoutTaskReceipt schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0));
+        Timeout t = new Timeout(task, deadline);
+        pendingNum.incrementAndGet();
+        newTimeouts.offer(t);
+        return t;
+    }
+
+    void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    long getPendingNum() {
+        return pendingNum.get();
+    }
+
+    long getExpiredNum() {
+        return expiredNum.get();
+    }
+
+    long getCancelledNum() {
+        return cancelledNum.get();
+    }
+
+    long getTickDuration(TimeUnit unit) {
+        return unit.convert(tickDuration, TimeUnit.NANOSECONDS);
+    }
+
+    private void work() {
+        long tick = 0;
+        while (!stopped) {
+            long deadline = tickDuration * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            try {
+                removeCancelled();
+                transferNewTimeouts(tick);
+                wheel[(int) (tick & mask)].expire(deadline);
+            } catch (Throwable t) {
+                logger.warn("unhandled exception happened in timeout wheel", t);
+            }
+
+            tick ++;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = cancelledTimeouts.poll()) != null) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    private void transferNewTimeouts(long tick) {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout t = newTimeouts.poll();
+            if (t == null) {
+                return;
+            }
+
+            if (t.state.get() == ST_CANCELLED) {
+                continue;
+            }
+
+            long calculated = t.deadline / tickDuration;
+            t.remainingRounds = (calculated - tick) / wheel.length;
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(t);
+        }
+    }
+}
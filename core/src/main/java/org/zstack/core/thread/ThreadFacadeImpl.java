@@ -20,58 +20,11 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 	private static AtomicInteger seqNum = new AtomicInteger(0);
 	private ScheduledThreadPoolExecutorExt _pool;
 	private DispatchQueue dpq;
-    private TimerPool timerPool = new TimerPool(5);
+    private HashedWheelTimer timeoutWheel;
 
     @Autowired
     private JmxFacade jmxf;
 
-    private class TimerWrapper extends Timer {
-        private int cancelledTimerTaskCount = 0;
-        private static final int PURGE_CANCELLED_TIMER_TASK_THRESHOLD = 2000;
-
-        void notifyCancel() {
-            if (cancelledTimerTaskCount ++ >= PURGE_CANCELLED_TIMER_TASK_THRESHOLD) {
-                cancelledTimerTaskCount = 0;
-                this.purge();
-            }
-        }
-    }
-
-    private class TimerPool {
-        int poolSize;
-        List<TimerWrapper> pool;
-
-        // never use a long type counter for self increment. two issues
-        // 1) Java will silently overflow a number; even a long will be overflow someday
-        // 2) big number causes extremely bad performance for mod operation
-        // instead, reset the counter when it exceeds COUNTER_RESET_THRESHOLD to maintain
-        // decent performance for mod operation.
-        int counter = 0;
-        static final int COUNTER_RESET_THRESHOLD = 1000000;
-
-        private TimerPool(int poolSize) {
-            this.poolSize = poolSize;
-            pool = new ArrayList<TimerWrapper>(poolSize);
-            for (int i=0; i<poolSize; i++) {
-                pool.add(new TimerWrapper());
-            }
-        }
-
-        TimerWrapper getTimer() {
-            int index = ++ counter % poolSize;
-            if (counter > COUNTER_RESET_THRESHOLD) {
-                counter = 0;
-            }
-            return pool.get(index);
-        }
-
-        void stop() {
-            for (TimerWrapper wrapper : pool) {
-                wrapper.cancel();
-            }
-        }
-    }
-
     @Override
     public Map<String, SyncTaskStatistic> getSyncTaskStatistics() {
         return dpq.getSyncTaskStatistics();
@@ -82,6 +35,21 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         return dpq.getChainTaskStatistics();
     }
 
+    @Override
+    public TimeoutWheelStatistic getTimeoutWheelStatistic() {
+        return new TimeoutWheelStatistic(
+                timeoutWheel.getTickDuration(TimeUnit.MILLISECONDS),
+                timeoutWheel.getPendingNum(),
+                timeoutWheel.getExpiredNum(),
+                timeoutWheel.getCancelledNum()
+        );
+    }
+
+    @Override
+    public DispatchQueueStatistic getDispatchQueueStatistic() {
+        return dpq.getDispatchQueueStatistic();
+    }
+
     @Override
     public ThreadPoolStatistic getThreadPoolStatistic() {
         long completedTask = _pool.getCompletedTaskCount();
@@ -128,6 +96,8 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 		_pool = new ScheduledThreadPoolExecutorExt(totalThreadNum, this, this);
         _logger.debug(String.format("create ThreadFacade with max thread number:%s", totalThreadNum));
 		dpq = new DispatchQueueImpl();
+        timeoutWheel = new HashedWheelTimer("zs-timeout-wheel", ThreadGlobalProperty.TIMEOUT_WHEEL_TICK,
+                TimeUnit.MILLISECONDS, ThreadGlobalProperty.TIMEOUT_WHEEL_SIZE);
 
         jmxf.registerBean("ThreadFacade", this);
 	}
@@ -223,49 +193,53 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 
 	@Override
 	public TimeoutTaskReceipt submitTimeoutTask(final Runnable task, TimeUnit unit, long delay) {
-        final TimerWrapper timer = timerPool.getTimer();
-
-        class TimerTaskWorker extends java.util.TimerTask implements TimeoutTaskReceipt {
+        // the wheel thread only dispatches, the task itself runs in the thread pool
+        return timeoutWheel.schedule(new Runnable() {
             @Override
-            @AsyncThread
             public void run() {
-                try {
-                    task.run();
-                } catch (Throwable t) {
-                    _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
-                } finally {
-                    this.cancel();
-                }
+                submit(new Task<Void>() {
+                    @Override
+                    public String getName() {
+                        return "timeout-task";
+                    }
+
+                    @Override
+                    public Void call() throws Exception {
+                        try {
+                            task.run();
+                        } catch (Throwable t) {
+                            _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
+                        }
+                        return null;
+                    }
+                });
             }
-
-            @Override
-            public boolean cancel() {
-                boolean ret = super.cancel();
-                timer.notifyCancel();
-                return ret;
-            }
-        }
-
-        TimerTaskWorker worker = new TimerTaskWorker();
-		timer.schedule(worker, unit.toMillis(delay));
-		return worker;
+        }, delay, unit);
 	}
 
 	@Override
 	public void submitTimerTask(final TimerTask task, TimeUnit unit, long delay) {
-		final TimerWrapper timer = timerPool.getTimer();
-		 timer.schedule(new java.util.TimerTask() {
-			@Override
-			public void run() {
-				try {
-					if (task.run()) {
-						cancel();
-					}
-				} catch (Throwable t) {
-					_logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
-				}
-			}
-		}, unit.toMillis(delay));
+        timeoutWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                submit(new Task<Void>() {
+                    @Override
+                    public String getName() {
+                        return "timer-task";
+                    }
+
+                    @Override
+                    public Void call() throws Exception {
+                        try {
+                            task.run();
+                        } catch (Throwable t) {
+                            _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
+                        }
+                        return null;
+                    }
+                });
+            }
+        }, delay, unit);
 	}
 
 	@Override
@@ -276,7 +250,7 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 	@Override
 	public boolean stop() {
 		_pool.shutdown();
-        timerPool.stop();
+        timeoutWheel.stop();
 		return true;
 	}
 
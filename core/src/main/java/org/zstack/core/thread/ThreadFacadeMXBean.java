@@ -10,4 +10,8 @@ public interface ThreadFacadeMXBean {
     Map<String, ChainTaskStatistic> getChainTaskStatistics();
 
     ThreadPoolStatistic getThreadPoolStatistic();
+
+    DispatchQueueStatistic getDispatchQueueStatistic();
+
+    TimeoutWheelStatistic getTimeoutWheelStatistic();
 }
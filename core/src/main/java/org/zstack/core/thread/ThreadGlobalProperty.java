@@ -9,4 +9,10 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class ThreadGlobalProperty {
     @GlobalProperty(name="ThreadFacade.maxThreadNum", defaultValue = "100")
     public static int MAX_THREAD_NUM;
+    @GlobalProperty(name="ThreadFacade.dispatchQueueLockStripes", defaultValue = "64")
+    public static int DISPATCH_QUEUE_LOCK_STRIPES;
+    @GlobalProperty(name="ThreadFacade.timeoutWheelTickInMillis", defaultValue = "50")
+    public static long TIMEOUT_WHEEL_TICK;
+    @GlobalProperty(name="ThreadFacade.timeoutWheelSize", defaultValue = "1024")
+    public static int TIMEOUT_WHEEL_SIZE;
 }
@@ -0,0 +1,36 @@
+package org.zstack.core.thread;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class TimeoutWheelStatistic {
+    private long tickMillis;
+    private long pendingTimeoutNum;
+    private long expiredTimeoutNum;
+    private long cancelledTimeoutNum;
+
+    @ConstructorProperties({"tickMillis", "pendingTimeoutNum", "expiredTimeoutNum", "cancelledTimeoutNum"})
+    public TimeoutWheelStatistic(long tickMillis, long pendingTimeoutNum, long expiredTimeoutNum, long cancelledTimeoutNum) {
+        this.tickMillis = tickMillis;
+        this.pendingTimeoutNum = pendingTimeoutNum;
+        this.expiredTimeoutNum = expiredTimeoutNum;
+        this.cancelledTimeoutNum = cancelledTimeoutNum;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public long getPendingTimeoutNum() {
+        return pendingTimeoutNum;
+    }
+
+    public long getExpiredTimeoutNum() {
+        return expiredTimeoutNum;
+    }
+
+    public long getCancelledTimeoutNum() {
+        return cancelledTimeoutNum;
+    }
+}
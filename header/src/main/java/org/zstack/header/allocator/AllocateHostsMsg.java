@@ -0,0 +1,25 @@
+package org.zstack.header.allocator;
+
+import org.zstack.header.vm.VmInstanceInventory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * allocates hosts for a group of vms sharing the same allocation requirements in one allocator pass;
+ * vmInstance is the representative vm the allocator flows see
+ */
+public class AllocateHostsMsg extends DesignatedAllocateHostMsg {
+    private List<VmInstanceInventory> vmInstances;
+
+    public List<VmInstanceInventory> getVmInstances() {
+        if (vmInstances == null) {
+            vmInstances = new ArrayList<VmInstanceInventory>(0);
+        }
+        return vmInstances;
+    }
+
+    public void setVmInstances(List<VmInstanceInventory> vmInstances) {
+        this.vmInstances = vmInstances;
+    }
+}
@@ -0,0 +1,22 @@
+package org.zstack.header.allocator;
+
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.message.MessageReply;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * hosts keyed by vm uuid; vms for which no host could be reserved are absent
+ */
+public class AllocateHostsReply extends MessageReply {
+    private Map<String, HostInventory> hosts = new HashMap<String, HostInventory>();
+
+    public Map<String, HostInventory> getHosts() {
+        return hosts;
+    }
+
+    public void setHosts(Map<String, HostInventory> hosts) {
+        this.hosts = hosts;
+    }
+}
@@ -16,6 +16,12 @@ public interface HostAllocatorConstant {
 	    host,
 	}
 
+    /**
+     * key of HostAllocatorSpec.getExtraData(), a Map<String, Integer> of host uuid to the max number of vms
+     * of a batch the host can take for resources other than cpu/memory, e.g. the capacity of local storage
+     */
+    public static final String BATCH_HOST_VM_LIMITS = "batchHostVmLimits";
+
     public static final ErrorCode PAGINATION_INTERMEDIATE_ERROR = new ErrorCode(
             "NO_AVAILABLE_HOST_BUT_PAGINATION_HAS_NOT_DONE",
             "some allocator flow cannot find candidate hosts; given it's still in pagination process, will continue allocating"
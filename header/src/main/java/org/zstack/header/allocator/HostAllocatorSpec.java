@@ -27,6 +27,20 @@ public class HostAllocatorSpec {
     private List<DiskOfferingInventory> diskOfferings = new ArrayList<DiskOfferingInventory>();
     private Map<Object, Object> extraData = new HashMap<Object, Object>();
     private boolean allowNoL3Networks;
+    // vms allocated in one pass, see AllocateHostsMsg; null if only vmInstance is allocated
+    private List<VmInstanceInventory> batchVmInstances;
+
+    public int getBatchSize() {
+        return batchVmInstances == null ? 1 : batchVmInstances.size();
+    }
+
+    public List<VmInstanceInventory> getBatchVmInstances() {
+        return batchVmInstances;
+    }
+
+    public void setBatchVmInstances(List<VmInstanceInventory> batchVmInstances) {
+        this.batchVmInstances = batchVmInstances;
+    }
 
     public boolean isAllowNoL3Networks() {
         return allowNoL3Networks;
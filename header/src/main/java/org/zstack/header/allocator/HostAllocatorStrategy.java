@@ -9,4 +9,9 @@ public interface HostAllocatorStrategy {
     void allocate(HostAllocatorSpec spec, ReturnValueCompletion<HostInventory> completion);
 
 	void dryRun(HostAllocatorSpec spec, ReturnValueCompletion<List<HostInventory>> completion);
+
+    /**
+     * reserves capacity for spec.getBatchSize() vms; the returned list may be shorter if not all of them fit
+     */
+    void allocateBatch(HostAllocatorSpec spec, ReturnValueCompletion<List<HostInventory>> completion);
 }
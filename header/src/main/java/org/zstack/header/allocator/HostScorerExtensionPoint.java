@@ -0,0 +1,15 @@
+package org.zstack.header.allocator;
+
+import org.zstack.header.host.HostVO;
+
+/**
+ * Scores candidate hosts for the scoring stage of host allocators, a higher score is preferred.
+ *
+ * Scores of a scorer are normalized to [0, 1] over all candidates before being weighted by
+ * hostAllocator.scoring.weights, so a scorer only needs to keep its scores in the right order.
+ */
+public interface HostScorerExtensionPoint {
+    String getHostScorerName();
+
+    double scoreHost(HostVO host, HostAllocatorSpec spec);
+}
@@ -10,6 +10,29 @@ import java.util.Date;
 public class IdentityCanonicalEvents {
     public static final String ACCOUNT_DELETED_PATH = "/account/delete";
     public static final String USER_DELETED_PATH = "/user/delete";
+    public static final String POLICY_CHANGED_PATH = "/policy/change";
+
+    @NeedJsonSchema
+    public static class PolicyChangedData {
+        private String accountUuid;
+        private Date date = new Date();
+
+        public String getAccountUuid() {
+            return accountUuid;
+        }
+
+        public void setAccountUuid(String accountUuid) {
+            this.accountUuid = accountUuid;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public void setDate(Date date) {
+            this.date = date;
+        }
+    }
 
     @NeedJsonSchema
     public static class AccountDeletedData {
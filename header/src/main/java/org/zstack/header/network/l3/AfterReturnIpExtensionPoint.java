@@ -0,0 +1,7 @@
+package org.zstack.header.network.l3;
+
+/**
+ */
+public interface AfterReturnIpExtensionPoint {
+    void afterReturnIp(UsedIpInventory ip);
+}
@@ -17,6 +17,8 @@ public abstract class APIQueryMessage extends APISyncCallMessage {
     @APIParam(required = false, validValues = {"asc", "desc"})
     private String sortDirection = "asc";
     private List<String> fields;
+    private String continuationToken;
+    private boolean replyWithContinuationToken;
 
     public List<QueryCondition> getConditions() {
         if (conditions == null) {
@@ -101,6 +103,26 @@ public abstract class APIQueryMessage extends APISyncCallMessage {
         return fields != null && !fields.isEmpty();
     }
 
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
+    public boolean isReplyWithContinuationToken() {
+        return replyWithContinuationToken;
+    }
+
+    public void setReplyWithContinuationToken(boolean replyWithContinuationToken) {
+        this.replyWithContinuationToken = replyWithContinuationToken;
+    }
+
+    public boolean isKeysetPaging() {
+        return replyWithContinuationToken || continuationToken != null;
+    }
+
     public boolean isCount() {
         return count;
     }
@@ -8,5 +8,7 @@ public interface QueryBuilder {
 
     long count(APIQueryMessage msg, Class inventoryClass);
 
+    String makeContinuationToken(APIQueryMessage msg, Class inventoryClass, List inventories);
+
     Map<String, List<String>> populateQueryableFields();
 }
@@ -0,0 +1,33 @@
+package org.zstack.header.storage.snapshot;
+
+import org.zstack.header.message.NeedJsonSchema;
+
+import java.util.Date;
+
+/**
+ */
+public class VolumeSnapshotCanonicalEvents {
+    public static final String VOLUME_SNAPSHOT_TREE_CHANGED_PATH = "/volumeSnapshot/tree/change";
+
+    @NeedJsonSchema
+    public static class VolumeSnapshotTreeChangedData {
+        private String treeUuid;
+        private Date date = new Date();
+
+        public String getTreeUuid() {
+            return treeUuid;
+        }
+
+        public void setTreeUuid(String treeUuid) {
+            this.treeUuid = treeUuid;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public void setDate(Date date) {
+            this.date = date;
+        }
+    }
+}
@@ -314,19 +314,24 @@ public class AccountBase extends AbstractAccount {
     }
 
     @Transactional
-    private void handle(APIDetachPoliciesFromUserMsg msg) {
+    private void detachPoliciesFromUser(APIDetachPoliciesFromUserMsg msg) {
         String sql = "delete from UserPolicyRefVO ref where ref.policyUuid in (:puuids) and ref.userUuid = :userUuid";
         Query q = dbf.getEntityManager().createQuery(sql);
         q.setParameter("puuids", msg.getPolicyUuids());
         q.setParameter("userUuid", msg.getUserUuid());
         q.executeUpdate();
+    }
+
+    private void handle(APIDetachPoliciesFromUserMsg msg) {
+        detachPoliciesFromUser(msg);
+        acntMgr.notifyPolicyChanged(vo.getUuid());
 
         APIDetachPoliciesFromUserEvent evt = new APIDetachPoliciesFromUserEvent(msg.getId());
         bus.publish(evt);
     }
 
     @Transactional
-    private void handle(APIAttachPoliciesToUserMsg msg) {
+    private void attachPoliciesToUser(APIAttachPoliciesToUserMsg msg) {
         String sql = "select p.uuid from PolicyVO p where p.uuid in (:uuids) and p.uuid not in (select ref.policyUuid from UserPolicyRefVO ref" +
                 " where ref.userUuid = :userUuid) group by p.uuid";
         TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
@@ -340,6 +345,11 @@ public class AccountBase extends AbstractAccount {
             ref.setPolicyUuid(puuid);
             dbf.getEntityManager().persist(ref);
         }
+    }
+
+    private void handle(APIAttachPoliciesToUserMsg msg) {
+        attachPoliciesToUser(msg);
+        acntMgr.notifyPolicyChanged(vo.getUuid());
 
         APIAttachPoliciesToUserEvent evt = new APIAttachPoliciesToUserEvent(msg.getId());
         bus.publish(evt);
@@ -512,6 +522,11 @@ public class AccountBase extends AbstractAccount {
             user = dbf.updateAndRefresh(user);
         }
 
+        if (msg.getName() != null) {
+            // the user name is cached along with the user's policies
+            acntMgr.notifyPolicyChanged(vo.getUuid());
+        }
+
         APIUpdateUserEvent evt = new APIUpdateUserEvent(msg.getId());
         evt.setInventory(UserInventory.valueOf(user));
         bus.publish(evt);
@@ -524,6 +539,7 @@ public class AccountBase extends AbstractAccount {
         UserGroupUserRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            acntMgr.notifyPolicyChanged(vo.getUuid());
         }
 
         bus.publish(new APIRemoveUserFromGroupEvent(msg.getId()));
@@ -536,6 +552,7 @@ public class AccountBase extends AbstractAccount {
         UserGroupPolicyRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            acntMgr.notifyPolicyChanged(vo.getUuid());
         }
 
         bus.publish(new APIDetachPolicyFromUserGroupEvent(msg.getId()));
@@ -548,6 +565,7 @@ public class AccountBase extends AbstractAccount {
         UserPolicyRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            acntMgr.notifyPolicyChanged(vo.getUuid());
         }
 
         bus.publish(new APIDetachPolicyFromUserEvent(msg.getId()));
@@ -555,6 +573,7 @@ public class AccountBase extends AbstractAccount {
 
     private void handle(APIDeletePolicyMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), PolicyVO.class);
+        acntMgr.notifyPolicyChanged(vo.getUuid());
         APIDeletePolicyEvent evt = new APIDeletePolicyEvent(msg.getId());
         bus.publish(evt);
     }
@@ -577,6 +596,7 @@ public class AccountBase extends AbstractAccount {
 
     private void handle(APIDeleteUserGroupMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), UserGroupVO.class);
+        acntMgr.notifyPolicyChanged(vo.getUuid());
         APIDeleteUserGroupEvent evt = new APIDeleteUserGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -586,6 +606,7 @@ public class AccountBase extends AbstractAccount {
         ugvo.setGroupUuid(msg.getGroupUuid());
         ugvo.setUserUuid(msg.getUserUuid());
         dbf.persist(ugvo);
+        acntMgr.notifyPolicyChanged(vo.getUuid());
         APIAddUserToGroupEvent evt = new APIAddUserToGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -595,6 +616,7 @@ public class AccountBase extends AbstractAccount {
         grvo.setGroupUuid(msg.getGroupUuid());
         grvo.setPolicyUuid(msg.getPolicyUuid());
         dbf.persist(grvo);
+        acntMgr.notifyPolicyChanged(vo.getUuid());
         APIAttachPolicyToUserGroupEvent evt = new APIAttachPolicyToUserGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -624,7 +646,8 @@ public class AccountBase extends AbstractAccount {
         upvo.setPolicyUuid(msg.getPolicyUuid());
         upvo.setUserUuid(msg.getUserUuid());
         dbf.persist(upvo);
-        
+        acntMgr.notifyPolicyChanged(vo.getUuid());
+
         APIAttachPolicyToUserEvent evt = new APIAttachPolicyToUserEvent(msg.getId());
         bus.publish(evt);
     }
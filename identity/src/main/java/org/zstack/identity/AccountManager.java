@@ -23,4 +23,6 @@ public interface AccountManager {
     void checkApiMessagePermission(APIMessage msg);
 
     boolean isAdmin(SessionInventory session);
+
+    void notifyPolicyChanged(String accountUuid);
 }
@@ -27,6 +27,7 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.identity.*;
 import org.zstack.header.identity.AccountConstant.StatementEffect;
 import org.zstack.header.identity.IdentityCanonicalEvents.AccountDeletedData;
+import org.zstack.header.identity.IdentityCanonicalEvents.PolicyChangedData;
 import org.zstack.header.identity.IdentityCanonicalEvents.UserDeletedData;
 import org.zstack.header.identity.PolicyInventory.Statement;
 import org.zstack.header.identity.Quota.QuotaPair;
@@ -53,6 +54,7 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -99,8 +101,41 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         boolean accountControl;
     }
 
+    static class CompiledStatement {
+        PolicyInventory policy;
+        Statement statement;
+        List<String> actionRules = new ArrayList<String>();
+        List<Pattern> patterns = new ArrayList<Pattern>();
+    }
+
+    static class Decision {
+        PolicyInventory policy;
+        String action;
+        Statement statement;
+        String actionRule;
+        StatementEffect effect;
+        boolean userPolicy;
+    }
+
+    private static final Decision NO_DECISION = new Decision();
+
+    /**
+     * policies of a user and of the groups the user belongs to, with action rules compiled;
+     * decisions are memoized per API class as they only depend on the message actions
+     */
+    static class UserPolicyCache {
+        String username;
+        List<CompiledStatement> userStatements;
+        List<CompiledStatement> groupStatements;
+        Map<Class, Decision> decisions = new ConcurrentHashMap<Class, Decision>();
+    }
+
     private Map<Class, MessageAction> actions = new HashMap<Class, MessageAction>();
     private Future<Void> expiredSessionCollector;
+    private Map<String, AccountType> accountTypes = new ConcurrentHashMap<String, AccountType>();
+    private Map<String, Pattern> actionRulePatterns = new ConcurrentHashMap<String, Pattern>();
+    private final Map<String, UserPolicyCache> userPolicyCaches = new HashMap<String, UserPolicyCache>();
+    private AtomicLong policyGeneration = new AtomicLong();
 
     @Override
     @MessageSafe
@@ -142,6 +177,75 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         return AccountConstant.INITIAL_SYSTEM_ADMIN_UUID.equals(session.getAccountUuid());
     }
 
+    @Override
+    public void notifyPolicyChanged(String accountUuid) {
+        // invalidate synchronously so the next API on this management node sees the change,
+        // other management nodes invalidate when receiving the canonical event
+        invalidatePolicyCaches();
+
+        PolicyChangedData d = new PolicyChangedData();
+        d.setAccountUuid(accountUuid);
+        evtf.fire(IdentityCanonicalEvents.POLICY_CHANGED_PATH, d);
+    }
+
+    private void invalidatePolicyCaches() {
+        synchronized (userPolicyCaches) {
+            policyGeneration.incrementAndGet();
+            userPolicyCaches.clear();
+        }
+
+        actionRulePatterns.clear();
+    }
+
+    private UserPolicyCache getCachedUserPolicies(String userUuid) {
+        synchronized (userPolicyCaches) {
+            return userPolicyCaches.get(userUuid);
+        }
+    }
+
+    private void cacheUserPolicies(String userUuid, UserPolicyCache cache, long generation) {
+        synchronized (userPolicyCaches) {
+            // policies changed while the cache was being loaded, it may be stale
+            if (generation == policyGeneration.get()) {
+                userPolicyCaches.put(userUuid, cache);
+            }
+        }
+    }
+
+    private void evictUserPolicies(String userUuid) {
+        synchronized (userPolicyCaches) {
+            userPolicyCaches.remove(userUuid);
+        }
+    }
+
+    private Pattern compileActionRule(String rule) {
+        Pattern p = actionRulePatterns.get(rule);
+        if (p == null) {
+            p = Pattern.compile(rule);
+            actionRulePatterns.put(rule, p);
+        }
+
+        return p;
+    }
+
+    private List<CompiledStatement> compilePolicies(List<PolicyInventory> policies) {
+        List<CompiledStatement> ret = new ArrayList<CompiledStatement>();
+        for (PolicyInventory p : policies) {
+            for (Statement s : p.getStatements()) {
+                CompiledStatement cs = new CompiledStatement();
+                cs.policy = p;
+                cs.statement = s;
+                for (String ac : s.getActions()) {
+                    cs.actionRules.add(ac);
+                    cs.patterns.add(compileActionRule(ac));
+                }
+                ret.add(cs);
+            }
+        }
+
+        return ret;
+    }
+
     private void handle(GenerateMessageIdentityCategoryMsg msg) {
         List<String> adminMsgs = new ArrayList<String>();
         List<String> userMsgs = new ArrayList<String>();
@@ -610,6 +714,9 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             public void run(Map tokens, Object data) {
                 AccountDeletedData d = (AccountDeletedData) data;
 
+                accountTypes.remove(d.getAccountUuid());
+                invalidatePolicyCaches();
+
                 SimpleQuery<SessionVO> q = dbf.createQuery(SessionVO.class);
                 q.select(SessionVO_.uuid);
                 q.add(SessionVO_.accountUuid, Op.EQ, d.getAccountUuid());
@@ -631,6 +738,8 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             public void run(Map tokens, Object data) {
                 UserDeletedData d = (UserDeletedData) data;
 
+                evictUserPolicies(d.getUserUuid());
+
                 SimpleQuery<SessionVO> q = dbf.createQuery(SessionVO.class);
                 q.select(SessionVO_.uuid);
                 q.add(SessionVO_.userUuid, Op.EQ, d.getUserUuid());
@@ -646,6 +755,18 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
                 }
             }
         });
+
+        evtf.on(IdentityCanonicalEvents.POLICY_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                if (evtf.isFromThisManagementNode(tokens)) {
+                    // already invalidated in notifyPolicyChanged()
+                    return;
+                }
+
+                invalidatePolicyCaches();
+            }
+        });
     }
 
     private void configureGlobalConfig() {
@@ -1124,8 +1245,8 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             }
         }
 
-        private void useDecision(Decision d, boolean userPolicy) {
-            String policyCategory = userPolicy ? "user policy" : "group policy";
+        private void useDecision(Decision d) {
+            String policyCategory = d.userPolicy ? "user policy" : "group policy";
 
             if (d.effect == StatementEffect.Allow) {
                 logger.debug(String.format("API[name: %s, action: %s] is approved by a %s[name: %s, uuid: %s]," +
@@ -1142,11 +1263,24 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             }
         }
 
+        private AccountType getAccountType() {
+            AccountType type = accountTypes.get(session.getAccountUuid());
+            if (type == null) {
+                SimpleQuery<AccountVO> q = dbf.createQuery(AccountVO.class);
+                q.select(AccountVO_.type);
+                q.add(AccountVO_.uuid, Op.EQ, session.getAccountUuid());
+                type = q.findValue();
+
+                if (type != null) {
+                    accountTypes.put(session.getAccountUuid(), type);
+                }
+            }
+
+            return type;
+        }
+
         private void policyCheck() {
-            SimpleQuery<AccountVO> q = dbf.createQuery(AccountVO.class);
-            q.select(AccountVO_.type);
-            q.add(AccountVO_.uuid, Op.EQ, session.getAccountUuid());
-            AccountType type = q.findValue();
+            AccountType type = getAccountType();
 
             if (type == AccountType.SystemAdmin) {
                 return;
@@ -1203,22 +1337,21 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
                 return;
             }
 
-            SimpleQuery<UserVO> uq = dbf.createQuery(UserVO.class);
-            uq.select(UserVO_.name);
-            uq.add(UserVO_.uuid, Op.EQ, session.getUserUuid());
-            username = uq.findValue();
+            UserPolicyCache cache = getUserPolicyCache();
+            username = cache.username;
 
-            List<PolicyInventory> userPolicies = getUserPolicies();
-            Decision d = decide(userPolicies);
-            if (d != null) {
-                useDecision(d, true);
-                return;
+            Decision d = cache.decisions.get(msg.getClass());
+            if (d == null) {
+                d = decide(cache.userStatements, true);
+                if (d == null) {
+                    d = decide(cache.groupStatements, false);
+                }
+
+                cache.decisions.put(msg.getClass(), d == null ? NO_DECISION : d);
             }
 
-            List<PolicyInventory> groupPolicies = getGroupPolicies();
-            d = decide(groupPolicies);
-            if (d != null) {
-                useDecision(d, false);
+            if (d != null && d != NO_DECISION) {
+                useDecision(d);
                 return;
             }
 
@@ -1229,6 +1362,26 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         }
 
 
+        private UserPolicyCache getUserPolicyCache() {
+            UserPolicyCache cache = getCachedUserPolicies(session.getUserUuid());
+            if (cache != null) {
+                return cache;
+            }
+
+            long generation = policyGeneration.get();
+
+            cache = new UserPolicyCache();
+            SimpleQuery<UserVO> uq = dbf.createQuery(UserVO.class);
+            uq.select(UserVO_.name);
+            uq.add(UserVO_.uuid, Op.EQ, session.getUserUuid());
+            cache.username = uq.findValue();
+            cache.userStatements = compilePolicies(getUserPolicies());
+            cache.groupStatements = compilePolicies(getGroupPolicies());
+
+            cacheUserPolicies(session.getUserUuid(), cache, generation);
+            return cache;
+        }
+
         @Transactional(readOnly = true)
         private List<PolicyInventory> getGroupPolicies() {
             String sql = "select p from PolicyVO p, UserGroupUserRefVO ref, UserGroupPolicyRefVO gref where" +
@@ -1238,37 +1391,27 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             return PolicyInventory.valueOf(q.getResultList());
         }
 
-        class Decision {
-            PolicyInventory policy;
-            String action;
-            Statement statement;
-            String actionRule;
-            StatementEffect effect;
-        }
-
-        private Decision decide(List<PolicyInventory> userPolicies) {
+        private Decision decide(List<CompiledStatement> statements, boolean userPolicy) {
             for (String a : action.actions) {
-                for (PolicyInventory p : userPolicies) {
-                    for (Statement s : p.getStatements()) {
-                        for (String ac : s.getActions()) {
-                            Pattern pattern = Pattern.compile(ac);
-                            Matcher m = pattern.matcher(a);
-                            boolean ret = m.matches();
-                            if (ret) {
-                                Decision d = new Decision();
-                                d.policy = p;
-                                d.action = a;
-                                d.statement = s;
-                                d.actionRule = ac;
-                                d.effect = s.getEffect();
-                                return d;
-                            }
-
-                            if (logger.isTraceEnabled()) {
-                                logger.trace(String.format("API[name: %s, action: %s] is not matched by policy[name: %s, uuid: %s" +
-                                        ", statement[name: %s, action: %s, effect: %s]", msg.getClass().getSimpleName(), a, p.getName(),
-                                        p.getUuid(), s.getName(), ac, s.getEffect()));
-                            }
+                for (CompiledStatement cs : statements) {
+                    for (int i = 0; i < cs.patterns.size(); i++) {
+                        Matcher m = cs.patterns.get(i).matcher(a);
+                        boolean ret = m.matches();
+                        if (ret) {
+                            Decision d = new Decision();
+                            d.policy = cs.policy;
+                            d.action = a;
+                            d.statement = cs.statement;
+                            d.actionRule = cs.actionRules.get(i);
+                            d.effect = cs.statement.getEffect();
+                            d.userPolicy = userPolicy;
+                            return d;
+                        }
+
+                        if (logger.isTraceEnabled()) {
+                            logger.trace(String.format("API[name: %s, action: %s] is not matched by policy[name: %s, uuid: %s" +
+                                    ", statement[name: %s, action: %s, effect: %s]", msg.getClass().getSimpleName(), a, cs.policy.getName(),
+                                    cs.policy.getUuid(), cs.statement.getName(), cs.actionRules.get(i), cs.statement.getEffect()));
                         }
                     }
                 }
@@ -0,0 +1,155 @@
+package org.zstack.network.l3;
+
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.network.l3.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * allocates ips from per ip range bitmaps kept in memory.
+ *
+ * A bitmap is built from UsedIpVO the first time its range is used. Ips returned on
+ * this node are cleared from it immediately; a range that looks full is rebuilt
+ * once from the database before giving up, which picks up ips returned elsewhere.
+ * A range still full after the rebuild is skipped without rebuilding until an ip
+ * is returned to it on this node, or for EXHAUSTED_RECHECK_INTERVAL at most.
+ * When a reservation loses to another management node on the unique constraint,
+ * the ip just stays marked and the next one is tried
+ */
+public class BitmapIpAllocatorStrategy extends AbstractIpAllocatorStrategy implements AfterReturnIpExtensionPoint,
+        IpRangeDeletionExtensionPoint {
+    private static final CLogger logger = Utils.getLogger(BitmapIpAllocatorStrategy.class);
+    public static final IpAllocatorType type = new IpAllocatorType(L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY);
+
+    // how long a range found exhausted is trusted, ips returned by other management nodes are
+    // picked up after that
+    private static final long EXHAUSTED_RECHECK_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    private Map<String, IpRangeBitmap> bitmaps = new ConcurrentHashMap<String, IpRangeBitmap>();
+    // range uuid -> when the range was found exhausted after a rebuild
+    private Map<String, Long> exhaustedRanges = new ConcurrentHashMap<String, Long>();
+
+    @Override
+    public IpAllocatorType getType() {
+        return type;
+    }
+
+    private IpRangeBitmap buildBitmap(IpRangeVO vo) {
+        IpRangeBitmap bitmap = new IpRangeBitmap(
+                NetworkUtils.ipv4StringToLong(vo.getStartIp()),
+                NetworkUtils.ipv4StringToLong(vo.getEndIp()),
+                l3NwMgr.getUsedIpInRange(vo.getUuid())
+        );
+        bitmaps.put(vo.getUuid(), bitmap);
+        return bitmap;
+    }
+
+    private IpRangeBitmap getBitmap(IpRangeVO vo) {
+        IpRangeBitmap bitmap = bitmaps.get(vo.getUuid());
+        return bitmap == null ? buildBitmap(vo) : bitmap;
+    }
+
+    private boolean isExhausted(String rangeUuid) {
+        Long time = exhaustedRanges.get(rangeUuid);
+        return time != null && System.currentTimeMillis() - time < EXHAUSTED_RECHECK_INTERVAL;
+    }
+
+    private UsedIpInventory allocateIp(IpRangeVO vo) {
+        IpRangeBitmap bitmap = getBitmap(vo);
+        boolean rebuilt = false;
+
+        while (true) {
+            long ip = bitmap.allocate();
+            if (ip == -1) {
+                if (rebuilt) {
+                    exhaustedRanges.put(vo.getUuid(), System.currentTimeMillis());
+                    logger.debug(String.format("ip range[uuid:%s, name:%s] is exhausted, try next one", vo.getUuid(), vo.getName()));
+                    return null;
+                }
+
+                if (isExhausted(vo.getUuid())) {
+                    return null;
+                }
+
+                bitmap = buildBitmap(vo);
+                rebuilt = true;
+                continue;
+            }
+
+            UsedIpInventory inv;
+            try {
+                inv = l3NwMgr.reserveIp(IpRangeInventory.valueOf(vo), NetworkUtils.longToIpv4String(ip));
+            } catch (RuntimeException e) {
+                bitmap.release(ip);
+                throw e;
+            }
+
+            if (inv != null) {
+                return inv;
+            }
+
+            // taken by another management node, the bit stays set to reflect that
+        }
+    }
+
+    @Override
+    public UsedIpInventory allocateIp(IpAllocateMessage msg) {
+        if (msg.getRequiredIp() != null) {
+            UsedIpInventory inv = allocateRequiredIp(msg);
+            if (inv != null) {
+                IpRangeBitmap bitmap = bitmaps.get(inv.getIpRangeUuid());
+                if (bitmap != null) {
+                    bitmap.markUsed(inv.getIpInLong());
+                }
+            }
+            return inv;
+        }
+
+        SimpleQuery<IpRangeVO> query = dbf.createQuery(IpRangeVO.class);
+        query.add(IpRangeVO_.l3NetworkUuid, Op.EQ, msg.getL3NetworkUuid());
+        List<IpRangeVO> ranges = query.list();
+        for (IpRangeVO r : ranges) {
+            UsedIpInventory inv = allocateIp(r);
+            if (inv != null) {
+                return inv;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void afterReturnIp(UsedIpInventory ip) {
+        IpRangeBitmap bitmap = bitmaps.get(ip.getIpRangeUuid());
+        if (bitmap != null) {
+            bitmap.release(ip.getIpInLong());
+        }
+        exhaustedRanges.remove(ip.getIpRangeUuid());
+    }
+
+    @Override
+    public void preDeleteIpRange(IpRangeInventory ipRange) {
+    }
+
+    @Override
+    public void beforeDeleteIpRange(IpRangeInventory ipRange) {
+    }
+
+    @Override
+    public void afterDeleteIpRange(IpRangeInventory ipRange) {
+        bitmaps.remove(ipRange.getUuid());
+        exhaustedRanges.remove(ipRange.getUuid());
+    }
+
+    @Override
+    public void failedToDeleteIpRange(IpRangeInventory ipRange, ErrorCode errorCode) {
+    }
+}
@@ -0,0 +1,83 @@
+package org.zstack.network.l3;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * in-memory used/free map of one ip range, one bit per ip.
+ *
+ * Allocation scans forward from where the last one stopped, so the amortized
+ * cost is O(1) until the range wraps around. The bitmap is only a hint: the
+ * unique constraint on UsedIpVO stays the authority, an ip claimed here may
+ * still be taken by another management node
+ */
+class IpRangeBitmap {
+    private final long start;
+    private final int size;
+    private final BitSet used;
+    private int usedCount;
+    private int cursor;
+
+    IpRangeBitmap(long start, long end, List<Long> usedIps) {
+        this.start = start;
+        this.size = (int) (end - start + 1);
+        used = new BitSet(size);
+        for (Long ip : usedIps) {
+            markUsed(ip);
+        }
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    synchronized int getUsedCount() {
+        return usedCount;
+    }
+
+    /**
+     * @return a free ip marked as used, or -1 if the bitmap has no free ip
+     */
+    synchronized long allocate() {
+        if (usedCount >= size) {
+            return -1;
+        }
+
+        int index = used.nextClearBit(cursor);
+        if (index >= size) {
+            index = used.nextClearBit(0);
+            if (index >= size) {
+                return -1;
+            }
+        }
+
+        used.set(index);
+        usedCount ++;
+        cursor = index + 1 >= size ? 0 : index + 1;
+        return start + index;
+    }
+
+    synchronized void markUsed(long ip) {
+        int index = (int) (ip - start);
+        if (index < 0 || index >= size || used.get(index)) {
+            return;
+        }
+
+        used.set(index);
+        usedCount ++;
+    }
+
+    synchronized void release(long ip) {
+        int index = (int) (ip - start);
+        if (index < 0 || index >= size || !used.get(index)) {
+            return;
+        }
+
+        used.clear(index);
+        usedCount --;
+    }
+}
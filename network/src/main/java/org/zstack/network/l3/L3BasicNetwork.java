@@ -203,8 +203,19 @@ public class L3BasicNetwork implements L3Network {
 
     private void handle(ReturnIpMsg msg) {
         ReturnIpReply reply = new ReturnIpReply();
-        dbf.removeByPrimaryKey(msg.getUsedIpUuid(), UsedIpVO.class);
-        logger.debug(String.format("Successfully released used ip[%s]", msg.getUsedIpUuid()));
+        UsedIpVO vo = dbf.findByUuid(msg.getUsedIpUuid(), UsedIpVO.class);
+        if (vo != null) {
+            dbf.remove(vo);
+            logger.debug(String.format("Successfully released used ip[%s]", msg.getUsedIpUuid()));
+
+            final UsedIpInventory ip = UsedIpInventory.valueOf(vo);
+            CollectionUtils.safeForEach(pluginRgty.getExtensionList(AfterReturnIpExtensionPoint.class), new ForEachFunction<AfterReturnIpExtensionPoint>() {
+                @Override
+                public void run(AfterReturnIpExtensionPoint ext) {
+                    ext.afterReturnIp(ip);
+                }
+            });
+        }
         bus.reply(msg, reply);
     }
 
@@ -23,4 +23,10 @@ public class CephGlobalConfig {
     public static GlobalConfig BACKUP_STORAGE_MON_RECONNECT_DELAY = new GlobalConfig(CATEGORY, "backupStorage.mon.reconnectDelay");
     @GlobalConfigValidation
     public static GlobalConfig BACKUP_STORAGE_MON_AUTO_RECONNECT = new GlobalConfig(CATEGORY, "backupStorage.mon.autoReconnect");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig MON_HEDGE_DELAY = new GlobalConfig(CATEGORY, "mon.hedgeDelay");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig MON_CIRCUIT_BREAKER_FAILURE_THRESHOLD = new GlobalConfig(CATEGORY, "mon.circuitBreaker.failureThreshold");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig MON_CIRCUIT_BREAKER_OPEN_TIME = new GlobalConfig(CATEGORY, "mon.circuitBreaker.openTime");
 }
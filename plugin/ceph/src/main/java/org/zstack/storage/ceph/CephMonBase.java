@@ -19,6 +19,8 @@ public abstract class CephMonBase {
 
     @Autowired
     protected RESTFacade restf;
+    @Autowired
+    protected CephMonSelector monSelector;
 
     public static class PingResult {
         public boolean operationFailure;
@@ -47,14 +49,17 @@ public abstract class CephMonBase {
     }
 
     public <T> void httpCall(final String path, final Object cmd, final Class<T> retClass, final ReturnValueCompletion<T> completion) {
+        final long start = System.currentTimeMillis();
         restf.asyncJsonPost(makeHttpPath(self.getHostname(), path), cmd, new JsonAsyncRESTCallback<T>(completion) {
             @Override
             public void fail(ErrorCode err) {
+                monSelector.record(self.getUuid(), path, System.currentTimeMillis() - start, false);
                 completion.fail(err);
             }
 
             @Override
             public void success(T ret) {
+                monSelector.record(self.getUuid(), path, System.currentTimeMillis() - start, true);
                 completion.success(ret);
             }
 
@@ -0,0 +1,236 @@
+package org.zstack.storage.ceph;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders ceph mons by their health and calls them with failover.
+ *
+ * Every http call to a mon feeds the exponentially weighted moving averages of its error rate and
+ * of its latency on the called path, as commands like image downloads take far longer than reads
+ * of the same mon; mons are tried from the best score on the path to the worst. A mon failing
+ * ceph.mon.circuitBreaker.failureThreshold calls in a row is put at the end of the list for
+ * ceph.mon.circuitBreaker.openTime seconds, after which one more failure puts it back. A mon not
+ * called for a while is tried first again so a recovered mon can earn back its score.
+ *
+ * Idempotent calls can be hedged: if the mon doesn't reply in ceph.mon.hedgeDelay milliseconds,
+ * the next mon is called as well and the first reply wins.
+ */
+public class CephMonSelector {
+    private static final CLogger logger = Utils.getLogger(CephMonSelector.class);
+
+    // weight of the latest sample in the moving averages
+    private static final double ALPHA = 0.3;
+    // how much an error rate of 100% inflates the latency of a mon
+    private static final double ERROR_PENALTY = 10;
+    private static final long STALE_TIME = TimeUnit.SECONDS.toMillis(60);
+
+    @Autowired
+    private ErrorFacade errf;
+    @Autowired
+    private ThreadFacade thdf;
+
+    private static class Latency {
+        double value;
+        long lastSample;
+    }
+
+    private class Health {
+        // path -> latency of calls on the path
+        Map<String, Latency> latencies = new HashMap<String, Latency>();
+        double errorRate;
+        boolean sampled;
+        int failures;
+        long openUntil;
+
+        synchronized void record(String path, long elapsed, boolean success) {
+            long now = System.currentTimeMillis();
+            Latency l = latencies.get(path);
+            if (l == null) {
+                l = new Latency();
+                l.value = elapsed;
+                latencies.put(path, l);
+            } else {
+                l.value = ALPHA * elapsed + (1 - ALPHA) * l.value;
+            }
+            l.lastSample = now;
+
+            errorRate = sampled ? ALPHA * (success ? 0 : 1) + (1 - ALPHA) * errorRate : (success ? 0 : 1);
+            sampled = true;
+
+            if (success) {
+                failures = 0;
+                openUntil = 0;
+            } else if (++ failures >= CephGlobalConfig.MON_CIRCUIT_BREAKER_FAILURE_THRESHOLD.value(Integer.class) || openUntil != 0) {
+                // a failure during the half-open period opens the circuit again right away
+                openUntil = now + TimeUnit.SECONDS.toMillis(CephGlobalConfig.MON_CIRCUIT_BREAKER_OPEN_TIME.value(Long.class));
+            }
+        }
+
+        synchronized boolean isOpen(long now) {
+            return openUntil > now;
+        }
+
+        synchronized double score(String path, long now) {
+            Latency l = latencies.get(path);
+            if (l == null || now - l.lastSample > STALE_TIME) {
+                return 0;
+            }
+
+            return l.value * (1 + ERROR_PENALTY * errorRate);
+        }
+    }
+
+    private final ConcurrentMap<String, Health> healths = new ConcurrentHashMap<String, Health>();
+
+    private Health getHealth(String monUuid) {
+        Health h = healths.get(monUuid);
+        if (h == null) {
+            h = new Health();
+            Health old = healths.putIfAbsent(monUuid, h);
+            h = old == null ? h : old;
+        }
+        return h;
+    }
+
+    public void record(String monUuid, String path, long elapsed, boolean success) {
+        getHealth(monUuid).record(path, elapsed, success);
+    }
+
+    /**
+     * @return the mons from the most preferred to the least preferred for calls on the path; mons
+     * scored the same are in random order
+     */
+    public <M extends CephMonBase> List<M> select(List<M> mons, String path) {
+        final long now = System.currentTimeMillis();
+        final Map<M, Double> scores = new HashMap<M, Double>(mons.size());
+        final Set<M> opened = new HashSet<M>();
+        for (M m : mons) {
+            Health h = getHealth(m.getSelf().getUuid());
+            scores.put(m, h.score(path, now));
+            if (h.isOpen(now)) {
+                opened.add(m);
+            }
+        }
+
+        List<M> ret = new ArrayList<M>(mons);
+        Collections.shuffle(ret);
+        Collections.sort(ret, new Comparator<M>() {
+            @Override
+            public int compare(M o1, M o2) {
+                boolean open1 = opened.contains(o1);
+                boolean open2 = opened.contains(o2);
+                if (open1 != open2) {
+                    return open1 ? 1 : -1;
+                }
+
+                return Double.compare(scores.get(o1), scores.get(o2));
+            }
+        });
+
+        return ret;
+    }
+
+    /**
+     * calls the mons one by one from the most preferred until one of them replies
+     *
+     * @param hedge whether the command is safe to be executed on several mons at the same time
+     */
+    public <T, M extends CephMonBase> void call(final List<M> mons, final String path, final Object cmd, final Class<T> retClass,
+                                                boolean hedge, final ReturnValueCompletion<T> completion) {
+        final long hedgeDelay = hedge ? CephGlobalConfig.MON_HEDGE_DELAY.value(Long.class) : 0;
+
+        class Caller {
+            final Iterator<M> it = select(mons, path).iterator();
+            final List<ErrorCode> errorCodes = new ArrayList<ErrorCode>();
+            final List<TimeoutTaskReceipt> hedges = new ArrayList<TimeoutTaskReceipt>();
+            // fields above and below are guarded by this
+            int inFlight;
+            boolean done;
+
+            void cancelHedges() {
+                for (TimeoutTaskReceipt r : hedges) {
+                    r.cancel();
+                }
+                hedges.clear();
+            }
+
+            void call() {
+                final M mon;
+                synchronized (this) {
+                    if (done || (!it.hasNext() && inFlight > 0)) {
+                        return;
+                    }
+
+                    done = !it.hasNext();
+                    if (done) {
+                        mon = null;
+                    } else {
+                        mon = it.next();
+                        inFlight ++;
+                    }
+
+                    if (mon != null && hedgeDelay > 0 && it.hasNext()) {
+                        hedges.add(thdf.submitTimeoutTask(new Runnable() {
+                            @Override
+                            public void run() {
+                                logger.debug(String.format("ceph mon[hostname:%s] doesn't reply http call[%s] in %sms, call the next mon as well",
+                                        mon.getSelf().getHostname(), path, hedgeDelay));
+                                call();
+                            }
+                        }, TimeUnit.MILLISECONDS, hedgeDelay));
+                    }
+                }
+
+                if (mon == null) {
+                    completion.fail(errf.stringToOperationError(
+                            String.format("all mons failed to execute http call[%s], errors are %s", path, JSONObjectUtil.toJsonString(errorCodes))
+                    ));
+                    return;
+                }
+
+                mon.httpCall(path, cmd, retClass, new ReturnValueCompletion<T>(completion) {
+                    @Override
+                    public void success(T ret) {
+                        synchronized (Caller.this) {
+                            inFlight --;
+                            if (done) {
+                                return;
+                            }
+                            done = true;
+                            cancelHedges();
+                        }
+
+                        completion.success(ret);
+                    }
+
+                    @Override
+                    public void fail(ErrorCode errorCode) {
+                        synchronized (Caller.this) {
+                            inFlight --;
+                            errorCodes.add(errorCode);
+                            // the next mon is called right now, no need to wait for hedging
+                            cancelHedges();
+                        }
+
+                        call();
+                    }
+                });
+            }
+        }
+
+        new Caller().call();
+    }
+}
@@ -61,6 +61,8 @@ public class CephBackupStorageBase extends BackupStorageBase {
 
     @Autowired
     protected RESTFacade restf;
+    @Autowired
+    protected CephMonSelector monSelector;
 
     public static class AgentCommand {
         String fsid;
@@ -263,47 +265,26 @@ public class CephBackupStorageBase extends BackupStorageBase {
             ));
         }
 
-        Collections.shuffle(mons);
-
-        class HttpCaller {
-            Iterator<CephBackupStorageMonBase> it = mons.iterator();
-            List<ErrorCode> errorCodes = new ArrayList<ErrorCode>();
-
-            void call() {
-                if (!it.hasNext()) {
-                    callback.fail(errf.stringToOperationError(
-                            String.format("all mons failed to execute http call[%s], errors are %s", path, JSONObjectUtil.toJsonString(errorCodes))
-                    ));
-
-                    return;
-                }
-
-                CephBackupStorageMonBase base = it.next();
-                base.httpCall(path, cmd, retClass, new ReturnValueCompletion<T>() {
-                    @Override
-                    public void success(T ret) {
-                        if (!ret.success) {
-                            // not an IO error but an operation error, return it
-                            callback.fail(errf.stringToOperationError(ret.error));
-                        } else {
-                            if (!(cmd instanceof InitCmd)) {
-                                updateCapacityIfNeeded(ret);
-                            }
-
-                            callback.success(ret);
-                        }
+        monSelector.call(mons, path, cmd, retClass, cmd instanceof GetImageSizeCmd, new ReturnValueCompletion<T>() {
+            @Override
+            public void success(T ret) {
+                if (!ret.success) {
+                    // not an IO error but an operation error, return it
+                    callback.fail(errf.stringToOperationError(ret.error));
+                } else {
+                    if (!(cmd instanceof InitCmd)) {
+                        updateCapacityIfNeeded(ret);
                     }
 
-                    @Override
-                    public void fail(ErrorCode errorCode) {
-                        errorCodes.add(errorCode);
-                        call();
-                    }
-                });
+                    callback.success(ret);
+                }
             }
-        }
 
-        new HttpCaller().call();
+            @Override
+            public void fail(ErrorCode errorCode) {
+                callback.fail(errorCode);
+            }
+        });
     }
 
     public CephBackupStorageBase(BackupStorageVO self) {
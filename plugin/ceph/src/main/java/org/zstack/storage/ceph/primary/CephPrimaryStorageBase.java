@@ -78,6 +78,8 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
     private ThreadFacade thdf;
     @Autowired
     private ApiTimeoutManager timeoutMgr;
+    @Autowired
+    private CephMonSelector monSelector;
 
     class ReconnectMonLock {
         AtomicBoolean hold = new AtomicBoolean(false);
@@ -1574,47 +1576,25 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             ));
         }
 
-        Collections.shuffle(mons);
-
-        class HttpCaller {
-            Iterator<CephPrimaryStorageMonBase> it = mons.iterator();
-            List<ErrorCode> errorCodes = new ArrayList<ErrorCode>();
-
-            void call() {
-                if (!it.hasNext()) {
-                    callback.fail(errf.stringToOperationError(
-                            String.format("all mons failed to execute http call[%s], errors are %s", path, JSONObjectUtil.toJsonString(errorCodes))
-                    ));
-
+        monSelector.call(mons, path, cmd, retClass, cmd instanceof GetVolumeSizeCmd, new ReturnValueCompletion<T>(callback) {
+            @Override
+            public void success(T ret) {
+                if (!ret.success) {
+                    callback.fail(errf.stringToOperationError(ret.error));
                     return;
                 }
 
-                CephPrimaryStorageMonBase base = it.next();
-
-                base.httpCall(path, cmd, retClass, new ReturnValueCompletion<T>(callback) {
-                    @Override
-                    public void success(T ret) {
-                        if (!ret.success) {
-                            callback.fail(errf.stringToOperationError(ret.error));
-                            return;
-                        }
-
-                        if (!(cmd instanceof InitCmd)) {
-                            updateCapacityIfNeeded(ret);
-                        }
-                        callback.success(ret);
-                    }
-
-                    @Override
-                    public void fail(ErrorCode errorCode) {
-                        errorCodes.add(errorCode);
-                        call();
-                    }
-                });
+                if (!(cmd instanceof InitCmd)) {
+                    updateCapacityIfNeeded(ret);
+                }
+                callback.success(ret);
             }
-        }
 
-        new HttpCaller().call();
+            @Override
+            public void fail(ErrorCode errorCode) {
+                callback.fail(errorCode);
+            }
+        });
     }
 
     private void updateCapacityIfNeeded(AgentResponse rsp) {
@@ -8,12 +8,13 @@ import org.zstack.core.db.DatabaseFacade;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.network.l2.L2NetworkVO;
 import org.zstack.kvm.KVMSystemTags;
-import org.zstack.utils.TagUtils;
 
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -43,19 +44,28 @@ public class BridgeNameFinder {
 
     @Transactional(readOnly = true)
     public Map<String, String> findByL3Uuids(Collection<String> l3Uuids) {
-        String sql = "select t.tag, l3.uuid from SystemTagVO t, L3NetworkVO l3 where t.resourceType = :ttype and t.tag like :tag" +
-                " and t.resourceUuid = l3.l2NetworkUuid and l3.uuid in (:l3Uuids) group by l3.uuid";
-        TypedQuery<Tuple> tq = dbf.getEntityManager().createQuery(sql, Tuple.class);
-        tq.setParameter("tag", TagUtils.tagPatternToSqlPattern(KVMSystemTags.L2_BRIDGE_NAME.getTagFormat()));
-        tq.setParameter("l3Uuids", l3Uuids);
-        tq.setParameter("ttype", L2NetworkVO.class.getSimpleName());
-        List<Tuple> ts = tq.getResultList();
+        String sql = "select l3.uuid, l3.l2NetworkUuid from L3NetworkVO l3 where l3.uuid in (:l3Uuids)";
+        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        q.setParameter("l3Uuids", l3Uuids);
+        List<Tuple> ts = q.getResultList();
 
         Map<String, String> bridgeNames = new HashMap<String, String>();
+        if (ts.isEmpty()) {
+            return bridgeNames;
+        }
+
+        Map<String, String> l3L2 = new HashMap<String, String>();
         for (Tuple t : ts) {
-            String brToken = t.get(0, String.class);
-            String l3Uuid = t.get(1, String.class);
-            bridgeNames.put(l3Uuid, KVMSystemTags.L2_BRIDGE_NAME.getTokenByTag(brToken, KVMSystemTags.L2_BRIDGE_NAME_TOKEN));
+            l3L2.put(t.get(0, String.class), t.get(1, String.class));
+        }
+
+        // bridge name tags are looked up from the system tag index instead of a 'like' scan
+        Map<String, List<String>> tags = KVMSystemTags.L2_BRIDGE_NAME.getTags(new ArrayList<String>(new HashSet<String>(l3L2.values())), L2NetworkVO.class);
+        for (Map.Entry<String, String> e : l3L2.entrySet()) {
+            List<String> brTags = tags.get(e.getValue());
+            if (brTags != null) {
+                bridgeNames.put(e.getKey(), KVMSystemTags.L2_BRIDGE_NAME.getTokenByTag(brTags.get(0), KVMSystemTags.L2_BRIDGE_NAME_TOKEN));
+            }
         }
 
         return bridgeNames;
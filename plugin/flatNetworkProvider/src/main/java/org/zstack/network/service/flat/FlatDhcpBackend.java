@@ -31,7 +31,6 @@ import org.zstack.header.host.HostErrors;
 import org.zstack.header.host.HostStatus;
 import org.zstack.header.message.Message;
 import org.zstack.header.message.MessageReply;
-import org.zstack.header.network.l2.L2NetworkVO;
 import org.zstack.header.network.l3.*;
 import org.zstack.header.network.service.DhcpStruct;
 import org.zstack.header.network.service.NetworkServiceDhcpBackend;
@@ -45,7 +44,6 @@ import org.zstack.network.service.NetworkProviderFinder;
 import org.zstack.network.service.NetworkServiceProviderLookup;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.DebugUtils;
-import org.zstack.utils.TagUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
@@ -131,29 +129,8 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
             }
         });
 
-        sql = "select t.tag, l3.uuid from SystemTagVO t, L3NetworkVO l3 where t.resourceType = :ttype and t.tag like :tag" +
-                " and t.resourceUuid = l3.l2NetworkUuid and l3.uuid in (:l3Uuids)";
-        TypedQuery<Tuple> tq = dbf.getEntityManager().createQuery(sql, Tuple.class);
-        tq.setParameter("tag", TagUtils.tagPatternToSqlPattern(KVMSystemTags.L2_BRIDGE_NAME.getTagFormat()));
-        tq.setParameter("l3Uuids", l3Uuids);
-        tq.setParameter("ttype", L2NetworkVO.class.getSimpleName());
-        ts = tq.getResultList();
-
-        Map<String, String> bridgeNames = new HashMap<String, String>();
-        for (Tuple t : ts) {
-            bridgeNames.put(t.get(1, String.class), t.get(0, String.class));
-        }
-
-        sql = "select t.tag, vm.uuid from SystemTagVO t, VmInstanceVO vm where t.resourceType = :ttype" +
-                " and t.tag like :tag and t.resourceUuid = vm.uuid and vm.uuid in (:vmUuids)";
-        tq = dbf.getEntityManager().createQuery(sql, Tuple.class);
-        tq.setParameter("tag", TagUtils.tagPatternToSqlPattern(VmSystemTags.HOSTNAME.getTagFormat()));
-        tq.setParameter("ttype", VmInstanceVO.class.getSimpleName());
-        tq.setParameter("vmUuids", vmDefaultL3.keySet());
-        Map<String, String> hostnames = new HashMap<String, String>();
-        for (Tuple t : ts) {
-            hostnames.put(t.get(1, String.class), t.get(0, String.class));
-        }
+        Map<String, String> bridgeNames = new BridgeNameFinder().findByL3Uuids(l3Uuids);
+        Map<String, String> hostnames = getHostnames(vmDefaultL3.keySet());
 
         sql = "select l3 from L3NetworkVO l3 where l3.uuid in (:l3Uuids)";
         TypedQuery<L3NetworkVO> l3q = dbf.getEntityManager().createQuery(sql, L3NetworkVO.class);
@@ -167,7 +144,7 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
         List<DhcpInfo> dhcpInfoList = new ArrayList<DhcpInfo>();
         for (VmNicVO nic : nics) {
             DhcpInfo info = new DhcpInfo();
-            info.bridgeName = KVMSystemTags.L2_BRIDGE_NAME.getTokenByTag(bridgeNames.get(nic.getL3NetworkUuid()), KVMSystemTags.L2_BRIDGE_NAME_TOKEN);
+            info.bridgeName = bridgeNames.get(nic.getL3NetworkUuid());
             info.namespaceName = makeNamespaceName(
                     info.bridgeName,
                     nic.getL3NetworkUuid()
@@ -424,6 +401,15 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
         });
     }
 
+    private Map<String, String> getHostnames(Collection<String> vmUuids) {
+        Map<String, String> hostnames = new HashMap<String, String>();
+        Map<String, List<String>> tags = VmSystemTags.HOSTNAME.getTags(new ArrayList<String>(vmUuids), VmInstanceVO.class);
+        for (Map.Entry<String, List<String>> e : tags.entrySet()) {
+            hostnames.put(e.getKey(), VmSystemTags.HOSTNAME.getTokenByTag(e.getValue().get(0), VmSystemTags.HOSTNAME_TOKEN));
+        }
+        return hostnames;
+    }
+
     @Transactional(readOnly = true)
     private List<DhcpInfo> getVmDhcpInfo(VmInstanceInventory vm) {
         String sql = "select nic from VmNicVO nic, L3NetworkVO l3, NetworkServiceL3NetworkRefVO ref, NetworkServiceProviderVO provider where nic.l3NetworkUuid = l3.uuid" +
@@ -445,29 +431,8 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
             }
         });
 
-        sql = "select t.tag, l3.uuid from SystemTagVO t, L3NetworkVO l3 where t.resourceType = :ttype and t.tag like :tag" +
-                " and t.resourceUuid = l3.l2NetworkUuid and l3.uuid in (:l3Uuids)";
-        TypedQuery<Tuple> tq = dbf.getEntityManager().createQuery(sql, Tuple.class);
-        tq.setParameter("tag", TagUtils.tagPatternToSqlPattern(KVMSystemTags.L2_BRIDGE_NAME.getTagFormat()));
-        tq.setParameter("l3Uuids", l3Uuids);
-        tq.setParameter("ttype", L2NetworkVO.class.getSimpleName());
-        List<Tuple> ts = tq.getResultList();
-
-        Map<String, String> bridgeNames = new HashMap<String, String>();
-        for (Tuple t : ts) {
-            bridgeNames.put(t.get(1, String.class), t.get(0, String.class));
-        }
-
-        sql = "select t.tag, vm.uuid from SystemTagVO t, VmInstanceVO vm where t.resourceType = :ttype" +
-                " and t.tag like :tag and t.resourceUuid = vm.uuid and vm.uuid = :vmUuid";
-        tq = dbf.getEntityManager().createQuery(sql, Tuple.class);
-        tq.setParameter("tag", TagUtils.tagPatternToSqlPattern(VmSystemTags.HOSTNAME.getTagFormat()));
-        tq.setParameter("ttype", VmInstanceVO.class.getSimpleName());
-        tq.setParameter("vmUuid", vm.getUuid());
-        Map<String, String> hostnames = new HashMap<String, String>();
-        for (Tuple t : ts) {
-            hostnames.put(t.get(1, String.class), t.get(0, String.class));
-        }
+        Map<String, String> bridgeNames = new BridgeNameFinder().findByL3Uuids(l3Uuids);
+        Map<String, String> hostnames = getHostnames(list(vm.getUuid()));
 
         sql = "select l3 from L3NetworkVO l3 where l3.uuid in (:l3Uuids)";
         TypedQuery<L3NetworkVO> l3q = dbf.getEntityManager().createQuery(sql, L3NetworkVO.class);
@@ -481,7 +446,7 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
         List<DhcpInfo> dhcpInfoList = new ArrayList<DhcpInfo>();
         for (VmNicVO nic : nics) {
             DhcpInfo info = new DhcpInfo();
-            info.bridgeName =  KVMSystemTags.L2_BRIDGE_NAME.getTokenByTag(bridgeNames.get(nic.getL3NetworkUuid()), KVMSystemTags.L2_BRIDGE_NAME_TOKEN);
+            info.bridgeName = bridgeNames.get(nic.getL3NetworkUuid());
             info.namespaceName = makeNamespaceName(
                     info.bridgeName,
                     nic.getL3NetworkUuid()
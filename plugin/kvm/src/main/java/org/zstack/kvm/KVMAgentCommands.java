@@ -851,10 +851,23 @@ public class KVMAgentCommands {
     
     
     public static class VmSyncCmd extends AgentCommand {
+        // the agent reports only vm states changed since this generation; null asks for all states
+        private Long lastGeneration;
+
+        public Long getLastGeneration() {
+            return lastGeneration;
+        }
+
+        public void setLastGeneration(Long lastGeneration) {
+            this.lastGeneration = lastGeneration;
+        }
     }
     
     public static class VmSyncResponse extends AgentResponse {
         private HashMap<String, String> states;
+        private Long generation;
+        private boolean delta;
+        private List<String> removedVms;
 
         public HashMap<String, String> getStates() {
             return states;
@@ -862,6 +875,30 @@ public class KVMAgentCommands {
         public void setStates(HashMap<String, String> states) {
             this.states = states;
         }
+
+        public Long getGeneration() {
+            return generation;
+        }
+
+        public void setGeneration(Long generation) {
+            this.generation = generation;
+        }
+
+        public boolean isDelta() {
+            return delta;
+        }
+
+        public void setDelta(boolean delta) {
+            this.delta = delta;
+        }
+
+        public List<String> getRemovedVms() {
+            return removedVms;
+        }
+
+        public void setRemovedVms(List<String> removedVms) {
+            this.removedVms = removedVms;
+        }
     }
     
     public static class RefreshAllRulesOnHostCmd extends AgentCommand {
@@ -32,9 +32,11 @@ import org.zstack.kvm.KVMConstant.KvmVmState;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtensionPoint, KVMHostConnectExtensionPoint,
         HostConnectionReestablishExtensionPoint, HostAfterConnectedExtensionPoint, Component {
@@ -53,9 +55,23 @@ public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtension
     @Autowired
     private ApiTimeoutManager timeoutMgr;
 
-    private void syncVm(final HostInventory host, final Completion completion) {
+    private Map<String, VmInstanceState> toVmInstanceStates(Map<String, String> kvmStates) {
+        Map<String, VmInstanceState> states = new HashMap<String, VmInstanceState>(kvmStates.size());
+        for (Map.Entry<String, String> e : kvmStates.entrySet()) {
+            VmInstanceState state = KvmVmState.valueOf(e.getValue()).toVmInstanceState();
+            if (state == VmInstanceState.Running || state == VmInstanceState.Unknown) {
+                states.put(e.getKey(), state);
+            }
+        }
+        return states;
+    }
+
+    private void syncVm(final HostInventory host, final boolean full, final Completion completion) {
         KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
         VmSyncCmd cmd = new VmSyncCmd();
+        final Long lastGeneration = full ? null : getSyncedVmStateGeneration(host.getUuid(),
+                TimeUnit.SECONDS.toMillis(KVMGlobalConfig.VM_SYNC_FULL_INTERVAL.value(Long.class)));
+        cmd.setLastGeneration(lastGeneration);
         msg.setCommand(cmd);
         msg.setCommandTimeout(timeoutMgr.getTimeout(cmd.getClass(), "5m"));
         msg.setNoStatusCheck(true);
@@ -66,6 +82,8 @@ public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtension
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
+                    // the agent may have lost vm states of the generation, do a full sync next time
+                    forgetVmStates(host.getUuid());
                     completion.fail(reply.getError());
                     return;
                 }
@@ -73,19 +91,29 @@ public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtension
                 KVMHostAsyncHttpCallReply r = reply.castReply();
                 VmSyncResponse ret = r.toResponse(VmSyncResponse.class);
                 if (ret.isSuccess()) {
-                    Map<String, VmInstanceState> states = new HashMap<String, VmInstanceState>(ret.getStates().size());
-                    for (Map.Entry<String, String> e : ret.getStates().entrySet()) {
-                        VmInstanceState state = KvmVmState.valueOf(e.getValue()).toVmInstanceState();
-                        if (state == VmInstanceState.Running || state == VmInstanceState.Unknown) {
-                            states.put(e.getKey(), state);
+                    Map<String, String> kvmStates = ret.getStates() == null ? new HashMap<String, String>() : ret.getStates();
+                    Map<String, VmInstanceState> states = toVmInstanceStates(kvmStates);
+                    if (lastGeneration != null && ret.isDelta() && ret.getGeneration() != null) {
+                        // like a full sync, a vm not in Running or Unknown state is regarded as gone from the host
+                        List<String> removed = new ArrayList<String>();
+                        if (ret.getRemovedVms() != null) {
+                            removed.addAll(ret.getRemovedVms());
+                        }
+                        for (String vmUuid : kvmStates.keySet()) {
+                            if (!states.containsKey(vmUuid)) {
+                                removed.add(vmUuid);
+                            }
                         }
-                    }
 
-                    reportVmState(host.getUuid(), states);
+                        reportVmStateChanges(host.getUuid(), states, removed, ret.getGeneration());
+                    } else {
+                        reportFullVmState(host.getUuid(), states, ret.getGeneration());
+                    }
                     completion.success();
                 } else {
                     ErrorCode errorCode = errf.stringToOperationError(String.format("unable to do vm sync on host[uuid:%s, ip:%s] because %s", host.getUuid(), host.getManagementIp(), ret.getError()));
                     logger.warn(errorCode.toString());
+                    forgetVmStates(host.getUuid());
                     completion.fail(errorCode);
                 }
             }
@@ -98,7 +126,7 @@ public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtension
             return;
         }
 
-        syncVm(inv, new NopeCompletion());
+        syncVm(inv, false, new NopeCompletion());
     }
 
     @Override
@@ -109,7 +137,7 @@ public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtension
 
     @Override
     public void connectionReestablished(HostInventory inv) throws HostException {
-        syncVm(inv, new NopeCompletion());
+        syncVm(inv, true, new NopeCompletion());
     }
 
     @Override
@@ -224,7 +252,7 @@ public class KvmVmSyncPingTask extends VmTracer implements HostPingTaskExtension
             public void run(final FlowTrigger trigger, Map data) {
                 new Log(context.getInventory().getUuid()).log(KVMHostLabel.SYNC_VM_STATE);
 
-                syncVm(context.getInventory(), new Completion(trigger) {
+                syncVm(context.getInventory(), true, new Completion(trigger) {
                     String __name__ = "sync-vm-state";
 
                     @Override
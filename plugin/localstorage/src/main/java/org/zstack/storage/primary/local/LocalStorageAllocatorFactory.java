@@ -8,6 +8,7 @@ import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.core.workflow.FlowChainBuilder;
 import org.zstack.header.Component;
+import org.zstack.header.allocator.HostAllocatorConstant;
 import org.zstack.header.allocator.HostAllocatorError;
 import org.zstack.header.allocator.HostAllocatorFilterExtensionPoint;
 import org.zstack.header.allocator.HostAllocatorSpec;
@@ -24,7 +25,9 @@ import org.zstack.utils.logging.CLogger;
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 /**
@@ -94,15 +97,26 @@ public class LocalStorageAllocatorFactory implements PrimaryStorageAllocatorStra
             List<Tuple> ts = q.listTuple();
 
             final List<String> toRemoveHuuids = new ArrayList<String>();
+            // a host takes several vms of a batch only if its local storage can hold all of them
+            Map<String, Integer> limits = new HashMap<String, Integer>();
             for (Tuple t : ts) {
                 String huuid = t.get(0, String.class);
                 long cap = t.get(1, Long.class);
                 String psUuid = t.get(2, String.class);
-                if (cap < ratioMgr.calculateByRatio(psUuid, spec.getDiskSize())) {
+                long required = ratioMgr.calculateByRatio(psUuid, spec.getDiskSize());
+                if (cap < required) {
                     toRemoveHuuids.add(huuid);
+                } else if (spec.getBatchSize() > 1 && required > 0) {
+                    int limit = (int) Math.min(cap / required, spec.getBatchSize());
+                    Integer old = limits.get(huuid);
+                    limits.put(huuid, old == null ? limit : Math.min(old, limit));
                 }
             }
 
+            if (spec.getBatchSize() > 1) {
+                spec.getExtraData().put(HostAllocatorConstant.BATCH_HOST_VM_LIMITS, limits);
+            }
+
             if (!toRemoveHuuids.isEmpty()) {
                 logger.debug(String.format("local storage filters out hosts%s, because they don't have required disk capacity[%s bytes]", toRemoveHuuids, spec.getDiskSize()));
 
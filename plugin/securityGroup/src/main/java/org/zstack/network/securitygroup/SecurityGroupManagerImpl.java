@@ -1,5 +1,6 @@
 package org.zstack.network.securitygroup;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.Platform;
@@ -51,6 +52,7 @@ import javax.persistence.Query;
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -83,6 +85,8 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     private int failureHostWorkerInterval;
     private int failureHostEachTimeTake;
     private Future<Void> failureHostCopingThread;
+    // host uuid -> (vm nic uuid -> digest of the rules last successfully applied on the host)
+    private ConcurrentHashMap<String, Map<String, String>> appliedRuleDigests = new ConcurrentHashMap<String, Map<String, String>>();
 
     @Override
     public List<Quota> reportQuota() {
@@ -240,33 +244,18 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             return calculateByVmNic();
         }
 
-        private List<RuleTO> calculateRuleTOBySecurityGroup(List<String> sgUuids, String l3Uuid) {
+        private List<RuleTO> calculateRuleTOBySecurityGroup(List<String> sgUuids, String l3Uuid,
+                                                            Map<String, List<SecurityGroupRuleVO>> rulesBySecurityGroup,
+                                                            MemberIpRanges memberIpRanges) {
             List<RuleTO> ret = new ArrayList<RuleTO>();
 
             for (String sgUuid : sgUuids) {
-                String sql = "select r from SecurityGroupRuleVO r where r.securityGroupUuid = :sgUuid";
-                TypedQuery<SecurityGroupRuleVO> q = dbf.getEntityManager().createQuery(sql, SecurityGroupRuleVO.class);
-                q.setParameter("sgUuid", sgUuid);
-                List<SecurityGroupRuleVO> rules = q.getResultList();
-                if (rules.isEmpty()) {
+                List<SecurityGroupRuleVO> rules = rulesBySecurityGroup.get(sgUuid);
+                if (rules == null || rules.isEmpty()) {
                     continue;
                 }
 
-                sql = "select nic.ip from VmNicVO nic, VmNicSecurityGroupRefVO ref where ref.vmNicUuid = nic.uuid and ref.securityGroupUuid = :sgUuid and nic.l3NetworkUuid = :l3Uuid";
-                TypedQuery<String> internalIpQuery = dbf.getEntityManager().createQuery(sql, String.class);
-                internalIpQuery.setParameter("sgUuid", sgUuid);
-                internalIpQuery.setParameter("l3Uuid", l3Uuid);
-                List<String> internalIps = internalIpQuery.getResultList();
-                List<Pair<String, String>> ipRanges = NetworkUtils.findConsecutiveIpRange(internalIps);
-                List<String> internalIpRanges = new ArrayList<String>(ipRanges.size());
-                for (Pair<String, String> p : ipRanges) {
-                    if (p.first().equals(p.second())) {
-                        internalIpRanges.add(p.first());
-                    } else {
-                        internalIpRanges.add(String.format("%s-%s", p.first(), p.second()));
-                    }
-                }
-
+                List<String> internalIpRanges = memberIpRanges.get(sgUuid, l3Uuid);
                 for (SecurityGroupRuleVO r : rules) {
                     RuleTO rto = new RuleTO();
                     rto.setAllowedCidr(r.getAllowedCidr());
@@ -291,6 +280,96 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             return ret;
         }
 
+        private Map<String, List<SecurityGroupRuleVO>> getRulesBySecurityGroup(Collection<String> sgUuids) {
+            String sql = "select r from SecurityGroupRuleVO r where r.securityGroupUuid in (:sgUuids)";
+            TypedQuery<SecurityGroupRuleVO> q = dbf.getEntityManager().createQuery(sql, SecurityGroupRuleVO.class);
+            q.setParameter("sgUuids", sgUuids);
+
+            Map<String, List<SecurityGroupRuleVO>> ret = new HashMap<String, List<SecurityGroupRuleVO>>();
+            for (SecurityGroupRuleVO r : q.getResultList()) {
+                List<SecurityGroupRuleVO> rules = ret.get(r.getSecurityGroupUuid());
+                if (rules == null) {
+                    rules = new ArrayList<SecurityGroupRuleVO>();
+                    ret.put(r.getSecurityGroupUuid(), rules);
+                }
+                rules.add(r);
+            }
+
+            return ret;
+        }
+
+        /**
+         * IPs of the nics in each security group, per l3 network; the consecutive ranges
+         * are calculated once for each (security group, l3 network) and shared by all nics
+         */
+        private class MemberIpRanges {
+            private Map<String, Map<String, List<String>>> ips = new HashMap<String, Map<String, List<String>>>();
+            private Map<String, Map<String, List<String>>> ranges = new HashMap<String, Map<String, List<String>>>();
+
+            MemberIpRanges(Collection<String> sgUuids, Collection<String> l3Uuids) {
+                if (sgUuids.isEmpty() || l3Uuids.isEmpty()) {
+                    return;
+                }
+
+                String sql = "select ref.securityGroupUuid, nic.l3NetworkUuid, nic.ip from VmNicVO nic, VmNicSecurityGroupRefVO ref where ref.vmNicUuid = nic.uuid and ref.securityGroupUuid in (:sgUuids) and nic.l3NetworkUuid in (:l3Uuids)";
+                TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+                q.setParameter("sgUuids", sgUuids);
+                q.setParameter("l3Uuids", l3Uuids);
+                for (Tuple t : q.getResultList()) {
+                    String sgUuid = t.get(0, String.class);
+                    String l3Uuid = t.get(1, String.class);
+                    String ip = t.get(2, String.class);
+
+                    Map<String, List<String>> ipsByL3 = ips.get(sgUuid);
+                    if (ipsByL3 == null) {
+                        ipsByL3 = new HashMap<String, List<String>>();
+                        ips.put(sgUuid, ipsByL3);
+                    }
+                    List<String> l3Ips = ipsByL3.get(l3Uuid);
+                    if (l3Ips == null) {
+                        l3Ips = new ArrayList<String>();
+                        ipsByL3.put(l3Uuid, l3Ips);
+                    }
+                    l3Ips.add(ip);
+                }
+            }
+
+            List<String> get(String sgUuid, String l3Uuid) {
+                Map<String, List<String>> rangesByL3 = ranges.get(sgUuid);
+                if (rangesByL3 == null) {
+                    rangesByL3 = new HashMap<String, List<String>>();
+                    ranges.put(sgUuid, rangesByL3);
+                }
+
+                List<String> internalIpRanges = rangesByL3.get(l3Uuid);
+                if (internalIpRanges != null) {
+                    return internalIpRanges;
+                }
+
+                List<String> internalIps = null;
+                Map<String, List<String>> ipsByL3 = ips.get(sgUuid);
+                if (ipsByL3 != null) {
+                    internalIps = ipsByL3.get(l3Uuid);
+                }
+                if (internalIps == null) {
+                    internalIps = new ArrayList<String>();
+                }
+
+                List<Pair<String, String>> ipRanges = NetworkUtils.findConsecutiveIpRange(internalIps);
+                internalIpRanges = new ArrayList<String>(ipRanges.size());
+                for (Pair<String, String> p : ipRanges) {
+                    if (p.first().equals(p.second())) {
+                        internalIpRanges.add(p.first());
+                    } else {
+                        internalIpRanges.add(String.format("%s-%s", p.first(), p.second()));
+                    }
+                }
+
+                rangesByL3.put(l3Uuid, internalIpRanges);
+                return internalIpRanges;
+            }
+        }
+
         @Transactional(readOnly = true)
         Collection<HostRuleTO> createRulePlaceHolder(List<String> nicUuids) {
             String sql = "select nic.uuid, vm.hostUuid, vm.hypervisorType, nic.internalName, nic.mac, nic.ip from VmInstanceVO vm, VmNicVO nic where nic.vmInstanceUuid = vm.uuid and vm.hostUuid is not null and nic.uuid in (:nicUuids) group by nic.uuid";
@@ -335,63 +414,88 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             return hostRuleTOMap.values();
         }
 
+        private class NicInSecurityGroups {
+            List<String> sgUuids = new ArrayList<String>();
+            String hostUuid;
+            String hypervisorType;
+            String nicName;
+            String l3Uuid;
+            String mac;
+            String ip;
+        }
+
         @Transactional(readOnly = true)
         private List<HostRuleTO> calculateByVmNic() {
             Map<String, HostRuleTO> hostRuleMap = new HashMap<String, HostRuleTO>();
             List<HostRuleTO> htos = new ArrayList<HostRuleTO>();
 
-            for (String nicUuid : vmNicUuids) {
-                List<Tuple> tuples;
-                if (vmStates != null && !vmStates.isEmpty()) {
-                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, nic.l3NetworkUuid, nic.mac, nic.ip from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid = :nicUuid and vm.state in (:vmStates)";
-                    TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("nicUuid", nicUuid);
-                    q.setParameter("vmStates", vmStates);
-                    tuples = q.getResultList();
-                } else {
-                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, nic.l3NetworkUuid, nic.mac, nic.ip from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid = :nicUuid";
-                    TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("nicUuid", nicUuid);
-                    tuples = q.getResultList();
+            Set<String> nicUuids = new LinkedHashSet<String>(vmNicUuids);
+            if (nicUuids.isEmpty()) {
+                return htos;
+            }
+
+            String sql = "select ref.vmNicUuid, ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, nic.l3NetworkUuid, nic.mac, nic.ip from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid in (:nicUuids)";
+            if (vmStates != null && !vmStates.isEmpty()) {
+                sql += " and vm.state in (:vmStates)";
+            }
+            TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+            q.setParameter("nicUuids", nicUuids);
+            if (vmStates != null && !vmStates.isEmpty()) {
+                q.setParameter("vmStates", vmStates);
+            }
+
+            Map<String, NicInSecurityGroups> nics = new HashMap<String, NicInSecurityGroups>();
+            Set<String> sgUuids = new HashSet<String>();
+            Set<String> l3Uuids = new HashSet<String>();
+            for (Tuple t : q.getResultList()) {
+                String nicUuid = t.get(0, String.class);
+                NicInSecurityGroups nic = nics.get(nicUuid);
+                if (nic == null) {
+                    nic = new NicInSecurityGroups();
+                    nics.put(nicUuid, nic);
                 }
 
-                if (tuples.isEmpty()) {
+                nic.sgUuids.add(t.get(1, String.class));
+                nic.hostUuid = t.get(2, String.class);
+                nic.hypervisorType = t.get(3, String.class);
+                nic.nicName = t.get(4, String.class);
+                nic.l3Uuid = t.get(5, String.class);
+                nic.mac = t.get(6, String.class);
+                nic.ip = t.get(7, String.class);
+                sgUuids.add(t.get(1, String.class));
+                l3Uuids.add(nic.l3Uuid);
+            }
+
+            if (nics.isEmpty()) {
+                // vms are not in vmStates or not in security group
+                return htos;
+            }
+
+            Map<String, List<SecurityGroupRuleVO>> rulesBySecurityGroup = getRulesBySecurityGroup(sgUuids);
+            MemberIpRanges memberIpRanges = new MemberIpRanges(rulesBySecurityGroup.keySet(), l3Uuids);
+
+            for (String nicUuid : nicUuids) {
+                NicInSecurityGroups nic = nics.get(nicUuid);
+                if (nic == null) {
                     // vm is not in vmStates or not in security group
                     continue;
                 }
 
-                List<String> sgUuids = new ArrayList<String>();
-                String hostUuid = null;
-                String hypervisorType = null;
-                String nicName = null;
-                String l3Uuid = null;
-                String mac = null;
-                String ip = null;
-                for (Tuple t : tuples) {
-                    sgUuids.add(t.get(0, String.class));
-                    hostUuid = t.get(1, String.class);
-                    hypervisorType = t.get(2, String.class);
-                    nicName = t.get(3, String.class);
-                    l3Uuid = t.get(4, String.class);
-                    mac = t.get(5, String.class);
-                    ip = t.get(6, String.class);
-                }
-
-                List<RuleTO> rtos = calculateRuleTOBySecurityGroup(sgUuids, l3Uuid);
+                List<RuleTO> rtos = calculateRuleTOBySecurityGroup(nic.sgUuids, nic.l3Uuid, rulesBySecurityGroup, memberIpRanges);
                 SecurityGroupRuleTO sgto = new SecurityGroupRuleTO();
                 sgto.setEgressDefaultPolicy(SecurityGroupGlobalConfig.EGRESS_RULE_DEFAULT_POLICY.value(String.class));
                 sgto.setIngressDefaultPolicy(SecurityGroupGlobalConfig.INGRESS_RULE_DEFAULT_POLICY.value(String.class));
                 sgto.setRules(rtos);
                 sgto.setVmNicUuid(nicUuid);
-                sgto.setVmNicInternalName(nicName);
-                sgto.setVmNicMac(mac);
-                sgto.setVmNicIp(ip);
+                sgto.setVmNicInternalName(nic.nicName);
+                sgto.setVmNicMac(nic.mac);
+                sgto.setVmNicIp(nic.ip);
 
-                HostRuleTO hto = hostRuleMap.get(hostUuid);
+                HostRuleTO hto = hostRuleMap.get(nic.hostUuid);
                 if (hto == null) {
                     hto = new HostRuleTO();
-                    hto.setHostUuid(hostUuid);
-                    hto.setHypervisorType(hypervisorType);
+                    hto.setHostUuid(nic.hostUuid);
+                    hto.setHypervisorType(nic.hypervisorType);
                     hostRuleMap.put(hto.getHostUuid(), hto);
                 }
                 hto.getRules().add(sgto);
@@ -849,16 +953,80 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         bus.publish(evt);
     }
 
+    private Map<String, String> calculateRuleDigests(HostRuleTO hto) {
+        Map<String, String> digests = new HashMap<String, String>();
+        for (SecurityGroupRuleTO sgto : hto.getRules()) {
+            if (SecurityGroupRuleTO.ACTION_CODE_APPLY_RULE.equals(sgto.getActionCode())) {
+                digests.put(sgto.getVmNicUuid(), DigestUtils.md5Hex(JSONObjectUtil.toJsonString(sgto)));
+            }
+        }
+        return digests;
+    }
+
+    private void removeUnchangedRules(HostRuleTO hto, Map<String, String> digests) {
+        Map<String, String> applied = appliedRuleDigests.get(hto.getHostUuid());
+        if (applied == null) {
+            return;
+        }
+
+        Iterator<SecurityGroupRuleTO> it = hto.getRules().iterator();
+        while (it.hasNext()) {
+            SecurityGroupRuleTO sgto = it.next();
+            String digest = digests.get(sgto.getVmNicUuid());
+            if (digest != null && digest.equals(applied.get(sgto.getVmNicUuid()))) {
+                it.remove();
+            }
+        }
+    }
+
+    private void recordAppliedRules(HostRuleTO hto, Map<String, String> digests) {
+        if (hto.isRefreshHost()) {
+            // all rules on the host are replaced
+            appliedRuleDigests.put(hto.getHostUuid(), new ConcurrentHashMap<String, String>(digests));
+            return;
+        }
+
+        Map<String, String> applied = appliedRuleDigests.get(hto.getHostUuid());
+        if (applied == null) {
+            applied = new ConcurrentHashMap<String, String>();
+            Map<String, String> old = appliedRuleDigests.putIfAbsent(hto.getHostUuid(), applied);
+            if (old != null) {
+                applied = old;
+            }
+        }
+
+        for (SecurityGroupRuleTO sgto : hto.getRules()) {
+            String digest = digests.get(sgto.getVmNicUuid());
+            if (digest == null) {
+                applied.remove(sgto.getVmNicUuid());
+            } else {
+                applied.put(sgto.getVmNicUuid(), digest);
+            }
+        }
+    }
+
     private void applyRules(Collection<HostRuleTO> htos) {
         for (final HostRuleTO h : htos) {
+            final Map<String, String> digests = calculateRuleDigests(h);
+            if (!h.isRefreshHost() && SecurityGroupGlobalConfig.SKIP_UNCHANGED_RULES.value(Boolean.class)) {
+                removeUnchangedRules(h, digests);
+                if (h.getRules().isEmpty()) {
+                    logger.debug(String.format("security rules on host[uuid:%s] are not changed, skip applying", h.getHostUuid()));
+                    continue;
+                }
+            }
+
             SecurityGroupHypervisorBackend bkend = hypervisorBackends.get(h.getHypervisorType());
             bkend.applyRules(h, new Completion() {
                 private void copeWithFailureHost() {
+                    // we don't know what rules are on the host now
+                    appliedRuleDigests.remove(h.getHostUuid());
                     createFailureHostTask(h.getHostUuid());
                 }
 
                 @Override
                 public void success() {
+                    recordAppliedRules(h, digests);
                     logger.debug(String.format("successfully applied security rules on host[uuid:%s]", h.getHostUuid()));
                 }
 
@@ -1021,6 +1189,13 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         List<HostRuleTO> htos = cal.calculate();
         applyRules(htos);
 
+        Map<String, String> applied = appliedRuleDigests.get(srcHostUuid);
+        if (applied != null) {
+            for (VmNicInventory nic : inv.getVmNics()) {
+                applied.remove(nic.getUuid());
+            }
+        }
+
         SecurityGroupHypervisorBackend bkd = getHypervisorBackend(inv.getHypervisorType());
         bkd.cleanUpUnusedRuleOnHost(inv.getLastHostUuid(), new Completion() {
             @Override
@@ -1133,10 +1308,12 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
 
                 final HostRuleTO hto = htos.get(0);
                 hto.setRefreshHost(true);
+                final Map<String, String> digests = calculateRuleDigests(hto);
                 SecurityGroupHypervisorBackend bd = getHypervisorBackend(hto.getHypervisorType());
                 bd.applyRules(hto, new Completion() {
                     @Override
                     public void success() {
+                        recordAppliedRules(hto, digests);
                         logger.debug(String.format("successfully re-apply security group rules to host[uuid:%s]", hto.getHostUuid()));
                         dbf.remove(vo);
                     }
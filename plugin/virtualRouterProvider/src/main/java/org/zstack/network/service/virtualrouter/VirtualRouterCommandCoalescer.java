@@ -0,0 +1,232 @@
+package org.zstack.network.service.virtualrouter;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.timeout.ApiTimeoutManager;
+import org.zstack.header.core.NoErrorCompletion;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.vm.VmInstanceConstant;
+import org.zstack.network.service.virtualrouter.VirtualRouterCommands.AgentCommand;
+import org.zstack.network.service.virtualrouter.VirtualRouterCommands.AgentResponse;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces changes sent to the same agent path of the same virtual router into one
+ * multi-entry command.
+ *
+ * Changes to a virtual router are queued in the order they are sent, whatever their paths.
+ * The first change opens a batch that is flushed after command.coalesceWindow milliseconds;
+ * a flush sends the consecutive changes to the path at the head of the queue as one call,
+ * and changes arriving while a call is in flight wait for the next one, so a virtual router
+ * has at most one outstanding call and e.g. removing an entry can never overtake adding it.
+ * Every caller gets the reply of the call carrying its change; if the agent rejects a batch
+ * of more than one change, the changes are re-sent one by one, in order, so the failure is
+ * reported only to the callers whose changes caused it.
+ */
+public class VirtualRouterCommandCoalescer {
+    private static final CLogger logger = Utils.getLogger(VirtualRouterCommandCoalescer.class);
+
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private ApiTimeoutManager apiTimeoutManager;
+
+    public interface CommandBuilder<T> {
+        AgentCommand buildCommand(List<T> items);
+    }
+
+    private class Change {
+        String path;
+        CommandBuilder builder;
+        Object item;
+        CloudBusCallBack callback;
+    }
+
+    private class ChangeQueue {
+        String vrUuid;
+        List<Change> pending = new ArrayList<Change>();
+        boolean scheduled;
+        boolean inFlight;
+    }
+
+    // virtual router uuid -> changes not yet replied
+    private final Map<String, ChangeQueue> queues = new HashMap<String, ChangeQueue>();
+
+    public <T> void send(String vrUuid, String path, T item, CommandBuilder<T> builder, CloudBusCallBack callback) {
+        Change change = new Change();
+        change.path = path;
+        change.builder = builder;
+        change.item = item;
+        change.callback = callback;
+
+        ChangeQueue queue;
+        boolean schedule;
+        synchronized (queues) {
+            queue = queues.get(vrUuid);
+            if (queue == null) {
+                queue = new ChangeQueue();
+                queue.vrUuid = vrUuid;
+                queues.put(vrUuid, queue);
+            }
+
+            queue.pending.add(change);
+            schedule = !queue.scheduled && !queue.inFlight;
+            if (schedule) {
+                queue.scheduled = true;
+            }
+        }
+
+        if (schedule) {
+            scheduleFlush(queue);
+        }
+    }
+
+    private void scheduleFlush(final ChangeQueue queue) {
+        long window = VirtualRouterGlobalConfig.COMMAND_COALESCE_WINDOW.value(Long.class);
+        if (window <= 0) {
+            flush(queue);
+            return;
+        }
+
+        thdf.submitTimeoutTask(new Runnable() {
+            @Override
+            public void run() {
+                flush(queue);
+            }
+        }, TimeUnit.MILLISECONDS, window);
+    }
+
+    private void flush(final ChangeQueue queue) {
+        List<Change> changes;
+        synchronized (queues) {
+            queue.scheduled = false;
+            if (queue.pending.isEmpty()) {
+                queues.remove(queue.vrUuid);
+                return;
+            }
+
+            // only changes to the same path are merged, and never across a change to another path
+            String path = queue.pending.get(0).path;
+            int max = VirtualRouterGlobalConfig.COMMAND_COALESCE_MAX_BATCH_SIZE.value(Integer.class);
+            int size = 1;
+            while (size < queue.pending.size() && size < max && queue.pending.get(size).path.equals(path)) {
+                size ++;
+            }
+
+            List<Change> head = queue.pending.subList(0, size);
+            changes = new ArrayList<Change>(head);
+            head.clear();
+            queue.inFlight = true;
+        }
+
+        call(queue, changes, new NoErrorCompletion() {
+            @Override
+            public void done() {
+                boolean again;
+                synchronized (queues) {
+                    queue.inFlight = false;
+                    again = !queue.pending.isEmpty();
+                    if (again) {
+                        queue.scheduled = true;
+                    } else {
+                        queues.remove(queue.vrUuid);
+                    }
+                }
+
+                if (again) {
+                    // the queued changes have waited for the call in flight, don't make them wait another window
+                    flush(queue);
+                }
+            }
+        });
+    }
+
+    private void call(final ChangeQueue queue, final List<Change> changes, final NoErrorCompletion completion) {
+        List<Object> items = new ArrayList<Object>(changes.size());
+        for (Change c : changes) {
+            items.add(c.item);
+        }
+
+        final Change first = changes.get(0);
+        send(queue.vrUuid, first, items, new CloudBusCallBack() {
+            @Override
+            public void run(MessageReply reply) {
+                if (changes.size() > 1 && isRejectedByAgent(reply)) {
+                    logger.debug(String.format("virtual router[uuid:%s] failed a batch of %s changes to %s, re-send them one by one",
+                            queue.vrUuid, changes.size(), first.path));
+                    sendOneByOne(queue, changes.iterator(), completion);
+                    return;
+                }
+
+                for (Change c : changes) {
+                    callback(c, reply);
+                }
+                completion.done();
+            }
+        });
+    }
+
+    private void sendOneByOne(final ChangeQueue queue, final Iterator<Change> it, final NoErrorCompletion completion) {
+        if (!it.hasNext()) {
+            completion.done();
+            return;
+        }
+
+        final Change c = it.next();
+        send(queue.vrUuid, c, list(c.item), new CloudBusCallBack() {
+            @Override
+            public void run(MessageReply reply) {
+                callback(c, reply);
+                sendOneByOne(queue, it, completion);
+            }
+        });
+    }
+
+    private List<Object> list(Object item) {
+        List<Object> items = new ArrayList<Object>(1);
+        items.add(item);
+        return items;
+    }
+
+    private boolean isRejectedByAgent(MessageReply reply) {
+        if (!reply.isSuccess()) {
+            // the call didn't reach the agent, a smaller batch won't do better
+            return false;
+        }
+
+        VirtualRouterAsyncHttpCallReply re = reply.castReply();
+        return !re.toResponse(AgentResponse.class).isSuccess();
+    }
+
+    private void send(String vrUuid, Change change, List<Object> items, CloudBusCallBack callback) {
+        AgentCommand cmd = change.builder.buildCommand(items);
+        VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
+        msg.setVmInstanceUuid(vrUuid);
+        msg.setPath(change.path);
+        msg.setCommand(cmd);
+        msg.setCommandTimeout(apiTimeoutManager.getTimeout(cmd.getClass(), "5m"));
+        msg.setCheckStatus(true);
+        bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vrUuid);
+        bus.send(msg, callback);
+    }
+
+    private void callback(Change c, MessageReply reply) {
+        try {
+            c.callback.run(reply);
+        } catch (Throwable t) {
+            logger.warn(String.format("unhandled exception when calling back a change[%s]", c.item), t);
+        }
+    }
+}
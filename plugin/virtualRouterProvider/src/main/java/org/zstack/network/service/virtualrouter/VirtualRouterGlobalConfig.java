@@ -20,4 +20,8 @@ public class VirtualRouterGlobalConfig {
     public static GlobalConfig PING_INTERVAL = new GlobalConfig(CATEGORY, "ping.interval");
     @GlobalConfigValidation
     public static GlobalConfig PING_PARALLELISM_DEGREE = new GlobalConfig(CATEGORY, "ping.parallelismDegree");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig COMMAND_COALESCE_WINDOW = new GlobalConfig(CATEGORY, "command.coalesceWindow");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig COMMAND_COALESCE_MAX_BATCH_SIZE = new GlobalConfig(CATEGORY, "command.coalesceMaxBatchSize");
 }
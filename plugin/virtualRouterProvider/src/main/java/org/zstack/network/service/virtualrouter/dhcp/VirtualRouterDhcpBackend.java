@@ -1,10 +1,8 @@
 package org.zstack.network.service.virtualrouter.dhcp;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.errorcode.ErrorFacade;
-import org.zstack.core.timeout.ApiTimeoutManager;
 import org.zstack.header.core.Completion;
 import org.zstack.header.core.NoErrorCompletion;
 import org.zstack.header.core.ReturnValueCompletion;
@@ -14,19 +12,17 @@ import org.zstack.header.message.MessageReply;
 import org.zstack.header.network.service.DhcpStruct;
 import org.zstack.header.network.service.NetworkServiceDhcpBackend;
 import org.zstack.header.network.service.NetworkServiceProviderType;
-import org.zstack.header.vm.VmInstanceConstant;
 import org.zstack.header.vm.VmInstanceInventory;
 import org.zstack.header.vm.VmInstanceSpec;
 import org.zstack.header.vm.VmNicInventory;
 import org.zstack.network.service.virtualrouter.*;
-import org.zstack.network.service.virtualrouter.VirtualRouterCommands.AddDhcpEntryRsp;
+import org.zstack.network.service.virtualrouter.VirtualRouterCommands.*;
 import org.zstack.utils.CollectionDSL;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
 
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -38,9 +34,25 @@ public class VirtualRouterDhcpBackend implements NetworkServiceDhcpBackend {
     @Autowired
     private ErrorFacade errf;
     @Autowired
-    private CloudBus bus;
-    @Autowired
-    private ApiTimeoutManager apiTimeoutManager;
+    private VirtualRouterCommandCoalescer coalescer;
+
+    private final VirtualRouterCommandCoalescer.CommandBuilder<DhcpInfo> addDhcpCommandBuilder = new VirtualRouterCommandCoalescer.CommandBuilder<DhcpInfo>() {
+        @Override
+        public AgentCommand buildCommand(List<DhcpInfo> items) {
+            AddDhcpEntryCmd cmd = new AddDhcpEntryCmd();
+            cmd.setDhcpEntries(items);
+            return cmd;
+        }
+    };
+
+    private final VirtualRouterCommandCoalescer.CommandBuilder<DhcpInfo> removeDhcpCommandBuilder = new VirtualRouterCommandCoalescer.CommandBuilder<DhcpInfo>() {
+        @Override
+        public AgentCommand buildCommand(List<DhcpInfo> items) {
+            RemoveDhcpEntryCmd cmd = new RemoveDhcpEntryCmd();
+            cmd.setDhcpEntries(items);
+            return cmd;
+        }
+    };
 
     @Override
     public NetworkServiceProviderType getProviderType() {
@@ -57,7 +69,7 @@ public class VirtualRouterDhcpBackend implements NetworkServiceDhcpBackend {
         vrMgr.acquireVirtualRouterVm(struct.getL3Network(), spec, new ReturnValueCompletion<VirtualRouterVmInventory>(completion) {
             @Override
             public void success(final VirtualRouterVmInventory vr) {
-                VirtualRouterCommands.DhcpInfo e = new VirtualRouterCommands.DhcpInfo();
+                DhcpInfo e = new DhcpInfo();
                 e.setGateway(struct.getGateway());
                 e.setIp(struct.getIp());
                 e.setDefaultL3Network(struct.isDefaultL3Network());
@@ -77,16 +89,7 @@ public class VirtualRouterDhcpBackend implements NetworkServiceDhcpBackend {
                     e.setDns(CollectionDSL.list(vrNic.getIp()));
                 }
 
-                VirtualRouterCommands.AddDhcpEntryCmd cmd = new VirtualRouterCommands.AddDhcpEntryCmd();
-                cmd.setDhcpEntries(Arrays.asList(e));
-                VirtualRouterAsyncHttpCallMsg cmsg = new VirtualRouterAsyncHttpCallMsg();
-                cmsg.setCommand(cmd);
-                cmsg.setCommandTimeout(apiTimeoutManager.getTimeout(cmd.getClass(), "5m"));
-                cmsg.setPath(VirtualRouterConstant.VR_ADD_DHCP_PATH);
-                cmsg.setVmInstanceUuid(vr.getUuid());
-                cmsg.setCheckStatus(true);
-                bus.makeTargetServiceIdByResourceUuid(cmsg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
-                bus.send(cmsg, new CloudBusCallBack(completion) {
+                coalescer.send(vr.getUuid(), VirtualRouterConstant.VR_ADD_DHCP_PATH, e, addDhcpCommandBuilder, new CloudBusCallBack(completion) {
                     @Override
                     public void run(MessageReply reply) {
                         if (!reply.isSuccess()) {
@@ -149,7 +152,7 @@ public class VirtualRouterDhcpBackend implements NetworkServiceDhcpBackend {
             }
         });
 
-        VirtualRouterCommands.DhcpInfo e = new VirtualRouterCommands.DhcpInfo();
+        DhcpInfo e = new DhcpInfo();
         e.setGateway(struct.getGateway());
         e.setDefaultL3Network(struct.isDefaultL3Network());
         e.setIp(struct.getIp());
@@ -157,17 +160,7 @@ public class VirtualRouterDhcpBackend implements NetworkServiceDhcpBackend {
         e.setNetmask(struct.getNetmask());
         e.setVrNicMac(vrNic.getMac());
 
-        VirtualRouterCommands.RemoveDhcpEntryCmd cmd = new VirtualRouterCommands.RemoveDhcpEntryCmd();
-        cmd.setDhcpEntries(Arrays.asList(e));
-
-        VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
-        msg.setCheckStatus(true);
-        msg.setVmInstanceUuid(vr.getUuid());
-        msg.setPath(VirtualRouterConstant.VR_REMOVE_DHCP_PATH);
-        msg.setCommand(cmd);
-        msg.setCommandTimeout(apiTimeoutManager.getTimeout(cmd.getClass(), "5m"));
-        bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
-        bus.send(msg, new CloudBusCallBack(completion) {
+        coalescer.send(vr.getUuid(), VirtualRouterConstant.VR_REMOVE_DHCP_PATH, e, removeDhcpCommandBuilder, new CloudBusCallBack(completion) {
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
@@ -28,7 +28,9 @@ import org.zstack.utils.logging.CLogger;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  */
@@ -43,6 +45,37 @@ public class VirtualRouterDnsBackend implements NetworkServiceDnsBackend {
     private ErrorFacade errf;
     @Autowired
     private ApiTimeoutManager apiTimeoutManager;
+    @Autowired
+    private VirtualRouterCommandCoalescer coalescer;
+
+    private final VirtualRouterCommandCoalescer.CommandBuilder<List<DnsInfo>> setDnsCommandBuilder = new VirtualRouterCommandCoalescer.CommandBuilder<List<DnsInfo>>() {
+        @Override
+        public AgentCommand buildCommand(List<List<DnsInfo>> items) {
+            SetDnsCmd cmd = new SetDnsCmd();
+            cmd.setDns(mergeDns(items));
+            return cmd;
+        }
+    };
+
+    private final VirtualRouterCommandCoalescer.CommandBuilder<List<DnsInfo>> removeDnsCommandBuilder = new VirtualRouterCommandCoalescer.CommandBuilder<List<DnsInfo>>() {
+        @Override
+        public AgentCommand buildCommand(List<List<DnsInfo>> items) {
+            RemoveDnsCmd cmd = new RemoveDnsCmd();
+            cmd.setDns(mergeDns(items));
+            return cmd;
+        }
+    };
+
+    private List<DnsInfo> mergeDns(List<List<DnsInfo>> items) {
+        Map<String, DnsInfo> dns = new LinkedHashMap<String, DnsInfo>();
+        for (List<DnsInfo> infos : items) {
+            for (DnsInfo info : infos) {
+                dns.put(info.getDnsAddress(), info);
+            }
+        }
+
+        return new ArrayList<DnsInfo>(dns.values());
+    }
 
     @Override
     public NetworkServiceProviderType getProviderType() {
@@ -158,17 +191,7 @@ public class VirtualRouterDnsBackend implements NetworkServiceDnsBackend {
                     dns.add(dinfo);
                 }
 
-                VirtualRouterCommands.SetDnsCmd cmd = new VirtualRouterCommands.SetDnsCmd();
-                cmd.setDns(dns);
-
-                VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
-                msg.setVmInstanceUuid(vr.getUuid());
-                msg.setPath(VirtualRouterConstant.VR_SET_DNS_PATH);
-                msg.setCommand(cmd);
-                msg.setCommandTimeout(apiTimeoutManager.getTimeout(cmd.getClass(), "5m"));
-                msg.setCheckStatus(true);
-                bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
-                bus.send(msg, new CloudBusCallBack(completion) {
+                coalescer.send(vr.getUuid(), VirtualRouterConstant.VR_SET_DNS_PATH, dns, setDnsCommandBuilder, new CloudBusCallBack(completion) {
                     @Override
                     public void run(MessageReply reply) {
                         if (!reply.isSuccess()) {
@@ -233,17 +256,7 @@ public class VirtualRouterDnsBackend implements NetworkServiceDnsBackend {
             info.add(i);
         }
 
-        VirtualRouterCommands.RemoveDnsCmd cmd = new VirtualRouterCommands.RemoveDnsCmd();
-        cmd.setDns(info);
-
-        VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
-        msg.setCheckStatus(true);
-        msg.setPath(VirtualRouterConstant.VR_REMOVE_DNS_PATH);
-        msg.setCommand(cmd);
-        msg.setCommandTimeout(apiTimeoutManager.getTimeout(cmd.getClass(), "5m"));
-        msg.setVmInstanceUuid(vr.getUuid());
-        bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
-        bus.send(msg, new CloudBusCallBack(completion) {
+        coalescer.send(vr.getUuid(), VirtualRouterConstant.VR_REMOVE_DNS_PATH, info, removeDnsCommandBuilder, new CloudBusCallBack(completion) {
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
@@ -3,23 +3,19 @@ package org.zstack.network.service.virtualrouter.portforwarding;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
-import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.errorcode.ErrorFacade;
-import org.zstack.core.timeout.ApiTimeoutManager;
 import org.zstack.header.core.workflow.Flow;
 import org.zstack.header.core.workflow.FlowRollback;
 import org.zstack.header.core.workflow.FlowTrigger;
 import org.zstack.header.message.MessageReply;
-import org.zstack.header.vm.VmInstanceConstant;
 import org.zstack.network.service.virtualrouter.*;
-import org.zstack.network.service.virtualrouter.VirtualRouterCommands.CreatePortForwardingRuleRsp;
-import org.zstack.network.service.virtualrouter.VirtualRouterCommands.RevokePortForwardingRuleRsp;
+import org.zstack.network.service.virtualrouter.VirtualRouterCommands.*;
 import org.zstack.utils.Utils;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
-import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
@@ -31,30 +27,36 @@ public class ApplyPortforwardingRuleOnVirtualRouterVmFlow implements Flow {
     @Autowired
     protected VirtualRouterPortForwardingBackend backend;
     @Autowired
-    private CloudBus bus;
-    @Autowired
     private ErrorFacade errf;
     @Autowired
-    private ApiTimeoutManager apiTimeoutManager;
+    private VirtualRouterCommandCoalescer coalescer;
 
     private final static String VR_APPLY_PORT_FORWARDING_RULE_SUCCESS = "ApplyPortForwardingRuleSuccess";
 
+    private static final VirtualRouterCommandCoalescer.CommandBuilder<PortForwardingRuleTO> createRuleCommandBuilder = new VirtualRouterCommandCoalescer.CommandBuilder<PortForwardingRuleTO>() {
+        @Override
+        public AgentCommand buildCommand(List<PortForwardingRuleTO> items) {
+            CreatePortForwardingRuleCmd cmd = new CreatePortForwardingRuleCmd();
+            cmd.setRules(items);
+            return cmd;
+        }
+    };
+
+    static final VirtualRouterCommandCoalescer.CommandBuilder<PortForwardingRuleTO> revokeRuleCommandBuilder = new VirtualRouterCommandCoalescer.CommandBuilder<PortForwardingRuleTO>() {
+        @Override
+        public AgentCommand buildCommand(List<PortForwardingRuleTO> items) {
+            RevokePortForwardingRuleCmd cmd = new RevokePortForwardingRuleCmd();
+            cmd.setRules(items);
+            return cmd;
+        }
+    };
+
     @Override
     public void run(final FlowTrigger chain, final Map data) {
         final PortForwardingRuleTO to = (PortForwardingRuleTO) data.get(VirtualRouterConstant.VR_PORT_FORWARDING_RULE);
         final VirtualRouterVmInventory vr = (VirtualRouterVmInventory) data.get(VirtualRouterConstant.VR_RESULT_VM);
 
-        VirtualRouterCommands.CreatePortForwardingRuleCmd cmd = new VirtualRouterCommands.CreatePortForwardingRuleCmd();
-        cmd.setRules(Arrays.asList(to));
-
-        VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
-        msg.setVmInstanceUuid(vr.getUuid());
-        msg.setCommand(cmd);
-        msg.setCommandTimeout(apiTimeoutManager.getTimeout(cmd.getClass(), "5m"));
-        msg.setPath(VirtualRouterConstant.VR_CREATE_PORT_FORWARDING);
-        msg.setCheckStatus(true);
-        bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
-        bus.send(msg, new CloudBusCallBack(chain) {
+        coalescer.send(vr.getUuid(), VirtualRouterConstant.VR_CREATE_PORT_FORWARDING, to, createRuleCommandBuilder, new CloudBusCallBack(chain) {
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
@@ -90,17 +92,7 @@ public class ApplyPortforwardingRuleOnVirtualRouterVmFlow implements Flow {
             final PortForwardingRuleTO to = (PortForwardingRuleTO) data.get(VirtualRouterConstant.VR_PORT_FORWARDING_RULE);
             final VirtualRouterVmInventory vr = (VirtualRouterVmInventory) data.get(VirtualRouterConstant.VR_RESULT_VM);
 
-            VirtualRouterCommands.RevokePortForwardingRuleCmd cmd = new VirtualRouterCommands.RevokePortForwardingRuleCmd();
-            cmd.setRules(Arrays.asList(to));
-
-            VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
-            msg.setCheckStatus(true);
-            msg.setPath(VirtualRouterConstant.VR_REVOKE_PORT_FORWARDING);
-            msg.setCommand(cmd);
-            msg.setCommandTimeout(apiTimeoutManager.getTimeout(cmd.getClass(), "5m"));
-            msg.setVmInstanceUuid(vr.getUuid());
-            bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
-            bus.send(msg, new CloudBusCallBack(chain) {
+            coalescer.send(vr.getUuid(), VirtualRouterConstant.VR_REVOKE_PORT_FORWARDING, to, revokeRuleCommandBuilder, new CloudBusCallBack(chain) {
                 @Override
                 public void run(MessageReply reply) {
                     if (!reply.isSuccess()) {
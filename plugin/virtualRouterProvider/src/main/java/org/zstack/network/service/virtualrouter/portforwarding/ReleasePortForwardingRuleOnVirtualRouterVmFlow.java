@@ -3,21 +3,17 @@ package org.zstack.network.service.virtualrouter.portforwarding;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
-import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.errorcode.ErrorFacade;
-import org.zstack.core.timeout.ApiTimeoutManager;
 import org.zstack.header.core.workflow.FlowTrigger;
 import org.zstack.header.core.workflow.NoRollbackFlow;
 import org.zstack.header.message.MessageReply;
-import org.zstack.header.vm.VmInstanceConstant;
 import org.zstack.network.service.virtualrouter.*;
 import org.zstack.network.service.virtualrouter.VirtualRouterCommands.RevokePortForwardingRuleRsp;
 import org.zstack.utils.Utils;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
-import java.util.Arrays;
 import java.util.Map;
 
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
@@ -29,28 +25,17 @@ public class ReleasePortForwardingRuleOnVirtualRouterVmFlow extends NoRollbackFl
     @Autowired
     protected VirtualRouterPortForwardingBackend backend;
     @Autowired
-    private CloudBus bus;
-    @Autowired
     private ErrorFacade errf;
     @Autowired
-    private ApiTimeoutManager apiTimeoutManager;
+    private VirtualRouterCommandCoalescer coalescer;
 
     @Override
     public void run(final FlowTrigger chain, Map data) {
         final PortForwardingRuleTO to = (PortForwardingRuleTO) data.get(VirtualRouterConstant.VR_PORT_FORWARDING_RULE);
         final VirtualRouterVmInventory vr = (VirtualRouterVmInventory) data.get(VirtualRouterConstant.VR_RESULT_VM);
 
-        VirtualRouterCommands.RevokePortForwardingRuleCmd cmd = new VirtualRouterCommands.RevokePortForwardingRuleCmd();
-        cmd.setRules(Arrays.asList(to));
-
-        VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
-        msg.setPath(VirtualRouterConstant.VR_REVOKE_PORT_FORWARDING);
-        msg.setVmInstanceUuid(vr.getUuid());
-        msg.setCommand(cmd);
-        msg.setCommandTimeout(apiTimeoutManager.getTimeout(cmd.getClass(), "5m"));
-        msg.setCheckStatus(true);
-        bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
-        bus.send(msg, new CloudBusCallBack(chain) {
+        coalescer.send(vr.getUuid(), VirtualRouterConstant.VR_REVOKE_PORT_FORWARDING, to,
+                ApplyPortforwardingRuleOnVirtualRouterVmFlow.revokeRuleCommandBuilder, new CloudBusCallBack(chain) {
             @Override
             public void run(MessageReply reply) {
                 if (!reply.isSuccess()) {
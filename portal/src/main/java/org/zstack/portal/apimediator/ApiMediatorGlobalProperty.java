@@ -0,0 +1,15 @@
+package org.zstack.portal.apimediator;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class ApiMediatorGlobalProperty {
+    // seconds to remember a resource found by APIParam.resourceType validation, 0 disables the cache
+    @GlobalProperty(name="ApiMediator.resourceExistenceCacheTTL", defaultValue = "0")
+    public static long RESOURCE_EXISTENCE_CACHE_TTL;
+    @GlobalProperty(name="ApiMediator.resourceExistenceCacheSize", defaultValue = "10000")
+    public static int RESOURCE_EXISTENCE_CACHE_SIZE;
+}
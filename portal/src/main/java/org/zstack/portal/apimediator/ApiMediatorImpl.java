@@ -7,6 +7,8 @@ import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.HardDeleteEntityExtensionPoint;
+import org.zstack.core.db.SoftDeleteEntityExtensionPoint;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.core.thread.SyncTask;
 import org.zstack.core.thread.ThreadFacade;
@@ -25,6 +27,7 @@ import org.zstack.utils.logging.CLogger;
 
 import javax.persistence.Query;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,7 +35,8 @@ import java.util.Map;
 import static org.zstack.utils.CollectionDSL.e;
 import static org.zstack.utils.CollectionDSL.map;
 
-public class ApiMediatorImpl extends AbstractService implements ApiMediator, GlobalApiMessageInterceptor {
+public class ApiMediatorImpl extends AbstractService implements ApiMediator, GlobalApiMessageInterceptor,
+        SoftDeleteEntityExtensionPoint, HardDeleteEntityExtensionPoint {
     private static final CLogger logger = Utils.getLogger(ApiMediator.class);
 
     @Autowired
@@ -206,6 +210,32 @@ public class ApiMediatorImpl extends AbstractService implements ApiMediator, Glo
         return InterceptorPosition.FRONT;
     }
 
+    @Override
+    public List<Class> getEntityClassForSoftDeleteEntityExtension() {
+        // for all entities
+        return null;
+    }
+
+    @Override
+    public void postSoftDelete(Collection entityIds, Class entityClass) {
+        if (processor != null) {
+            processor.evictResources(entityIds);
+        }
+    }
+
+    @Override
+    public List<Class> getEntityClassForHardDeleteEntityExtension() {
+        // for all entities
+        return null;
+    }
+
+    @Override
+    public void postHardDelete(Collection entityIds, Class entityClass) {
+        if (processor != null) {
+            processor.evictResources(entityIds);
+        }
+    }
+
     @Override
     public APIMessage intercept(APIMessage msg) throws ApiMessageInterceptionException {
         if (msg instanceof APICreateMessage) {
@@ -35,6 +35,9 @@ import javax.xml.bind.Unmarshaller;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.zstack.utils.CollectionDSL.list;
 
 /**
  * Created with IntelliJ IDEA.
@@ -48,6 +51,8 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
     private Map<Class, ApiMessageDescriptor> descriptors = new HashMap<Class, ApiMessageDescriptor>();
     private Map<Class, Set<GlobalApiMessageInterceptor>> globalInterceptors = new HashMap<Class, Set<GlobalApiMessageInterceptor>>();
     private Set<GlobalApiMessageInterceptor> globalInterceptorsForAllMsg = new HashSet<GlobalApiMessageInterceptor>();
+    // resource uuid -> (resource type -> expiration time) of resources found by APIParam.resourceType validation
+    private Map<String, Map<Class, Long>> existingResources = new ConcurrentHashMap<String, Map<Class, Long>>();
 
     @Autowired
     private PluginRegistry pluginRgty;
@@ -210,7 +215,8 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
             APIParam param;
         }
 
-        Map<String, FP> fmap = new HashMap<String, FP>();
+        // sorted by field names so the validation reports errors in a stable order
+        Map<String, FP> fmap = new TreeMap<String, FP>();
         for (Field f : fields) {
             APIParam at = f.getAnnotation(APIParam.class);
             if (at == null) {
@@ -239,19 +245,146 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
             }
         }
 
+        Map<Field, APIParam> fieldApiParams = new LinkedHashMap<Field, APIParam>();
         for (FP fp : fmap.values()) {
-            desc.getFieldApiParams().put(fp.field, fp.param);
+            if (fp.param.resourceType() != Object.class && !Collection.class.isAssignableFrom(fp.field.getType())) {
+                DebugUtils.Assert(String.class.isAssignableFrom(fp.field.getType()), String.format("field[%s] of message[%s] has APIParam.resourceType specified, then the field must be uuid which is a String, but actual is %s",
+                        fp.field.getName(), msgClz.getName(), fp.field.getType()));
+            }
+
+            fp.field.setAccessible(true);
+            fieldApiParams.put(fp.field, fp.param);
+        }
+        desc.setFieldApiParams(fieldApiParams);
+    }
+
+    private class ResourceRef {
+        Field field;
+        String uuid;
+    }
+
+    private Set<String> getCachedResources(Class resourceType, Collection<String> uuids) {
+        Set<String> ret = new HashSet<String>();
+        if (ApiMediatorGlobalProperty.RESOURCE_EXISTENCE_CACHE_TTL <= 0) {
+            return ret;
+        }
+
+        long now = System.currentTimeMillis();
+        for (String uuid : uuids) {
+            Map<Class, Long> types = existingResources.get(uuid);
+            if (types == null) {
+                continue;
+            }
+
+            Long expiration = types.get(resourceType);
+            if (expiration != null && expiration > now) {
+                ret.add(uuid);
+            }
+        }
+
+        return ret;
+    }
+
+    private void cacheResources(Class resourceType, Collection<String> uuids) {
+        if (ApiMediatorGlobalProperty.RESOURCE_EXISTENCE_CACHE_TTL <= 0 || uuids.isEmpty()) {
+            return;
+        }
+
+        if (existingResources.size() > ApiMediatorGlobalProperty.RESOURCE_EXISTENCE_CACHE_SIZE) {
+            existingResources.clear();
+        }
+
+        long expiration = System.currentTimeMillis() + ApiMediatorGlobalProperty.RESOURCE_EXISTENCE_CACHE_TTL * 1000;
+        for (String uuid : uuids) {
+            Map<Class, Long> types = existingResources.get(uuid);
+            if (types == null) {
+                types = new ConcurrentHashMap<Class, Long>();
+                existingResources.put(uuid, types);
+            }
+            types.put(resourceType, expiration);
+        }
+    }
+
+    @Override
+    public void evictResources(Collection resourceUuids) {
+        for (Object uuid : resourceUuids) {
+            if (uuid instanceof String) {
+                existingResources.remove(uuid);
+            }
+        }
+    }
+
+    private void checkResourcesExist(Message msg, Map<Class, List<ResourceRef>> refsByType) {
+        for (Map.Entry<Class, List<ResourceRef>> e : refsByType.entrySet()) {
+            final Class resourceType = e.getKey();
+            List<ResourceRef> refs = e.getValue();
+
+            final Set<String> uuids = new HashSet<String>();
+            for (ResourceRef ref : refs) {
+                uuids.add(ref.uuid);
+            }
+
+            Set<String> existing = getCachedResources(resourceType, uuids);
+            uuids.removeAll(existing);
+            if (!uuids.isEmpty()) {
+                List<String> found = new FunctionNoArg<List<String>>() {
+                    @Override
+                    @Transactional(readOnly = true)
+                    public List<String> call() {
+                        String sql = String.format("select e.uuid from %s e where e.uuid in (:uuids)", resourceType.getSimpleName());
+                        TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
+                        q.setParameter("uuids", uuids);
+                        return q.getResultList();
+                    }
+                }.call();
+
+                cacheResources(resourceType, found);
+                existing.addAll(found);
+            }
+
+            Map<Field, List<String>> invalids = new LinkedHashMap<Field, List<String>>();
+            for (ResourceRef ref : refs) {
+                if (existing.contains(ref.uuid)) {
+                    continue;
+                }
+
+                List<String> lst = invalids.get(ref.field);
+                if (lst == null) {
+                    lst = new ArrayList<String>();
+                    invalids.put(ref.field, lst);
+                }
+                lst.add(ref.uuid);
+            }
+
+            if (invalids.isEmpty()) {
+                continue;
+            }
+
+            Map.Entry<Field, List<String>> invalid = invalids.entrySet().iterator().next();
+            Field f = invalid.getKey();
+            if (Collection.class.isAssignableFrom(f.getType())) {
+                throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
+                        String.format("invalid field[%s], resource[uuids:%s, type:%s] not found", f.getName(), invalid.getValue(), resourceType.getSimpleName())
+                ));
+            } else {
+                throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
+                        String.format("invalid field[%s], resource[uuid:%s, type:%s] not found", f.getName(), invalid.getValue().get(0), resourceType.getSimpleName())
+                ));
+            }
         }
     }
 
 
     private void apiParamValidation(Message msg, ApiMessageDescriptor desc) {
         try {
+            // uuids referenced by APIParam.resourceType are collected across all fields and
+            // checked after other validations, with one query per resource type
+            Map<Class, List<ResourceRef>> resourceRefs = new LinkedHashMap<Class, List<ResourceRef>>();
+
             for (Map.Entry<Field, APIParam> fp : desc.getFieldApiParams().entrySet()) {
                 Field f = fp.getKey();
                 final APIParam at = fp.getValue();
 
-                f.setAccessible(true);
                 Object value = f.get(msg);
 
                 if (value != null && (value instanceof String) && !at.noTrim()) {
@@ -334,49 +467,23 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
                 }
 
                 if (value != null && at.resourceType() != Object.class) {
-                    if (value instanceof Collection) {
-                        final Collection col = (Collection) value;
-                        if (!col.isEmpty()) {
-                            List<String> uuids = new FunctionNoArg<List<String>>() {
-                                @Override
-                                @Transactional(readOnly = true)
-                                public List<String> call() {
-                                    String sql = String.format("select e.uuid from %s e where e.uuid in (:uuids)", at.resourceType().getSimpleName());
-                                    TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
-                                    q.setParameter("uuids", col);
-                                    return q.getResultList();
-                                }
-                            }.call();
-
-                            if (uuids.size() != col.size()) {
-                                List<String> invalids = new ArrayList<String>();
-                                for (Object o : col)  {
-                                    String uuid = (String)o;
-                                    if (!uuids.contains(uuid)) {
-                                        invalids.add(uuid);
-                                    }
-                                }
-
-                                if (!invalids.isEmpty()) {
-                                    throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
-                                            String.format("invalid field[%s], resource[uuids:%s, type:%s] not found", f.getName(), invalids, at.resourceType().getSimpleName())
-                                    ));
-                                }
-                            }
-                        }
-
-                    } else {
-                        DebugUtils.Assert(String.class.isAssignableFrom(f.getType()), String.format("field[%s] of message[%s] has APIParam.resourceType specified, then the field must be uuid which is a String, but actual is %s",
-                                f.getName(), msg.getClass().getName(), f.getType()));
+                    List<ResourceRef> refs = resourceRefs.get(at.resourceType());
+                    if (refs == null) {
+                        refs = new ArrayList<ResourceRef>();
+                        resourceRefs.put(at.resourceType(), refs);
+                    }
 
-                        if (!dbf.isExist((String) value, at.resourceType())) {
-                            throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
-                                    String.format("invalid field[%s], resource[uuid:%s, type:%s] not found", f.getName(), value, at.resourceType().getSimpleName())
-                            ));
-                        }
+                    Collection uuids = value instanceof Collection ? (Collection) value : list(value);
+                    for (Object uuid : uuids) {
+                        ResourceRef ref = new ResourceRef();
+                        ref.field = f;
+                        ref.uuid = (String) uuid;
+                        refs.add(ref);
                     }
                 }
             }
+
+            checkResourcesExist(msg, resourceRefs);
         } catch (ApiMessageInterceptionException ae) {
             throw ae;
         } catch (Exception e) {
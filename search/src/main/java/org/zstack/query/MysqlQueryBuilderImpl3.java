@@ -29,9 +29,11 @@ import org.zstack.utils.logging.CLogger;
 
 import javax.persistence.*;
 import javax.persistence.metamodel.StaticMetamodel;
+import javax.xml.bind.DatatypeConverter;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.*;
 import java.util.Map.Entry;
@@ -54,6 +56,8 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
 
     private static final String USER_TAG = "__userTag__";
     private static final String SYSTEM_TAG = "__systemTag__";
+    private static final String KEYSET_SORT_VALUE = "keyset_sort_value";
+    private static final String KEYSET_PRIMARY_KEY = "keyset_primary_key";
 
     @Override
     public List<Class> getMessageClassToIntercept() {
@@ -286,6 +290,12 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
     private Map<Class, List<AddExtraConditionToQueryExtensionPoint>> extraConditionsExts = new HashMap<Class, List<AddExtraConditionToQueryExtensionPoint>>();
     private Map<Class, List<ExpandedQueryAliasInfo>> aliasInfos = new HashMap<Class, List<ExpandedQueryAliasInfo>>();
     private Map<Class, Class> inventoryQueryMessageMap = new HashMap<Class, Class>();
+    private Map<String, QueryPlan> queryPlans = Collections.synchronizedMap(new LinkedHashMap<String, QueryPlan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Entry<String, QueryPlan> eldest) {
+            return size() > QueryGlobalProperty.QUERY_PLAN_CACHE_SIZE;
+        }
+    });
 
     private EntityInfo buildEntityInfo(Class invClass) throws NoSuchMethodException {
         EntityInfo info = entityInfos.get(invClass);
@@ -335,6 +345,8 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         String attrValueName;
         boolean skipInventoryCheck;
         int index;
+        // position of the source condition in QueryContext.conditions
+        int sourceIndex;
 
         private Field entityField;
 
@@ -495,6 +507,10 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         List<QueryObject> children = new ArrayList<QueryObject>();
         SubQueryInfo subQueryInfo;
         APIQueryMessage msg;
+        List<String> extraSubQueries = new ArrayList<String>();
+        // set on the root query when paging by continuation token
+        boolean keysetOrder;
+        String keysetCondition;
 
         // NOTE: we hard code tag specific logic here because we think current query model is not sustainable,
         // it worth nothing to waste effort on making this as extension point; we will switch the entire
@@ -685,11 +701,9 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 throw new CloudRuntimeException("cannot be here");
             } else {
                 // this is root query
-                for (MysqlQuerySubQueryExtension ext : subQueryExtensions) {
-                    String sub = ext.makeSubquery(msg, info.inventoryClass);
-                    if (sub != null) {
-                        where.add(sub);
-                    }
+                where.addAll(extraSubQueries);
+                if (!isCount && keysetCondition != null) {
+                    where.add(keysetCondition);
                 }
 
                 String entityName = info.inventoryClass.getSimpleName().toLowerCase();
@@ -724,7 +738,17 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                         if (!FieldUtils.hasField(msg.getSortBy(), info.entityClass)) {
                             throw new IllegalArgumentException(String.format("illegal sortBy[%s], entity[%s] doesn't have this field", msg.getSortBy(), info.entityClass.getName()));
                         }
+                    }
 
+                    if (keysetOrder) {
+                        // the primary key breaks ties of the sort key so the continuation token points to an unique row
+                        String direction = msg.getSortDirection().toUpperCase();
+                        if (msg.getSortBy() != null) {
+                            ret = String.format("%s order by %s.%s %s, %s.%s %s", ret, entityName, msg.getSortBy(), direction, entityName, info.primaryKey, direction);
+                        } else {
+                            ret = String.format("%s order by %s.%s %s", ret, entityName, info.primaryKey, direction);
+                        }
+                    } else if (msg.getSortBy() != null) {
                         ret = String.format("%s order by %s.%s %s", ret, entityName, msg.getSortBy(), msg.getSortDirection().toUpperCase());
                     }
                     return ret;
@@ -733,11 +757,37 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         }
     }
 
+    private class QueryPlanBinding {
+        int sourceIndex;
+        String name;
+        String op;
+        Field entityField;
+    }
+
+    // the JPQL and the way to bind the values of a query shape. Hibernate caches the parsed
+    // plan of a JPQL string itself, so repeated queries of the same shape only bind parameters
+    private class QueryPlan {
+        String jpql;
+        List<QueryPlanBinding> bindings = new ArrayList<QueryPlanBinding>();
+    }
+
+    private static class ContinuationToken {
+        String sortBy;
+        String sortValue;
+        String primaryKey;
+    }
+
     private class QueryContext {
         private APIQueryMessage msg;
         private Class inventoryClass;
         private QueryObject root;
         private Map<Class, QueryObject> tmpMap = new HashMap<Class, QueryObject>();
+        // conditions from the message followed by the conditions from AddExtraConditionToQueryExtensionPoint
+        private List<QueryCondition> conditions = new ArrayList<QueryCondition>();
+        private int extraConditionStart;
+        private List<String> subQueries = new ArrayList<String>();
+        private int currentSourceIndex;
+        private ContinuationToken continuationToken;
 
         private MetaCondition buildCondition(QueryCondition qcond, EntityInfo info) {
             MetaCondition mcond = new MetaCondition();
@@ -745,6 +795,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             mcond.op = qcond.getOp();
             mcond.inventoryClass = info.inventoryClass;
             mcond.value = qcond.getValue();
+            mcond.sourceIndex = currentSourceIndex;
             return mcond;
         }
 
@@ -837,54 +888,219 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             buildMetaCondition(qcond, info, false);
         }
 
-        private String build(boolean isCount) {
-            root = new QueryObject();
-            root.msg = msg;
-            root.info = entityInfos.get(inventoryClass);
-            DebugUtils.Assert(root.info!=null, String.format("class[%s] is not annotated by @Inventory", inventoryClass.getName()));
-            tmpMap.put(root.info.entityClass, root);
-
+        private void collectConditions() {
             for (QueryCondition qcond : msg.getConditions()) {
-                if (escapeConditionNames.contains(qcond.getName())) {
-                    continue;
-                }
-
-                if (!qcond.getName().contains(".")) {
-                    buildMetaCondition(qcond, root.info);
-                } else {
-                    buildSubQuery(qcond, root);
+                if (!escapeConditionNames.contains(qcond.getName())) {
+                    conditions.add(qcond);
                 }
             }
 
+            extraConditionStart = conditions.size();
             List<AddExtraConditionToQueryExtensionPoint> exts = extraConditionsExts.get(msg.getClass());
             if (exts != null) {
                 for (AddExtraConditionToQueryExtensionPoint ext : exts) {
                     try {
-                        for (QueryCondition cond : ext.getExtraQueryConditionForMessage(msg)) {
-                            buildMetaCondition(cond, root.info, true);
-                        }
+                        conditions.addAll(ext.getExtraQueryConditionForMessage(msg));
                     } catch (Throwable t) {
                         logger.warn(String.format("unhandled exception when calling %s", ext.getClass().getName()), t);
                     }
                 }
             }
 
-            return root.toJpql(isCount);
+            for (MysqlQuerySubQueryExtension ext : subQueryExtensions) {
+                String sub = ext.makeSubquery(msg, inventoryClass);
+                if (sub != null) {
+                    subQueries.add(sub);
+                }
+            }
+        }
+
+        private boolean isTagCondition(String name) {
+            String attr = name.contains(".") ? name.substring(name.lastIndexOf(".") + 1) : name;
+            return USER_TAG.equals(attr) || SYSTEM_TAG.equals(attr);
+        }
+
+        private String makePlanKey(boolean isCount) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(inventoryClass.getName()).append("|").append(msg.getClass().getName()).append("|").append(isCount);
+            if (!isCount) {
+                sb.append("|").append(msg.getFields()).append("|").append(msg.getSortBy()).append("|").append(msg.getSortDirection());
+            }
+
+            for (int i=0; i<conditions.size(); i++) {
+                QueryCondition qcond = conditions.get(i);
+                sb.append("|").append(i < extraConditionStart ? "c:" : "e:").append(qcond.getName()).append(" ").append(qcond.getOp());
+                if (isTagCondition(qcond.getName())) {
+                    // tag values are inlined into the JPQL
+                    sb.append(" ").append(qcond.getValue());
+                }
+            }
+
+            for (String sub : subQueries) {
+                sb.append("|s:").append(sub);
+            }
+
+            if (!isCount && msg.isKeysetPaging()) {
+                if (continuationToken == null) {
+                    sb.append("|k:first");
+                } else {
+                    sb.append(continuationToken.sortValue == null ? "|k:null" : "|k:value");
+                }
+            }
+
+            return sb.toString();
+        }
+
+        private QueryPlan build(boolean isCount) {
+            root = new QueryObject();
+            root.msg = msg;
+            root.info = entityInfos.get(inventoryClass);
+            DebugUtils.Assert(root.info!=null, String.format("class[%s] is not annotated by @Inventory", inventoryClass.getName()));
+
+            collectConditions();
+
+            String key = makePlanKey(isCount);
+            QueryPlan plan = queryPlans.get(key);
+            if (plan != null) {
+                return plan;
+            }
+
+            root.extraSubQueries = subQueries;
+            tmpMap.put(root.info.entityClass, root);
+
+            for (currentSourceIndex = 0; currentSourceIndex < conditions.size(); currentSourceIndex ++) {
+                QueryCondition qcond = conditions.get(currentSourceIndex);
+                if (currentSourceIndex >= extraConditionStart) {
+                    buildMetaCondition(qcond, root.info, true);
+                } else if (!qcond.getName().contains(".")) {
+                    buildMetaCondition(qcond, root.info);
+                } else {
+                    buildSubQuery(qcond, root);
+                }
+            }
+
+            if (!isCount && msg.isKeysetPaging()) {
+                root.keysetOrder = true;
+                root.keysetCondition = makeKeysetCondition();
+            }
+
+            plan = new QueryPlan();
+            plan.jpql = root.toJpql(isCount);
+            collectBindings(root, plan.bindings);
+            queryPlans.put(key, plan);
+            return plan;
         }
 
-        private void setQueryValue(Query q, QueryObject qobj) {
+        private void collectBindings(QueryObject qobj, List<QueryPlanBinding> bindings) {
             for (MetaCondition mcond : qobj.conditions) {
                 if (USER_TAG.equals(mcond.attr) || SYSTEM_TAG.equals(mcond.attr)) {
                     continue;
                 }
 
-                Object val = mcond.normalizeValue();
-                if (val != null) {
-                    q.setParameter(mcond.attrValueName, val);
+                if (mcond.attrValueName == null) {
+                    // is null or is not null, no value to bind
+                    continue;
                 }
+
+                QueryPlanBinding b = new QueryPlanBinding();
+                b.sourceIndex = mcond.sourceIndex;
+                b.name = mcond.attrValueName;
+                b.op = mcond.op;
+                b.entityField = mcond.entityField;
+                bindings.add(b);
             }
             for (QueryObject child : qobj.children) {
-                setQueryValue(q, child);
+                collectBindings(child, bindings);
+            }
+        }
+
+        private void validateKeysetPaging() {
+            EntityInfo info = entityInfos.get(inventoryClass);
+            if (msg.isFieldQuery() && (!msg.getFields().contains(info.primaryKey) ||
+                    (msg.getSortBy() != null && !msg.getFields().contains(msg.getSortBy())))) {
+                throw new OperationFailureException(errf.stringToInvalidArgumentError(
+                        String.format("paging by continuation token requires the parameter 'fields' to contain the primary key[%s] and the sortBy field[%s]",
+                                info.primaryKey, msg.getSortBy())
+                ));
+            }
+
+            if (msg.getContinuationToken() == null) {
+                return;
+            }
+
+            try {
+                byte[] json = DatatypeConverter.parseBase64Binary(msg.getContinuationToken());
+                continuationToken = JSONObjectUtil.toObject(new String(json, StandardCharsets.UTF_8), ContinuationToken.class);
+            } catch (Exception e) {
+                logger.debug(String.format("unable to decode continuation token[%s], %s", msg.getContinuationToken(), e.getMessage()));
+                continuationToken = null;
+            }
+
+            if (continuationToken == null || continuationToken.primaryKey == null || !StringUtils.equals(continuationToken.sortBy, msg.getSortBy())) {
+                throw new OperationFailureException(errf.stringToInvalidArgumentError(
+                        String.format("invalid continuation token[%s], it's not issued by a query sorted by %s", msg.getContinuationToken(), msg.getSortBy())
+                ));
+            }
+        }
+
+        private String makeKeysetCondition() {
+            if (continuationToken == null) {
+                // the first page
+                return null;
+            }
+
+            String entityName = inventoryClass.getSimpleName().toLowerCase();
+            String pk = String.format("%s.%s", entityName, root.info.primaryKey);
+            boolean desc = "desc".equalsIgnoreCase(msg.getSortDirection());
+            String cmp = desc ? "<" : ">";
+            if (msg.getSortBy() == null) {
+                return String.format("%s %s :%s", pk, cmp, KEYSET_PRIMARY_KEY);
+            }
+
+            // MySQL puts null values first in ascending order and last in descending order
+            String sort = String.format("%s.%s", entityName, msg.getSortBy());
+            if (continuationToken.sortValue != null) {
+                String cond = String.format("(%s %s :%s or (%s = :%s and %s %s :%s))", sort, cmp, KEYSET_SORT_VALUE,
+                        sort, KEYSET_SORT_VALUE, pk, cmp, KEYSET_PRIMARY_KEY);
+                return desc ? String.format("(%s or %s is null)", cond, sort) : cond;
+            } else if (desc) {
+                return String.format("(%s is null and %s < :%s)", sort, pk, KEYSET_PRIMARY_KEY);
+            } else {
+                return String.format("((%s is null and %s > :%s) or %s is not null)", sort, pk, KEYSET_PRIMARY_KEY, sort);
+            }
+        }
+
+        private Object normalizeKeysetValue(Field entityField, String value) {
+            MetaCondition mcond = new MetaCondition();
+            mcond.op = QueryOp.EQ.toString();
+            mcond.entityField = entityField;
+            mcond.value = value;
+            return mcond.normalizeValue();
+        }
+
+        private void setKeysetValue(Query q) {
+            if (continuationToken == null) {
+                return;
+            }
+
+            q.setParameter(KEYSET_PRIMARY_KEY, normalizeKeysetValue(root.info.entityPrimaryKeyField, continuationToken.primaryKey));
+            if (msg.getSortBy() != null && continuationToken.sortValue != null) {
+                Field sortField = FieldUtils.getField(msg.getSortBy(), root.info.entityClass);
+                q.setParameter(KEYSET_SORT_VALUE, normalizeKeysetValue(sortField, continuationToken.sortValue));
+            }
+        }
+
+        private void setQueryValue(Query q, QueryPlan plan) {
+            for (QueryPlanBinding b : plan.bindings) {
+                MetaCondition mcond = new MetaCondition();
+                mcond.op = b.op;
+                mcond.entityField = b.entityField;
+                mcond.value = conditions.get(b.sourceIndex).getValue();
+
+                Object val = mcond.normalizeValue();
+                if (val != null) {
+                    q.setParameter(b.name, val);
+                }
             }
         }
 
@@ -1027,15 +1243,19 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             if (msg.isFieldQuery()) {
                 validateFields();
             }
+            if (msg.isKeysetPaging()) {
+                validateKeysetPaging();
+            }
 
-            String jpql = build(false);
-            Query q = msg.isFieldQuery() ? dbf.getEntityManager().createQuery(jpql, Tuple.class) : dbf.getEntityManager().createQuery(jpql);
+            QueryPlan plan = build(false);
+            Query q = msg.isFieldQuery() ? dbf.getEntityManager().createQuery(plan.jpql, Tuple.class) : dbf.getEntityManager().createQuery(plan.jpql);
 
             if (logger.isTraceEnabled()) {
                 org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
                 logger.trace(hq.getQueryString());
             }
-            setQueryValue(q, root);
+            setQueryValue(q, plan);
+            setKeysetValue(q);
             if (msg.getLimit() != null) {
                 q.setMaxResults(msg.getLimit());
             }
@@ -1054,13 +1274,13 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
 
         @Transactional(readOnly = true)
         long count() {
-            String jpql = build(true);
-            Query q = dbf.getEntityManager().createQuery(jpql);
+            QueryPlan plan = build(true);
+            Query q = dbf.getEntityManager().createQuery(plan.jpql);
             if (logger.isTraceEnabled()) {
                 org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
                 logger.trace(hq.getQueryString());
             }
-            setQueryValue(q, root);
+            setQueryValue(q, plan);
             return (Long)q.getSingleResult();
         }
     }
@@ -1288,6 +1508,49 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         return context.query();
     }
 
+    private String keysetValueToString(Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof Enum) {
+            return ((Enum) value).name();
+        } else {
+            return value.toString();
+        }
+    }
+
+    private Object getInventoryFieldValue(Object inv, String name) {
+        Field f = FieldUtils.getField(name, inv.getClass());
+        if (f == null) {
+            throw new CloudRuntimeException(String.format("inventory[%s] has no field[%s]", inv.getClass().getName(), name));
+        }
+
+        try {
+            f.setAccessible(true);
+            return f.get(inv);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    @Override
+    public String makeContinuationToken(APIQueryMessage msg, Class inventoryClass, List inventories) {
+        if (inventories.isEmpty() || msg.getLimit() == null || inventories.size() < msg.getLimit()) {
+            // this is the last page
+            return null;
+        }
+
+        Object last = inventories.get(inventories.size() - 1);
+        EntityInfo info = entityInfos.get(inventoryClass);
+        ContinuationToken token = new ContinuationToken();
+        token.sortBy = msg.getSortBy();
+        token.primaryKey = keysetValueToString(getInventoryFieldValue(last, info.primaryKey));
+        if (msg.getSortBy() != null) {
+            token.sortValue = keysetValueToString(getInventoryFieldValue(last, msg.getSortBy()));
+        }
+
+        return DatatypeConverter.printBase64Binary(JSONObjectUtil.toJsonString(token).getBytes(StandardCharsets.UTF_8));
+    }
+
     private Class selectInventoryClass(APIQueryMessage msg, Class inventoryClass) {
         EntityInfo info = entityInfos.get(inventoryClass);
         return info.selectInventoryClass(msg);
@@ -66,6 +66,12 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
         return builder.count(msg, inventoryClass);
     }
 
+    private String makeContinuationToken(APIQueryMessage msg, Class inventoryClass, List inventories) {
+        QueryBuilderFactory factory = getFactory(queryBuilderType);
+        QueryBuilder builder = factory.createQueryBuilder();
+        return builder.makeContinuationToken(msg, inventoryClass, inventories);
+    }
+
     private void populateExtensions() {
         for (QueryBuilderFactory extp : pluginRgty.getExtensionList(QueryBuilderFactory.class)) {
             QueryBuilderFactory old = builerFactories.get(extp.getQueryBuilderType().toString());
@@ -200,6 +206,9 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
             } else {
                 List invs = query(msg, inventoryClass);
                 setter.invoke(reply, invs);
+                if (msg.isKeysetPaging()) {
+                    reply.setContinuationToken(makeContinuationToken(msg, inventoryClass, invs));
+                }
                 //TODO: merge this into mysql query builder
                 if (msg.isReplyWithCount()) {
                     long count = count(msg, inventoryClass);
@@ -241,6 +250,12 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
     @Override
     public APIMessage intercept(APIMessage msg) throws ApiMessageInterceptionException {
         APIQueryMessage qmsg = (APIQueryMessage) msg;
+        if (qmsg.isKeysetPaging() && qmsg.getStart() != null) {
+            throw new ApiMessageInterceptionException(errf.stringToInvalidArgumentError(
+                    "'start' cannot be used together with continuation token paging"
+            ));
+        }
+
         for (QueryCondition cond : qmsg.getConditions()) {
             try {
                 QueryOp.valueOf(cond.getOp());
@@ -89,4 +89,8 @@ public class ESBulkBuilder {
     public boolean isEmpty() {
         return empty;
     }
+
+    public int size() {
+        return bulks.size();
+    }
 }
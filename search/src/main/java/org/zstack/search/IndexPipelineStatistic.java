@@ -0,0 +1,62 @@
+package org.zstack.search;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class IndexPipelineStatistic {
+    private long pendingChangeNum;
+    private long pendingChangeAge;
+    private long lastIndexLag;
+    private long lastFlushTime;
+    private long indexedDocNum;
+    private long failedBulkNum;
+    private long spilledBulkNum;
+    private long retainedBulkNum;
+
+    @ConstructorProperties({"pendingChangeNum", "pendingChangeAge", "lastIndexLag", "lastFlushTime",
+            "indexedDocNum", "failedBulkNum", "spilledBulkNum", "retainedBulkNum"})
+    public IndexPipelineStatistic(long pendingChangeNum, long pendingChangeAge, long lastIndexLag, long lastFlushTime,
+                                  long indexedDocNum, long failedBulkNum, long spilledBulkNum, long retainedBulkNum) {
+        this.pendingChangeNum = pendingChangeNum;
+        this.pendingChangeAge = pendingChangeAge;
+        this.lastIndexLag = lastIndexLag;
+        this.lastFlushTime = lastFlushTime;
+        this.indexedDocNum = indexedDocNum;
+        this.failedBulkNum = failedBulkNum;
+        this.spilledBulkNum = spilledBulkNum;
+        this.retainedBulkNum = retainedBulkNum;
+    }
+
+    public long getPendingChangeNum() {
+        return pendingChangeNum;
+    }
+
+    public long getPendingChangeAge() {
+        return pendingChangeAge;
+    }
+
+    public long getLastIndexLag() {
+        return lastIndexLag;
+    }
+
+    public long getLastFlushTime() {
+        return lastFlushTime;
+    }
+
+    public long getIndexedDocNum() {
+        return indexedDocNum;
+    }
+
+    public long getFailedBulkNum() {
+        return failedBulkNum;
+    }
+
+    public long getSpilledBulkNum() {
+        return spilledBulkNum;
+    }
+
+    public long getRetainedBulkNum() {
+        return retainedBulkNum;
+    }
+}
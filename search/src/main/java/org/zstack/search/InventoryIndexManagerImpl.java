@@ -28,15 +28,17 @@ import org.zstack.core.componentloader.PluginExtension;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.TransactionalCallback;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.AbstractService;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.search.*;
-import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.data.Pair;
-import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.path.PathUtil;
 import sun.net.www.content.text.plain;
@@ -52,8 +54,13 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class InventoryIndexManagerImpl extends AbstractService implements InventoryIndexManager, TransactionalCallback {
+public class InventoryIndexManagerImpl extends AbstractService implements InventoryIndexManager, TransactionalCallback, InventoryIndexManagerMXBean {
     private static final CLogger logger = Utils.getLogger(InventoryIndexManagerImpl.class);
     @Autowired
     private DatabaseFacade dbf;
@@ -61,6 +68,10 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
     private CloudBus bus;
     @Autowired
     private PluginRegistry rgty;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private JmxFacade jmxf;
 
     private Map<String, IndexerInfo> voClassToIndexerMapping = new HashMap<String, IndexerInfo>();
     private Set<Class<?>> triggerVOs = new HashSet<Class<?>>();
@@ -79,6 +90,55 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
     private Map<Class<?>, List<String>> deleteVOTriggerClassNames = new HashMap<Class<?>, List<String>>();
     private List<SearchIndexRecreateExtensionPoint> reindexExts = new ArrayList<SearchIndexRecreateExtensionPoint>();
 
+    // committed changes not yet sent to elasticsearch. The changed uuids stay in InsertVO/UpdateVO/DeleteVO
+    // until a flush has sent or spilled them, so repeated changes of a resource within a flush window
+    // become one document, and a change is never lost before it reaches elasticsearch or the spill folder
+    private final Set<PendingChange> pendingChanges = new LinkedHashSet<PendingChange>();
+    private long oldestPendingChangeTime;
+    private final AtomicInteger commitsSinceFlush = new AtomicInteger();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private Future<Void> flushTask;
+    private File spillFolder;
+    private final AtomicLong spillSequence = new AtomicLong();
+    private final AtomicLong indexedDocNum = new AtomicLong();
+    private final AtomicLong failedBulkNum = new AtomicLong();
+    private final AtomicLong spilledBulkNum = new AtomicLong();
+    private final AtomicLong retainedBulkNum = new AtomicLong();
+    private volatile long lastIndexLag;
+    private volatile long lastFlushTime;
+
+    private class PendingChange {
+        Operation op;
+        Class<?> voClass;
+
+        PendingChange(Operation op, Class<?> voClass) {
+            this.op = op;
+            this.voClass = voClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PendingChange)) {
+                return false;
+            }
+
+            PendingChange other = (PendingChange) o;
+            return op == other.op && voClass == other.voClass;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * op.hashCode() + voClass.hashCode();
+        }
+    }
+
+    // ids of InsertVO/UpdateVO/DeleteVO rows read by a flush
+    private class TriggerRows {
+        List<Long> insertIds = new ArrayList<Long>();
+        List<Long> updateIds = new ArrayList<Long>();
+        List<Long> deleteIds = new ArrayList<Long>();
+    }
+
     private class IndexerInfo {
         String url;
         Class<?> inventoryClass;
@@ -317,7 +377,9 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
             populateInventoryIndexer();
             dumpInventoryIndexer();
             createIndexIfNotExists();
+            startIndexPipeline();
             bus.registerService(this);
+            jmxf.registerBean("InventoryIndexManager", this);
         } catch (Exception e) {
             throw new CloudRuntimeException(e);
         }
@@ -326,6 +388,9 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
 
     @Override
     public boolean stop() {
+        if (flushTask != null) {
+            flushTask.cancel(true);
+        }
         if (httpClient != null) {
             httpClient.getConnectionManager().shutdown();
         }
@@ -354,33 +419,43 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
     public void beforeCompletion(Operation op, Class<?>... entityClass) {
     }
 
-    private void sendBulk(final String requestBody, final String inventoryName) {
+    private boolean sendBulk(final String requestBody, final String inventoryName) {
         try {
             HttpPost post = new HttpPost(bulkUri);
             StringEntity body = new StringEntity(requestBody);
             logger.trace(String.format("%s:\n%s", inventoryName, requestBody));
             body.setChunked(false);
             post.setEntity(body);
-            ResponseHandler<Void> rspHandler = new ResponseHandler<Void>() {
+            ResponseHandler<Boolean> rspHandler = new ResponseHandler<Boolean>() {
                 @Override
-                public Void handleResponse(HttpResponse rsp) throws ClientProtocolException, IOException {
-                    if (rsp.getStatusLine().getStatusCode() != HttpStatus.SC_OK && rsp.getStatusLine().getStatusCode() != HttpStatus.SC_CREATED) {
+                public Boolean handleResponse(HttpResponse rsp) throws ClientProtocolException, IOException {
+                    int code = rsp.getStatusLine().getStatusCode();
+                    if (code != HttpStatus.SC_OK && code != HttpStatus.SC_CREATED) {
                         logger.warn(String.format("Failed to do bulk operation on[%s] , because: \nstatus line: %s\nresponse body: %s\nrequest body: %s",
                                 inventoryName, rsp.getStatusLine(), EntityUtils.toString(rsp.getEntity()), requestBody));
+                        // a bad request won't succeed by retrying, only server side errors are worth another try
+                        return code < HttpStatus.SC_INTERNAL_SERVER_ERROR;
                     } else {
                         logger.trace(String.format("Successfully did bulk operation on[%s], %s", inventoryName, EntityUtils.toString(rsp.getEntity())));
+                        return true;
                     }
-                    return null;
                 }
             };
-            httpClient.execute(post, rspHandler);
+
+            boolean success = httpClient.execute(post, rspHandler);
+            if (!success) {
+                failedBulkNum.incrementAndGet();
+            }
+            return success;
         } catch (Exception e) {
             logger.warn(String.format("Failed to do bulk operation on inventory[%s]", inventoryName), e);
+            failedBulkNum.incrementAndGet();
+            return false;
         }
     }
 
     @Transactional(propagation = Propagation.REQUIRES_NEW)
-    private List<InsertVO> takeInsertVO(Class<?> triggeredVO) {
+    private List<InsertVO> findInsertVO(Class<?> triggeredVO, List<Long> rowIds) {
     	List<String> voNames = insertVOTriggerClassNames.get(triggeredVO);
     	TypedQuery<InsertVO> query = null;
     	if (voNames.size() == 1) {
@@ -392,47 +467,27 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
     		query = dbf.getEntityManager().createQuery(sql, InsertVO.class);
     		query.setParameter("voName", voNames);
     	}
-    	query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
         List<InsertVO> ret = query.getResultList();
-        if (!ret.isEmpty()) {
-            List<Long> ids = CollectionUtils.transformToList(ret, new Function<Long, InsertVO>() {
-                @Override
-                public Long call(InsertVO arg) {
-                    return arg.getId();
-                }
-            });
-            String usql = "delete from InsertVO i where i.id in :id";
-            Query uquery = dbf.getEntityManager().createQuery(usql);
-            uquery.setParameter("id", ids);
-            uquery.executeUpdate();
+        for (InsertVO vo : ret) {
+            rowIds.add(vo.getId());
         }
         return ret;
     }
 
     @Transactional(propagation = Propagation.REQUIRES_NEW)
-    private List<UpdateVO> takeUpdateVO(Class<?> triggeredVO) {
+    private List<UpdateVO> findUpdateVO(Class<?> triggeredVO, List<Long> rowIds) {
         String sql = "select i from UpdateVO i where i.voName = :voName";
         TypedQuery<UpdateVO> query = dbf.getEntityManager().createQuery(sql, UpdateVO.class);
         query.setParameter("voName", triggeredVO.getSimpleName());
-        query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
         List<UpdateVO> ret = query.getResultList();
-        if (!ret.isEmpty()) {
-            List<Long> ids = CollectionUtils.transformToList(ret, new Function<Long, UpdateVO>() {
-                @Override
-                public Long call(UpdateVO arg) {
-                    return arg.getId();
-                }
-            });
-            String usql = "delete from UpdateVO i where i.id in :id";
-            Query uquery = dbf.getEntityManager().createQuery(usql);
-            uquery.setParameter("id", ids);
-            uquery.executeUpdate();
+        for (UpdateVO vo : ret) {
+            rowIds.add(vo.getId());
         }
         return ret;
     }
 
     @Transactional(propagation = Propagation.REQUIRES_NEW)
-    private List<DeleteVO> takeDeleteVO(Class<?> triggeredVO) {
+    private List<DeleteVO> findDeleteVO(Class<?> triggeredVO, List<Long> rowIds) {
     	List<String> voNames = deleteVOTriggerClassNames.get(triggeredVO);
         TypedQuery<DeleteVO> query = null;
         if (voNames == null) {
@@ -444,27 +499,17 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
         	query = dbf.getEntityManager().createQuery(sql, DeleteVO.class);
         	query.setParameter("voName", voNames);
     	}
-        query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
         List<DeleteVO> ret = query.getResultList();
-        if (!ret.isEmpty()) {
-            List<Long> ids = CollectionUtils.transformToList(ret, new Function<Long, DeleteVO>() {
-                @Override
-                public Long call(DeleteVO arg) {
-                    return arg.getId();
-                }
-            });
-            String usql = "delete from DeleteVO i where i.id in :id";
-            Query uquery = dbf.getEntityManager().createQuery(usql);
-            uquery.setParameter("id", ids);
-            uquery.executeUpdate();
+        for (DeleteVO vo : ret) {
+            rowIds.add(vo.getId());
         }
         return ret;
     }
 
-    private Map<String, Set<String>> getUuidsOfVOToIndexFromInsertVOUpdateVO(Class<?> triggeredVO, Operation op) {
+    private Map<String, Set<String>> getUuidsOfVOToIndexFromInsertVOUpdateVO(Class<?> triggeredVO, Operation op, TriggerRows rows) {
         Map<String, Set<String>> ret = new HashMap<String, Set<String>>();
         if (op == Operation.PERSIST) {
-            List<InsertVO> ivos = takeInsertVO(triggeredVO);
+            List<InsertVO> ivos = findInsertVO(triggeredVO, rows.insertIds);
             for (InsertVO ivo : ivos) {
                 Set<String> self = ret.get(ivo.getVoName());
                 if (self == null) {
@@ -483,7 +528,7 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
                 }
             }
         } else if (op == Operation.UPDATE) {
-            List<UpdateVO> uvos = takeUpdateVO(triggeredVO);
+            List<UpdateVO> uvos = findUpdateVO(triggeredVO, rows.updateIds);
             for (UpdateVO uvo : uvos) {
                 Set<String> self = ret.get(uvo.getVoName());
                 if (self == null) {
@@ -513,12 +558,12 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
         return ret;
     }
 
-    private Pair<Map<String, Set<String>>, Map<String, Set<String>>> getVOUuidsToDeleteOrIndexFromDeleteVO(Class<?> triggeredVO) {
+    private Pair<Map<String, Set<String>>, Map<String, Set<String>>> getVOUuidsToDeleteOrIndexFromDeleteVO(Class<?> triggeredVO, TriggerRows rows) {
         Pair<Map<String, Set<String>>, Map<String, Set<String>>> pair = new Pair<Map<String, Set<String>>, Map<String, Set<String>>>();
         Map<String, Set<String>> toIndex = new HashMap<String, Set<String>>();
         Map<String, Set<String>> toDelete = new HashMap<String, Set<String>>();
 
-        List<DeleteVO> dvos = takeDeleteVO(triggeredVO);
+        List<DeleteVO> dvos = findDeleteVO(triggeredVO, rows.deleteIds);
         for (DeleteVO dvo : dvos) {
             Set<String> self = toDelete.get(dvo.getVoName());
             if (self == null) {
@@ -681,31 +726,268 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
         }
     }
 
-    @Override
-    public void afterCommit(Operation op, Class<?>... entityClass) {
+    private void startIndexPipeline() {
+        spillFolder = new File(PathUtil.getFolderUnderZStackHomeFolder(SearchGlobalProperty.INDEX_SPILL_FOLDER));
+
+        flushTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.MILLISECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return SearchGlobalProperty.INDEX_FLUSH_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "flush-search-index";
+            }
+
+            @Override
+            public void run() {
+                flushIndex();
+            }
+        });
+    }
+
+    private void mergeUuids(Map<String, Set<String>> to, Map<String, Set<String>> from) {
+        for (Map.Entry<String, Set<String>> e : from.entrySet()) {
+            Set<String> uuids = to.get(e.getKey());
+            if (uuids == null) {
+                uuids = new HashSet<String>();
+                to.put(e.getKey(), uuids);
+            }
+            uuids.addAll(e.getValue());
+        }
+    }
+
+    private boolean hasSpilledBulks() {
+        String[] names = spillFolder.list();
+        return names != null && names.length > 0;
+    }
+
+    private boolean spillBulk(String requestBody) {
+        try {
+            if (FileUtils.sizeOfDirectory(spillFolder) + requestBody.length() > SearchGlobalProperty.INDEX_SPILL_MAX_SIZE) {
+                retainedBulkNum.incrementAndGet();
+                logger.warn(String.format("the spill folder[%s] of search index exceeds %s bytes, keep the changes of a bulk in" +
+                        " the trigger tables to retry", spillFolder.getAbsolutePath(), SearchGlobalProperty.INDEX_SPILL_MAX_SIZE));
+                return false;
+            }
+
+            // file names sort in the order the bulks were made
+            File f = new File(spillFolder, String.format("%020d-%010d.bulk", System.currentTimeMillis(), spillSequence.incrementAndGet()));
+            FileUtils.writeStringToFile(f, requestBody);
+            spilledBulkNum.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            retainedBulkNum.incrementAndGet();
+            logger.warn(String.format("unable to spill a search index bulk to %s, keep its changes in the trigger tables to retry",
+                    spillFolder.getAbsolutePath()), e);
+            return false;
+        }
+    }
+
+    private boolean replaySpilledBulks() throws IOException {
+        File[] files = spillFolder.listFiles();
+        if (files == null || files.length == 0) {
+            return true;
+        }
+
+        Arrays.sort(files);
+        for (File f : files) {
+            if (!sendBulk(FileUtils.readFileToString(f), f.getName())) {
+                return false;
+            }
+            FileUtils.deleteQuietly(f);
+        }
+
+        logger.debug(String.format("replayed %s spilled search index bulks", files.length));
+        return true;
+    }
+
+    /**
+     * @return false if the bulk is neither sent nor spilled
+     */
+    private boolean submitBulk(ESBulkBuilder bbuilder) {
+        if (bbuilder.isEmpty()) {
+            return true;
+        }
+
+        String requestBody = bbuilder.toString();
+        // once a bulk is spilled, the following ones are spilled too to keep the order
+        if (hasSpilledBulks() || !sendBulk(requestBody, bbuilder.getAffectedInventoryNames())) {
+            return spillBulk(requestBody);
+        }
+
+        indexedDocNum.addAndGet(bbuilder.size());
+        return true;
+    }
+
+    /**
+     * @return false if any bulk is neither sent nor spilled
+     */
+    private boolean sendInBulks(Map<String, Set<String>> toIndex, Map<String, Set<String>> toDelete) {
+        boolean done = true;
         ESBulkBuilder bbuilder = new ESBulkBuilder();
+        for (Map.Entry<String, Set<String>> e : toIndex.entrySet()) {
+            List<String> uuids = new ArrayList<String>(e.getValue());
+            for (int i = 0; i < uuids.size(); i += SearchGlobalProperty.INDEX_BULK_SIZE) {
+                Map<String, Set<String>> m = new HashMap<String, Set<String>>();
+                m.put(e.getKey(), new HashSet<String>(uuids.subList(i, Math.min(i + SearchGlobalProperty.INDEX_BULK_SIZE, uuids.size()))));
+                addDocToIndexToESBuilder(bbuilder, m);
+                if (bbuilder.size() >= SearchGlobalProperty.INDEX_BULK_SIZE) {
+                    done = submitBulk(bbuilder) && done;
+                    bbuilder = new ESBulkBuilder();
+                }
+            }
+        }
 
-        for (Class<?> vo : entityClass) {
-            if (!triggerVOs.contains(vo)) {
-                logger.trace(String.format("Class[%s] is not annotated by @TriggerIndex, no index operation will be proceeded", vo.getName()));
-                continue;
+        addDocToDeleteToESBuilder(bbuilder, toDelete);
+        return submitBulk(bbuilder) && done;
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    private void deleteTriggerRows(TriggerRows rows) {
+        if (!rows.insertIds.isEmpty()) {
+            Query q = dbf.getEntityManager().createQuery("delete from InsertVO i where i.id in :id");
+            q.setParameter("id", rows.insertIds);
+            q.executeUpdate();
+        }
+        if (!rows.updateIds.isEmpty()) {
+            Query q = dbf.getEntityManager().createQuery("delete from UpdateVO i where i.id in :id");
+            q.setParameter("id", rows.updateIds);
+            q.executeUpdate();
+        }
+        if (!rows.deleteIds.isEmpty()) {
+            Query q = dbf.getEntityManager().createQuery("delete from DeleteVO i where i.id in :id");
+            q.setParameter("id", rows.deleteIds);
+            q.executeUpdate();
+        }
+    }
+
+    private void flushIndex() {
+        if (!flushLock.tryLock()) {
+            // another flush is running, the next one will pick up what's left
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            if (!replaySpilledBulks()) {
+                // elasticsearch is still unavailable; the changes are safe in the trigger tables, leave them there
+                return;
+            }
+
+            List<PendingChange> changes;
+            long oldest;
+            synchronized (pendingChanges) {
+                if (pendingChanges.isEmpty()) {
+                    return;
+                }
+
+                changes = new ArrayList<PendingChange>(pendingChanges);
+                oldest = oldestPendingChangeTime;
+                pendingChanges.clear();
+            }
+            commitsSinceFlush.set(0);
+
+            TriggerRows rows = new TriggerRows();
+            Map<String, Set<String>> toIndex = new HashMap<String, Set<String>>();
+            Map<String, Set<String>> toDelete = new HashMap<String, Set<String>>();
+            for (PendingChange c : changes) {
+                if (c.op == Operation.PERSIST || c.op == Operation.UPDATE) {
+                    mergeUuids(toIndex, getUuidsOfVOToIndexFromInsertVOUpdateVO(c.voClass, c.op, rows));
+                } else {
+                    Pair<Map<String, Set<String>>, Map<String, Set<String>>> pair = getVOUuidsToDeleteOrIndexFromDeleteVO(c.voClass, rows);
+                    mergeUuids(toIndex, pair.second());
+                    mergeUuids(toDelete, pair.first());
+                }
+            }
+
+            // resources deleted within this window need no index
+            for (Map.Entry<String, Set<String>> e : toDelete.entrySet()) {
+                Set<String> uuids = toIndex.get(e.getKey());
+                if (uuids != null) {
+                    uuids.removeAll(e.getValue());
+                }
             }
 
-            if (op == Operation.PERSIST || op == Operation.UPDATE) {
-                Map<String, Set<String>> vmap = getUuidsOfVOToIndexFromInsertVOUpdateVO(vo, op);
-                bbuilder = addDocToIndexToESBuilder(bbuilder, vmap);
-            } else if (op == Operation.REMOVE) {
-                Pair<Map<String, Set<String>>, Map<String, Set<String>>> pair = getVOUuidsToDeleteOrIndexFromDeleteVO(vo);
-                Map<String, Set<String>> toIndex = pair.second();
-                bbuilder = addDocToIndexToESBuilder(bbuilder, toIndex);
-                Map<String, Set<String>> toDelete = pair.first();
-                bbuilder = addDocToDeleteToESBuilder(bbuilder, toDelete);
+            if (sendInBulks(toIndex, toDelete)) {
+                deleteTriggerRows(rows);
+            } else {
+                // documents are built from the database, so resending the whole window later is harmless
+                synchronized (pendingChanges) {
+                    if (pendingChanges.isEmpty() || oldest < oldestPendingChangeTime) {
+                        oldestPendingChangeTime = oldest;
+                    }
+                    pendingChanges.addAll(changes);
+                }
+                return;
             }
+
+            long now = System.currentTimeMillis();
+            lastIndexLag = now - oldest;
+            lastFlushTime = now - start;
+        } catch (Throwable t) {
+            logger.warn("unhandled exception when flushing search index", t);
+        } finally {
+            flushLock.unlock();
         }
+    }
 
-        if (!bbuilder.isEmpty()) {
-            sendBulk(bbuilder.toString(), bbuilder.getAffectedInventoryNames());
+    @Override
+    public void afterCommit(Operation op, Class<?>... entityClass) {
+        if (op != Operation.PERSIST && op != Operation.UPDATE && op != Operation.REMOVE) {
+            return;
+        }
+
+        boolean queued = false;
+        synchronized (pendingChanges) {
+            for (Class<?> vo : entityClass) {
+                if (!triggerVOs.contains(vo)) {
+                    logger.trace(String.format("Class[%s] is not annotated by @TriggerIndex, no index operation will be proceeded", vo.getName()));
+                    continue;
+                }
+
+                if (pendingChanges.isEmpty()) {
+                    oldestPendingChangeTime = System.currentTimeMillis();
+                }
+                pendingChanges.add(new PendingChange(op, vo));
+                queued = true;
+            }
+        }
+
+        if (queued && commitsSinceFlush.incrementAndGet() >= SearchGlobalProperty.INDEX_FLUSH_COMMIT_THRESHOLD) {
+            commitsSinceFlush.set(0);
+            thdf.submit(new Task<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    flushIndex();
+                    return null;
+                }
+
+                @Override
+                public String getName() {
+                    return "flush-search-index";
+                }
+            });
+        }
+    }
+
+    @Override
+    public IndexPipelineStatistic getIndexPipelineStatistic() {
+        long pendingNum;
+        long pendingAge;
+        synchronized (pendingChanges) {
+            pendingNum = pendingChanges.size();
+            pendingAge = pendingChanges.isEmpty() ? 0 : System.currentTimeMillis() - oldestPendingChangeTime;
         }
+
+        return new IndexPipelineStatistic(pendingNum, pendingAge, lastIndexLag, lastFlushTime,
+                indexedDocNum.get(), failedBulkNum.get(), spilledBulkNum.get(), retainedBulkNum.get());
     }
 
     @Override
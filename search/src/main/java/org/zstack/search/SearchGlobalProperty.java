@@ -0,0 +1,20 @@
+package org.zstack.search;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class SearchGlobalProperty {
+    @GlobalProperty(name = "Search.indexFlushIntervalInMillis", defaultValue = "500")
+    public static long INDEX_FLUSH_INTERVAL;
+    @GlobalProperty(name = "Search.indexFlushCommitThreshold", defaultValue = "200")
+    public static int INDEX_FLUSH_COMMIT_THRESHOLD;
+    @GlobalProperty(name = "Search.indexBulkSize", defaultValue = "500")
+    public static int INDEX_BULK_SIZE;
+    @GlobalProperty(name = "Search.indexSpillFolder", defaultValue = "searchIndexSpill")
+    public static String INDEX_SPILL_FOLDER;
+    @GlobalProperty(name = "Search.indexSpillMaxSize", defaultValue = "268435456")
+    public static long INDEX_SPILL_MAX_SIZE;
+}
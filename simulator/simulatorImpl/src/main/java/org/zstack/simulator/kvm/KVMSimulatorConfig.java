@@ -77,6 +77,8 @@ public class KVMSimulatorConfig {
     public volatile List<CheckVmStateCmd> checkVmStateCmds = new ArrayList<CheckVmStateCmd>();
     public volatile Map<String, Map<String, String>> checkVmStatesConfig = new HashMap<String, Map<String, String>>();
     public volatile boolean vmSyncSuccess = true;
+    public volatile boolean vmSyncIncremental = false;
+    public volatile List<VmSyncCmd> vmSyncCmds = new ArrayList<VmSyncCmd>();
     public List<HardenVmConsoleCmd> hardenVmConsoleCmds = new ArrayList<HardenVmConsoleCmd>();
     public List<DeleteVmConsoleFirewallCmd> deleteVmConsoleFirewallCmds  = new ArrayList<DeleteVmConsoleFirewallCmd>();
 
@@ -20,7 +20,10 @@ import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @Controller
@@ -42,6 +45,13 @@ public class KVMSimulatorController {
     private VolumeSnapshotKvmSimulator snapshotKvmSimulator;
 
     private AsyncRESTReplyer replyer = new AsyncRESTReplyer();
+    private long vmSyncGeneration;
+    private final Map<Long, Map<String, String>> vmSyncHistory = new LinkedHashMap<Long, Map<String, String>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Map<String, String>> eldest) {
+            return size() > 10;
+        }
+    };
 
     @RequestMapping(value=KVMConstant.KVM_HARDEN_CONSOLE_PATH, method=RequestMethod.POST)
     public @ResponseBody String hardenVmConsole(HttpServletRequest req) {
@@ -247,6 +257,8 @@ public class KVMSimulatorController {
     @AsyncThread
     private void doVmSync(HttpEntity<String> entity) {
         synchronized (config) {
+            VmSyncCmd cmd = JSONObjectUtil.toObject(entity.getBody(), VmSyncCmd.class);
+            config.vmSyncCmds.add(cmd);
             VmSyncResponse rsp = new VmSyncResponse();
             if (!config.vmSyncSuccess) {
                 rsp.setSuccess(false);
@@ -259,7 +271,40 @@ public class KVMSimulatorController {
             for (Map.Entry<String, KvmVmState> e : config.vms.entrySet()) {
                 vms.put(e.getKey(), e.getValue().toString());
             }
-            rsp.setStates(vms);
+
+            if (!config.vmSyncIncremental) {
+                rsp.setStates(vms);
+                reply(entity, rsp);
+                return;
+            }
+
+            vmSyncGeneration ++;
+            vmSyncHistory.put(vmSyncGeneration, vms);
+            rsp.setGeneration(vmSyncGeneration);
+
+            Map<String, String> last = cmd.getLastGeneration() == null ? null : vmSyncHistory.get(cmd.getLastGeneration());
+            if (last == null) {
+                rsp.setStates(vms);
+                reply(entity, rsp);
+                return;
+            }
+
+            HashMap<String, String> changed = new HashMap<String, String>();
+            for (Map.Entry<String, String> e : vms.entrySet()) {
+                if (!e.getValue().equals(last.get(e.getKey()))) {
+                    changed.put(e.getKey(), e.getValue());
+                }
+            }
+            List<String> removed = new ArrayList<String>();
+            for (String vmUuid : last.keySet()) {
+                if (!vms.containsKey(vmUuid)) {
+                    removed.add(vmUuid);
+                }
+            }
+
+            rsp.setDelta(true);
+            rsp.setStates(changed);
+            rsp.setRemovedVms(removed);
             reply(entity, rsp);
         }
     }
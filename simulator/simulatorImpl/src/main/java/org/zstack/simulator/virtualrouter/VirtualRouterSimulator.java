@@ -44,6 +44,7 @@ public class VirtualRouterSimulator {
     @AsyncThread
     private void doSetDhcpEntry(HttpEntity<String> entity) {
         AddDhcpEntryCmd cmd = JSONObjectUtil.toObject(entity.getBody(), AddDhcpEntryCmd.class);
+        config.addDhcpEntryCmds.add(cmd);
         AddDhcpEntryRsp rsp = new AddDhcpEntryRsp();
         if (!config.setDhcpEntrySuccess) {
             rsp.setError("fail on purpose");
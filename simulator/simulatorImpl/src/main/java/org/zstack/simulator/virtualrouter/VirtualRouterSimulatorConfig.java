@@ -26,6 +26,7 @@ public class VirtualRouterSimulatorConfig {
     public volatile List<InitCommand> initCommands = new ArrayList<InitCommand>();
     public volatile List<EipTO> removedEips = new ArrayList<EipTO>();
 	public volatile List<DhcpInfo> dhcpInfos = new ArrayList<DhcpInfo>();
+	public volatile List<AddDhcpEntryCmd> addDhcpEntryCmds = new ArrayList<AddDhcpEntryCmd>();
     public volatile Map<String, DhcpInfo> dhcpInfoMap = new HashMap<String, DhcpInfo>();
 	public volatile List<SNATInfo> snatInfos = new ArrayList<SNATInfo>();
 	public volatile List<DnsInfo> dnsInfo = new ArrayList<DnsInfo>();
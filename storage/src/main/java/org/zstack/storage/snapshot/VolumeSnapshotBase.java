@@ -38,6 +38,8 @@ public class VolumeSnapshotBase implements VolumeSnapshot {
     private DatabaseFacade dbf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private VolumeSnapshotTreeCache treeCache;
 
     protected VolumeSnapshotVO self;
 
@@ -122,6 +124,8 @@ public class VolumeSnapshotBase implements VolumeSnapshot {
                                     });
 
                                     dbf.remove(ref);
+                                    self = dbf.reload(self);
+                                    treeCache.update(getSelfInventory());
                                     trigger.next();
                                 }
                             });
@@ -192,6 +196,8 @@ public class VolumeSnapshotBase implements VolumeSnapshot {
                     ref.setVolumeSnapshotUuid(self.getUuid());
                     ref.setBackupStorageUuid(msg.getBackupStorage().getUuid());
                     dbf.persist(ref);
+                    self = dbf.reload(self);
+                    treeCache.update(getSelfInventory());
                 }
 
                 bus.reply(msg, reply);
@@ -202,6 +208,7 @@ public class VolumeSnapshotBase implements VolumeSnapshot {
     private void changeStatus(VolumeSnapshotStatus.StatusEvent event) {
         self.setStatus(self.getStatus().nextState(event));
         dbf.update(self);
+        treeCache.update(getSelfInventory());
     }
 
     private void handle(final VolumeSnapshotPrimaryStorageDeletionMsg msg) {
@@ -233,6 +240,7 @@ public class VolumeSnapshotBase implements VolumeSnapshot {
                 self.setPrimaryStorageInstallPath(null);
                 self.setPrimaryStorageUuid(null);
                 dbf.update(self);
+                treeCache.update(getSelfInventory());
                 bus.reply(msg, dreply);
             }
 
@@ -16,4 +16,6 @@ public class VolumeSnapshotGlobalConfig {
     public static GlobalConfig SNAPSHOT_DELETE_PARALLELISM_DEGREE = new GlobalConfig(CATEGORY, "delete.parallelismDegree");
     @GlobalConfigValidation(numberGreaterThan = 0)
     public static GlobalConfig SNAPSHOT_BACKUP_PARALLELISM_DEGREE = new GlobalConfig(CATEGORY, "backup.parallelismDegree");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig TREE_CACHE_SIZE = new GlobalConfig(CATEGORY, "treeCache.size");
 }
@@ -62,6 +62,8 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements Volume
     private ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private VolumeSnapshotTreeCache treeCache;
 
     private void passThrough(VolumeSnapshotMessage msg) {
         VolumeSnapshotVO vo = dbf.findByUuid(msg.getSnapshotUuid(), VolumeSnapshotVO.class);
@@ -297,6 +299,13 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements Volume
             DebugUtils.Assert(false, "should not be here");
         }
 
+        List<VolumeSnapshotInventory> changed = new ArrayList<VolumeSnapshotInventory>();
+        changed.add(s.getCurrent());
+        if (s.getParent() != null) {
+            changed.add(s.getParent());
+        }
+        treeCache.update(s.getCurrent().getTreeUuid(), changed);
+
         final VolumeSnapshotStruct struct = s;
         FlowChain chain = FlowChainBuilder.newShareFlowChain();
         chain.setName(String.format("take-volume-snapshot-for-volume-%s", msg.getVolumeUuid()));
@@ -369,6 +378,7 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements Volume
                         }
                         svo = dbf.updateAndRefresh(svo);
                         ret.setInventory(VolumeSnapshotInventory.valueOf(svo));
+                        treeCache.update(ret.getInventory());
                         bus.reply(msg, ret);
                     }
                 });
@@ -377,6 +387,7 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements Volume
                     @Override
                     public void handle(ErrorCode errCode, Map data) {
                         rollbackSnapshot(struct.getCurrent().getUuid());
+                        treeCache.evict(struct.getCurrent().getTreeUuid());
                         ret.setError(errCode);
                         bus.reply(msg, ret);
                     }
@@ -86,6 +86,8 @@ public class VolumeSnapshotTreeBase {
     private PluginRegistry pluginRgty;
     @Autowired
     private PrimaryStorageOverProvisioningManager psRaitoMgr;
+    @Autowired
+    private VolumeSnapshotTreeCache treeCache;
 
     protected static OperationChecker allowedStatus = new OperationChecker(true);
 
@@ -140,11 +142,9 @@ public class VolumeSnapshotTreeBase {
     }
 
     private void buildFullSnapshotTree() {
-        SimpleQuery<VolumeSnapshotVO> q = dbf.createQuery(VolumeSnapshotVO.class);
-        q.add(VolumeSnapshotVO_.treeUuid, SimpleQuery.Op.EQ, currentRoot.getTreeUuid());
-        List<VolumeSnapshotVO> vos = q.list();
-
-        fullTree = VolumeSnapshotTree.fromVOs(vos);
+        // messages of the tree are routed by the volume uuid, or the tree uuid once the volume is deleted
+        String ownerUuid = currentRoot.getVolumeUuid() != null ? currentRoot.getVolumeUuid() : currentRoot.getTreeUuid();
+        fullTree = treeCache.getTree(currentRoot.getTreeUuid(), ownerUuid);
     }
 
     public VolumeSnapshotTreeBase(VolumeSnapshotVO vo, boolean syncOnVolume) {
@@ -376,11 +376,17 @@ public class VolumeSnapshotTreeBase {
             @Override
             public void handle(Map data) {
                 if (msg.isVolumeDeletion()) {
+                    final List<String> treeUuids = new ArrayList<String>();
                     new Runnable() {
                         @Override
                         @Transactional
                         public void run() {
-                            String sql = "update VolumeSnapshotTreeVO tree set tree.volumeUuid = NULL where tree.volumeUuid = :volUuid";
+                            String sql = "select tree.uuid from VolumeSnapshotTreeVO tree where tree.volumeUuid = :volUuid";
+                            TypedQuery<String> tq = dbf.getEntityManager().createQuery(sql, String.class);
+                            tq.setParameter("volUuid", currentRoot.getVolumeUuid());
+                            treeUuids.addAll(tq.getResultList());
+
+                            sql = "update VolumeSnapshotTreeVO tree set tree.volumeUuid = NULL where tree.volumeUuid = :volUuid";
                             Query q = dbf.getEntityManager().createQuery(sql);
                             q.setParameter("volUuid", currentRoot.getVolumeUuid());
                             q.executeUpdate();
@@ -391,6 +397,11 @@ public class VolumeSnapshotTreeBase {
                             q.executeUpdate();
                         }
                     }.run();
+
+                    // the trees are owned by their own uuids from now on
+                    for (String treeUuid : treeUuids) {
+                        treeCache.evict(treeUuid);
+                    }
                 }
 
                 if (!msg.isVolumeDeletion() && finalAncestorOfLatest && currentRoot.getParentUuid() != null) {
@@ -398,6 +409,7 @@ public class VolumeSnapshotTreeBase {
                     VolumeSnapshotVO vo = dbf.findByUuid(currentRoot.getParentUuid(), VolumeSnapshotVO.class);
                     vo.setLatest(true);
                     dbf.update(vo);
+                    treeCache.update(VolumeSnapshotInventory.valueOf(vo));
                     logger.debug(String.format("reset latest snapshot of tree[uuid:%s] to snapshot[uuid:%s]",
                             currentRoot.getTreeUuid(), currentRoot.getParentUuid()));
                 }
@@ -810,6 +822,7 @@ public class VolumeSnapshotTreeBase {
         }
         if (update) {
             self = dbf.updateAndRefresh(self);
+            treeCache.update(VolumeSnapshotInventory.valueOf(self));
         }
 
         APIUpdateVolumeSnapshotEvent evt = new APIUpdateVolumeSnapshotEvent(msg.getId());
@@ -844,6 +857,7 @@ public class VolumeSnapshotTreeBase {
         });
 
         dbf.removeByPrimaryKeys(uuids, VolumeSnapshotVO.class);
+        treeCache.remove(currentRoot.getTreeUuid(), uuids);
 
         SimpleQuery<VolumeSnapshotVO> tq = dbf.createQuery(VolumeSnapshotVO.class);
         tq.add(VolumeSnapshotVO_.treeUuid, Op.EQ, currentRoot.getTreeUuid());
@@ -1290,6 +1304,7 @@ public class VolumeSnapshotTreeBase {
                         volume.setInstallPath(newVolumeInstallPath);
                         dbf.update(volume);
                         updateLatest();
+                        treeCache.evict(currentRoot.getTreeUuid());
                         bus.publish(evt);
                         completion.done();
                     }
@@ -0,0 +1,222 @@
+package org.zstack.storage.snapshot;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.Component;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.storage.snapshot.*;
+import org.zstack.header.storage.snapshot.VolumeSnapshotCanonicalEvents.VolumeSnapshotTreeChangedData;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+
+/**
+ * Keeps snapshots of volume snapshot trees in memory, so operations on a tree don't reload the
+ * whole tree from the database.
+ *
+ * A tree is only cached by the management node its messages are routed to, that is the node
+ * owning the volume of the tree, or the tree itself once the volume is deleted. Changes made
+ * by this node are applied to the cache in place; a change made by another node is broadcast
+ * and evicts the tree from the cache of the owner, which reloads it on the next operation.
+ * The whole cache is dropped whenever a management node joins or leaves, as the ownership of
+ * trees moves with the hash ring.
+ *
+ * Snapshots in trees returned by getTree() are shared with the cache and must not be modified.
+ */
+public class VolumeSnapshotTreeCache implements Component, ManagementNodeChangeListener {
+    private static final CLogger logger = Utils.getLogger(VolumeSnapshotTreeCache.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+
+    // tree uuid -> (snapshot uuid -> snapshot), in LRU order, guarded by itself
+    private final LinkedHashMap<String, Map<String, VolumeSnapshotInventory>> trees =
+            new LinkedHashMap<String, Map<String, VolumeSnapshotInventory>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, VolumeSnapshotInventory>> eldest) {
+                    return size() > VolumeSnapshotGlobalConfig.TREE_CACHE_SIZE.value(Integer.class);
+                }
+            };
+    // bumped by every change, guarded by trees. A tree loaded from the database while it
+    // moves is not cached, as the load may have missed the change
+    private long generation;
+
+    private boolean isOwnedByUs(String resourceUuid) {
+        try {
+            return !destMaker.getManagementNodesInHashRing().isEmpty() && destMaker.isManagedByUs(resourceUuid);
+        } catch (CloudRuntimeException e) {
+            return false;
+        }
+    }
+
+    private List<VolumeSnapshotInventory> load(String treeUuid) {
+        SimpleQuery<VolumeSnapshotVO> q = dbf.createQuery(VolumeSnapshotVO.class);
+        q.add(VolumeSnapshotVO_.treeUuid, Op.EQ, treeUuid);
+        return VolumeSnapshotInventory.valueOf(q.list());
+    }
+
+    /**
+     * @param ownerUuid the uuid the messages of the tree are routed by; the tree is only cached
+     *                  if it's managed by this management node
+     */
+    public VolumeSnapshotTree getTree(String treeUuid, String ownerUuid) {
+        if (VolumeSnapshotGlobalConfig.TREE_CACHE_SIZE.value(Integer.class) == 0 || !isOwnedByUs(ownerUuid)) {
+            return VolumeSnapshotTree.fromInventories(load(treeUuid));
+        }
+
+        long gen;
+        synchronized (trees) {
+            Map<String, VolumeSnapshotInventory> snapshots = trees.get(treeUuid);
+            if (snapshots != null) {
+                return VolumeSnapshotTree.fromInventories(new ArrayList<VolumeSnapshotInventory>(snapshots.values()));
+            }
+            gen = generation;
+        }
+
+        List<VolumeSnapshotInventory> invs = load(treeUuid);
+        synchronized (trees) {
+            if (gen == generation && !invs.isEmpty()) {
+                Map<String, VolumeSnapshotInventory> snapshots = new HashMap<String, VolumeSnapshotInventory>(invs.size());
+                for (VolumeSnapshotInventory inv : invs) {
+                    snapshots.put(inv.getUuid(), inv);
+                }
+                trees.put(treeUuid, snapshots);
+            }
+        }
+
+        return VolumeSnapshotTree.fromInventories(invs);
+    }
+
+    private void fireChanged(String treeUuid) {
+        VolumeSnapshotTreeChangedData data = new VolumeSnapshotTreeChangedData();
+        data.setTreeUuid(treeUuid);
+        try {
+            evtf.fire(VolumeSnapshotCanonicalEvents.VOLUME_SNAPSHOT_TREE_CHANGED_PATH, data);
+        } catch (Throwable t) {
+            logger.warn(String.format("unable to notify other management nodes of the change of volume snapshot tree[uuid:%s]", treeUuid), t);
+        }
+    }
+
+    /**
+     * must be called after the snapshots are saved to the database
+     */
+    public void update(String treeUuid, Collection<VolumeSnapshotInventory> invs) {
+        synchronized (trees) {
+            generation ++;
+            Map<String, VolumeSnapshotInventory> snapshots = trees.get(treeUuid);
+            if (snapshots != null) {
+                for (VolumeSnapshotInventory inv : invs) {
+                    snapshots.put(inv.getUuid(), inv);
+                }
+            }
+        }
+
+        fireChanged(treeUuid);
+    }
+
+    public void update(VolumeSnapshotInventory inv) {
+        update(inv.getTreeUuid(), Arrays.asList(inv));
+    }
+
+    /**
+     * must be called after the snapshots are removed from the database
+     */
+    public void remove(String treeUuid, Collection<String> snapshotUuids) {
+        synchronized (trees) {
+            generation ++;
+            Map<String, VolumeSnapshotInventory> snapshots = trees.get(treeUuid);
+            if (snapshots != null) {
+                snapshots.keySet().removeAll(snapshotUuids);
+                if (snapshots.isEmpty()) {
+                    trees.remove(treeUuid);
+                }
+            }
+        }
+
+        fireChanged(treeUuid);
+    }
+
+    /**
+     * for changes not worth applying in place, the tree is reloaded on the next operation
+     */
+    public void evict(String treeUuid) {
+        evictLocally(treeUuid);
+        fireChanged(treeUuid);
+    }
+
+    private void evictLocally(String treeUuid) {
+        synchronized (trees) {
+            generation ++;
+            trees.remove(treeUuid);
+        }
+    }
+
+    private void evictAll() {
+        synchronized (trees) {
+            generation ++;
+            trees.clear();
+        }
+    }
+
+    @Override
+    public boolean start() {
+        evtf.on(VolumeSnapshotCanonicalEvents.VOLUME_SNAPSHOT_TREE_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                if (evtf.isFromThisManagementNode(tokens)) {
+                    return;
+                }
+
+                VolumeSnapshotTreeChangedData d = (VolumeSnapshotTreeChangedData) data;
+                evictLocally(d.getTreeUuid());
+            }
+        });
+
+        VolumeSnapshotGlobalConfig.TREE_CACHE_SIZE.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                evictAll();
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+
+    @Override
+    public void nodeJoin(String nodeId) {
+        evictAll();
+    }
+
+    @Override
+    public void nodeLeft(String nodeId) {
+        evictAll();
+    }
+
+    @Override
+    public void iAmDead(String nodeId) {
+        evictAll();
+    }
+
+    @Override
+    public void iJoin(String nodeId) {
+        evictAll();
+    }
+}
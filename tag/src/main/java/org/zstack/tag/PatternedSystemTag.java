@@ -1,10 +1,8 @@
 package org.zstack.tag;
 
-import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.header.tag.SystemTagInventory;
-import org.zstack.header.tag.SystemTagVO;
-import org.zstack.header.tag.SystemTagVO_;
+import org.zstack.utils.ObjectUtils;
 import org.zstack.utils.TagUtils;
 
 import java.util.ArrayList;
@@ -132,12 +130,8 @@ public class PatternedSystemTag extends SystemTag {
     }
 
     public SystemTagInventory getTagInventory(String resourceUuid) {
-        SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
-        q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
-        q.add(SystemTagVO_.resourceType, Op.EQ, getResourceClass().getSimpleName());
-        q.add(SystemTagVO_.tag, Op.LIKE, useTagFormat());
-        SystemTagVO vo = q.find();
-        return  vo == null ? null : SystemTagInventory.valueOf(vo);
+        List<SystemTagInventory> tags = getTagInventories(resourceUuid, getResourceClass());
+        return tags.isEmpty() ? null : ObjectUtils.copy(new SystemTagInventory(), tags.get(0));
     }
 
     public SystemTagInventory recreateTag(String resourceUuid, Class resourceClass, Map tokens) {
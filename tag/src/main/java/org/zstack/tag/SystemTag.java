@@ -4,18 +4,17 @@ import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.zstack.core.db.DatabaseFacade;
-import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.header.tag.*;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
-import javax.persistence.Tuple;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  */
@@ -34,6 +33,7 @@ public class SystemTag {
     protected List<SystemTagValidator> validators = new ArrayList<SystemTagValidator>();
     protected List<SystemTagLifeCycleListener> lifeCycleListeners = new ArrayList<SystemTagLifeCycleListener>();
     protected List<SystemTagOperationJudger> judgers = new ArrayList<SystemTagOperationJudger>();
+    private volatile Pattern likePattern;
 
     public SystemTag(String tagFormat, Class resourceClass) {
         this.tagFormat = tagFormat;
@@ -104,21 +104,49 @@ public class SystemTag {
         return hasTag(resourceUuid, resourceClass);
     }
 
+    /**
+     * in-memory equivalent of "tag [useOp()] [useTagFormat()]" in SQL, case-insensitive
+     * as MySQL compares tags with the case-insensitive collation
+     */
+    protected boolean isQueryMatch(String tag) {
+        if (useOp() != Op.LIKE) {
+            return useTagFormat().equalsIgnoreCase(tag);
+        }
+
+        if (likePattern == null) {
+            StringBuilder regex = new StringBuilder();
+            for (String part : useTagFormat().split("((?<=[%_])|(?=[%_]))")) {
+                if ("%".equals(part)) {
+                    regex.append(".*");
+                } else if ("_".equals(part)) {
+                    regex.append(".");
+                } else if (!part.isEmpty()) {
+                    regex.append(Pattern.quote(part));
+                }
+            }
+            likePattern = Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+        }
+
+        return likePattern.matcher(tag).matches();
+    }
+
+    protected List<SystemTagInventory> getTagInventories(String resourceUuid, Class resourceClass) {
+        List<SystemTagInventory> ret = new ArrayList<SystemTagInventory>();
+        for (SystemTagInventory tag : tagMgr.getSystemTags(resourceUuid)) {
+            if (tag.getResourceType().equals(resourceClass.getSimpleName()) && isQueryMatch(tag.getTag())) {
+                ret.add(tag);
+            }
+        }
+        return ret;
+    }
+
     public boolean hasTag(String resourceUuid, Class resourceClass) {
-        SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
-        q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
-        q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
-        q.add(SystemTagVO_.tag, useOp(), useTagFormat());
-        return q.isExists();
+        return !getTagInventories(resourceUuid, resourceClass).isEmpty();
     }
 
     public void copy(String srcUuid, Class srcClass, String dstUuid, Class dstClass) {
-        SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
-        q.add(SystemTagVO_.resourceType, Op.EQ, srcClass.getSimpleName());
-        q.add(SystemTagVO_.resourceUuid, Op.EQ, srcUuid);
-        q.add(SystemTagVO_.tag, useOp(), useTagFormat());
-        List<SystemTagVO> tags = q.list();
-        for (SystemTagVO tag : tags) {
+        List<SystemTagInventory> tags = getTagInventories(srcUuid, srcClass);
+        for (SystemTagInventory tag : tags) {
             if (tag.isInherent()) {
                 deleteInherentTag(dstUuid, dstClass);
                 tagMgr.createInherentSystemTag(dstUuid, tag.getTag(), dstClass.getSimpleName());
@@ -130,12 +158,11 @@ public class SystemTag {
     }
 
     public List<String> getTags(String resourceUuid, Class resourceClass) {
-        SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
-        q.select(SystemTagVO_.tag);
-        q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
-        q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
-        q.add(SystemTagVO_.tag, useOp(), useTagFormat());
-        return q.listValue();
+        List<String> tags = new ArrayList<String>();
+        for (SystemTagInventory tag : getTagInventories(resourceUuid, resourceClass)) {
+            tags.add(tag.getTag());
+        }
+        return tags;
     }
 
     public List<String> getTags(String resourceUuid) {
@@ -155,21 +182,20 @@ public class SystemTag {
     }
 
     public Map<String, List<String>> getTags(List<String> resourceUuids, Class resourceClass) {
-        SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
-        q.select(SystemTagVO_.tag, SystemTagVO_.resourceUuid);
-        q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
-        q.add(SystemTagVO_.resourceUuid, Op.IN, resourceUuids);
-        q.add(SystemTagVO_.tag, useOp(), useTagFormat());
-        List<Tuple> ts = q.listTuple();
         Map<String, List<String>> ret = new HashMap<String, List<String>>();
-        for (Tuple t : ts) {
-            String uuid = t.get(1, String.class);
-            List<String> tags = ret.get(uuid);
-            if (tags == null) {
-                tags = new ArrayList<String>();
-                ret.put(uuid, tags);
+        for (Map.Entry<String, List<SystemTagInventory>> e : tagMgr.getSystemTags(resourceUuids).entrySet()) {
+            for (SystemTagInventory tag : e.getValue()) {
+                if (!tag.getResourceType().equals(resourceClass.getSimpleName()) || !isQueryMatch(tag.getTag())) {
+                    continue;
+                }
+
+                List<String> tags = ret.get(e.getKey());
+                if (tags == null) {
+                    tags = new ArrayList<String>();
+                    ret.put(e.getKey(), tags);
+                }
+                tags.add(tag.getTag());
             }
-            tags.add(t.get(0, String.class));
         }
         return ret;
     }
@@ -271,17 +297,12 @@ public class SystemTag {
     }
 
     public SystemTagInventory update(String resourceUuid, String newTag) {
-        SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
-        q.select(SystemTagVO_.uuid);
-        q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
-        q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
-        q.add(SystemTagVO_.tag, useOp(), useTagFormat());
-        String tagUuid = q.findValue();
-        if (tagUuid == null) {
+        List<SystemTagInventory> tags = getTagInventories(resourceUuid, resourceClass);
+        if (tags.isEmpty()) {
             return null;
         }
 
-        return tagMgr.updateSystemTag(tagUuid, newTag);
+        return tagMgr.updateSystemTag(tags.get(0).getUuid(), newTag);
     }
 
     void setTagMgr(TagManager tagMgr) {
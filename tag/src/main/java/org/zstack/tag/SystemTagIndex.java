@@ -0,0 +1,124 @@
+package org.zstack.tag;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.tag.SystemTagInventory;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.SystemTagVO_;
+
+import java.util.*;
+
+/**
+ * in-memory index of system tags keyed by resource uuid. Tags of a resource are loaded
+ * on the first lookup and evicted when TagManagerImpl changes them, or when another
+ * management node reports the change by SystemTagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH
+ */
+class SystemTagIndex {
+    private final DatabaseFacade dbf;
+
+    // bumped on every invalidation, so a lookup racing with a change doesn't cache what it loaded
+    private long generation;
+    private final Map<String, List<SystemTagInventory>> resources = new LinkedHashMap<String, List<SystemTagInventory>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<SystemTagInventory>> eldest) {
+            return size() > TagGlobalProperty.SYSTEM_TAG_INDEX_SIZE;
+        }
+    };
+
+    SystemTagIndex(DatabaseFacade dbf) {
+        this.dbf = dbf;
+    }
+
+    private boolean isEnabled() {
+        return TagGlobalProperty.SYSTEM_TAG_INDEX_SIZE > 0;
+    }
+
+    private Map<String, List<SystemTagInventory>> load(Collection<String> resourceUuids) {
+        Map<String, List<SystemTagInventory>> ret = new HashMap<String, List<SystemTagInventory>>();
+        for (String uuid : resourceUuids) {
+            ret.put(uuid, new ArrayList<SystemTagInventory>());
+        }
+
+        SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
+        q.add(SystemTagVO_.resourceUuid, Op.IN, resourceUuids);
+        List<SystemTagVO> vos = q.list();
+        for (SystemTagVO vo : vos) {
+            ret.get(vo.getResourceUuid()).add(SystemTagInventory.valueOf(vo));
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return system tags of the resources, of all resource types; the returned inventories
+     * are shared by the index and must not be modified
+     */
+    Map<String, List<SystemTagInventory>> getTags(Collection<String> resourceUuids) {
+        Set<String> uuids = new HashSet<String>(resourceUuids);
+        if (!isEnabled()) {
+            return uuids.isEmpty() ? new HashMap<String, List<SystemTagInventory>>() : load(uuids);
+        }
+
+        Map<String, List<SystemTagInventory>> ret = new HashMap<String, List<SystemTagInventory>>();
+        List<String> missing = new ArrayList<String>();
+        long gen;
+        synchronized (resources) {
+            gen = generation;
+            for (String uuid : uuids) {
+                List<SystemTagInventory> tags = resources.get(uuid);
+                if (tags == null) {
+                    missing.add(uuid);
+                } else {
+                    ret.put(uuid, tags);
+                }
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return ret;
+        }
+
+        Map<String, List<SystemTagInventory>> loaded = load(missing);
+        ret.putAll(loaded);
+        synchronized (resources) {
+            if (gen == generation) {
+                for (Map.Entry<String, List<SystemTagInventory>> e : loaded.entrySet()) {
+                    resources.put(e.getKey(), Collections.unmodifiableList(e.getValue()));
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    List<SystemTagInventory> getTags(String resourceUuid) {
+        return getTags(Collections.singletonList(resourceUuid)).get(resourceUuid);
+    }
+
+    void evict(final Collection<String> resourceUuids) {
+        doEvict(resourceUuids);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // the change is not visible to other sessions until the transaction commits,
+            // evict again in case a lookup loaded the old tags in between
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    doEvict(resourceUuids);
+                }
+            });
+        }
+    }
+
+    private void doEvict(Collection<String> resourceUuids) {
+        synchronized (resources) {
+            generation ++;
+            for (String uuid : resourceUuids) {
+                resources.remove(uuid);
+            }
+        }
+    }
+}
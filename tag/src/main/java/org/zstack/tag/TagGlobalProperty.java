@@ -0,0 +1,13 @@
+package org.zstack.tag;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class TagGlobalProperty {
+    // max number of resources whose system tags are kept in memory, 0 disables the index
+    @GlobalProperty(name="SystemTag.indexSize", defaultValue = "100000")
+    public static int SYSTEM_TAG_INDEX_SIZE;
+}
@@ -7,6 +7,7 @@ import org.zstack.header.tag.TagInventory;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  */
@@ -35,6 +36,14 @@ public interface TagManager {
 
     List<String> findSystemTags(String resourceUuid);
 
+    /**
+     * system tags of the resource served from the in-memory index, the returned
+     * inventories are shared and must not be modified
+     */
+    List<SystemTagInventory> getSystemTags(String resourceUuid);
+
+    Map<String, List<SystemTagInventory>> getSystemTags(Collection<String> resourceUuids);
+
     List<String> findUserTags(String resourceUuid);
 
     boolean hasSystemTag(String resourceUuid, String tag);
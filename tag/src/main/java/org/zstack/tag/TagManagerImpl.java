@@ -2,8 +2,12 @@ package org.zstack.tag;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
@@ -23,6 +27,7 @@ import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.query.APIQueryReply;
 import org.zstack.header.tag.*;
+import org.zstack.header.tag.SystemTagCanonicalEvents.SystemTagChangedData;
 import org.zstack.query.QueryFacade;
 import org.zstack.utils.*;
 import org.zstack.utils.function.Function;
@@ -53,7 +58,10 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     private ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private EventFacade evtf;
 
+    private SystemTagIndex tagIndex;
     private List<SystemTag> systemTags = new ArrayList<SystemTag>();
     private Map<String, List<SystemTag>> resourceTypeSystemTagMap = new HashMap<String, List<SystemTag>>();
     private Map<String, Class> resourceTypeClassMap = new HashMap<String, Class>();
@@ -107,6 +115,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     void init() {
+        tagIndex = new SystemTagIndex(dbf);
+
         for (EntityType<?> entity : dbf.getEntityManager().getMetamodel().getEntities()) {
             Class type =  entity.getJavaType();
             String name = type.getSimpleName();
@@ -170,12 +180,12 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             long count = q.count();
             return count != 0;
         } else {
-            SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
-            q.add(UserTagVO_.resourceType, SimpleQuery.Op.EQ, resourceType);
-            q.add(UserTagVO_.tag, SimpleQuery.Op.EQ, tag);
-            q.add(UserTagVO_.resourceUuid, SimpleQuery.Op.EQ, resourceUuid);
-            long count = q.count();
-            return count != 0;
+            for (SystemTagInventory stag : tagIndex.getTags(resourceUuid)) {
+                if (stag.getResourceType().equals(resourceType) && stag.getTag().equalsIgnoreCase(tag)) {
+                    return true;
+                }
+            }
+            return false;
         }
     }
 
@@ -209,6 +219,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             preTagCreated(SystemTagInventory.valueOf(vo));
 
             vo = dbf.persistAndRefresh(vo);
+            systemTagsChanged(list(resourceUuid));
 
             SystemTagInventory stag = SystemTagInventory.valueOf(vo);
             fireTagCreated(list(stag));
@@ -236,6 +247,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         preTagCreated(SystemTagInventory.valueOf(vo));
 
         vo = dbf.persistAndRefresh(vo);
+        systemTagsChanged(list(resourceUuid));
         SystemTagInventory inv = SystemTagInventory.valueOf(vo);
 
         final SystemTagVO finalVo = vo;
@@ -243,6 +255,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             @Override
             public void run() {
                 dbf.remove(finalVo);
+                systemTagsChanged(list(finalVo.getResourceUuid()));
             }
         });
 
@@ -269,6 +282,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         preTagCreated(SystemTagInventory.valueOf(vo));
 
         vo = dbf.persistAndRefresh(vo);
+        systemTagsChanged(list(resourceUuid));
 
         SystemTagInventory inv = SystemTagInventory.valueOf(vo);
         fireTagCreated(list(inv));
@@ -348,6 +362,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             ntag.setResourceUuid(dstResourceUuid);
             dbf.getEntityManager().persist(ntag);
         }
+
+        systemTagsChanged(list(dstResourceUuid));
     }
 
     @Override
@@ -362,6 +378,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             preTagUpdated(old, n);
 
             vo = dbf.updateAndRefresh(vo);
+            systemTagsChanged(list(vo.getResourceUuid()));
             SystemTagInventory nt = SystemTagInventory.valueOf(vo);
             fireTagUpdated(old, nt);
             return SystemTagInventory.valueOf(vo);
@@ -372,10 +389,47 @@ public class TagManagerImpl extends AbstractService implements TagManager,
 
     @Override
     public List<String> findSystemTags(String resourceUuid) {
-        SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
-        q.select(SystemTagVO_.tag);
-        q.add(SystemTagVO_.resourceUuid, SimpleQuery.Op.EQ, resourceUuid);
-        return q.listValue();
+        List<String> tags = new ArrayList<String>();
+        for (SystemTagInventory tag : tagIndex.getTags(resourceUuid)) {
+            tags.add(tag.getTag());
+        }
+        return tags;
+    }
+
+    @Override
+    public List<SystemTagInventory> getSystemTags(String resourceUuid) {
+        return tagIndex.getTags(resourceUuid);
+    }
+
+    @Override
+    public Map<String, List<SystemTagInventory>> getSystemTags(Collection<String> resourceUuids) {
+        return tagIndex.getTags(resourceUuids);
+    }
+
+    private void systemTagsChanged(final List<String> resourceUuids) {
+        // evict synchronously so the next lookup on this management node sees the change,
+        // the index evicts again when the surrounding transaction completes.
+        // Other management nodes evict when receiving the canonical event
+        tagIndex.evict(resourceUuids);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // other management nodes can't see the change until the transaction commits,
+            // notifying them earlier lets them reload and cache the old tags
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    fireSystemTagsChanged(resourceUuids);
+                }
+            });
+        } else {
+            fireSystemTagsChanged(resourceUuids);
+        }
+    }
+
+    private void fireSystemTagsChanged(List<String> resourceUuids) {
+        SystemTagChangedData d = new SystemTagChangedData();
+        d.setResourceUuids(resourceUuids);
+        evtf.fire(SystemTagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH, d);
     }
 
     @Override
@@ -388,10 +442,13 @@ public class TagManagerImpl extends AbstractService implements TagManager,
 
     private boolean hasTag(String resourceUuid, String tag, TagType tagType) {
         if (tagType == TagType.System) {
-            SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
-            q.add(SystemTagVO_.resourceUuid, SimpleQuery.Op.EQ, resourceUuid);
-            q.add(SystemTagVO_.tag, SimpleQuery.Op.EQ, tag);
-            return q.isExists();
+            for (SystemTagInventory stag : tagIndex.getTags(resourceUuid)) {
+                // MySQL compares tags with the case-insensitive collation
+                if (stag.getTag().equalsIgnoreCase(tag)) {
+                    return true;
+                }
+            }
+            return false;
         } else {
             SimpleQuery<UserTagVO> q = dbf.createQuery(UserTagVO.class);
             q.add(UserTagVO_.resourceUuid, SimpleQuery.Op.EQ, resourceUuid);
@@ -446,6 +503,12 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         dbf.removeCollection(vos, SystemTagVO.class);
 
         if (!vos.isEmpty()) {
+            Set<String> resourceUuids = new HashSet<String>();
+            for (SystemTagVO vo : vos) {
+                resourceUuids.add(vo.getResourceUuid());
+            }
+            systemTagsChanged(new ArrayList<String>(resourceUuids));
+
             fireTagDeleted(SystemTagInventory.valueOf(vos));
         }
     }
@@ -561,6 +624,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         dbf.removeByPrimaryKey(msg.getUuid(), UserTagVO.class);
 
         if (stag != null) {
+            systemTagsChanged(list(stag.getResourceUuid()));
             fireTagDeleted(list(SystemTagInventory.valueOf(stag)));
         }
 
@@ -626,9 +690,25 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     @Override
     public boolean start() {
         populateExtensions();
+        setupCanonicalEvents();
         return true;
     }
 
+    private void setupCanonicalEvents() {
+        evtf.on(SystemTagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                if (evtf.isFromThisManagementNode(tokens)) {
+                    // already evicted in systemTagsChanged()
+                    return;
+                }
+
+                SystemTagChangedData d = (SystemTagChangedData) data;
+                tagIndex.evict(d.getResourceUuids());
+            }
+        });
+    }
+
     @Override
     public boolean stop() {
         return true;
@@ -662,6 +742,12 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         q.setParameter("resourceTypes", rtypes);
         q.setParameter("resourceUuids", entityIds);
         q.executeUpdate();
+
+        List<String> resourceUuids = new ArrayList<String>();
+        for (Object id : entityIds) {
+            resourceUuids.add(id.toString());
+        }
+        systemTagsChanged(resourceUuids);
     }
 
     @Override
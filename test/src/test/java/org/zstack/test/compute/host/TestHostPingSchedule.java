@@ -0,0 +1,164 @@
+package org.zstack.test.compute.host;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.host.HostGlobalConfig;
+import org.zstack.compute.host.HostPingStatistic;
+import org.zstack.compute.host.HostTracker;
+import org.zstack.compute.host.HostTrackerMXBean;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.cluster.ClusterInventory;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.host.PingHostMsg;
+import org.zstack.header.message.AbstractBeforeDeliveryMessageInterceptor;
+import org.zstack.header.message.Message;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.simulator.SimulatorController;
+import org.zstack.test.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. track 10 hosts with ping.interval = 1
+ *
+ * confirm every host is pinged and its latency is recorded in the histogram
+ * confirm the hosts are not pinged at the same instant
+ *
+ * 2. set ping.healthyBackoffMaxFactor = 2
+ *
+ * confirm the ping interval of healthy hosts grows to 2 seconds after 10 successful pings
+ *
+ * 3. set ping.failureProbeInterval = 1
+ * 4. disconnect a host
+ * 5. set ping.interval = 3
+ *
+ * confirm the host is probed every second, while the others back off to 6 seconds
+ */
+public class TestHostPingSchedule {
+    Api api;
+    ComponentLoader loader;
+    HostTrackerMXBean tracker;
+    CloudBus bus;
+    SimulatorController sctrl;
+    Map<String, List<Long>> pingTimes = new ConcurrentHashMap<String, List<Long>>();
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        /* This loads spring application context */
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ClusterManager.xml")
+                .addXml("ZoneManager.xml").addXml("HostManager.xml")
+                .addXml("Simulator.xml").addXml("AccountManager.xml")
+                .addXml("HostAllocatorManager.xml").build();
+        tracker = (HostTrackerMXBean) loader.getComponent(HostTracker.class);
+        bus = loader.getComponent(CloudBus.class);
+        sctrl = loader.getComponent(SimulatorController.class);
+        HostGlobalConfig.PING_HOST_INTERVAL.updateValue(1);
+        HostGlobalConfig.AUTO_RECONNECT_ON_ERROR.updateValue(false);
+        api = new Api();
+        api.startServer();
+    }
+
+    private long firstPingAfter(String hostUuid, long time) {
+        List<Long> times = pingTimes.get(hostUuid);
+        Assert.assertNotNull(times);
+        for (Long t : times) {
+            if (t >= time) {
+                return t;
+            }
+        }
+
+        Assert.fail(String.format("host[uuid:%s] is not pinged after %s", hostUuid, time));
+        return -1;
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        bus.installBeforeDeliveryMessageInterceptor(new AbstractBeforeDeliveryMessageInterceptor() {
+            @Override
+            public void intercept(Message msg) {
+                String hostUuid = ((PingHostMsg) msg).getHostUuid();
+                List<Long> times = pingTimes.get(hostUuid);
+                if (times == null) {
+                    times = new CopyOnWriteArrayList<Long>();
+                    pingTimes.put(hostUuid, times);
+                }
+                times.add(System.currentTimeMillis());
+            }
+        }, PingHostMsg.class);
+
+        ZoneInventory zone = api.createZones(1).get(0);
+        ClusterInventory cluster = api.createClusters(1, zone.getUuid()).get(0);
+        List<HostInventory> hosts = api.createHost(10, cluster.getUuid());
+        TimeUnit.SECONDS.sleep(2);
+        long mark = System.currentTimeMillis();
+        TimeUnit.SECONDS.sleep(2);
+
+        Map<String, HostPingStatistic> stats = tracker.getHostPingStatistics();
+        long earliest = Long.MAX_VALUE;
+        long latest = 0;
+        for (HostInventory host : hosts) {
+            HostPingStatistic stat = stats.get(host.getUuid());
+            Assert.assertNotNull(stat);
+            Assert.assertTrue(stat.getPingNum() > 0);
+            Assert.assertEquals(0, stat.getFailureNum());
+            Assert.assertEquals(TimeUnit.SECONDS.toMillis(1), stat.getCurrentInterval());
+
+            long total = 0;
+            for (Long num : stat.getLatencyHistogram().values()) {
+                total += num;
+            }
+            Assert.assertEquals(stat.getPingNum(), total);
+
+            long t = firstPingAfter(host.getUuid(), mark);
+            earliest = Math.min(earliest, t);
+            latest = Math.max(latest, t);
+        }
+        // pings of one round spread over the interval instead of all going out in one tracker run
+        Assert.assertTrue(String.format("pings of a round spread over %sms only", latest - earliest), latest - earliest > 100);
+
+        HostGlobalConfig.PING_HEALTHY_BACKOFF_MAX_FACTOR.updateValue(2);
+        TimeUnit.SECONDS.sleep(10);
+        stats = tracker.getHostPingStatistics();
+        for (HostInventory host : hosts) {
+            HostPingStatistic stat = stats.get(host.getUuid());
+            Assert.assertTrue(stat.getPingNum() >= 10);
+            Assert.assertEquals(TimeUnit.SECONDS.toMillis(2), stat.getCurrentInterval());
+        }
+
+        HostGlobalConfig.PING_FAILURE_PROBE_INTERVAL.updateValue(1);
+        HostInventory failed = hosts.get(0);
+        sctrl.setSimulatorHostConnectionState(failed.getUuid(), true);
+        // changing ping.interval reschedules all hosts
+        HostGlobalConfig.PING_HOST_INTERVAL.updateValue(3);
+        mark = System.currentTimeMillis();
+        TimeUnit.SECONDS.sleep(6);
+
+        stats = tracker.getHostPingStatistics();
+        HostPingStatistic stat = stats.get(failed.getUuid());
+        Assert.assertTrue(stat.getFailureNum() > 0);
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(1), stat.getCurrentInterval());
+        List<Long> times = new ArrayList<Long>();
+        for (Long t : pingTimes.get(failed.getUuid())) {
+            if (t >= mark) {
+                times.add(t);
+            }
+        }
+        // the first ping after rescheduling fails, then the host is probed every second
+        Assert.assertTrue(String.format("the failed host is pinged %s times in 6s", times.size()), times.size() >= 3);
+
+        for (HostInventory host : hosts.subList(1, hosts.size())) {
+            stat = stats.get(host.getUuid());
+            Assert.assertEquals(0, stat.getFailureNum());
+            Assert.assertEquals(TimeUnit.SECONDS.toMillis(6), stat.getCurrentInterval());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.zstack.test.compute.hostallocator;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.vm.VmGlobalConfig;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.thread.AsyncThread;
+import org.zstack.header.allocator.AllocateHostsMsg;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.configuration.InstanceOfferingInventory;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.message.AbstractBeforeDeliveryMessageInterceptor;
+import org.zstack.header.message.Message;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.vm.VmInstanceConstant;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.test.Api;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. set allocateHost.batchWindow to 500ms
+ * 2. create 5 vms concurrently
+ *
+ * confirm hosts of the vms are allocated by AllocateHostsMsg
+ * confirm all vms are created and the capacity of all of them is reserved on the host
+ */
+public class TestBatchHostAllocation {
+    CLogger logger = Utils.getLogger(TestBatchHostAllocation.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    int num = 5;
+    volatile boolean success = true;
+    CountDownLatch latch = new CountDownLatch(num);
+    AtomicInteger batchedVmNum = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/hostAllocator/TestHostAllocator.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    @AsyncThread
+    private void createVm(VmInstanceInventory inv, String l3Uuid) {
+        try {
+            api.createVmByFullConfig(inv, null, list(l3Uuid), null);
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+            success = false;
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        VmGlobalConfig.ALLOCATE_HOST_BATCH_WINDOW.updateValue(500);
+        bus.installBeforeDeliveryMessageInterceptor(new AbstractBeforeDeliveryMessageInterceptor() {
+            @Override
+            public void intercept(Message msg) {
+                batchedVmNum.addAndGet(((AllocateHostsMsg) msg).getVmInstances().size());
+            }
+        }, AllocateHostsMsg.class);
+
+        L3NetworkInventory l3 = deployer.l3Networks.get("l3Network1");
+        InstanceOfferingInventory instanceOffering = deployer.instanceOfferings.get("instanceOffering512M512HZ");
+        ImageInventory image = deployer.images.get("image1");
+        HostInventory host = deployer.hosts.get("host1");
+
+        for (int i = 0; i < num; i++) {
+            VmInstanceInventory inv = new VmInstanceInventory();
+            inv.setName(String.format("vm-%s", i));
+            inv.setType(VmInstanceConstant.USER_VM_TYPE);
+            inv.setImageUuid(image.getUuid());
+            inv.setInstanceOfferingUuid(instanceOffering.getUuid());
+            createVm(inv, l3.getUuid());
+        }
+
+        Assert.assertTrue(latch.await(120, TimeUnit.SECONDS));
+        Assert.assertTrue(success);
+        Assert.assertTrue(String.format("only %s vms are allocated in batches", batchedVmNum.get()), batchedVmNum.get() > 1);
+
+        HostCapacityVO cap = dbf.findByUuid(host.getUuid(), HostCapacityVO.class);
+        Assert.assertEquals(instanceOffering.getCpuNum() * num, cap.getUsedCpu());
+        Assert.assertEquals(instanceOffering.getMemorySize() * num, cap.getUsedMemory());
+    }
+}
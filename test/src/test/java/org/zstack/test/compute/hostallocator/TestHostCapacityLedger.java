@@ -0,0 +1,106 @@
+package org.zstack.test.compute.hostallocator;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.allocator.HostAllocatorGlobalConfig;
+import org.zstack.compute.allocator.HostCapacityLedger;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.allocator.UnableToReserveHostCapacityException;
+import org.zstack.header.configuration.InstanceOfferingInventory;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.vm.VmInstanceConstant;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. set capacityLedger.flushInterval to 1 second
+ * 2. create a vm
+ *
+ * confirm the reservation is seen by the ledger and written to the database by the flush
+ *
+ * 3. destroy the vm
+ *
+ * confirm the capacity is returned in the database
+ *
+ * 4. set capacityLedger.flushInterval to 0
+ * 5. take all cpu of the host in the database behind the ledger
+ * 6. reserve cpu on the host
+ *
+ * confirm the reservation fails, and is rolled back in both the ledger and the database
+ */
+public class TestHostCapacityLedger {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    HostCapacityLedger ledger;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/hostAllocator/TestHostAllocator.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        ledger = loader.getComponent(HostCapacityLedger.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        HostAllocatorGlobalConfig.CAPACITY_LEDGER_FLUSH_INTERVAL.updateValue(1);
+
+        L3NetworkInventory l3 = deployer.l3Networks.get("l3Network1");
+        InstanceOfferingInventory instanceOffering = deployer.instanceOfferings.get("instanceOffering512M512HZ");
+        ImageInventory image = deployer.images.get("image1");
+
+        VmInstanceInventory inv = new VmInstanceInventory();
+        inv.setName("vm");
+        inv.setType(VmInstanceConstant.USER_VM_TYPE);
+        inv.setImageUuid(image.getUuid());
+        inv.setInstanceOfferingUuid(instanceOffering.getUuid());
+        VmInstanceInventory vm = api.createVmByFullConfig(inv, null, list(l3.getUuid()), null);
+
+        HostCapacityVO cap = dbf.findByUuid(vm.getHostUuid(), HostCapacityVO.class);
+        Assert.assertEquals(cap.getTotalCpu() - instanceOffering.getCpuNum(), ledger.getAvailableCpu(cap));
+
+        TimeUnit.SECONDS.sleep(3);
+        cap = dbf.findByUuid(vm.getHostUuid(), HostCapacityVO.class);
+        Assert.assertEquals(instanceOffering.getCpuNum(), cap.getUsedCpu());
+        Assert.assertEquals(instanceOffering.getMemorySize(), cap.getUsedMemory());
+
+        api.destroyVmInstance(vm.getUuid());
+        TimeUnit.SECONDS.sleep(3);
+        cap = dbf.findByUuid(vm.getHostUuid(), HostCapacityVO.class);
+        Assert.assertEquals(0, cap.getUsedCpu());
+        Assert.assertEquals(0, cap.getUsedMemory());
+        Assert.assertEquals(cap.getTotalCpu(), ledger.getAvailableCpu(cap));
+
+        HostAllocatorGlobalConfig.CAPACITY_LEDGER_FLUSH_INTERVAL.updateValue(0);
+        cap.setAvailableCpu(0);
+        cap = dbf.updateAndRefresh(cap);
+        try {
+            ledger.reserve(cap.getUuid(), instanceOffering.getCpuNum(), instanceOffering.getMemorySize());
+            Assert.fail("the reservation should fail as the host has no cpu in the database");
+        } catch (UnableToReserveHostCapacityException e) {
+            // expected
+        }
+
+        cap = dbf.findByUuid(vm.getHostUuid(), HostCapacityVO.class);
+        Assert.assertEquals(0, cap.getAvailableCpu());
+        Assert.assertEquals(cap.getTotalMemory(), cap.getAvailableMemory());
+        Assert.assertEquals(0, ledger.getAvailableCpu(cap));
+        Assert.assertEquals(cap.getTotalMemory(), ledger.getAvailableMemory(cap));
+    }
+}
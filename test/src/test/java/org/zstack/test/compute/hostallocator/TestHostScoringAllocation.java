@@ -0,0 +1,126 @@
+package org.zstack.test.compute.hostallocator;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.allocator.HostAllocatorGlobalConfig;
+import org.zstack.compute.allocator.HostVmCounter;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.config.GlobalConfigException;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.allocator.HostAllocatorConstant;
+import org.zstack.header.apimediator.ApiMediatorConstant;
+import org.zstack.header.cluster.ClusterInventory;
+import org.zstack.header.configuration.InstanceOfferingInventory;
+import org.zstack.header.host.APIAddHostEvent;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.simulator.APIAddSimulatorHostMsg;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmInstanceVO;
+import org.zstack.header.vm.VmInstanceVO_;
+import org.zstack.test.*;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.data.SizeUnit;
+
+/**
+ * 1. add a host with 64G memory besides the host1 with 32G memory
+ * 2. create 4 vms with the least vm preferred strategy
+ *
+ * confirm the vms are spread over the two hosts
+ *
+ * 3. set scoring.weights to availableMemory:-1
+ * 4. create 2 vms
+ *
+ * confirm both vms are packed on host1 which has less memory free
+ * confirm the vm counter agrees with the database
+ * confirm an unknown scorer is rejected
+ */
+public class TestHostScoringAllocation {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    HostVmCounter vmCounter;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/hostAllocator/TestHostAllocator.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        vmCounter = loader.getComponent(HostVmCounter.class);
+    }
+
+    private long countVm(String hostUuid) {
+        SimpleQuery<VmInstanceVO> q = dbf.createQuery(VmInstanceVO.class);
+        q.add(VmInstanceVO_.hostUuid, Op.EQ, hostUuid);
+        return q.count();
+    }
+
+    private void createVm(L3NetworkInventory l3, ImageInventory image, InstanceOfferingInventory ios) throws ApiSenderException {
+        VmCreator creator = new VmCreator(api);
+        creator.addL3Network(l3.getUuid());
+        creator.imageUuid = image.getUuid();
+        creator.instanceOfferingUuid = ios.getUuid();
+        creator.create();
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        L3NetworkInventory l3 = deployer.l3Networks.get("l3Network1");
+        ImageInventory image = deployer.images.get("image1");
+        ClusterInventory cluster = deployer.clusters.get("cluster1");
+        HostInventory host1 = deployer.hosts.get("host1");
+
+        InstanceOfferingInventory ios = new InstanceOfferingInventory();
+        ios.setName("leastVmPreferred");
+        ios.setAllocatorStrategy(HostAllocatorConstant.LEAST_VM_PREFERRED_HOST_ALLOCATOR_STRATEGY_TYPE);
+        ios.setCpuNum(1);
+        ios.setCpuSpeed(1);
+        ios.setMemorySize(SizeUnit.GIGABYTE.toByte(1));
+        ios = api.addInstanceOffering(ios);
+
+        APIAddSimulatorHostMsg amsg = new APIAddSimulatorHostMsg();
+        amsg.setCpuCapacity(8 * 2600);
+        amsg.setMemoryCapacity(SizeUnit.GIGABYTE.toByte(64));
+        amsg.setClusterUuid(cluster.getUuid());
+        amsg.setManagementIp("10.0.0.12");
+        amsg.setName("host2");
+        amsg.setServiceId(ApiMediatorConstant.SERVICE_ID);
+        amsg.setSession(api.getAdminSession());
+        ApiSender sender = new ApiSender();
+        APIAddHostEvent evt = sender.send(amsg, APIAddHostEvent.class);
+        HostInventory host2 = evt.getInventory();
+
+        for (int i = 0; i < 4; i++) {
+            createVm(l3, image, ios);
+        }
+
+        Assert.assertEquals(2, countVm(host1.getUuid()));
+        Assert.assertEquals(2, countVm(host2.getUuid()));
+
+        HostAllocatorGlobalConfig.SCORING_WEIGHTS.updateValue("availableMemory:-1");
+        for (int i = 0; i < 2; i++) {
+            createVm(l3, image, ios);
+        }
+
+        Assert.assertEquals(4, countVm(host1.getUuid()));
+        Assert.assertEquals(2, countVm(host2.getUuid()));
+        Assert.assertEquals(4, vmCounter.getVmCount(host1.getUuid()));
+        Assert.assertEquals(2, vmCounter.getVmCount(host2.getUuid()));
+
+        boolean s = false;
+        try {
+            HostAllocatorGlobalConfig.SCORING_WEIGHTS.updateValue("noSuchScorer:1");
+        } catch (GlobalConfigException e) {
+            s = true;
+        }
+        Assert.assertTrue(s);
+    }
+}
@@ -0,0 +1,115 @@
+package org.zstack.test.compute.zone;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.zone.APIQueryZoneMsg;
+import org.zstack.header.zone.APIQueryZoneReply;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 1. page zones sorted by name with continuation tokens
+ * 2. page zones sorted by primary key in descending order
+ * 3. use start with a continuation token
+ *
+ * confirm every zone is returned exactly once and in order
+ * confirm the last page has no continuation token
+ * confirm start cannot be used with a continuation token
+ */
+public class TestQueryZoneKeysetPaging {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        // initialize properties
+        Platform.getUuid();
+        CoreGlobalProperty.CHECK_BOX_TYPE_IN_INVENTORY = true;
+
+        deployer = new Deployer("deployerXml/zone/TestQueryZone.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        List<String> names = new ArrayList<String>();
+        String token = null;
+        int pages = 0;
+        do {
+            APIQueryZoneMsg msg = new APIQueryZoneMsg();
+            msg.setSortBy("name");
+            msg.setLimit(2);
+            msg.setReplyWithContinuationToken(true);
+            msg.setContinuationToken(token);
+            APIQueryZoneReply reply = api.query(msg, APIQueryZoneReply.class);
+            for (ZoneInventory inv : reply.getInventories()) {
+                names.add(inv.getName());
+            }
+            token = reply.getContinuationToken();
+            pages ++;
+        } while (token != null);
+
+        Assert.assertEquals(3, pages);
+        Assert.assertEquals(5, names.size());
+        for (int i=0; i<names.size(); i++) {
+            Assert.assertEquals(String.format("Zone%s", i+1), names.get(i));
+        }
+
+        Set<String> uuids = new HashSet<String>();
+        String lastUuid = null;
+        token = null;
+        do {
+            APIQueryZoneMsg msg = new APIQueryZoneMsg();
+            msg.setSortDirection("desc");
+            msg.setLimit(3);
+            msg.setReplyWithContinuationToken(true);
+            msg.setContinuationToken(token);
+            APIQueryZoneReply reply = api.query(msg, APIQueryZoneReply.class);
+            for (ZoneInventory inv : reply.getInventories()) {
+                if (lastUuid != null) {
+                    Assert.assertTrue(lastUuid.compareTo(inv.getUuid()) > 0);
+                }
+                lastUuid = inv.getUuid();
+                uuids.add(inv.getUuid());
+            }
+            token = reply.getContinuationToken();
+        } while (token != null);
+        Assert.assertEquals(5, uuids.size());
+
+        APIQueryZoneMsg msg = new APIQueryZoneMsg();
+        msg.setSortBy("name");
+        msg.setLimit(2);
+        msg.setReplyWithContinuationToken(true);
+        APIQueryZoneReply reply = api.query(msg, APIQueryZoneReply.class);
+        Assert.assertNotNull(reply.getContinuationToken());
+
+        msg = new APIQueryZoneMsg();
+        msg.setSortBy("name");
+        msg.setLimit(2);
+        msg.setStart(2);
+        msg.setContinuationToken(reply.getContinuationToken());
+        boolean s = false;
+        try {
+            api.query(msg, APIQueryZoneReply.class);
+        } catch (ApiSenderException e) {
+            s = true;
+        }
+        Assert.assertTrue(s);
+    }
+}
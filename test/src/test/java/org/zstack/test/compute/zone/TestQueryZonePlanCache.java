@@ -0,0 +1,93 @@
+package org.zstack.test.compute.zone;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.query.QueryOp;
+import org.zstack.header.zone.APIQueryZoneMsg;
+import org.zstack.header.zone.APIQueryZoneReply;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+/**
+ * 1. query zones repeatedly with the same condition shape but different values
+ *
+ * confirm the cached query plan binds the new values every time
+ */
+public class TestQueryZonePlanCache {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        // initialize properties
+        Platform.getUuid();
+        CoreGlobalProperty.CHECK_BOX_TYPE_IN_INVENTORY = true;
+
+        deployer = new Deployer("deployerXml/zone/TestQueryZone.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        for (int i=1; i<=5; i++) {
+            String name = String.format("Zone%s", i);
+            APIQueryZoneMsg msg = new APIQueryZoneMsg();
+            msg.addQueryCondition("name", QueryOp.EQ, name);
+            msg.setReplyWithCount(true);
+            APIQueryZoneReply reply = api.query(msg, APIQueryZoneReply.class);
+            Assert.assertEquals(1, reply.getInventories().size());
+            Assert.assertEquals(1, reply.getTotal().longValue());
+            ZoneInventory inv = reply.getInventories().get(0);
+            Assert.assertEquals(name, inv.getName());
+        }
+
+        APIQueryZoneMsg msg = new APIQueryZoneMsg();
+        msg.addQueryCondition("name", QueryOp.IN, "Zone1", "Zone2");
+        APIQueryZoneReply reply = api.query(msg, APIQueryZoneReply.class);
+        Assert.assertEquals(2, reply.getInventories().size());
+
+        msg = new APIQueryZoneMsg();
+        msg.addQueryCondition("name", QueryOp.IN, "Zone1", "Zone2", "Zone3", "Zone4");
+        reply = api.query(msg, APIQueryZoneReply.class);
+        Assert.assertEquals(4, reply.getInventories().size());
+
+        // same shape as a field query
+        msg = new APIQueryZoneMsg();
+        msg.addField("name");
+        msg.addQueryCondition("name", QueryOp.EQ, "Zone3");
+        reply = api.query(msg, APIQueryZoneReply.class);
+        Assert.assertEquals(1, reply.getInventories().size());
+        Assert.assertEquals("Zone3", reply.getInventories().get(0).getName());
+        Assert.assertNull(reply.getInventories().get(0).getUuid());
+
+        // tag values are part of the JPQL, queries with different tags must not share a plan
+        ZoneInventory zone1 = deployer.zones.get("Zone1");
+        ZoneInventory zone2 = deployer.zones.get("Zone2");
+        api.createUserTag(zone1.getUuid(), "tag1", ZoneVO.class);
+        api.createUserTag(zone2.getUuid(), "tag2", ZoneVO.class);
+
+        msg = new APIQueryZoneMsg();
+        msg.addQueryCondition("__userTag__", QueryOp.EQ, "tag1");
+        reply = api.query(msg, APIQueryZoneReply.class);
+        Assert.assertEquals(1, reply.getInventories().size());
+        Assert.assertEquals(zone1.getUuid(), reply.getInventories().get(0).getUuid());
+
+        msg = new APIQueryZoneMsg();
+        msg.addQueryCondition("__userTag__", QueryOp.EQ, "tag2");
+        reply = api.query(msg, APIQueryZoneReply.class);
+        Assert.assertEquals(1, reply.getInventories().size());
+        Assert.assertEquals(zone2.getUuid(), reply.getInventories().get(0).getUuid());
+    }
+}
@@ -0,0 +1,172 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.BinaryMessageCodec;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.CloudBusGlobalProperty;
+import org.zstack.core.cloudbus.CloudBusIN;
+import org.zstack.core.cloudbus.JsonMessageCodec;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.AbstractService;
+import org.zstack.header.Service;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestCloudBusBinaryCodec {
+    CLogger logger = Utils.getLogger(TestCloudBusBinaryCodec.class);
+    ComponentLoader loader;
+    CloudBusIN bus;
+    CountDownLatch latch = new CountDownLatch(1);
+    boolean isSuccess = false;
+    Service serv;
+    // the codec headers the message and the reply came with from the wire
+    volatile String msgCodec;
+    volatile String replyCodec;
+    
+    public static class HelloWorldMsg extends NeedReplyMessage {
+        private String greet;
+
+        public String getGreet() {
+            return greet;
+        }
+
+        public void setGreet(String greet) {
+            this.greet = greet;
+        }
+        
+    }
+    public static class HelloWorldReply extends MessageReply {
+        private String greet;
+        private long size;
+        private double ratio;
+        private List<ZoneInventory> zones;
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public double getRatio() {
+            return ratio;
+        }
+
+        public void setRatio(double ratio) {
+            this.ratio = ratio;
+        }
+
+        public List<ZoneInventory> getZones() {
+            return zones;
+        }
+
+        public void setZones(List<ZoneInventory> zones) {
+            this.zones = zones;
+        }
+
+        public String getGreet() {
+            return greet;
+        }
+
+        public void setGreet(String greet) {
+            this.greet = greet;
+        }
+    }
+    
+    class FakeService extends AbstractService {
+        @Override
+        public boolean start() {
+            bus.registerService(this);
+            bus.activeService(this);
+            return true;
+        }
+
+        @Override
+        public boolean stop() {
+            bus.deActiveService(this);
+            bus.unregisterService(this);
+            return true;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.getClass() == HelloWorldMsg.class) {
+                msgCodec = String.valueOf(msg.getAMQPHeaders().get("codec"));
+                HelloWorldMsg hmsg = (HelloWorldMsg)msg;
+                HelloWorldReply r = new HelloWorldReply();
+                r.setGreet(hmsg.getGreet());
+                r.setSize(-1L << 40);
+                r.setRatio(0.75);
+                List<ZoneInventory> zones = new ArrayList<ZoneInventory>();
+                for (int i = 0; i < 100; i++) {
+                    ZoneInventory zone = new ZoneInventory();
+                    zone.setName("zone" + i);
+                    zones.add(zone);
+                }
+                r.setZones(zones);
+                bus.reply(msg, r);
+            }
+        }
+
+        @Override
+        public String getId() {
+            return this.getClass().getCanonicalName();
+        }
+        
+    }
+    
+    @Before
+    public void setUp() throws Exception {
+        // the codec is chosen when the bus is created, the system property covers
+        // a platform that has not loaded global properties yet
+        System.setProperty("CloudBus.wireCodec", BinaryMessageCodec.NAME);
+        CloudBusGlobalProperty.WIRE_CODEC = BinaryMessageCodec.NAME;
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBusIN.class);
+        serv = new FakeService();
+        serv.start();
+    }
+
+    @Test
+    public void test() throws InterruptedException, ClassNotFoundException {
+        HelloWorldMsg msg = new HelloWorldMsg();
+        msg.setGreet("Hello");
+        msg.setServiceId(FakeService.class.getCanonicalName());
+        msg.setTimeout(TimeUnit.SECONDS.toMillis(10));
+        bus.send(msg, new CloudBusCallBack() {
+            @Override
+            public void run(MessageReply reply) {
+                replyCodec = String.valueOf(reply.getAMQPHeaders().get("codec"));
+                if (reply instanceof HelloWorldReply) {
+                    HelloWorldReply hr = (HelloWorldReply)reply;
+                    if ("Hello".equals(hr.getGreet()) && hr.getSize() == -1L << 40 && hr.getRatio() == 0.75
+                            && hr.getZones().size() == 100 && "zone99".equals(hr.getZones().get(99).getName())) {
+                        isSuccess = true;
+                    }
+                }
+                latch.countDown();
+            }
+        });
+        latch.await(15, TimeUnit.SECONDS);
+        serv.stop();
+        System.clearProperty("CloudBus.wireCodec");
+        CloudBusGlobalProperty.WIRE_CODEC = JsonMessageCodec.NAME;
+        Assert.assertEquals(true, isSuccess);
+        Assert.assertEquals(BinaryMessageCodec.NAME, msgCodec);
+        Assert.assertEquals(BinaryMessageCodec.NAME, replyCodec);
+    }
+}
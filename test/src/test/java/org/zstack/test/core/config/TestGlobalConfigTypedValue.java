@@ -0,0 +1,72 @@
+package org.zstack.test.core.config;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.config.GlobalConfigException;
+import org.zstack.core.config.GlobalConfigFacade;
+import org.zstack.core.config.GlobalConfigInventory;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+/**
+ * 1. read a global config as Integer, Long and String in turn for several rounds
+ *
+ * confirm every read returns the value parsed to the type asked for, not the one cached for another type
+ *
+ * 2. update the global config by updateValue(), GlobalConfigFacade and API
+ *
+ * confirm reads of every type return the new value
+ */
+public class TestGlobalConfigTypedValue {
+    GlobalConfigFacade gcf;
+    ComponentLoader loader;
+    Api api;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.addXml("PortalForUnitTest.xml").addXml("AccountManager.xml").build();
+        gcf = loader.getComponent(GlobalConfigFacade.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    private void assertValue(int expected) {
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(expected, (int) GlobalConfigForTest.TEST.value(Integer.class));
+            Assert.assertEquals(expected, (long) GlobalConfigForTest.TEST.value(Long.class));
+            Assert.assertEquals(expected, (int) GlobalConfigForTest.TEST.value(Integer.class));
+            Assert.assertEquals(String.valueOf(expected), GlobalConfigForTest.TEST.value(String.class));
+        }
+    }
+
+    @Test
+    public void test() throws ApiSenderException, GlobalConfigException {
+        assertValue(1000);
+
+        GlobalConfigForTest.TEST.updateValue(10);
+        assertValue(10);
+
+        gcf.updateConfig(GlobalConfigForTest.CATEGORY, "Test", String.valueOf(20));
+        assertValue(20);
+
+        GlobalConfigInventory inv = new GlobalConfigInventory();
+        inv.setName("Test");
+        inv.setCategory(GlobalConfigForTest.CATEGORY);
+        inv.setValue(String.valueOf(30));
+        api.updateGlobalConfig(inv);
+        assertValue(30);
+
+        // the last type read before an update is parsed by the update, the others are not
+        GlobalConfigForTest.TEST.value(Long.class);
+        GlobalConfigForTest.TEST.updateValue(40);
+        Assert.assertEquals(40L, (long) GlobalConfigForTest.TEST.value(Long.class));
+        Assert.assertEquals(40, (int) GlobalConfigForTest.TEST.value(Integer.class));
+        assertValue(40);
+    }
+}
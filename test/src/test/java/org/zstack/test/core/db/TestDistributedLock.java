@@ -0,0 +1,107 @@
+package org.zstack.test.core.db;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DistributedLockFacade;
+import org.zstack.core.db.DistributedLockStatistic;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 1. lock the lock, then try it again in the same thread
+ * 2. try the lock in another thread
+ * 3. unlock the lock in another thread
+ * 4. lock a long named lock from 10 threads concurrently
+ *
+ * confirm the lock is not reentrant, times out for other threads, can be unlocked by another thread,
+ * serializes the threads and the statistics are recorded
+ */
+public class TestDistributedLock {
+    ComponentLoader loader;
+    DistributedLockFacade lockf;
+    String lockName = "TestDistributedLock.lock";
+    int count = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        lockf = loader.getComponent(DistributedLockFacade.class);
+    }
+
+    private boolean tryLockInAnotherThread(final String name) throws InterruptedException {
+        final AtomicBoolean ret = new AtomicBoolean(false);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ret.set(lockf.tryLock(name, 1));
+                if (ret.get()) {
+                    lockf.unlock(name);
+                }
+            }
+        });
+        t.start();
+        t.join();
+        return ret.get();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        lockf.lock(lockName, 10);
+        Assert.assertFalse(lockf.tryLock(lockName, 1));
+        Assert.assertFalse(tryLockInAnotherThread(lockName));
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                lockf.unlock(lockName);
+            }
+        });
+        t.start();
+        t.join();
+        Assert.assertTrue(tryLockInAnotherThread(lockName));
+
+        DistributedLockStatistic s = lockf.getStatistic(lockName);
+        Assert.assertEquals(2, s.getAcquiredTimes());
+        Assert.assertEquals(2, s.getTimeoutTimes());
+
+        final String longName = "TestDistributedLock.a-lock-whose-name-is-longer-than-mysql-named-lock-allows";
+        final int threadNum = 10;
+        final int num = 100;
+        final CountDownLatch latch = new CountDownLatch(threadNum);
+        for (int i = 0; i < threadNum; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < num; j++) {
+                            lockf.lock(longName, 10);
+                            try {
+                                int c = count;
+                                Thread.yield();
+                                count = c + 1;
+                            } finally {
+                                lockf.unlock(longName);
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        Assert.assertTrue(latch.await(120, TimeUnit.SECONDS));
+        Assert.assertEquals(threadNum * num, count);
+        s = lockf.getStatistic(longName);
+        Assert.assertEquals(threadNum * num, s.getAcquiredTimes());
+        Assert.assertTrue(s.getDatabaseAcquiredTimes() >= 1);
+        Assert.assertTrue(s.getDatabaseAcquiredTimes() <= s.getAcquiredTimes());
+    }
+}
@@ -0,0 +1,75 @@
+package org.zstack.test.core.db;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.DatabaseGlobalProperty;
+import org.zstack.core.db.SequenceBlockVO;
+import org.zstack.header.vm.VmInstanceSequenceNumberVO;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. hand out some ids from the sequence table the old way, then drop the sequence's block record
+ * 2. generate sequence numbers from 10 threads concurrently
+ *
+ * confirm the numbers continue from the existing ids, are unique
+ * and the reserved blocks are recorded in SequenceBlockVO
+ */
+public class TestSequenceNumber {
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        long max = 0;
+        for (int i = 0; i < 5; i++) {
+            max = dbf.persistAndRefresh(new VmInstanceSequenceNumberVO()).getId();
+        }
+        dbf.removeByPrimaryKey(VmInstanceSequenceNumberVO.class.getSimpleName(), SequenceBlockVO.class);
+
+        final int threadNum = 10;
+        final int num = 100;
+        final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+        final CountDownLatch latch = new CountDownLatch(threadNum);
+        for (int i = 0; i < threadNum; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < num; j++) {
+                            ids.add(dbf.generateSequenceNumber(VmInstanceSequenceNumberVO.class));
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        Assert.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        Assert.assertEquals(threadNum * num, ids.size());
+        Assert.assertEquals(max + 1, (long) Collections.min(ids));
+
+        SequenceBlockVO block = dbf.findByUuid(VmInstanceSequenceNumberVO.class.getSimpleName(), SequenceBlockVO.class);
+        Assert.assertNotNull(block);
+        Assert.assertTrue(block.getNextValue() > Collections.max(ids));
+        Assert.assertEquals(0, (block.getNextValue() - max - 1) % DatabaseGlobalProperty.sequenceBlockSize);
+    }
+}
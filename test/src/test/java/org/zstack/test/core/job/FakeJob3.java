@@ -0,0 +1,51 @@
+package org.zstack.test.core.job;
+
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.core.job.Job;
+import org.zstack.core.job.JobContext;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
+public class FakeJob3 implements Job {
+    CLogger logger = Utils.getLogger(FakeJob3.class);
+
+    @JobContext
+    private String queueName;
+    @Autowired
+    private FakeJobConfig fl;
+
+    public FakeJob3(String queueName) {
+        this.queueName = queueName;
+    }
+
+    public FakeJob3() {
+    }
+
+    @Override
+    public void run(ReturnValueCompletion<Object> complete) {
+        AtomicInteger inQueue = fl.getRunningCounter(queueName);
+        try {
+            if (inQueue.incrementAndGet() > 1) {
+                fl.success = false;
+            }
+            fl.recordRunning(fl.running.incrementAndGet());
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(200);
+            } catch (InterruptedException e) {
+                logger.warn(e.getMessage(), e);
+            }
+        } finally {
+            fl.running.decrementAndGet();
+            inQueue.decrementAndGet();
+            complete.success(null);
+        }
+    }
+}
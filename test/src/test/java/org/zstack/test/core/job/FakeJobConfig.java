@@ -2,6 +2,9 @@ package org.zstack.test.core.job;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class FakeJobConfig {
     List<Long> indexs = new ArrayList<Long>();
@@ -9,4 +12,17 @@ public class FakeJobConfig {
     boolean success;
     volatile int jdbRepeatNum;
     volatile boolean condition = false;
+    ConcurrentMap<String, AtomicInteger> runningInQueue = new ConcurrentHashMap<String, AtomicInteger>();
+    AtomicInteger running = new AtomicInteger(0);
+    volatile int maxRunning;
+
+    AtomicInteger getRunningCounter(String queueName) {
+        AtomicInteger c = new AtomicInteger(0);
+        AtomicInteger old = runningInQueue.putIfAbsent(queueName, c);
+        return old == null ? c : old;
+    }
+
+    synchronized void recordRunning(int num) {
+        maxRunning = Math.max(maxRunning, num);
+    }
 }
@@ -0,0 +1,81 @@
+package org.zstack.test.core.job;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.job.*;
+import org.zstack.header.core.Completion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.test.Api;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. submit jobs to two queues
+ *
+ * confirm jobs in the same queue run one by one
+ * confirm the two queues run in parallel
+ * confirm all jobs are recorded as completed and the queues are released
+ */
+public class TestJob3 {
+    ComponentLoader loader;
+    JobQueueFacade jobf;
+    DatabaseFacade dbf;
+    FakeJobConfig fl;
+    int num = 10;
+    volatile boolean failed;
+    CountDownLatch latch = new CountDownLatch(num * 2);
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.addXml("JobForUnitTest.xml").addXml("PortalForUnitTest.xml").addXml("AccountManager.xml").build();
+        jobf = loader.getComponent(JobQueueFacade.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        fl = loader.getComponent(FakeJobConfig.class);
+        new Api().startServer();
+    }
+
+    private void startJob(String queueName) {
+        jobf.execute(queueName, "TestJob3", new FakeJob3(queueName), new Completion() {
+            @Override
+            public void success() {
+                latch.countDown();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                failed = true;
+                latch.countDown();
+            }
+        });
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        fl.success = true;
+        for (int i=0; i<num; i++) {
+            startJob("queue1");
+            startJob("queue2");
+        }
+
+        Assert.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        Assert.assertFalse(failed);
+        Assert.assertTrue(fl.success);
+        Assert.assertEquals(2, fl.maxRunning);
+
+        // the queue is released by the runner after the last job completes
+        TimeUnit.SECONDS.sleep(2);
+        SimpleQuery<JobQueueEntryVO> q = dbf.createQuery(JobQueueEntryVO.class);
+        q.add(JobQueueEntryVO_.state, SimpleQuery.Op.EQ, JobState.Completed);
+        Assert.assertEquals(num * 2, q.count());
+        Assert.assertEquals(0, dbf.count(JobQueueVO.class));
+    }
+}
@@ -0,0 +1,108 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.ChainTask;
+import org.zstack.core.thread.DispatchQueueStatistic;
+import org.zstack.core.thread.SyncTaskChain;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeMXBean;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * chain tasks of many signatures submitted concurrently still run in order per signature
+ */
+public class TestChainTaskMultiSignature {
+    CLogger logger = Utils.getLogger(TestChainTaskMultiSignature.class);
+    ComponentLoader loader;
+    ThreadFacade thdf;
+    int signatureNum = 200;
+    int taskNum = 500;
+    List<List<Integer>> res = new ArrayList<List<Integer>>(signatureNum);
+    CountDownLatch latch = new CountDownLatch(signatureNum * taskNum);
+
+    class Tester extends ChainTask {
+        int signature;
+        int index;
+
+        Tester(int signature, int index) {
+            this.signature = signature;
+            this.index = index;
+        }
+
+        @Override
+        public String getName() {
+            return "Test";
+        }
+
+        @Override
+        public String getSyncSignature() {
+            return "Test-" + signature;
+        }
+
+        @Override
+        public void run(SyncTaskChain chain) {
+            res.get(signature).add(index);
+            latch.countDown();
+            chain.next();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+        for (int i=0; i<signatureNum; i++) {
+            res.add(new ArrayList<Integer>(taskNum));
+        }
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        List<Thread> submitters = new ArrayList<Thread>();
+        for (int i=0; i<signatureNum; i++) {
+            final int signature = i;
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j=0; j<taskNum; j++) {
+                        thdf.chainSubmit(new Tester(signature, j));
+                    }
+                }
+            });
+            submitters.add(t);
+            t.start();
+        }
+
+        for (Thread t : submitters) {
+            t.join();
+        }
+
+        Assert.assertTrue(latch.await(2, TimeUnit.MINUTES));
+        for (List<Integer> indexes : res) {
+            Assert.assertEquals(taskNum, indexes.size());
+            int si = -1;
+            for (Integer index : indexes) {
+                Assert.assertTrue(index > si);
+                si = index;
+            }
+        }
+
+        TimeUnit.SECONDS.sleep(1);
+        DispatchQueueStatistic statistic = ((ThreadFacadeMXBean) thdf).getDispatchQueueStatistic();
+        logger.debug(String.format("dispatch queue lock acquisitions: %s, contentions: %s",
+                statistic.getLockAcquisitionNum(), statistic.getLockContentionNum()));
+        Assert.assertEquals(0, statistic.getChainQueueNum());
+        Assert.assertTrue(statistic.getLockAcquisitionNum() >= signatureNum * taskNum);
+    }
+}
@@ -0,0 +1,76 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.core.thread.ThreadFacadeMXBean;
+import org.zstack.core.thread.TimeoutWheelStatistic;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * cancelled timeout tasks never run, the others run no earlier than their delay
+ */
+public class TestThreadFacadeTimeoutTask {
+    CLogger logger = Utils.getLogger(TestThreadFacadeTimeoutTask.class);
+    ComponentLoader loader;
+    ThreadFacade thdf;
+    int taskNum = 10000;
+    int keepNum = 10;
+    AtomicInteger fired = new AtomicInteger(0);
+    CountDownLatch latch = new CountDownLatch(keepNum);
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final List<Long> elapsed = new ArrayList<Long>();
+        List<TimeoutTaskReceipt> receipts = new ArrayList<TimeoutTaskReceipt>();
+        for (int i=0; i<taskNum; i++) {
+            receipts.add(thdf.submitTimeoutTask(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (elapsed) {
+                        elapsed.add(System.currentTimeMillis() - start);
+                    }
+                    fired.incrementAndGet();
+                    latch.countDown();
+                }
+            }, TimeUnit.MILLISECONDS, 500));
+        }
+
+        for (int i=keepNum; i<taskNum; i++) {
+            Assert.assertTrue(receipts.get(i).cancel());
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertEquals(keepNum, fired.get());
+        for (Long e : elapsed) {
+            Assert.assertTrue(e >= 500);
+        }
+
+        // a fired task cannot be cancelled any more
+        Assert.assertFalse(receipts.get(0).cancel());
+
+        TimeoutWheelStatistic statistic = ((ThreadFacadeMXBean) thdf).getTimeoutWheelStatistic();
+        Assert.assertTrue(statistic.getExpiredTimeoutNum() >= keepNum);
+        Assert.assertTrue(statistic.getCancelledTimeoutNum() >= taskNum - keepNum);
+    }
+}
@@ -0,0 +1,98 @@
+package org.zstack.test.identity;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.configuration.APICreateDiskOfferingMsg;
+import org.zstack.header.configuration.ConfigurationConstant;
+import org.zstack.header.configuration.DiskOfferingInventory;
+import org.zstack.header.identity.AccountConstant.StatementEffect;
+import org.zstack.header.identity.IdentityErrors;
+import org.zstack.header.identity.PolicyInventory.Statement;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+/**
+ * 1. create a user with a policy allowing creating disk offerings
+ *
+ * confirm the user can create disk offerings, twice, so the second decision comes from the policy cache
+ *
+ * 2. detach the policy from the user
+ *
+ * confirm the user is denied
+ *
+ * 3. add the user to a group with the policy attached
+ *
+ * confirm the user can create disk offerings
+ *
+ * 4. remove the user from the group
+ *
+ * confirm the user is denied
+ */
+public class TestPolicyCacheInvalidation {
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        /* This loads spring application context */
+        loader = con.addXml("PortalForUnitTest.xml")
+                .addXml("ConfigurationManager.xml").addXml("HostAllocatorManager.xml").addXml("AccountManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    private DiskOfferingInventory createDiskOffering(SessionInventory session) throws ApiSenderException {
+        DiskOfferingInventory d = new DiskOfferingInventory();
+        d.setName("test");
+        d.setDiskSize(1000);
+        return api.addDiskOfferingByFullConfig(d, session);
+    }
+
+    private boolean isDenied(SessionInventory session) {
+        try {
+            createDiskOffering(session);
+            return false;
+        } catch (ApiSenderException e) {
+            return IdentityErrors.PERMISSION_DENIED.toString().equals(e.getError().getCode());
+        }
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        IdentityCreator identityCreator = new IdentityCreator(api);
+        identityCreator.createAccount("test", "password");
+        identityCreator.createUser("user1", "password");
+        identityCreator.createGroup("group1");
+
+        Statement s = new Statement();
+        s.setName("allow");
+        s.setEffect(StatementEffect.Allow);
+        s.addAction(String.format("%s:%s", ConfigurationConstant.ACTION_CATEGORY, APICreateDiskOfferingMsg.class.getSimpleName()));
+        identityCreator.createPolicy("allow", s);
+        identityCreator.attachPolicyToUser("user1", "allow");
+
+        SessionInventory session = identityCreator.userLogin("user1", "password");
+        createDiskOffering(session);
+        createDiskOffering(session);
+
+        identityCreator.detachPolicyFromUser("user1", "allow");
+        Assert.assertTrue(isDenied(session));
+
+        identityCreator.attachPolicyToGroup("group1", "allow");
+        identityCreator.addUserToGroup("user1", "group1");
+        createDiskOffering(session);
+
+        identityCreator.removeUserFromGroup("user1", "group1");
+        Assert.assertTrue(isDenied(session));
+    }
+}
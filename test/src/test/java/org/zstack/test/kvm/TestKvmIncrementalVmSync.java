@@ -0,0 +1,99 @@
+package org.zstack.test.kvm;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.host.HostGlobalConfig;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.header.vm.VmInstanceVO;
+import org.zstack.kvm.KVMAgentCommands.VmSyncCmd;
+import org.zstack.kvm.KVMConstant.KvmVmState;
+import org.zstack.simulator.kvm.KVMSimulatorConfig;
+import org.zstack.test.Api;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. create a vm
+ * 2. let the agent support incremental vm sync
+ *
+ * confirm vm syncs on host ping carry the last synced generation
+ *
+ * 3. make the vm disappear from the host
+ *
+ * confirm the vm's state changed to stopped
+ *
+ * 4. make the vm running on the host again
+ *
+ * confirm the vm's state changed to running
+ */
+public class TestKvmIncrementalVmSync {
+    CLogger logger = Utils.getLogger(TestKvmIncrementalVmSync.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    SessionInventory session;
+    KVMSimulatorConfig config;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/kvm/TestCreateVmOnKvm.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(KVMSimulatorConfig.class);
+        session = api.loginAsAdmin();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        config.vmSyncIncremental = true;
+        config.vmSyncCmds.clear();
+        HostGlobalConfig.PING_HOST_INTERVAL.updateValue(1);
+        TimeUnit.SECONDS.sleep(5);
+
+        List<VmSyncCmd> cmds = new ArrayList<VmSyncCmd>(config.vmSyncCmds);
+        Assert.assertTrue(cmds.size() > 1);
+        boolean incremental = false;
+        for (VmSyncCmd cmd : cmds) {
+            if (cmd.getLastGeneration() != null) {
+                incremental = true;
+                break;
+            }
+        }
+        Assert.assertTrue(incremental);
+
+        VmInstanceVO vmvo = dbf.findByUuid(vm.getUuid(), VmInstanceVO.class);
+        Assert.assertEquals(VmInstanceState.Running, vmvo.getState());
+
+        config.vms.remove(vm.getUuid());
+        TimeUnit.SECONDS.sleep(5);
+        vmvo = dbf.findByUuid(vm.getUuid(), VmInstanceVO.class);
+        Assert.assertEquals(VmInstanceState.Stopped, vmvo.getState());
+
+        config.vms.put(vm.getUuid(), KvmVmState.Running);
+        TimeUnit.SECONDS.sleep(5);
+        vmvo = dbf.findByUuid(vm.getUuid(), VmInstanceVO.class);
+        Assert.assertEquals(VmInstanceState.Running, vmvo.getState());
+    }
+}
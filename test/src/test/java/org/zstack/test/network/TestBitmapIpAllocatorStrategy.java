@@ -0,0 +1,99 @@
+package org.zstack.test.network;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.network.l2.L2NetworkInventory;
+import org.zstack.header.network.l3.*;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.network.l3.L3NetworkManager;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. allocate ips with the bitmap strategy
+ * 2. reserve an ip behind the allocator's back, as another management node would
+ *
+ * confirm the reserved ip is skipped, the range runs out, and a returned ip is reused
+ */
+public class TestBitmapIpAllocatorStrategy {
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    CloudBus bus;
+    L3NetworkManager l3Mgr;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        /* This loads spring application context */
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ZoneManager.xml").addXml("NetworkManager.xml").addXml("AccountManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        bus = loader.getComponent(CloudBus.class);
+        l3Mgr = loader.getComponent(L3NetworkManager.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        api.stopServer();
+    }
+
+    private AllocateIpReply allocate(String l3Uuid) {
+        AllocateIpMsg msg = new AllocateIpMsg();
+        msg.setL3NetworkUuid(l3Uuid);
+        msg.setServiceId(bus.makeLocalServiceId(L3NetworkConstant.SERVICE_ID));
+        msg.setAllocateStrategy(L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY);
+        return (AllocateIpReply) bus.call(msg);
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        ZoneInventory zone = api.createZones(1).get(0);
+        L2NetworkInventory linv = api.createNoVlanL2Network(zone.getUuid(), "eth0");
+        L3NetworkInventory l3inv = api.createL3BasicNetwork(linv.getUuid());
+        IpRangeInventory ipInv = api.addIpRange(l3inv.getUuid(), "10.223.110.10", "10.223.110.20", "10.223.110.1", "255.255.255.0");
+
+        AllocateIpReply reply = allocate(l3inv.getUuid());
+        Assert.assertEquals("10.223.110.10", reply.getIpInventory().getIp());
+
+        l3Mgr.reserveIp(ipInv, "10.223.110.11");
+
+        reply = allocate(l3inv.getUuid());
+        Assert.assertEquals("10.223.110.12", reply.getIpInventory().getIp());
+
+        UsedIpInventory toReturn = null;
+        for (int i=13; i<=20; i++) {
+            reply = allocate(l3inv.getUuid());
+            Assert.assertTrue(reply.isSuccess());
+            Assert.assertEquals(String.format("10.223.110.%s", i), reply.getIpInventory().getIp());
+            if (i == 15) {
+                toReturn = reply.getIpInventory();
+            }
+        }
+
+        reply = allocate(l3inv.getUuid());
+        Assert.assertFalse(reply.isSuccess());
+
+        ReturnIpMsg rmsg = new ReturnIpMsg();
+        rmsg.setL3NetworkUuid(l3inv.getUuid());
+        rmsg.setUsedIpUuid(toReturn.getUuid());
+        rmsg.setServiceId(bus.makeLocalServiceId(L3NetworkConstant.SERVICE_ID));
+        bus.send(rmsg);
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertNull(dbf.findByUuid(toReturn.getUuid(), UsedIpVO.class));
+
+        reply = allocate(l3inv.getUuid());
+        Assert.assertEquals("10.223.110.15", reply.getIpInventory().getIp());
+    }
+}
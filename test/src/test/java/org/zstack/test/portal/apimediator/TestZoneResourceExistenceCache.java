@@ -0,0 +1,62 @@
+package org.zstack.test.portal.apimediator;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.header.zone.ZoneStateEvent;
+import org.zstack.portal.apimediator.ApiMediatorGlobalProperty;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+/**
+ * 1. enable the resource existence cache of APIParam.resourceType validation
+ * 2. create a zone and change its state, which caches the zone
+ * 3. delete the zone
+ *
+ * confirm changing state of the deleted zone fails with RESOURCE_NOT_FOUND
+ */
+public class TestZoneResourceExistenceCache {
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        /* This loads spring application context */
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ZoneManager.xml").addXml("AccountManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        long ttl = ApiMediatorGlobalProperty.RESOURCE_EXISTENCE_CACHE_TTL;
+        ApiMediatorGlobalProperty.RESOURCE_EXISTENCE_CACHE_TTL = 60;
+        try {
+            ZoneInventory zone = api.createZones(1).get(0);
+            api.changeZoneState(zone.getUuid(), ZoneStateEvent.disable);
+            api.changeZoneState(zone.getUuid(), ZoneStateEvent.enable);
+            api.deleteZone(zone.getUuid());
+
+            boolean s = false;
+            try {
+                api.changeZoneState(zone.getUuid(), ZoneStateEvent.disable);
+            } catch (ApiSenderException e) {
+                s = SysErrors.RESOURCE_NOT_FOUND.toString().equals(e.getError().getCode());
+            }
+            Assert.assertTrue(s);
+        } finally {
+            ApiMediatorGlobalProperty.RESOURCE_EXISTENCE_CACHE_TTL = ttl;
+            api.stopServer();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.zstack.test.search;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.Assert;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.search.InsertVO;
+import org.zstack.header.search.InsertVO_;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.search.InventoryIndexManagerImpl;
+import org.zstack.search.SearchGlobalProperty;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.path.PathUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/*
+* 1. elasticsearch fails bulk requests and the spill folder is full
+* 2. create a zone
+*
+* confirm the change of the zone is kept in the trigger table
+*
+* 3. elasticsearch recovers
+*
+* confirm the zone is indexed and the change is removed from the trigger table
+*
+* elasticsearch is faked by an http server on its default port
+*/
+public class TestSearchIndexRetainChanges {
+    CLogger logger = Utils.getLogger(TestSearchIndexRetainChanges.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    HttpServer server;
+    volatile boolean failBulk;
+    List<String> bulks = new CopyOnWriteArrayList<String>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(9200), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int code = 200;
+                if (exchange.getRequestURI().getPath().endsWith("_bulk")) {
+                    String body = IOUtils.toString(exchange.getRequestBody());
+                    if (failBulk) {
+                        code = 503;
+                    } else {
+                        bulks.add(body);
+                    }
+                }
+
+                byte[] rsp = "{}".getBytes();
+                exchange.sendResponseHeaders(code, rsp.length);
+                exchange.getResponseBody().write(rsp);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        FileUtils.deleteQuietly(new File(PathUtil.getFolderUnderZStackHomeFolder(SearchGlobalProperty.INDEX_SPILL_FOLDER)));
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/vm/TestSearchZone.xml");
+        deployer.addSpringConfig("SearchManager.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private long countInsertVO(String uuid) {
+        SimpleQuery<InsertVO> q = dbf.createQuery(InsertVO.class);
+        q.add(InsertVO_.uuid, Op.EQ, uuid);
+        return q.count();
+    }
+
+    private boolean isIndexed(String uuid) {
+        for (String b : bulks) {
+            if (b.contains(uuid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        long spillMaxSize = SearchGlobalProperty.INDEX_SPILL_MAX_SIZE;
+        InventoryIndexManagerImpl indexMgr = loader.getComponent(InventoryIndexManagerImpl.class);
+        try {
+            SearchGlobalProperty.INDEX_SPILL_MAX_SIZE = 0;
+            failBulk = true;
+
+            ZoneInventory zone = api.createZones(1).get(0);
+            TimeUnit.SECONDS.sleep(3);
+            Assert.assertFalse(isIndexed(zone.getUuid()));
+            Assert.assertTrue(countInsertVO(zone.getUuid()) > 0);
+            Assert.assertTrue(indexMgr.getIndexPipelineStatistic().getRetainedBulkNum() > 0);
+
+            failBulk = false;
+            TimeUnit.SECONDS.sleep(3);
+            Assert.assertTrue(isIndexed(zone.getUuid()));
+            Assert.assertEquals(0, countInsertVO(zone.getUuid()));
+        } finally {
+            SearchGlobalProperty.INDEX_SPILL_MAX_SIZE = spillMaxSize;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.zstack.test.securitygroup;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmNicInventory;
+import org.zstack.network.securitygroup.APIAddSecurityGroupRuleMsg.SecurityGroupRuleAO;
+import org.zstack.network.securitygroup.SecurityGroupGlobalConfig;
+import org.zstack.network.securitygroup.SecurityGroupInventory;
+import org.zstack.network.securitygroup.SecurityGroupRuleProtocolType;
+import org.zstack.network.securitygroup.SecurityGroupRuleType;
+import org.zstack.simulator.kvm.KVMSimulatorConfig;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.CollectionUtils;
+import org.zstack.utils.function.Function;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. enable securityGroup.rule.skipUnchanged
+ * 2. add the vm nic to the security group test1
+ * 3. create a security group without rules and add the vm nic to it
+ *
+ * confirm no rules are shipped to the host as the rules of the nic don't change
+ *
+ * 4. add a rule to the new security group
+ *
+ * confirm rules of the nic are shipped to the host
+ */
+public class TestSecurityGroupSkipUnchangedRules {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    SessionInventory session;
+    KVMSimulatorConfig config;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/kvm/TestKvmSecurityGroupRefreshOnReconnect.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(KVMSimulatorConfig.class);
+        session = api.loginAsAdmin();
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        SecurityGroupGlobalConfig.SKIP_UNCHANGED_RULES.updateValue(true);
+
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        final L3NetworkInventory l3 = deployer.l3Networks.get("TestL3Network1");
+        SecurityGroupInventory sg1 = deployer.securityGroups.get("test1");
+
+        VmNicInventory nic = CollectionUtils.find(vm.getVmNics(), new Function<VmNicInventory, VmNicInventory>() {
+            @Override
+            public VmNicInventory call(VmNicInventory arg) {
+                return arg.getL3NetworkUuid().equals(l3.getUuid()) ? arg : null;
+            }
+        });
+
+        api.addVmNicToSecurityGroup(sg1.getUuid(), list(nic.getUuid()));
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertTrue(config.securityGroups.containsKey(nic.getInternalName()));
+
+        config.securityGroups.clear();
+        SecurityGroupInventory sg2 = api.createSecurityGroup("test2");
+        api.attachSecurityGroupToL3Network(sg2.getUuid(), l3.getUuid());
+        api.addVmNicToSecurityGroup(sg2.getUuid(), list(nic.getUuid()));
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertTrue(config.securityGroups.isEmpty());
+
+        SecurityGroupRuleAO r = new SecurityGroupRuleAO();
+        r.setStartPort(200);
+        r.setEndPort(300);
+        r.setAllowedCidr("192.168.1.0/24");
+        r.setProtocol(SecurityGroupRuleProtocolType.TCP.toString());
+        r.setType(SecurityGroupRuleType.Ingress.toString());
+        api.addSecurityGroupRuleByFullConfig(sg2.getUuid(), list(r));
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertTrue(config.securityGroups.containsKey(nic.getInternalName()));
+        Assert.assertEquals(2, config.securityGroups.get(nic.getInternalName()).getRules().size());
+    }
+}
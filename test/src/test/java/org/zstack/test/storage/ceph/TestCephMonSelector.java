@@ -0,0 +1,212 @@
+package org.zstack.test.storage.ceph;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.storage.primary.PrimaryStorageInventory;
+import org.zstack.storage.ceph.CephGlobalConfig;
+import org.zstack.storage.ceph.CephMonSelector;
+import org.zstack.storage.ceph.primary.CephPrimaryStorageMonBase;
+import org.zstack.storage.ceph.primary.CephPrimaryStorageMonVO;
+import org.zstack.storage.ceph.primary.CephPrimaryStorageVO;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. use ceph primary storage with two mons
+ * 2. make mon1 reply faster than mon2 on a path
+ *
+ * confirm mon1 is preferred on the path, but not on a path mon1 replies slower on
+ *
+ * 3. make mon1 fail 3 times in a row
+ *
+ * confirm mon2 is preferred
+ *
+ * 4. make mon1 succeed
+ *
+ * confirm mon1 is preferred again
+ *
+ * 5. make mon1 fail a call
+ *
+ * confirm the call fails over to mon2
+ *
+ * 6. make mon1 hang on a call that can be hedged
+ *
+ * confirm mon2 is called after the hedge delay and its reply wins
+ *
+ * 7. make both mons fail a call
+ *
+ * confirm the call fails after each mon is called once
+ */
+public class TestCephMonSelector {
+    Deployer deployer;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    ErrorFacade errf;
+    ThreadFacade thdf;
+    CephMonSelector selector;
+
+    // mon uuid -> how the fake mon replies
+    Map<String, MonBehavior> behaviors = new ConcurrentHashMap<String, MonBehavior>();
+
+    class MonBehavior {
+        long delay;
+        boolean fail;
+        AtomicInteger calls = new AtomicInteger();
+    }
+
+    class CallResult {
+        String ret;
+        ErrorCode error;
+        long elapsed;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/ceph/TestCeph1.xml", con);
+        deployer.addSpringConfig("ceph.xml");
+        deployer.addSpringConfig("cephSimulator.xml");
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        errf = loader.getComponent(ErrorFacade.class);
+        thdf = loader.getComponent(ThreadFacade.class);
+        selector = loader.getComponent(CephMonSelector.class);
+    }
+
+    private MonBehavior behave(String monUuid, long delay, boolean fail) {
+        MonBehavior b = new MonBehavior();
+        b.delay = delay;
+        b.fail = fail;
+        behaviors.put(monUuid, b);
+        return b;
+    }
+
+    private CallResult call(List<CephPrimaryStorageMonBase> mons, String path, boolean hedge) throws InterruptedException {
+        final CallResult res = new CallResult();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.currentTimeMillis();
+        selector.call(mons, path, new Object(), String.class, hedge, new ReturnValueCompletion<String>() {
+            @Override
+            public void success(String ret) {
+                res.ret = ret;
+                res.elapsed = System.currentTimeMillis() - start;
+                latch.countDown();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                res.error = errorCode;
+                res.elapsed = System.currentTimeMillis() - start;
+                latch.countDown();
+            }
+        });
+
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        return res;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        PrimaryStorageInventory ps = deployer.primaryStorages.get("ceph-pri");
+        CephPrimaryStorageVO psvo = dbf.findByUuid(ps.getUuid(), CephPrimaryStorageVO.class);
+        List<CephPrimaryStorageMonBase> mons = new ArrayList<CephPrimaryStorageMonBase>();
+        for (CephPrimaryStorageMonVO vo : psvo.getMons()) {
+            // a fake mon replying its own uuid as told by behaviors
+            mons.add(new CephPrimaryStorageMonBase(vo) {
+                @Override
+                public <T> void httpCall(String path, Object cmd, final Class<T> retClass, final ReturnValueCompletion<T> completion) {
+                    final MonBehavior b = behaviors.get(getSelf().getUuid());
+                    b.calls.incrementAndGet();
+                    thdf.submitTimeoutTask(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (b.fail) {
+                                completion.fail(errf.stringToOperationError(String.format("mon[uuid:%s] fails on purpose", getSelf().getUuid())));
+                            } else {
+                                completion.success(retClass.cast(getSelf().getUuid()));
+                            }
+                        }
+                    }, TimeUnit.MILLISECONDS, b.delay);
+                }
+            });
+        }
+        Assert.assertEquals(2, mons.size());
+
+        String mon1 = mons.get(0).getSelf().getUuid();
+        String mon2 = mons.get(1).getSelf().getUuid();
+
+        String path = "/test/read";
+        String longPath = "/test/download";
+        for (int i = 0; i < 5; i++) {
+            selector.record(mon1, path, 10, true);
+            selector.record(mon2, path, 1000, true);
+            selector.record(mon1, longPath, 10000, true);
+            selector.record(mon2, longPath, 5000, true);
+        }
+        Assert.assertEquals(mon1, selector.select(mons, path).get(0).getSelf().getUuid());
+        // long calls on a path don't spoil the latency of the mon on other paths
+        Assert.assertEquals(mon2, selector.select(mons, longPath).get(0).getSelf().getUuid());
+
+        for (int i = 0; i < 3; i++) {
+            selector.record(mon1, path, 10, false);
+        }
+        Assert.assertEquals(mon2, selector.select(mons, path).get(0).getSelf().getUuid());
+
+        for (int i = 0; i < 10; i++) {
+            selector.record(mon1, path, 10, true);
+        }
+        Assert.assertEquals(mon1, selector.select(mons, path).get(0).getSelf().getUuid());
+
+        // failover
+        MonBehavior b1 = behave(mon1, 0, true);
+        MonBehavior b2 = behave(mon2, 0, false);
+        CallResult res = call(mons, path, false);
+        Assert.assertNull(res.error);
+        Assert.assertEquals(mon2, res.ret);
+        Assert.assertEquals(1, b1.calls.get());
+        Assert.assertEquals(1, b2.calls.get());
+
+        // hedge
+        for (int i = 0; i < 10; i++) {
+            selector.record(mon1, path, 10, true);
+        }
+        Assert.assertEquals(mon1, selector.select(mons, path).get(0).getSelf().getUuid());
+        CephGlobalConfig.MON_HEDGE_DELAY.updateValue(100);
+        b1 = behave(mon1, 5000, false);
+        b2 = behave(mon2, 0, false);
+        res = call(mons, path, true);
+        Assert.assertNull(res.error);
+        Assert.assertEquals(mon2, res.ret);
+        Assert.assertTrue(String.format("the hedged call took %sms", res.elapsed), res.elapsed < 3000);
+        Assert.assertEquals(1, b1.calls.get());
+        Assert.assertEquals(1, b2.calls.get());
+
+        // all mons failed
+        b1 = behave(mon1, 0, true);
+        b2 = behave(mon2, 0, true);
+        res = call(mons, path, false);
+        Assert.assertNull(res.ret);
+        Assert.assertNotNull(res.error);
+        Assert.assertEquals(1, b1.calls.get());
+        Assert.assertEquals(1, b2.calls.get());
+    }
+}
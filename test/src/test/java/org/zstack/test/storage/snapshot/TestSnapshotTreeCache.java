@@ -0,0 +1,113 @@
+package org.zstack.test.storage.snapshot;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.storage.snapshot.*;
+import org.zstack.header.storage.snapshot.VolumeSnapshotTree.SnapshotLeaf;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.storage.snapshot.VolumeSnapshotTreeCache;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.function.Function;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.List;
+
+/*
+* take 3 snapshots from vm's root volume, then update, revert and delete them
+* confirm the cached snapshot tree is always the same as the one in the database
+*/
+public class TestSnapshotTreeCache {
+    CLogger logger = Utils.getLogger(TestSnapshotTreeCache.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    SessionInventory session;
+    VolumeSnapshotTreeCache treeCache;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/kvm/TestCreateVmOnKvm.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        treeCache = loader.getComponent(VolumeSnapshotTreeCache.class);
+        session = api.loginAsAdmin();
+    }
+
+    private void assertSameAsDatabase(String treeUuid, String volUuid) {
+        SimpleQuery<VolumeSnapshotVO> q = dbf.createQuery(VolumeSnapshotVO.class);
+        q.add(VolumeSnapshotVO_.treeUuid, SimpleQuery.Op.EQ, treeUuid);
+        List<VolumeSnapshotVO> vos = q.list();
+
+        VolumeSnapshotTree tree = treeCache.getTree(treeUuid, volUuid);
+        for (final VolumeSnapshotVO vo : vos) {
+            SnapshotLeaf leaf = tree.findSnapshot(new Function<Boolean, VolumeSnapshotInventory>() {
+                @Override
+                public Boolean call(VolumeSnapshotInventory arg) {
+                    return arg.getUuid().equals(vo.getUuid());
+                }
+            });
+
+            Assert.assertNotNull(leaf);
+            VolumeSnapshotInventory inv = leaf.getInventory();
+            Assert.assertEquals(vo.getName(), inv.getName());
+            Assert.assertEquals(vo.getStatus().toString(), inv.getStatus());
+            Assert.assertEquals(vo.isLatest(), inv.isLatest());
+            Assert.assertEquals(vo.getParentUuid(), inv.getParentUuid());
+            Assert.assertEquals(vo.getPrimaryStorageInstallPath(), inv.getPrimaryStorageInstallPath());
+        }
+
+        Assert.assertEquals(vos.size(), tree.getRoot().getDescendants().size());
+    }
+
+	@Test
+	public void test() throws ApiSenderException {
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        String volUuid = vm.getRootVolumeUuid();
+        VolumeSnapshotInventory root = api.createSnapshot(volUuid);
+        String treeUuid = root.getTreeUuid();
+        // load the tree into the cache
+        assertSameAsDatabase(treeUuid, volUuid);
+
+        VolumeSnapshotInventory sp1 = api.createSnapshot(volUuid);
+        VolumeSnapshotInventory sp2 = api.createSnapshot(volUuid);
+        assertSameAsDatabase(treeUuid, volUuid);
+
+        sp1.setName("sp1");
+        api.updateVolumeSnapshot(sp1);
+        assertSameAsDatabase(treeUuid, volUuid);
+
+        api.stopVmInstance(vm.getUuid());
+        api.revertVolumeToSnapshot(sp1.getUuid());
+        assertSameAsDatabase(treeUuid, volUuid);
+
+        api.deleteSnapshot(sp2.getUuid());
+        Assert.assertFalse(dbf.isExist(sp2.getUuid(), VolumeSnapshotVO.class));
+        assertSameAsDatabase(treeUuid, volUuid);
+
+        api.createSnapshot(volUuid);
+        assertSameAsDatabase(treeUuid, volUuid);
+
+        api.deleteSnapshot(sp1.getUuid());
+        Assert.assertFalse(dbf.isExist(sp1.getUuid(), VolumeSnapshotVO.class));
+        assertSameAsDatabase(treeUuid, volUuid);
+    }
+}
@@ -0,0 +1,74 @@
+package org.zstack.test.tag;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.tag.TagDefinition;
+import org.zstack.header.tag.TagInventory;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.tag.PatternedSystemTag;
+import org.zstack.tag.TagManager;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * confirm lookups served by the system tag index see tags created, updated and deleted
+ */
+public class TestSystemTagIndex {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    TagManager tagMgr;
+    SessionInventory session;
+
+    @TagDefinition
+    public static class TestSystemTags {
+        public static String SIZE_TOKEN = "size";
+        public static PatternedSystemTag size = new PatternedSystemTag(String.format("size::{%s}", SIZE_TOKEN), ZoneVO.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/tag/TestUserTag.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        tagMgr = loader.getComponent(TagManager.class);
+        session = api.loginAsAdmin();
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        ZoneInventory zone1 = deployer.zones.get("Zone1");
+        // caches that the zone has no tag
+        Assert.assertFalse(TestSystemTags.size.hasTag(zone1.getUuid()));
+
+        TagInventory inv = api.createSystemTag(zone1.getUuid(), "size::10", ZoneVO.class);
+        Assert.assertTrue(TestSystemTags.size.hasTag(zone1.getUuid()));
+        Assert.assertEquals("10", TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), TestSystemTags.SIZE_TOKEN));
+        Assert.assertEquals(1, TestSystemTags.size.getTags(list(zone1.getUuid())).get(zone1.getUuid()).size());
+        Assert.assertTrue(tagMgr.hasSystemTag(zone1.getUuid(), "size::10"));
+
+        api.updateSystemTag(inv.getUuid(), "size::20", session);
+        Assert.assertEquals("20", TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), TestSystemTags.SIZE_TOKEN));
+        Assert.assertFalse(tagMgr.hasSystemTag(zone1.getUuid(), "size::10"));
+
+        api.deleteTag(inv.getUuid());
+        Assert.assertFalse(TestSystemTags.size.hasTag(zone1.getUuid()));
+        Assert.assertNull(TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), TestSystemTags.SIZE_TOKEN));
+    }
+}
@@ -1,5 +1,6 @@
 package org.zstack.test.utils;
 
+import junit.framework.Assert;
 import org.junit.Test;
 import org.mvel2.MVEL;
 import org.zstack.core.Platform;
@@ -110,4 +111,24 @@ public class TestJsonSchema {
         nic1 = (VmNicInventory) MVEL.eval("b.vm.vmNics[0]", a);
         System.out.println(nic1.getInternalName());
     }
+
+    @Test
+    public void testOnlyPolymorphicObjectsInSchema() {
+        A a = new A();
+        a.zone = new ZoneInventory();
+        a.clusters = new ArrayList<ClusterInventory>();
+        a.clusters.add(new ClusterInventory());
+        a.b = new B();
+        a.b.sftps.add(new BackupStorageInventory());
+        a.b.sftps.add(new SftpBackupStorageInventory());
+
+        Map<String, List<String>> schema = MessageJsonSchemaBuilder.buildSchema(a);
+        Assert.assertEquals(1, schema.size());
+        List<String> paths = schema.get(SftpBackupStorageInventory.class.getName());
+        Assert.assertEquals(1, paths.size());
+        Assert.assertEquals("b.sftps[1]", paths.get(0));
+
+        // the plan is cached per class, a second walk must give the same answer
+        Assert.assertEquals(schema, MessageJsonSchemaBuilder.buildSchema(a));
+    }
 }
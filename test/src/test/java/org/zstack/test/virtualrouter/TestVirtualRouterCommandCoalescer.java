@@ -0,0 +1,117 @@
+package org.zstack.test.virtualrouter;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.message.MessageReply;
+import org.zstack.network.service.virtualrouter.*;
+import org.zstack.network.service.virtualrouter.VirtualRouterCommands.*;
+import org.zstack.simulator.virtualrouter.VirtualRouterSimulatorConfig;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. send 5 dhcp entries to the virtual router within the coalesce window
+ *
+ * confirm they are delivered in one command and every caller succeeds
+ *
+ * 2. make the agent fail adding dhcp entries and send 3 entries
+ *
+ * confirm the failed batch is re-sent entry by entry and every caller gets the failure
+ */
+public class TestVirtualRouterCommandCoalescer {
+    CLogger logger = Utils.getLogger(TestVirtualRouterCommandCoalescer.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    SessionInventory session;
+    VirtualRouterSimulatorConfig vconfig;
+    VirtualRouterCommandCoalescer coalescer;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/virtualRouter/TestVirtualRouterDhcp.xml", con);
+        deployer.addSpringConfig("NetworkService.xml");
+        deployer.addSpringConfig("VirtualRouter.xml");
+        deployer.addSpringConfig("VirtualRouterSimulator.xml");
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        vconfig = loader.getComponent(VirtualRouterSimulatorConfig.class);
+        coalescer = loader.getComponent(VirtualRouterCommandCoalescer.class);
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        session = api.loginAsAdmin();
+    }
+
+    private int addDhcpEntries(String vrUuid, int num) throws InterruptedException {
+        VirtualRouterCommandCoalescer.CommandBuilder<DhcpInfo> builder = new VirtualRouterCommandCoalescer.CommandBuilder<DhcpInfo>() {
+            @Override
+            public AgentCommand buildCommand(List<DhcpInfo> items) {
+                AddDhcpEntryCmd cmd = new AddDhcpEntryCmd();
+                cmd.setDhcpEntries(items);
+                return cmd;
+            }
+        };
+
+        final CountDownLatch latch = new CountDownLatch(num);
+        final AtomicInteger success = new AtomicInteger(0);
+        for (int i = 0; i < num; i++) {
+            DhcpInfo info = new DhcpInfo();
+            info.setMac(String.format("fa:16:3e:00:00:%02x", i));
+            info.setIp(String.format("10.0.0.%s", i + 10));
+            coalescer.send(vrUuid, VirtualRouterConstant.VR_ADD_DHCP_PATH, info, builder, new CloudBusCallBack() {
+                @Override
+                public void run(MessageReply reply) {
+                    if (reply.isSuccess()) {
+                        VirtualRouterAsyncHttpCallReply re = reply.castReply();
+                        if (re.toResponse(AddDhcpEntryRsp.class).isSuccess()) {
+                            success.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        return success.get();
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        VirtualRouterGlobalConfig.COMMAND_COALESCE_WINDOW.updateValue(500);
+        String vrUuid = dbf.listAll(VirtualRouterVmVO.class).get(0).getUuid();
+
+        vconfig.addDhcpEntryCmds.clear();
+        Assert.assertEquals(5, addDhcpEntries(vrUuid, 5));
+        Assert.assertEquals(1, vconfig.addDhcpEntryCmds.size());
+        Assert.assertEquals(5, vconfig.addDhcpEntryCmds.get(0).getDhcpEntries().size());
+
+        vconfig.setDhcpEntrySuccess = false;
+        vconfig.addDhcpEntryCmds.clear();
+        Assert.assertEquals(0, addDhcpEntries(vrUuid, 3));
+        Assert.assertEquals(4, vconfig.addDhcpEntryCmds.size());
+        Assert.assertEquals(3, vconfig.addDhcpEntryCmds.get(0).getDhcpEntries().size());
+    }
+}